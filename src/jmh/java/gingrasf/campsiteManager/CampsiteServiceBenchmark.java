@@ -0,0 +1,142 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.CampsiteAvailability;
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.User;
+import gingrasf.campsiteManager.persistence.StripedDateLockRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static gingrasf.campsiteManager.CampsiteReservationValidator.DEFAULT_MAX_AVAILABILITY_WINDOW;
+import static gingrasf.campsiteManager.TestUtil.buildValidUser;
+
+/**
+ * Measures the throughput of the availability, reservation and move paths of the {@link CampsiteService}, with the
+ * reservations kept in memory and the in-process date locks, so only the service itself is measured.
+ *
+ * The stored reservations are shared by a few sites, each with one night out of two reserved from tomorrow on, so storing
+ * more reservations means more reservations on the site queried, reaching further ahead. Within the horizon of the
+ * {@link OccupancyIndex} the sites look the same whatever the number stored, so the availability, which is answered by the
+ * index, shouldn't depend on it. The create and move paths check the nights against the repository, whose overlap query
+ * reads every reservation of the site ending after the first night like the Mongo index, so they do.
+ *
+ * Each invocation works on a random site. A reservation created is cancelled right away and a moved reservation goes back
+ * and forth by a night, so the campsite looks the same from one invocation to the next.
+ *
+ * This is not part of the regular build, use mvn -Pjmh test to run it. The gc profiler reports the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CampsiteServiceBenchmark {
+
+    private static final int SITES = 8;
+    private static final int LAST_FREE_OFFSET = 25;
+
+    @Param({"1000", "100000"})
+    int storedReservations;
+
+    private CampsiteService service;
+    private List<String> siteIds;
+    private boolean[] moved;
+    private LocalDate tomorrow;
+    private User user;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        siteIds = IntStream.range(0, SITES).mapToObj(site -> "site-" + site).collect(Collectors.toList());
+        moved = new boolean[SITES];
+        tomorrow = LocalDate.now().plusDays(1);
+        user = buildValidUser();
+
+        final InMemoryCampsiteRepository repository = new InMemoryCampsiteRepository();
+        for (int i = 0; i < storedReservations; i++) {
+            final LocalDate night = tomorrow.plusDays(2 * (i / SITES));
+            repository.save(CampsiteReservation.builder()
+                    .id(reservationId(i % SITES, i / SITES))
+                    .siteId(siteIds.get(i % SITES))
+                    .user(user)
+                    .startDate(night)
+                    .endDate(night.plusDays(1))
+                    .build());
+        }
+        final OccupancyIndex occupancyIndex = new OccupancyIndex(repository);
+        final CampsiteReservationValidator validator = new CampsiteReservationValidator(DEFAULT_MAX_AVAILABILITY_WINDOW, siteIds, 0);
+        service = new CampsiteService(repository, new StripedDateLockRepository(64, Duration.ofMillis(500)), validator, occupancyIndex, new CampsiteMetrics(new SimpleMeterRegistry()));
+        // The index loads a site the first time it is used, which is not what is measured
+        siteIds.forEach(siteId -> occupancyIndex.isReserved(siteId, tomorrow));
+    }
+
+    /**
+     * Only the availability depends on the width of the period queried, so the other benchmarks don't run for each width.
+     */
+    @State(Scope.Benchmark)
+    public static class Query {
+
+        @Param({"7", "30", "366"})
+        int queryWidthDays;
+    }
+
+    @Benchmark
+    public CampsiteAvailability availability(Query query) {
+        return service.getAvailabilityBetween(randomSite(), tomorrow, tomorrow.plusDays(query.queryWidthDays));
+    }
+
+    /**
+     * Reserves one of the free nights of the coming month, then cancels it.
+     */
+    @Benchmark
+    public CampsiteReservation createAndCancel() {
+        final String siteId = randomSite();
+        final LocalDate night = tomorrow.plusDays(2 * random.nextInt(1, LAST_FREE_OFFSET / 2 + 1) + 1);
+        final CampsiteReservation reservation = service.createReservation(siteId, user, night, night.plusDays(1));
+        service.deleteReservation(siteId, reservation.getId());
+        return reservation;
+    }
+
+    /**
+     * Moves the first reservation of the site to the free night after it, or back.
+     */
+    @Benchmark
+    public CampsiteReservation move() {
+        final int site = random.nextInt(siteIds.size());
+        final LocalDate start = moved[site] ? tomorrow : tomorrow.plusDays(1);
+        moved[site] = !moved[site];
+        return service.updateReservation(siteIds.get(site), reservationId(site, 0), CampsiteReservation.builder()
+                .user(user)
+                .startDate(start)
+                .endDate(start.plusDays(1))
+                .build());
+    }
+
+    private String randomSite() {
+        return siteIds.get(random.nextInt(siteIds.size()));
+    }
+
+    private static String reservationId(int site, int night) {
+        return "site-" + site + "-" + night;
+    }
+}
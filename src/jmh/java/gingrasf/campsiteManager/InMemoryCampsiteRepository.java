@@ -0,0 +1,203 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.ReservationCursor;
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps the reservations in memory only, so the benchmarks measure the service rather than Mongo. Like the overlap index
+ * the reservations of each site are kept by end date, and like Mongo every reservation handed out is a copy.
+ */
+class InMemoryCampsiteRepository implements CampsiteRepository {
+
+    private final Map<String, CampsiteReservation> reservationsById = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<LocalDate, Map<String, CampsiteReservation>>> reservationsBySiteAndEndDate = new ConcurrentHashMap<>();
+
+    @Override
+    public synchronized <S extends CampsiteReservation> S save(S entity) {
+        final CampsiteReservation reservation = copyOf(entity);
+        final CampsiteReservation previous = reservationsById.put(reservation.getId(), reservation);
+        if (previous != null) {
+            remove(previous);
+        }
+        reservationsBySiteAndEndDate.computeIfAbsent(reservation.getSiteId(), site -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(reservation.getEndDate(), endDate -> new ConcurrentHashMap<>())
+                .put(reservation.getId(), reservation);
+        return entity;
+    }
+
+    @Override
+    public <S extends CampsiteReservation> Iterable<S> saveAll(Iterable<S> entities) {
+        entities.forEach(this::save);
+        return entities;
+    }
+
+    @Override
+    public Optional<CampsiteReservation> findById(String id) {
+        return Optional.ofNullable(reservationsById.get(id)).map(InMemoryCampsiteRepository::copyOf);
+    }
+
+    @Override
+    public boolean existsById(String id) {
+        return reservationsById.containsKey(id);
+    }
+
+    @Override
+    public Iterable<CampsiteReservation> findAll() {
+        return reservationsById.values().stream().map(InMemoryCampsiteRepository::copyOf).collect(toList());
+    }
+
+    @Override
+    public Iterable<CampsiteReservation> findAllById(Iterable<String> ids) {
+        return StreamSupport.stream(ids.spliterator(), false)
+                .map(reservationsById::get)
+                .filter(reservation -> reservation != null)
+                .map(InMemoryCampsiteRepository::copyOf)
+                .collect(toList());
+    }
+
+    @Override
+    public long count() {
+        return reservationsById.size();
+    }
+
+    @Override
+    public void deleteById(String id) {
+        final CampsiteReservation reservation = reservationsById.get(id);
+        if (reservation != null) {
+            delete(reservation);
+        }
+    }
+
+    @Override
+    public synchronized void delete(CampsiteReservation entity) {
+        final CampsiteReservation reservation = reservationsById.remove(entity.getId());
+        if (reservation != null) {
+            remove(reservation);
+        }
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends CampsiteReservation> entities) {
+        entities.forEach(this::delete);
+    }
+
+    @Override
+    public synchronized void deleteAll() {
+        reservationsById.clear();
+        reservationsBySiteAndEndDate.clear();
+    }
+
+    @Override
+    public synchronized boolean move(CampsiteReservation reservation, LocalDate startDate, LocalDate endDate) {
+        final CampsiteReservation current = reservationsById.get(reservation.getId());
+        if (current == null || !current.getStartDate().equals(reservation.getStartDate()) || !current.getEndDate().equals(reservation.getEndDate())) {
+            return false;
+        }
+        final CampsiteReservation moved = copyOf(current);
+        moved.setStartDate(startDate);
+        moved.setEndDate(endDate);
+        save(moved);
+        return true;
+    }
+
+    @Override
+    public synchronized Optional<CampsiteReservation> cancel(String id) {
+        final CampsiteReservation reservation = reservationsById.remove(id);
+        if (reservation == null) {
+            return Optional.empty();
+        }
+        remove(reservation);
+        return Optional.of(copyOf(reservation));
+    }
+
+    @Override
+    public List<CampsiteReservation> findOverlapping(String siteId, LocalDate from, LocalDate until) {
+        return bySite(siteId).tailMap(from, false).values().stream()
+                .flatMap(reservations -> reservations.values().stream())
+                .filter(reservation -> reservation.getStartDate().isBefore(until))
+                .map(InMemoryCampsiteRepository::copyOf)
+                .collect(toList());
+    }
+
+    @Override
+    public List<CampsiteReservation> findBySiteId(String siteId) {
+        return inPageOrder(siteId, null, null).collect(toList());
+    }
+
+    @Override
+    public List<CampsiteReservation> findBySiteIdAndUserEmailOrderByStartDateAsc(String siteId, String email) {
+        return inPageOrder(siteId, null, null)
+                .filter(reservation -> email.equals(reservation.getUser().getEmail()))
+                .collect(toList());
+    }
+
+    @Override
+    public long countByUserEmailAndEndDateAfter(String email, LocalDate date) {
+        return reservationsById.values().stream()
+                .filter(reservation -> email.equals(reservation.getUser().getEmail()) && reservation.getEndDate().isAfter(date))
+                .count();
+    }
+
+    @Override
+    public List<CampsiteReservation> findPage(String siteId, LocalDate from, LocalDate until, ReservationCursor after, int limit) {
+        return inPageOrder(siteId, from, until)
+                .filter(reservation -> after == null || isAfter(reservation, after))
+                .limit(limit)
+                .collect(toList());
+    }
+
+    @Override
+    public Stream<CampsiteReservation> streamAll(String siteId, LocalDate from, LocalDate until) {
+        return inPageOrder(siteId, from, until);
+    }
+
+    private NavigableMap<LocalDate, Map<String, CampsiteReservation>> bySite(String siteId) {
+        return reservationsBySiteAndEndDate.getOrDefault(siteId, Collections.emptyNavigableMap());
+    }
+
+    private Stream<CampsiteReservation> inPageOrder(String siteId, LocalDate from, LocalDate until) {
+        return bySite(siteId).values().stream()
+                .flatMap(reservations -> reservations.values().stream())
+                .filter(reservation -> from == null || !reservation.getStartDate().isBefore(from))
+                .filter(reservation -> until == null || reservation.getStartDate().isBefore(until))
+                .sorted(Comparator.comparing(CampsiteReservation::getStartDate).thenComparing(CampsiteReservation::getId))
+                .map(InMemoryCampsiteRepository::copyOf);
+    }
+
+    private static boolean isAfter(CampsiteReservation reservation, ReservationCursor cursor) {
+        final int byStartDate = reservation.getStartDate().compareTo(cursor.getStartDate());
+        return byStartDate > 0 || (byStartDate == 0 && reservation.getId().compareTo(cursor.getId()) > 0);
+    }
+
+    private void remove(CampsiteReservation reservation) {
+        final Map<String, CampsiteReservation> sameEndDate = bySite(reservation.getSiteId()).get(reservation.getEndDate());
+        if (sameEndDate != null) {
+            sameEndDate.remove(reservation.getId());
+        }
+    }
+
+    private static CampsiteReservation copyOf(CampsiteReservation reservation) {
+        return CampsiteReservation.builder()
+                .id(reservation.getId())
+                .siteId(reservation.getSiteId())
+                .user(reservation.getUser())
+                .startDate(reservation.getStartDate())
+                .endDate(reservation.getEndDate())
+                .build();
+    }
+}
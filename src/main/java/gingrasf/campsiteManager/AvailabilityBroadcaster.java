@@ -0,0 +1,215 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.AvailabilityDelta;
+import gingrasf.campsiteManager.model.AvailabilityFormat;
+import gingrasf.campsiteManager.model.CachedAvailability;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Streams the availability of a period of a site as server-sent events: a snapshot event with the {@link
+ * gingrasf.campsiteManager.model.CampsiteAvailability availability} of the period, then a delta event every time days of the period change.
+ *
+ * The subscribers don't have a thread each, their emitters only hold an async request. The changes of a subscriber are
+ * merged per day until the next flush, so a burst of reservations ends up in one event. A subscriber is never sent two
+ * events at the same time: while a slow client is still receiving an event its changes keep being merged, and it is
+ * dropped once it is stuck in a single send for longer than the stall timeout, to reconnect and get a fresh snapshot.
+ *
+ * The sends are never queued behind each other. A send starts right away on a free sender thread, and when all of them
+ * are busy with slow clients the subscriber keeps its changes merged until a later flush. A dropped subscriber still holds
+ * its thread until the write to its connection times out, so the number of sender threads is bounded.
+ *
+ * The subscribers are kept per site, so a change is only merged into the subscribers of its own site.
+ *
+ * The changes come from the {@link OccupancyIndex}, so the reservations made through the other instances are streamed once
+ * the index reloads their site.
+ */
+public class AvailabilityBroadcaster {
+
+    private static final int SENDER_THREADS = 4;
+    private static final int MAX_SENDER_THREADS = 64;
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    /**
+     * Number of flush intervals a subscriber can spend receiving a single event before it is dropped.
+     */
+    private static final int STALLED_FLUSHES = 50;
+
+    private final AvailabilityCache availabilityCache;
+    private final Duration emitterTimeout;
+    private final long stallTimeoutNanos;
+    private final Map<String, Set<Subscriber>> subscribersBySite = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(daemonThreads("availability-flusher"));
+    private final ExecutorService senders = new ThreadPoolExecutor(SENDER_THREADS, MAX_SENDER_THREADS, 1, TimeUnit.MINUTES,
+            new SynchronousQueue<>(), daemonThreads("availability-sender"));
+
+    public AvailabilityBroadcaster(OccupancyIndex occupancyIndex, AvailabilityCache availabilityCache, Duration flushInterval, Duration emitterTimeout) {
+        this.availabilityCache = availabilityCache;
+        this.emitterTimeout = emitterTimeout;
+        this.stallTimeoutNanos = flushInterval.multipliedBy(STALLED_FLUSHES).toNanos();
+        occupancyIndex.addChangeListener(this::onChange);
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public SseEmitter subscribe(String siteId, LocalDate from, LocalDate until) throws IOException {
+        final SseEmitter emitter = new SseEmitter(emitterTimeout.toMillis());
+        subscribe(emitter, siteId, from, until);
+        return emitter;
+    }
+
+    /**
+     * The subscriber is registered before computing the snapshot so no change can fall between the two, and it is
+     * flagged as sending until the snapshot is sent so no delta can come first. A change already in the snapshot may
+     * then come again in the first delta, which is harmless since a delta holds the new state of the days.
+     */
+    void subscribe(SseEmitter emitter, String siteId, LocalDate from, LocalDate until) throws IOException {
+        final Subscriber subscriber = new Subscriber(emitter, siteId, from, until);
+        subscriber.sendStartedAt = System.nanoTime();
+        subscriber.sending.set(true);
+        subscribersBySite.computeIfAbsent(siteId, site -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        try {
+            final CachedAvailability snapshot = availabilityCache.getAvailabilityBetween(siteId, from, until, AvailabilityFormat.DATES);
+            emitter.send(SseEmitter.event().name("snapshot").data(snapshot.getJson(), MediaType.APPLICATION_JSON));
+        } catch (IOException | RuntimeException e) {
+            remove(subscriber);
+            throw e;
+        } finally {
+            subscriber.sending.set(false);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribersBySite.values().stream().mapToInt(Set::size).sum();
+    }
+
+    public void shutdown() {
+        flusher.shutdownNow();
+        senders.shutdownNow();
+        subscribersBySite.values().forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    private void onChange(String siteId, LocalDate startDate, LocalDate endDate, boolean reserved) {
+        for (Subscriber subscriber : subscribersBySite.getOrDefault(siteId, Collections.emptySet())) {
+            subscriber.merge(startDate, endDate, reserved);
+        }
+    }
+
+    /**
+     * The set of a site is kept once empty, there is at most one per site of the park.
+     */
+    private void remove(Subscriber subscriber) {
+        subscribersBySite.getOrDefault(subscriber.siteId, Collections.emptySet()).remove(subscriber);
+    }
+
+    /**
+     * Package-private so the tests don't have to wait for the next flush.
+     */
+    void flush() {
+        final long now = System.nanoTime();
+        for (Set<Subscriber> subscribers : subscribersBySite.values()) {
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.sending.get()) {
+                    final long sendStartedAt = subscriber.sendStartedAt;
+                    if (sendStartedAt != NOT_STARTED && now - sendStartedAt > stallTimeoutNanos) {
+                        subscribers.remove(subscriber);
+                        subscriber.emitter.complete();
+                    }
+                } else if (subscriber.hasChanges() && subscriber.sending.compareAndSet(false, true)) {
+                    subscriber.sendStartedAt = NOT_STARTED;
+                    try {
+                        senders.execute(() -> send(subscriber));
+                    } catch (RejectedExecutionException e) {
+                        // Every sender is busy, the changes stay merged until a later flush
+                        subscriber.sending.set(false);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The stall timeout runs from here rather than from the flush, so only the time spent writing to the client counts.
+     */
+    private void send(Subscriber subscriber) {
+        subscriber.sendStartedAt = System.nanoTime();
+        try {
+            subscriber.emitter.send(SseEmitter.event().name("delta").data(subscriber.drain(), MediaType.APPLICATION_JSON));
+        } catch (IOException | RuntimeException e) {
+            remove(subscriber);
+            subscriber.emitter.completeWithError(e);
+        } finally {
+            subscriber.sending.set(false);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Subscriber {
+
+        private final SseEmitter emitter;
+        private final String siteId;
+        private final LocalDate from;
+        private final LocalDate until;
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private volatile long sendStartedAt;
+        private Map<LocalDate, Boolean> reservedByDay = new TreeMap<>();
+
+        private Subscriber(SseEmitter emitter, String siteId, LocalDate from, LocalDate until) {
+            this.emitter = emitter;
+            this.siteId = siteId;
+            this.from = from;
+            this.until = until;
+        }
+
+        /**
+         * Only the days inside the subscribed period are kept, so the pending changes never outgrow the period.
+         */
+        synchronized void merge(LocalDate startDate, LocalDate endDate, boolean reserved) {
+            final LocalDate end = endDate.isBefore(until) ? endDate : until;
+            for (LocalDate day = startDate.isAfter(from) ? startDate : from; day.isBefore(end); day = day.plusDays(1)) {
+                reservedByDay.put(day, reserved);
+            }
+        }
+
+        synchronized boolean hasChanges() {
+            return !reservedByDay.isEmpty();
+        }
+
+        synchronized AvailabilityDelta drain() {
+            final Map<LocalDate, Boolean> changes = reservedByDay;
+            reservedByDay = new TreeMap<>();
+            return AvailabilityDelta.builder()
+                    .availableDates(changes.entrySet().stream().filter(change -> !change.getValue()).map(Map.Entry::getKey).collect(toList()))
+                    .reservedDates(changes.entrySet().stream().filter(Map.Entry::getValue).map(Map.Entry::getKey).collect(toList()))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package gingrasf.campsiteManager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gingrasf.campsiteManager.model.AvailabilityFormat;
+import gingrasf.campsiteManager.model.CachedAvailability;
+import gingrasf.campsiteManager.model.CampsiteAvailability;
+import org.springframework.util.DigestUtils;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the serialized availability of each searched site, period and format, since it only changes when a reservation is created, moved
+ * or cancelled. An entry is recomputed as soon as the version of the site in the {@link OccupancyIndex} changes, which the write
+ * methods of the {@link CampsiteService} bump, so a reservation only invalidates the entries of its own site.
+ *
+ * The reservations made through the other instances only bump the version once the index reloads the site, so the entries
+ * also expire after a while.
+ *
+ * The ETag is a hash of the JSON rather than the version itself: the versions of two instances have nothing in common,
+ * while the same availability always gets the same ETag whichever instance answers.
+ */
+public class AvailabilityCache {
+
+    static final int MAX_ENTRIES = 1024;
+
+    private final CampsiteService campsiteService;
+    private final OccupancyIndex occupancyIndex;
+    private final ObjectMapper objectMapper;
+    private final Duration maxAge;
+    private final Map<List<Object>, CachedAvailability> entries = new ConcurrentHashMap<>();
+
+    public AvailabilityCache(CampsiteService campsiteService, OccupancyIndex occupancyIndex, ObjectMapper objectMapper, Duration maxAge) {
+        this.campsiteService = campsiteService;
+        this.occupancyIndex = occupancyIndex;
+        this.objectMapper = objectMapper;
+        this.maxAge = maxAge;
+    }
+
+    public CachedAvailability getAvailabilityBetween(String siteId, LocalDate from, LocalDate until, AvailabilityFormat format) {
+        final List<Object> period = Arrays.asList(siteId, from, until, format);
+        // Read before computing: a reservation made meanwhile leaves an entry of the old version, recomputed on the next call
+        final long version = occupancyIndex.getVersion(siteId);
+        final CachedAvailability cached = entries.get(period);
+        if (cached != null && cached.getVersion() == version && cached.getComputedAt().plus(maxAge).isAfter(Instant.now())) {
+            return cached;
+        }
+        final CachedAvailability computed = serialize(version, campsiteService.getAvailabilityBetween(siteId, from, until, format));
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+        entries.put(period, computed);
+        return computed;
+    }
+
+    private CachedAvailability serialize(long version, CampsiteAvailability availability) {
+        try {
+            final String json = objectMapper.writeValueAsString(availability);
+            return CachedAvailability.builder()
+                    .version(version)
+                    .json(json)
+                    .etag("\"" + DigestUtils.md5DigestAsHex(json.getBytes(StandardCharsets.UTF_8)) + "\"")
+                    .computedAt(Instant.now())
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,8 +1,23 @@
 package gingrasf.campsiteManager;
 
+import gingrasf.campsiteManager.model.AdmissionStats;
+import gingrasf.campsiteManager.model.AvailabilityDelta;
+import gingrasf.campsiteManager.model.AvailabilityFormat;
+import gingrasf.campsiteManager.model.BatchAvailability;
+import gingrasf.campsiteManager.model.BulkReservation;
+import gingrasf.campsiteManager.model.CachedAvailability;
 import gingrasf.campsiteManager.model.CampsiteAvailability;
 import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.DateRange;
+import gingrasf.campsiteManager.model.ReservationCursor;
+import gingrasf.campsiteManager.model.ReservationPage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.annotation.Profile;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -10,49 +25,219 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import javax.validation.Valid;
+import java.io.IOException;
 import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+import static java.lang.String.format;
 import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.joining;
 
+/**
+ * Every path exists with and without a site: /campsite/{siteId}/... works on the given campsite, while the paths without
+ * a site work on the {@link CampsiteService#DEFAULT_SITE_ID default} one, as they did when there was a single campsite.
+ *
+ * Creating or updating a reservation with an Idempotency-Key header is only processed once per key, a retry with the
+ * same key gets the response of the first attempt.
+ *
+ * With the reactive profile the {@link ReactiveCampsiteManagerController} takes over.
+ */
 @RestController
 @RequestMapping("/campsite")
+@Profile("!reactive")
 public class CampsiteManagerController {
 
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
     private final CampsiteService campsiteService;
+    private final AvailabilityCache availabilityCache;
+    private final AvailabilityBroadcaster availabilityBroadcaster;
+    private final IdempotentRequests idempotentRequests;
+    private final ObjectMapper objectMapper;
 
 
-    public CampsiteManagerController(CampsiteService campsiteService) {
+    public CampsiteManagerController(CampsiteService campsiteService, AvailabilityCache availabilityCache, AvailabilityBroadcaster availabilityBroadcaster, IdempotentRequests idempotentRequests, ObjectMapper objectMapper) {
         this.campsiteService = campsiteService;
+        this.availabilityCache = availabilityCache;
+        this.availabilityBroadcaster = availabilityBroadcaster;
+        this.idempotentRequests = idempotentRequests;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * The body is the JSON of a {@link CampsiteAvailability}. It comes with an ETag, so a client polling with
+     * If-None-Match gets a 304 as long as the availability didn't change.
+     *
+     * The format selects how the available dates are listed: dates (the default), ranges or bitmap.
+     */
+    @GetMapping(value = {"/availability", "/{siteId}/availability"}, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<String> getAvailability(@PathVariable(name = "siteId", required = false) String siteId,
+                                                  @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                  @RequestParam(name = "until", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate until,
+                                                  @RequestParam(name = "format", required = false, defaultValue = "dates") String format,
+                                                  WebRequest request) {
+        final CachedAvailability availability = availabilityCache.getAvailabilityBetween(siteOrDefault(siteId), ofNullable(from).orElse(LocalDate.now()), ofNullable(until).orElse(LocalDate.now().plusMonths(1)), AvailabilityFormat.fromValue(format));
+        if (request.checkNotModified(availability.getEtag())) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(availability.getEtag()).body(availability.getJson());
     }
 
-    @GetMapping("/availability")
-    public CampsiteAvailability getAvailability(@RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
-                                                @RequestParam(name = "until", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate until) {
-        return campsiteService.getAvailabilityBetween(ofNullable(from).orElse(LocalDate.now()), ofNullable(until).orElse(LocalDate.now().plusMonths(1)));
+    /**
+     * The body is the list of ranges to query, each answered with its availability or with the reason it can't be
+     * queried. The format works as for a single range.
+     */
+    @PostMapping({"/availability/batch", "/{siteId}/availability/batch"})
+    public List<BatchAvailability> getBatchAvailability(@PathVariable(name = "siteId", required = false) String siteId,
+                                                        @RequestBody List<DateRange> ranges,
+                                                        @RequestParam(name = "format", required = false, defaultValue = "dates") String format) {
+        return campsiteService.getAvailabilityBetween(siteOrDefault(siteId), ranges, AvailabilityFormat.fromValue(format));
     }
 
-    @PutMapping("/reservation")
+    /**
+     * The earliest stays of the given number of nights that are free and can be reserved, in chronological order.
+     */
+    @GetMapping({"/availability/windows", "/{siteId}/availability/windows"})
+    public List<DateRange> getFreeWindows(@PathVariable(name = "siteId", required = false) String siteId,
+                                          @RequestParam(name = "nights") int nights,
+                                          @RequestParam(name = "limit", required = false, defaultValue = "5") int limit) {
+        return campsiteService.findFreeWindows(siteOrDefault(siteId), nights, limit);
+    }
+
+    /**
+     * Server-sent events: a snapshot event holding the JSON of a {@link CampsiteAvailability}, then a delta event holding
+     * the JSON of an {@link AvailabilityDelta} whenever days of the period are reserved or freed.
+     */
+    @GetMapping(value = {"/availability/stream", "/{siteId}/availability/stream"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAvailability(@PathVariable(name = "siteId", required = false) String siteId,
+                                         @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                         @RequestParam(name = "until", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate until) throws IOException {
+        return availabilityBroadcaster.subscribe(siteOrDefault(siteId), ofNullable(from).orElse(LocalDate.now()), ofNullable(until).orElse(LocalDate.now().plusMonths(1)));
+    }
+
+    /**
+     * How many reservations in conflict were rejected by the pre-check of this instance, and how many only after locking
+     * or claiming their nights.
+     */
+    @GetMapping("/stats/admission")
+    public AdmissionStats getAdmissionStats() {
+        return campsiteService.getAdmissionStats();
+    }
+
+    @PutMapping({"/reservation", "/{siteId}/reservation"})
     @Transactional
-    public String createReservation(@Valid @RequestBody CampsiteReservation reservation) {
-        return campsiteService.createReservation(reservation.getUser(), reservation.getStartDate(), reservation.getEndDate()).getId();
+    public ResponseEntity<String> createReservation(@PathVariable(name = "siteId", required = false) String siteId,
+                                                    @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                                    @Valid @RequestBody CampsiteReservation reservation) {
+        return idempotently(idempotencyKey, fingerprint("create", siteOrDefault(siteId), null, reservation),
+                () -> ResponseEntity.ok(campsiteService.createReservation(siteOrDefault(siteId), reservation.getUser(), reservation.getStartDate(), reservation.getEndDate()).getId()));
+    }
+
+    /**
+     * The body is the list of reservations to create, each answered with the id of the created reservation or with the
+     * reason it could not be made.
+     */
+    @PutMapping({"/reservation/bulk", "/{siteId}/reservation/bulk"})
+    public List<BulkReservation> createReservations(@PathVariable(name = "siteId", required = false) String siteId, @RequestBody List<CampsiteReservation> reservations) {
+        return campsiteService.createReservations(siteOrDefault(siteId), reservations);
     }
-    @GetMapping("/reservation")
-    public Iterable<CampsiteReservation> getAllReservations() {
-        return campsiteService.getAllReservation();
+
+    /**
+     * The reservations starting in [from, until), in (startDate, id) order, a page at a time. The body stays the list of
+     * the reservations of the page; when more may follow, a Link header with rel="next" gives the URL of the next page,
+     * where the cursor parameter is an opaque token for where that page starts.
+     *
+     * With an email, the body is every reservation of that user instead, by start date and without pages.
+     */
+    @GetMapping({"/reservation", "/{siteId}/reservation"})
+    public ResponseEntity<List<CampsiteReservation>> getAllReservations(@PathVariable(name = "siteId", required = false) String siteId,
+                                                                        @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                        @RequestParam(name = "until", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate until,
+                                                                        @RequestParam(name = "cursor", required = false) String cursor,
+                                                                        @RequestParam(name = "limit", required = false, defaultValue = "" + CampsiteReservationValidator.DEFAULT_PAGE_SIZE) int limit,
+                                                                        @RequestParam(name = "email", required = false) String email) {
+        if (email != null) {
+            return ResponseEntity.ok(campsiteService.getReservationsOfUser(siteOrDefault(siteId), email));
+        }
+        final ReservationPage page = campsiteService.getReservationPage(siteOrDefault(siteId), from, until, ofNullable(cursor).map(ReservationCursor::decode).orElse(null), limit);
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNext() != null) {
+            final String next = ServletUriComponentsBuilder.fromCurrentRequest().replaceQueryParam("cursor", page.getNext().encode()).toUriString();
+            response.header(HttpHeaders.LINK, format("<%s>; rel=\"next\"", next));
+        }
+        return response.body(page.getReservations());
+    }
+
+    /**
+     * Every reservation starting in [from, until) as newline-delimited JSON, in the order of the pages. The reservations
+     * are written as they are read from the database cursor, so the memory used doesn't grow with their number.
+     */
+    @GetMapping(value = {"/reservation", "/{siteId}/reservation"}, produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllReservations(@PathVariable(name = "siteId", required = false) String siteId,
+                                                                       @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                       @RequestParam(name = "until", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate until) {
+        final Stream<CampsiteReservation> reservations = campsiteService.streamReservations(siteOrDefault(siteId), from, until);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(output -> {
+            try (Stream<CampsiteReservation> stream = reservations) {
+                final Iterator<CampsiteReservation> iterator = stream.iterator();
+                while (iterator.hasNext()) {
+                    output.write(objectMapper.writeValueAsBytes(iterator.next()));
+                    output.write('\n');
+                }
+            }
+        });
+    }
+
+    @DeleteMapping({"/reservation/{id}", "/{siteId}/reservation/{id}"})
+    public void delete(@PathVariable(name = "siteId", required = false) String siteId, @PathVariable("id") String id) {
+        campsiteService.deleteReservation(siteOrDefault(siteId), id);
+    }
+
+    @PostMapping({"/reservation/{id}", "/{siteId}/reservation/{id}"})
+    public ResponseEntity<String> update(@PathVariable(name = "siteId", required = false) String siteId,
+                                         @PathVariable("id") String id,
+                                         @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                         @Valid @RequestBody CampsiteReservation reservation) {
+        return idempotently(idempotencyKey, fingerprint("update", siteOrDefault(siteId), id, reservation),
+                () -> toJson(campsiteService.updateReservation(siteOrDefault(siteId), id, reservation)));
+    }
+
+    private ResponseEntity<String> idempotently(String idempotencyKey, String fingerprint, Supplier<ResponseEntity<String>> request) {
+        if (idempotencyKey == null) {
+            return request.get();
+        }
+        return idempotentRequests.process(idempotencyKey, fingerprint, request);
+    }
+
+    private ResponseEntity<String> toJson(CampsiteReservation reservation) {
+        try {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(objectMapper.writeValueAsString(reservation));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize the reservation", e);
+        }
     }
 
-    @DeleteMapping("/reservation/{id}")
-    public void delete(@PathVariable("id") String id) {
-        campsiteService.deleteReservation(id);
+    private static String fingerprint(String operation, String siteId, String id, CampsiteReservation reservation) {
+        return Stream.of(operation, siteId, id, reservation.getUser().getEmail(), reservation.getUser().getFullName(), reservation.getStartDate(), reservation.getEndDate())
+                .map(String::valueOf)
+                .collect(joining("|"));
     }
 
-    @PostMapping("/reservation/{id}")
-    public CampsiteReservation update(@PathVariable("id") String id, @Valid @RequestBody CampsiteReservation reservation) {
-        return campsiteService.updateReservation(id, reservation);
+    private static String siteOrDefault(String siteId) {
+        return ofNullable(siteId).orElse(CampsiteService.DEFAULT_SITE_ID);
     }
 }
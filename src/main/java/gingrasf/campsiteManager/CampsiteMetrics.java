@@ -0,0 +1,75 @@
+package gingrasf.campsiteManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The meters of the reservation and availability paths of the {@link CampsiteService}:
+ * <ul>
+ *     <li>campsite.stage: a timer, with its percentile histogram, for each stage (lock, check, save, unlock...) of each
+ *     operation (create, update, availability)</li>
+ *     <li>campsite.reservation.conflicts: the reservations rejected in conflict, by cause</li>
+ *     <li>campsite.lock.contention: the nights found locked by another request, by site and night. Only the nights that
+ *     can still be booked are ever locked, so there are at most a month of them per site.</li>
+ * </ul>
+ *
+ * The locks currently held are a gauge, campsite.locks.held, bound in the configuration since it reads the lock
+ * repository.
+ *
+ * The timers are looked up once and kept, the stages are on the hot path.
+ */
+public class CampsiteMetrics {
+
+    public static final String STAGE_TIMER = "campsite.stage";
+    public static final String CONFLICT_COUNTER = "campsite.reservation.conflicts";
+    public static final String CONTENTION_COUNTER = "campsite.lock.contention";
+    public static final String HELD_LOCKS_GAUGE = "campsite.locks.held";
+
+    public static final String CREATE = "create";
+    public static final String UPDATE = "update";
+    public static final String AVAILABILITY = "availability";
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> stageTimers = new ConcurrentHashMap<>();
+
+    public CampsiteMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * The stage is timed whether it succeeds or throws.
+     */
+    public <T> T time(String operation, String stage, Supplier<T> action) {
+        return stageTimer(operation, stage).record(action);
+    }
+
+    public void time(String operation, String stage, Runnable action) {
+        stageTimer(operation, stage).record(action);
+    }
+
+    /**
+     * @param cause precheck, locked, reserved, lease-lost, fenced, claimed, claim-expired, moved or sequencer.
+     */
+    public void countConflict(String cause) {
+        registry.counter(CONFLICT_COUNTER, "cause", cause).increment();
+    }
+
+    public void countContention(String siteId, Collection<LocalDate> nights) {
+        nights.forEach(night -> Counter.builder(CONTENTION_COUNTER).tag("site", siteId).tag("night", night.toString()).register(registry).increment());
+    }
+
+    private Timer stageTimer(String operation, String stage) {
+        return stageTimers.computeIfAbsent(operation + '/' + stage, key -> Timer.builder(STAGE_TIMER)
+                .tag("operation", operation)
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+}
@@ -1,6 +1,9 @@
 package gingrasf.campsiteManager;
 
+import gingrasf.campsiteManager.model.DateRange;
+
 import java.time.LocalDate;
+import java.util.Collections;
 import java.util.List;
 
 import static java.lang.String.format;
@@ -13,8 +16,37 @@ import static java.util.stream.Collectors.toList;
  */
 public class CampsiteReservationConflictException extends RuntimeException {
 
+    private final List<LocalDate> reservedDates;
+    private final List<DateRange> alternatives;
+
     public CampsiteReservationConflictException(List<LocalDate> reservedDates) {
-        super(format("The campsite is not available for those dates: %s", join(",", dateListToString(reservedDates))));
+        this(reservedDates, Collections.emptyList());
+    }
+
+    /**
+     * The alternatives are free stays of the same length close to the requested one, listed in the message so the
+     * client can retry with one of them instead of searching again.
+     */
+    public CampsiteReservationConflictException(List<LocalDate> reservedDates, List<DateRange> alternatives) {
+        super(buildMessage(reservedDates, alternatives));
+        this.reservedDates = reservedDates;
+        this.alternatives = alternatives;
+    }
+
+    public List<LocalDate> getReservedDates() {
+        return reservedDates;
+    }
+
+    public List<DateRange> getAlternatives() {
+        return alternatives;
+    }
+
+    private static String buildMessage(List<LocalDate> reservedDates, List<DateRange> alternatives) {
+        final String message = format("The campsite is not available for those dates: %s", join(",", dateListToString(reservedDates)));
+        if (alternatives.isEmpty()) {
+            return message;
+        }
+        return format("%s. Nearest available stays: %s", message, join(",", alternatives.stream().map(range -> range.getStart() + "/" + range.getEnd()).collect(toList())));
     }
 
     private static List<String> dateListToString(List<LocalDate> reservedDates) {
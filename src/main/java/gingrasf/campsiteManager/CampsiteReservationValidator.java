@@ -1,15 +1,62 @@
 package gingrasf.campsiteManager;
 
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.DateRange;
 import gingrasf.campsiteManager.model.User;
 
 import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongSupplier;
 
 import static java.lang.String.format;
 import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.Collections.singletonList;
 
 public class CampsiteReservationValidator {
 
     public static final int MAX_RESERVATION_DURATION = 3;
+    public static final int DEFAULT_MAX_AVAILABILITY_WINDOW = 366;
+    public static final int MAX_BATCH_RANGES = 100;
+    public static final int MAX_BULK_RESERVATIONS = 10_000;
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final int maxAvailabilityWindow;
+    private final Set<String> siteIds;
+    private final int maxUpcomingReservationsPerUser;
+
+    public CampsiteReservationValidator() {
+        this(DEFAULT_MAX_AVAILABILITY_WINDOW);
+    }
+
+    public CampsiteReservationValidator(int maxAvailabilityWindow) {
+        this(maxAvailabilityWindow, singletonList(CampsiteService.DEFAULT_SITE_ID));
+    }
+
+    public CampsiteReservationValidator(int maxAvailabilityWindow, Collection<String> siteIds) {
+        this(maxAvailabilityWindow, siteIds, 0);
+    }
+
+    /**
+     * @param maxUpcomingReservationsPerUser number of upcoming reservations a user can have on the park, 0 for no limit.
+     */
+    public CampsiteReservationValidator(int maxAvailabilityWindow, Collection<String> siteIds, int maxUpcomingReservationsPerUser) {
+        this.maxAvailabilityWindow = maxAvailabilityWindow;
+        this.siteIds = new HashSet<>(siteIds);
+        this.maxUpcomingReservationsPerUser = maxUpcomingReservationsPerUser;
+    }
+
+    /**
+     * Validate that the site is one of the campsites of the park. If it is not an IllegalArgumentException will be thrown.
+     */
+    public void validateSite(String siteId) {
+        if (!siteIds.contains(siteId)) {
+            throw new IllegalArgumentException(format("There is no campsite with id=%s", siteId));
+        }
+    }
 
     /**
      * Validate is the requested start and end dates are valid for a reservation. If they are not an IllegalArgumentException will be thrown.
@@ -45,4 +92,92 @@ public class CampsiteReservationValidator {
             throw new IllegalArgumentException("Reservation must have a user.");
         }
     }
+
+    /**
+     * Validate that the user can make another reservation. The upcoming reservations of the user are only counted when
+     * there is a limit. If the user already has the maximum an IllegalArgumentException will be thrown.
+     *
+     * They are counted before the dates are locked or claimed, so reservations of the same user made at the same time
+     * can all be accepted and together go over the limit.
+     */
+    public void validateUpcomingReservations(LongSupplier upcomingReservations) {
+        if (maxUpcomingReservationsPerUser > 0 && upcomingReservations.getAsLong() >= maxUpcomingReservationsPerUser) {
+            throw new IllegalArgumentException(format("A user can have a maximum of %d upcoming reservations", maxUpcomingReservationsPerUser));
+        }
+    }
+
+    /**
+     * Validate that the reservations of a user can be looked up with this email. If they can't an IllegalArgumentException will be thrown.
+     */
+    public void validateEmail(String email) {
+        if (email == null || email.trim().isEmpty()) {
+            throw new IllegalArgumentException("An email is needed to look up the reservations of a user");
+        }
+    }
+
+    /**
+     * Validate that the availability can be queried for this period. If the period is too long an IllegalArgumentException will be thrown.
+     */
+    public void validateAvailabilityWindow(LocalDate from, LocalDate until) {
+        if (DAYS.between(from, until) > maxAvailabilityWindow) {
+            throw new IllegalArgumentException(format("Availability can only be queried for a maximum of %d days", maxAvailabilityWindow));
+        }
+    }
+
+    /**
+     * Validate that the batch has at least one range and not too many. If it does not an IllegalArgumentException will be thrown.
+     */
+    public void validateBatch(List<DateRange> ranges) {
+        if (ranges == null || ranges.isEmpty()) {
+            throw new IllegalArgumentException("A batch needs at least one range");
+        }
+        if (ranges.size() > MAX_BATCH_RANGES) {
+            throw new IllegalArgumentException(format("A batch can have a maximum of %d ranges", MAX_BATCH_RANGES));
+        }
+    }
+
+    /**
+     * Validate that the ranges of a batch, read together, fit in the availability window. If they don't an IllegalArgumentException will be thrown.
+     */
+    public void validateBatchSpan(LocalDate from, LocalDate until) {
+        if (DAYS.between(from, until) > maxAvailabilityWindow) {
+            throw new IllegalArgumentException(format("The ranges of a batch must all fit in a period of %d days", maxAvailabilityWindow));
+        }
+    }
+
+    /**
+     * Validate that free windows can be searched for this number of nights. If they can't an IllegalArgumentException will be thrown.
+     */
+    public void validateWindowSearch(int nights, int limit) {
+        if (nights < 1 || nights > MAX_RESERVATION_DURATION) {
+            throw new IllegalArgumentException(format("A reservation lasts between 1 and %d nights", MAX_RESERVATION_DURATION));
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("At least one window must be requested");
+        }
+    }
+
+    /**
+     * Validate that a bulk creation has at least one reservation and not too many. If it does not an IllegalArgumentException will be thrown.
+     */
+    public void validateBulk(List<CampsiteReservation> reservations) {
+        if (reservations == null || reservations.isEmpty()) {
+            throw new IllegalArgumentException("A bulk creation needs at least one reservation");
+        }
+        if (reservations.size() > MAX_BULK_RESERVATIONS) {
+            throw new IllegalArgumentException(format("A bulk creation can have a maximum of %d reservations", MAX_BULK_RESERVATIONS));
+        }
+    }
+
+    /**
+     * Validate that a page of reservations can be read with this limit and period. If it can't an IllegalArgumentException will be thrown.
+     */
+    public void validatePage(int limit, LocalDate from, LocalDate until) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(format("A page has between 1 and %d reservations", MAX_PAGE_SIZE));
+        }
+        if (from != null && until != null && !from.isBefore(until)) {
+            throw new IllegalArgumentException("The from date must be before the until date");
+        }
+    }
 }
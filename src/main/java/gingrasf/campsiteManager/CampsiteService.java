@@ -1,95 +1,855 @@
 package gingrasf.campsiteManager;
 
+import gingrasf.campsiteManager.model.AdmissionStats;
+import gingrasf.campsiteManager.model.AvailabilityFormat;
+import gingrasf.campsiteManager.model.BatchAvailability;
+import gingrasf.campsiteManager.model.BulkReservation;
 import gingrasf.campsiteManager.model.CampsiteAvailability;
 import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.DateLease;
+import gingrasf.campsiteManager.model.DateRange;
+import gingrasf.campsiteManager.model.ReservationCursor;
+import gingrasf.campsiteManager.model.ReservationDay;
+import gingrasf.campsiteManager.model.ReservationPage;
 import gingrasf.campsiteManager.model.User;
 import gingrasf.campsiteManager.persistence.AvailableDateLockRepository;
 import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import gingrasf.campsiteManager.persistence.ReservationDayRepository;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
-import java.util.stream.StreamSupport;
+import java.util.stream.Stream;
 
+import static gingrasf.campsiteManager.CampsiteMetrics.AVAILABILITY;
+import static gingrasf.campsiteManager.CampsiteMetrics.CREATE;
+import static gingrasf.campsiteManager.CampsiteMetrics.UPDATE;
 import static java.lang.String.format;
 import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 
 public class CampsiteService {
 
+    /**
+     * The site used by the paths without a site, which were the only ones when there was a single campsite.
+     */
+    public static final String DEFAULT_SITE_ID = "default";
+
+    /**
+     * Number of free windows suggested when a reservation is in conflict.
+     */
+    static final int NB_ALTERNATIVES = 3;
 
     private final CampsiteRepository repository;
     private final AvailableDateLockRepository availableDateLockRepository;
     private final CampsiteReservationValidator validator;
+    private final OccupancyIndex occupancyIndex;
+    private final ReservationDayRepository reservationDayRepository;
+    private final ReservationSequencer sequencer;
+    private final LongAdder precheckRejections = new LongAdder();
+    private final LongAdder fullPathConflicts = new LongAdder();
+    private final CampsiteMetrics metrics;
 
-    public CampsiteService(CampsiteRepository repository, AvailableDateLockRepository availableDateLockRepository, CampsiteReservationValidator validator) {
+    public CampsiteService(CampsiteRepository repository, AvailableDateLockRepository availableDateLockRepository, CampsiteReservationValidator validator, OccupancyIndex occupancyIndex, CampsiteMetrics metrics) {
+        this(repository, availableDateLockRepository, null, null, validator, occupancyIndex, metrics);
+    }
+
+    /**
+     * Instead of locking the dates while checking the availability, every reservation claims each of its nights. Since a
+     * night can only be claimed once, the claims are enough to prevent conflicting reservations and no lock is needed.
+     */
+    public CampsiteService(CampsiteRepository repository, ReservationDayRepository reservationDayRepository, CampsiteReservationValidator validator, OccupancyIndex occupancyIndex, CampsiteMetrics metrics) {
+        this(repository, null, reservationDayRepository, null, validator, occupancyIndex, metrics);
+    }
+
+    /**
+     * The reservations are created and moved by the single writer of the sequencer, which decides the conflicts from the
+     * {@link OccupancyIndex} it shares with this service, so no lock or claim is needed.
+     */
+    public CampsiteService(CampsiteRepository repository, ReservationSequencer sequencer, CampsiteReservationValidator validator, OccupancyIndex occupancyIndex, CampsiteMetrics metrics) {
+        this(repository, null, null, sequencer, validator, occupancyIndex, metrics);
+    }
+
+    private CampsiteService(CampsiteRepository repository, AvailableDateLockRepository availableDateLockRepository, ReservationDayRepository reservationDayRepository, ReservationSequencer sequencer, CampsiteReservationValidator validator, OccupancyIndex occupancyIndex, CampsiteMetrics metrics) {
         this.repository = repository;
         this.validator = validator;
         this.availableDateLockRepository = availableDateLockRepository;
+        this.reservationDayRepository = reservationDayRepository;
+        this.sequencer = sequencer;
+        this.occupancyIndex = occupancyIndex;
+        this.metrics = metrics;
+    }
+
+    public CampsiteAvailability getAvailabilityBetween(String siteId, LocalDate from, LocalDate until) {
+        return getAvailabilityBetween(siteId, from, until, AvailabilityFormat.DATES);
     }
 
-    public CampsiteAvailability getAvailabilityBetween(LocalDate from, LocalDate until) {
+    /**
+     * Only the representation of the available dates matching the format is filled. The ranges and the bitmap never
+     * hold one object per available date, so their size depends on the number of free runs rather than on the length
+     * of the period.
+     */
+    public CampsiteAvailability getAvailabilityBetween(String siteId, LocalDate from, LocalDate until, AvailabilityFormat format) {
+        validator.validateSite(siteId);
+        validateAvailabilityPeriod(validator, from, until);
+        final Predicate<LocalDate> isAvailable = metrics.time(AVAILABILITY, "read", () -> isAvailable(siteId, from, until));
+        return metrics.time(AVAILABILITY, "build", () -> buildAvailability(from, until, format, isAvailable));
+    }
+
+    /**
+     * All the valid ranges are answered from a single read of the reserved days over the period spanning them, so the
+     * reservations are only read once and the answers are consistent with each other. A range that is not valid gets
+     * its error instead of failing the whole batch.
+     */
+    public List<BatchAvailability> getAvailabilityBetween(String siteId, List<DateRange> ranges, AvailabilityFormat format) {
+        validator.validateSite(siteId);
+        validator.validateBatch(ranges);
+        final List<DateRange> validRanges = new ArrayList<>();
+        final Map<DateRange, String> errorsByRange = new HashMap<>();
+        for (DateRange range : ranges) {
+            try {
+                if (range.getStart() == null || range.getEnd() == null) {
+                    throw new IllegalArgumentException("A range needs both a start and an end");
+                }
+                validateAvailabilityPeriod(validator, range.getStart(), range.getEnd());
+                validRanges.add(range);
+            } catch (IllegalArgumentException e) {
+                errorsByRange.put(range, e.getMessage());
+            }
+        }
+        final Predicate<LocalDate> isAvailable = validRanges.isEmpty() ? date -> false : isAvailableOver(siteId, validRanges);
+        return ranges.stream()
+                .map(range -> errorsByRange.containsKey(range)
+                        ? BatchAvailability.builder().range(range).error(errorsByRange.get(range)).build()
+                        : BatchAvailability.builder().range(range).availability(buildAvailability(range.getStart(), range.getEnd(), format, isAvailable)).build())
+                .collect(toList());
+    }
+
+    private Predicate<LocalDate> isAvailableOver(String siteId, List<DateRange> ranges) {
+        final LocalDate spanStart = ranges.stream().map(DateRange::getStart).min(Comparator.naturalOrder()).get();
+        final LocalDate spanEnd = ranges.stream().map(DateRange::getEnd).max(Comparator.naturalOrder()).get();
+        validator.validateBatchSpan(spanStart, spanEnd);
+        return isAvailable(siteId, spanStart, spanEnd);
+    }
+
+    static void validateAvailabilityPeriod(CampsiteReservationValidator validator, LocalDate from, LocalDate until) {
         if (from.isBefore(LocalDate.now()) || until.isBefore(from)) {
             throw new IllegalArgumentException("Unable to query availability for a date in the past.");
         }
         if (until.isEqual(from)) {
             throw new IllegalArgumentException("The until parameter is exclusive, to see if today is available use tomorrow's date as the until parameter");
         }
-        final List<LocalDate> reservedDates = getReservedDatesBetween(from, until);
-        final List<LocalDate> availableDates = findLocalDateBetween(from, until).stream().filter(date -> !reservedDates.contains(date)).collect(toList());
-        return CampsiteAvailability.builder().availableDates(availableDates).searchPeriodStart(from).searchPeriodEnd(until).build();
+        validator.validateAvailabilityWindow(from, until);
+    }
+
+    static CampsiteAvailability buildAvailability(LocalDate from, LocalDate until, AvailabilityFormat format, Predicate<LocalDate> isAvailable) {
+        final CampsiteAvailability.CampsiteAvailabilityBuilder availability = CampsiteAvailability.builder().searchPeriodStart(from).searchPeriodEnd(until);
+        switch (format) {
+            case RANGES:
+                return availability.availableRanges(findAvailableRanges(from, until, isAvailable)).build();
+            case BITMAP:
+                return availability.availableDays(Base64.getEncoder().encodeToString(findAvailableDays(from, until, isAvailable).toByteArray())).build();
+            default:
+                return availability.availableDates(findLocalDateBetween(from, until).stream().filter(isAvailable).collect(toList())).build();
+        }
     }
 
-    public CampsiteReservation createReservation(User user, LocalDate startDate, LocalDate endDate) {
+    private static List<DateRange> findAvailableRanges(LocalDate from, LocalDate until, Predicate<LocalDate> isAvailable) {
+        final List<DateRange> ranges = new ArrayList<>();
+        LocalDate rangeStart = null;
+        for (LocalDate day = from; day.isBefore(until); day = day.plusDays(1)) {
+            final boolean available = isAvailable.test(day);
+            if (available && rangeStart == null) {
+                rangeStart = day;
+            } else if (!available && rangeStart != null) {
+                ranges.add(DateRange.builder().start(rangeStart).end(day).build());
+                rangeStart = null;
+            }
+        }
+        if (rangeStart != null) {
+            ranges.add(DateRange.builder().start(rangeStart).end(until).build());
+        }
+        return ranges;
+    }
+
+    private static BitSet findAvailableDays(LocalDate from, LocalDate until, Predicate<LocalDate> isAvailable) {
+        final BitSet availableDays = new BitSet((int) DAYS.between(from, until));
+        LocalDate day = from;
+        for (int offset = 0; day.isBefore(until); offset++, day = day.plusDays(1)) {
+            availableDays.set(offset, isAvailable.test(day));
+        }
+        return availableDays;
+    }
+
+    /**
+     * The reserved days of the whole period are read at once, so the answer comes from a single snapshot. The claims are
+     * shared by all the instances, while the {@link OccupancyIndex} only picks up the reservations made through the other
+     * instances when it reloads the site, so when there are claims they are the ones answering.
+     */
+    private Predicate<LocalDate> isAvailable(String siteId, LocalDate from, LocalDate until) {
+        final Set<LocalDate> reservedDays = new HashSet<>(reservationDayRepository != null
+                ? reservationDayRepository.findClaimedDays(siteId, from, until)
+                : occupancyIndex.getReservedDatesBetween(siteId, from, until));
+        return date -> !reservedDays.contains(date);
+    }
+
+    public CampsiteReservation createReservation(String siteId, User user, LocalDate startDate, LocalDate endDate) {
+        validator.validateSite(siteId);
         validator.validateReservation(startDate, endDate);
         validator.validateUser(user);
-
-        if(lockDatesForProcessing(startDate, endDate)) {
-            try {
-                checkForAvailability(startDate, endDate);
-                final CampsiteReservation reservation = CampsiteReservation.builder()
+        validator.validateUpcomingReservations(() -> repository.countByUserEmailAndEndDateAfter(user.getEmail(), LocalDate.now()));
+        try {
+            if (sequencer != null) {
+                return metrics.time(CREATE, "sequencer", () -> awaitDecision(sequencer.create(CampsiteReservation.builder()
                         .id(UUID.randomUUID().toString())
+                        .siteId(siteId)
                         .startDate(startDate)
                         .endDate(endDate)
                         .user(user)
-                        .build();
-                return repository.save(reservation);
-            } finally {
-                unlockDates(startDate, endDate);
+                        .build())));
+            }
+            metrics.time(CREATE, "precheck", () -> precheckAvailability(siteId, startDate, endDate));
+            try {
+                if (reservationDayRepository != null) {
+                    return createClaimedReservation(siteId, user, startDate, endDate);
+                }
+                return createLockedReservation(siteId, user, startDate, endDate);
+            } catch (CampsiteReservationConflictException e) {
+                fullPathConflicts.increment();
+                throw e;
             }
+        } catch (CampsiteReservationConflictException e) {
+            throw metrics.time(CREATE, "alternatives", () -> withAlternatives(e, siteId, startDate, endDate));
         }
-        throw new CampsiteReservationConflictException(findLocalDateBetween(startDate, endDate));
     }
 
     /**
-     * Verify if we can get a lock on all dates we need. If not throw a CampsiteReservationConflictException
+     * Under contention most requests are for nights that are already taken, so the {@link OccupancyIndex} is checked
+     * before locking or claiming anything. The index learns of the reservations made through another instance only when it
+     * reloads the site and can still show nights freed through one, so the nights it shows reserved are confirmed with a single read of the
+     * reservations before rejecting the request. That read replaces a lock, a check and an unlock per night. A request the
+     * index lets through, or that the read finds free, takes the usual path which decides the conflicts on its own.
      */
-    private boolean lockDatesForProcessing(LocalDate startDate, LocalDate endDate) {
-        final List<LocalDate> dates = findLocalDateBetween(startDate, endDate);
-        return dates.stream()
-                .map(date -> availableDateLockRepository.lockAvailableDate(date, Thread.currentThread().getName()))
-                .reduce((b1, b2) -> b1 && b2).orElse(false);
+    private void precheckAvailability(String siteId, LocalDate startDate, LocalDate endDate) {
+        if (occupancyIndex.getReservedDatesBetween(siteId, startDate, endDate).isEmpty()) {
+            return;
+        }
+        final List<LocalDate> reservedDates = getReservedDatesBetween(siteId, startDate, endDate);
+        if (!reservedDates.isEmpty()) {
+            precheckRejections.increment();
+            metrics.countConflict("precheck");
+            throw new CampsiteReservationConflictException(reservedDates);
+        }
+    }
+
+    /**
+     * How the reservations in conflict were rejected: by the pre-check, or after locking or claiming their nights.
+     */
+    public AdmissionStats getAdmissionStats() {
+        return AdmissionStats.builder()
+                .precheckRejections(precheckRejections.sum())
+                .fullPathConflicts(fullPathConflicts.sum())
+                .build();
+    }
+
+    private CampsiteReservation createLockedReservation(String siteId, User user, LocalDate startDate, LocalDate endDate) {
+        final DateLease lease = metrics.time(CREATE, "lock", () -> lockDatesForProcessing(siteId, findLocalDateBetween(startDate, endDate)));
+        try {
+            metrics.time(CREATE, "fence", () -> fenceDates(lease));
+            metrics.time(CREATE, "check", () -> checkForAvailability(siteId, startDate, endDate));
+            final CampsiteReservation reservation = CampsiteReservation.builder()
+                    .id(UUID.randomUUID().toString())
+                    .siteId(siteId)
+                    .startDate(startDate)
+                    .endDate(endDate)
+                    .user(user)
+                    .build();
+            metrics.time(CREATE, "lease", () -> checkLeaseIsHeld(lease));
+            final CampsiteReservation saved = metrics.time(CREATE, "save", () -> repository.save(reservation));
+            metrics.time(CREATE, "verify", () -> checkStillFenced(lease, () -> repository.delete(saved)));
+            occupancyIndex.markReserved(siteId, startDate, endDate);
+            return saved;
+        } finally {
+            metrics.time(CREATE, "unlock", () -> unlockDates(lease));
+        }
+    }
+
+    /**
+     * Every reservation is validated, and checked against the ones before it in the batch, before anything is locked or
+     * claimed. The nights of the remaining reservations are then locked once for the whole batch, or claimed reservation
+     * by reservation in chronological order since a claim belongs to a reservation, and all the reservations are saved
+     * with a single write. A reservation that is not valid or in conflict gets its error instead of failing the batch.
+     *
+     * A stay can only start up to one month ahead, so the reservations left once the batch conflicts are removed cover
+     * at most about a month of nights: however large the batch, the locking and the write stay small.
+     *
+     * The upcoming reservations of each user are counted once for the whole batch, then every reservation of the batch
+     * accepted so far counts against the limit of its user, even one that is put aside later for a conflict.
+     *
+     * @return the outcome of each reservation, in the order they were given.
+     */
+    public List<BulkReservation> createReservations(String siteId, List<CampsiteReservation> reservations) {
+        validator.validateSite(siteId);
+        validator.validateBulk(reservations);
+        final Map<Integer, String> errorsByIndex = new HashMap<>();
+        final Map<Integer, CampsiteReservation> pendingByIndex = new TreeMap<>();
+        final Set<LocalDate> batchNights = new HashSet<>();
+        final Map<String, Long> upcomingByEmail = new HashMap<>();
+        for (int index = 0; index < reservations.size(); index++) {
+            final CampsiteReservation requested = reservations.get(index);
+            try {
+                if (requested == null || requested.getStartDate() == null || requested.getEndDate() == null) {
+                    throw new IllegalArgumentException("A reservation needs both a start and an end date");
+                }
+                validator.validateReservation(requested.getStartDate(), requested.getEndDate());
+                validator.validateUser(requested.getUser());
+                final String email = requested.getUser().getEmail();
+                validator.validateUpcomingReservations(() -> upcomingByEmail.computeIfAbsent(email, user -> repository.countByUserEmailAndEndDateAfter(user, LocalDate.now())));
+                final List<LocalDate> nights = findLocalDateBetween(requested.getStartDate(), requested.getEndDate());
+                final List<LocalDate> nightsTakenInBatch = nights.stream().filter(batchNights::contains).collect(toList());
+                if (!nightsTakenInBatch.isEmpty()) {
+                    throw new CampsiteReservationConflictException(nightsTakenInBatch);
+                }
+                batchNights.addAll(nights);
+                pendingByIndex.put(index, CampsiteReservation.builder()
+                        .id(UUID.randomUUID().toString())
+                        .siteId(siteId)
+                        .startDate(requested.getStartDate())
+                        .endDate(requested.getEndDate())
+                        .user(requested.getUser())
+                        .build());
+                upcomingByEmail.computeIfPresent(email, (user, upcoming) -> upcoming + 1);
+            } catch (IllegalArgumentException | CampsiteReservationConflictException e) {
+                errorsByIndex.put(index, e.getMessage());
+            }
+        }
+        if (!pendingByIndex.isEmpty()) {
+            if (sequencer != null) {
+                createSequencedReservations(pendingByIndex, errorsByIndex);
+            } else if (reservationDayRepository != null) {
+                createClaimedReservations(siteId, pendingByIndex, errorsByIndex);
+            } else {
+                createLockedReservations(siteId, pendingByIndex, errorsByIndex);
+            }
+        }
+        final List<BulkReservation> results = new ArrayList<>(reservations.size());
+        for (int index = 0; index < reservations.size(); index++) {
+            final BulkReservation.BulkReservationBuilder result = BulkReservation.builder().reservation(reservations.get(index));
+            results.add(pendingByIndex.containsKey(index)
+                    ? result.id(pendingByIndex.get(index).getId()).build()
+                    : result.error(errorsByIndex.get(index)).build());
+        }
+        return results;
+    }
+
+    /**
+     * Locking is all-or-nothing, so when nights are locked by someone else the reservations needing them are put aside
+     * and the nights of the others are locked again. The conflicting nights are always nights of the batch, so each
+     * attempt puts aside at least one reservation and this always ends. The lease is fenced as for a single reservation,
+     * and if a newer lease took the nights over every reservation of the batch is put aside.
+     */
+    private void createLockedReservations(String siteId, Map<Integer, CampsiteReservation> pendingByIndex, Map<Integer, String> errorsByIndex) {
+        DateLease lease = availableDateLockRepository.lockDates(siteId, nightsOf(pendingByIndex.values()), UUID.randomUUID().toString());
+        while (!lease.isAcquired()) {
+            rejectConflicting(pendingByIndex, errorsByIndex, lease.getConflictingDates());
+            if (pendingByIndex.isEmpty()) {
+                return;
+            }
+            lease = availableDateLockRepository.lockDates(siteId, nightsOf(pendingByIndex.values()), UUID.randomUUID().toString());
+        }
+        try {
+            if (!availableDateLockRepository.fence(lease)) {
+                rejectConflicting(pendingByIndex, errorsByIndex, lease.getDates());
+                return;
+            }
+            final LocalDate from = pendingByIndex.values().stream().map(CampsiteReservation::getStartDate).min(Comparator.naturalOrder()).get();
+            final LocalDate until = pendingByIndex.values().stream().map(CampsiteReservation::getEndDate).max(Comparator.naturalOrder()).get();
+            rejectConflicting(pendingByIndex, errorsByIndex, getReservedDatesBetween(siteId, from, until));
+            if (!pendingByIndex.isEmpty() && !availableDateLockRepository.isHeld(lease)) {
+                rejectConflicting(pendingByIndex, errorsByIndex, lease.getDates());
+            }
+            if (!pendingByIndex.isEmpty()) {
+                final List<CampsiteReservation> saved = new ArrayList<>(pendingByIndex.values());
+                repository.saveAll(saved);
+                if (!availableDateLockRepository.isFenced(lease)) {
+                    repository.deleteAll(saved);
+                    rejectConflicting(pendingByIndex, errorsByIndex, lease.getDates());
+                    return;
+                }
+                pendingByIndex.values().forEach(reservation -> occupancyIndex.markReserved(siteId, reservation.getStartDate(), reservation.getEndDate()));
+            }
+        } finally {
+            unlockDates(lease);
+        }
+    }
+
+    /**
+     * If the reservations can't be saved, the nights of all of them are released. Once saved, the claims of each
+     * reservation are confirmed, and a reservation whose claims expired in the meantime is deleted again.
+     */
+    private void createClaimedReservations(String siteId, Map<Integer, CampsiteReservation> pendingByIndex, Map<Integer, String> errorsByIndex) {
+        final List<Map.Entry<Integer, CampsiteReservation>> chronologicalOrder = new ArrayList<>(pendingByIndex.entrySet());
+        chronologicalOrder.sort(Comparator.comparing(pending -> pending.getValue().getStartDate()));
+        for (Map.Entry<Integer, CampsiteReservation> pending : chronologicalOrder) {
+            final CampsiteReservation reservation = pending.getValue();
+            final List<LocalDate> conflictingNights = claimDays(siteId, findLocalDateBetween(reservation.getStartDate(), reservation.getEndDate()), reservation.getId());
+            if (!conflictingNights.isEmpty()) {
+                pendingByIndex.remove(pending.getKey());
+                errorsByIndex.put(pending.getKey(), new CampsiteReservationConflictException(conflictingNights).getMessage());
+            }
+        }
+        if (pendingByIndex.isEmpty()) {
+            return;
+        }
+        try {
+            repository.saveAll(pendingByIndex.values());
+        } catch (RuntimeException e) {
+            pendingByIndex.values().forEach(reservation -> reservationDayRepository.releaseDays(siteId, findLocalDateBetween(reservation.getStartDate(), reservation.getEndDate()), reservation.getId()));
+            throw e;
+        }
+        final Iterator<Map.Entry<Integer, CampsiteReservation>> saved = pendingByIndex.entrySet().iterator();
+        while (saved.hasNext()) {
+            final Map.Entry<Integer, CampsiteReservation> reservation = saved.next();
+            try {
+                confirmNights(reservation.getValue(), findLocalDateBetween(reservation.getValue().getStartDate(), reservation.getValue().getEndDate()), () -> repository.delete(reservation.getValue()));
+            } catch (CampsiteReservationConflictException e) {
+                errorsByIndex.put(reservation.getKey(), e.getMessage());
+                saved.remove();
+            }
+        }
+        pendingByIndex.values().forEach(reservation -> occupancyIndex.markReserved(siteId, reservation.getStartDate(), reservation.getEndDate()));
+    }
+
+    /**
+     * All the reservations are queued before waiting on any of them, so the writer can decide and save them together.
+     */
+    private void createSequencedReservations(Map<Integer, CampsiteReservation> pendingByIndex, Map<Integer, String> errorsByIndex) {
+        final Map<Integer, CompletableFuture<CampsiteReservation>> resultsByIndex = new HashMap<>();
+        pendingByIndex.forEach((index, reservation) -> resultsByIndex.put(index, sequencer.create(reservation)));
+        resultsByIndex.forEach((index, result) -> {
+            try {
+                await(result);
+            } catch (CampsiteReservationConflictException e) {
+                pendingByIndex.remove(index);
+                errorsByIndex.put(index, e.getMessage());
+            }
+        });
+    }
+
+    private CampsiteReservation awaitDecision(CompletableFuture<CampsiteReservation> result) {
+        try {
+            return await(result);
+        } catch (CampsiteReservationConflictException e) {
+            metrics.countConflict("sequencer");
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for the sequencer to answer, throwing the conflict, or the failure, of the command as is.
+     */
+    private static CampsiteReservation await(CompletableFuture<CampsiteReservation> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Put aside the pending reservations needing any of the given dates, each with the conflict as its error.
+     */
+    private void rejectConflicting(Map<Integer, CampsiteReservation> pendingByIndex, Map<Integer, String> errorsByIndex, Collection<LocalDate> conflictingDates) {
+        final Set<LocalDate> conflicts = new HashSet<>(conflictingDates);
+        final Iterator<Map.Entry<Integer, CampsiteReservation>> pending = pendingByIndex.entrySet().iterator();
+        while (pending.hasNext()) {
+            final Map.Entry<Integer, CampsiteReservation> reservation = pending.next();
+            final List<LocalDate> reservedNights = findLocalDateBetween(reservation.getValue().getStartDate(), reservation.getValue().getEndDate()).stream()
+                    .filter(conflicts::contains)
+                    .collect(toList());
+            if (!reservedNights.isEmpty()) {
+                errorsByIndex.put(reservation.getKey(), new CampsiteReservationConflictException(reservedNights).getMessage());
+                pending.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the nights of all the reservations, in chronological order.
+     */
+    private Set<LocalDate> nightsOf(Collection<CampsiteReservation> reservations) {
+        final Set<LocalDate> nights = new TreeSet<>();
+        reservations.forEach(reservation -> nights.addAll(findLocalDateBetween(reservation.getStartDate(), reservation.getEndDate())));
+        return nights;
+    }
+
+    /**
+     * A stay can only start between tomorrow and one month from now, so all the candidate starts, and the nights they
+     * need, fit in a single 64 bits mask of the free days starting tomorrow. The mask and-ed with itself shifted by 1 to
+     * nights - 1 days only keeps the days starting a free window, and the earliest windows are the lowest bits still set.
+     *
+     * @return the earliest windows of the given number of nights that are free and can be reserved, in chronological order.
+     */
+    public List<DateRange> findFreeWindows(String siteId, int nights, int limit) {
+        validator.validateSite(siteId);
+        validator.validateWindowSearch(nights, limit);
+        return findFreeWindowStarts(siteId, nights).stream()
+                .limit(limit)
+                .map(start -> DateRange.builder().start(start).end(start.plusDays(nights)).build())
+                .collect(toList());
+    }
+
+    /**
+     * The free windows closest to the requested stay are added to the conflict, so the client can pick one of them rather
+     * than retrying blindly. They are only a hint: if they can't be found the conflict is reported without them.
+     */
+    private CampsiteReservationConflictException withAlternatives(CampsiteReservationConflictException conflict, String siteId, LocalDate startDate, LocalDate endDate) {
+        final int nights = (int) DAYS.between(startDate, endDate);
+        final List<LocalDate> starts;
+        try {
+            starts = findFreeWindowStarts(siteId, nights);
+        } catch (RuntimeException e) {
+            return conflict;
+        }
+        return withAlternatives(conflict, startDate, nights, starts);
+    }
+
+    /**
+     * @param starts the starts of the free windows of the given number of nights, in chronological order.
+     */
+    static CampsiteReservationConflictException withAlternatives(CampsiteReservationConflictException conflict, LocalDate startDate, int nights, List<LocalDate> starts) {
+        final List<DateRange> alternatives = starts.stream()
+                .sorted(Comparator.comparingLong(start -> Math.abs(DAYS.between(startDate, start))))
+                .limit(NB_ALTERNATIVES)
+                .sorted()
+                .map(start -> DateRange.builder().start(start).end(start.plusDays(nights)).build())
+                .collect(toList());
+        return new CampsiteReservationConflictException(conflict.getReservedDates(), alternatives);
     }
 
-    private void unlockDates(LocalDate startDate, LocalDate endDate) {
-        findLocalDateBetween(startDate, endDate).stream()
-                .forEach(date -> availableDateLockRepository.freeAvailableDate(date, Thread.currentThread().getName()));
+    private List<LocalDate> findFreeWindowStarts(String siteId, int nights) {
+        final LocalDate firstStart = firstWindowStart();
+        return findFreeWindowStarts(firstStart, nights, isAvailable(siteId, firstStart, lastWindowEnd(nights)));
     }
 
-    private void checkForAvailability(LocalDate startDate, LocalDate endDate) {
-        final List<LocalDate> reservedDates = getReservedDatesBetween(startDate, endDate);
+    /**
+     * A stay can start tomorrow at the earliest.
+     */
+    static LocalDate firstWindowStart() {
+        return LocalDate.now().plusDays(1);
+    }
+
+    /**
+     * The end, exclusive, of the last window of the given number of nights that can be reserved.
+     */
+    static LocalDate lastWindowEnd(int nights) {
+        return LocalDate.now().plusMonths(1).plusDays(nights);
+    }
+
+    /**
+     * @param isAvailable whether a day is free, for the days from the first start to the {@link #lastWindowEnd last window end}.
+     */
+    static List<LocalDate> findFreeWindowStarts(LocalDate firstStart, int nights, Predicate<LocalDate> isAvailable) {
+        final int nbStarts = (int) DAYS.between(firstStart, LocalDate.now().plusMonths(1)) + 1;
+        final int nbDays = nbStarts + nights - 1;
+        long freeDays = 0L;
+        for (int offset = 0; offset < nbDays; offset++) {
+            if (isAvailable.test(firstStart.plusDays(offset))) {
+                freeDays |= 1L << offset;
+            }
+        }
+        long windowStarts = freeDays & ((1L << nbStarts) - 1);
+        for (int night = 1; night < nights; night++) {
+            windowStarts &= freeDays >>> night;
+        }
+        final List<LocalDate> starts = new ArrayList<>();
+        for (long remaining = windowStarts; remaining != 0; remaining &= remaining - 1) {
+            starts.add(firstStart.plusDays(Long.numberOfTrailingZeros(remaining)));
+        }
+        return starts;
+    }
+
+    private CampsiteReservation createClaimedReservation(String siteId, User user, LocalDate startDate, LocalDate endDate) {
+        final CampsiteReservation reservation = CampsiteReservation.builder()
+                .id(UUID.randomUUID().toString())
+                .siteId(siteId)
+                .startDate(startDate)
+                .endDate(endDate)
+                .user(user)
+                .build();
+        final List<LocalDate> nights = findLocalDateBetween(startDate, endDate);
+        metrics.time(CREATE, "claim", () -> claimNights(siteId, nights, reservation.getId()));
+        final CampsiteReservation saved = metrics.time(CREATE, "save", () -> saveOrReleaseNights(reservation, nights));
+        metrics.time(CREATE, "confirm", () -> confirmNights(saved, nights, () -> repository.delete(saved)));
+        occupancyIndex.markReserved(siteId, startDate, endDate);
+        return saved;
+    }
+
+    /**
+     * The added and removed nights are relative to the dates the reservation was read with, and the move is only saved if
+     * it still has them, so they are the nights it actually gains and frees. A move that lost to another change of the
+     * reservation releases the nights it claimed.
+     */
+    private CampsiteReservation updateClaimedReservation(CampsiteReservation entity, LocalDate startDate, LocalDate endDate) {
+        final List<LocalDate> previousNights = findLocalDateBetween(entity.getStartDate(), entity.getEndDate());
+        final List<LocalDate> nights = findLocalDateBetween(startDate, endDate);
+        final List<LocalDate> addedNights = nights.stream().filter(night -> !previousNights.contains(night)).collect(toList());
+        final List<LocalDate> removedNights = previousNights.stream().filter(night -> !nights.contains(night)).collect(toList());
+        metrics.time(UPDATE, "claim", () -> claimNights(entity.getSiteId(), addedNights, entity.getId()));
+        final LocalDate previousStartDate = entity.getStartDate();
+        final LocalDate previousEndDate = entity.getEndDate();
+        metrics.time(UPDATE, "save", () -> moveOrReleaseNights(entity, startDate, endDate, addedNights));
+        metrics.time(UPDATE, "confirm", () -> confirmNights(entity, addedNights, () -> {
+            if (!moveBack(entity, previousStartDate, previousEndDate)) {
+                // Cancelled or moved again since, either way it no longer has the nights it gave up
+                reservationDayRepository.releaseDays(entity.getSiteId(), removedNights, entity.getId());
+            }
+        }));
+        metrics.time(UPDATE, "release", () -> reservationDayRepository.releaseDays(entity.getSiteId(), removedNights, entity.getId()));
+        return entity;
+    }
+
+    /**
+     * Claim the nights for the reservation. If any of them is already claimed throw a CampsiteReservationConflictException.
+     */
+    private void claimNights(String siteId, List<LocalDate> nights, String reservationId) {
+        final List<LocalDate> conflictingNights = claimDays(siteId, nights, reservationId);
+        if (!conflictingNights.isEmpty()) {
+            metrics.countConflict("claimed");
+            metrics.countContention(siteId, conflictingNights);
+            throw new CampsiteReservationConflictException(conflictingNights);
+        }
+    }
+
+    /**
+     * A night held by an expired pending claim is claimed again once that claim is given up, which only reports the first
+     * night in conflict, so this goes on while claims are given up. It ends since each attempt gives up at least one claim.
+     *
+     * @return the nights that are claimed by another reservation, empty if all the nights were claimed.
+     */
+    private List<LocalDate> claimDays(String siteId, List<LocalDate> nights, String reservationId) {
+        List<LocalDate> conflictingNights = reservationDayRepository.claimDays(siteId, nights, reservationId);
+        for (int attempt = 0; attempt < nights.size() && !conflictingNights.isEmpty() && releaseOrphanedClaims(siteId, conflictingNights); attempt++) {
+            conflictingNights = reservationDayRepository.claimDays(siteId, nights, reservationId);
+        }
+        return conflictingNights;
+    }
+
+    /**
+     * A claim stays pending until its reservation is saved, so an instance that died in between leaves expired pending
+     * claims behind. Such a claim is only given up when its reservation does not hold the night: one that was saved but
+     * whose claims could not be confirmed is confirmed now instead.
+     *
+     * @return true if any of the claims was given up.
+     */
+    private boolean releaseOrphanedClaims(String siteId, List<LocalDate> conflictingNights) {
+        boolean released = false;
+        for (ReservationDay claim : reservationDayRepository.findExpiredClaims(siteId, conflictingNights)) {
+            final LocalDate night = LocalDate.parse(claim.getDay());
+            final boolean isHeld = repository.findById(claim.getReservationId())
+                    .filter(reservation -> siteId.equals(reservation.getSiteId()) && isDayInInterval(night, reservation.getStartDate(), reservation.getEndDate()))
+                    .isPresent();
+            if (isHeld) {
+                reservationDayRepository.confirmDays(siteId, singletonList(night), claim.getReservationId());
+            } else {
+                reservationDayRepository.releaseExpiredDays(siteId, singletonList(night), claim.getReservationId());
+                released = true;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * The claims are confirmed once the reservation is saved. If one of them expired and was given up before, another
+     * reservation may hold the night by now, so the save is undone.
+     */
+    private void confirmNights(CampsiteReservation reservation, List<LocalDate> claimedNights, Runnable undo) {
+        if (!reservationDayRepository.confirmDays(reservation.getSiteId(), claimedNights, reservation.getId())) {
+            undo.run();
+            reservationDayRepository.releaseDays(reservation.getSiteId(), claimedNights, reservation.getId());
+            metrics.countConflict("claim-expired");
+            throw new CampsiteReservationConflictException(claimedNights);
+        }
+    }
+
+    /**
+     * The nights were claimed before moving, so they must be released if the reservation can't be moved.
+     */
+    private void moveOrReleaseNights(CampsiteReservation entity, LocalDate startDate, LocalDate endDate, List<LocalDate> claimedNights) {
+        try {
+            moveAsRead(entity, startDate, endDate);
+        } catch (RuntimeException e) {
+            reservationDayRepository.releaseDays(entity.getSiteId(), claimedNights, entity.getId());
+            throw e;
+        }
+    }
+
+    /**
+     * Another request that moved or cancelled the reservation in the meantime worked from the same dates, so saving over
+     * it could keep nights that were freed and booked since: the move is in conflict instead.
+     */
+    private void moveAsRead(CampsiteReservation entity, LocalDate startDate, LocalDate endDate) {
+        if (!moveAndMark(entity, startDate, endDate)) {
+            metrics.countConflict("moved");
+            throw new CampsiteReservationConflictException(findLocalDateBetween(startDate, endDate));
+        }
+    }
+
+    /**
+     * Undo a move, unless the reservation was changed again since.
+     *
+     * @return false if the reservation was moved or cancelled since, and kept where that change left it.
+     */
+    private boolean moveBack(CampsiteReservation entity, LocalDate previousStartDate, LocalDate previousEndDate) {
+        return moveAndMark(entity, previousStartDate, previousEndDate);
+    }
+
+    /**
+     * Save the new dates of the reservation, only if it still has the dates it was read with, then mark them and set them
+     * on the entity.
+     *
+     * @return false if the reservation was moved or cancelled since it was read.
+     */
+    private boolean moveAndMark(CampsiteReservation entity, LocalDate startDate, LocalDate endDate) {
+        final LocalDate previousStartDate = entity.getStartDate();
+        final LocalDate previousEndDate = entity.getEndDate();
+        return occupancyIndex.changeReservation(entity.getId(), () -> {
+            if (!repository.move(entity, startDate, endDate)) {
+                return false;
+            }
+            occupancyIndex.markMoved(entity.getSiteId(), previousStartDate, previousEndDate, startDate, endDate);
+            entity.setStartDate(startDate);
+            entity.setEndDate(endDate);
+            return true;
+        });
+    }
+
+    /**
+     * The nights were claimed before saving, so they must be released if the reservation can't be saved.
+     */
+    private CampsiteReservation saveOrReleaseNights(CampsiteReservation reservation, List<LocalDate> claimedNights) {
+        try {
+            return repository.save(reservation);
+        } catch (RuntimeException e) {
+            reservationDayRepository.releaseDays(reservation.getSiteId(), claimedNights, reservation.getId());
+            throw e;
+        }
+    }
+
+    /**
+     * Verify if we can get a lock on all dates we need. If not throw a CampsiteReservationConflictException.
+     * Each attempt locks the dates under its own unique owner, so it can only ever release its own locks.
+     */
+    private DateLease lockDatesForProcessing(String siteId, List<LocalDate> dates) {
+        final DateLease lease = availableDateLockRepository.lockDates(siteId, dates, UUID.randomUUID().toString());
+        if (!lease.isAcquired()) {
+            metrics.countConflict("locked");
+            metrics.countContention(siteId, lease.getConflictingDates());
+            throw new CampsiteReservationConflictException(lease.getConflictingDates());
+        }
+        return lease;
+    }
+
+    /**
+     * Verify that the lease did not expire, and was not taken over by a newer one, while we were processing the
+     * reservation. If it was, whoever holds the dates now could be saving a reservation for them as well.
+     */
+    private void checkLeaseIsHeld(DateLease lease) {
+        if (!availableDateLockRepository.isHeld(lease)) {
+            metrics.countConflict("lease-lost");
+            throw new CampsiteReservationConflictException(lease.getDates());
+        }
+    }
+
+    /**
+     * Record the token of the lease on its dates before checking them, a newer lease that already fenced them took the
+     * dates over.
+     */
+    private void fenceDates(DateLease lease) {
+        if (!availableDateLockRepository.fence(lease)) {
+            metrics.countConflict("fenced");
+            throw new CampsiteReservationConflictException(lease.getDates());
+        }
+    }
+
+    /**
+     * The lease can still be taken over between the check of {@link #checkLeaseIsHeld} and the save. A newer lease fences
+     * the dates before checking them: if it did not fence them yet it will find what was saved, otherwise it may have
+     * checked them before the save, which is then undone.
+     */
+    private void checkStillFenced(DateLease lease, Runnable undo) {
+        if (!availableDateLockRepository.isFenced(lease)) {
+            undo.run();
+            metrics.countConflict("fenced");
+            throw new CampsiteReservationConflictException(lease.getDates());
+        }
+    }
+
+    private void unlockDates(DateLease lease) {
+        availableDateLockRepository.freeDates(lease.getSiteId(), lease.getDates(), lease.getOwner());
+    }
+
+    /**
+     * This goes to the repository rather than the {@link OccupancyIndex} since the index can miss the reservations made
+     * through another instance since it last reloaded the site.
+     */
+    private void checkForAvailability(String siteId, LocalDate startDate, LocalDate endDate) {
+        final List<LocalDate> reservedDates = getReservedDatesBetween(siteId, startDate, endDate);
+        if (!reservedDates.isEmpty()) {
+            metrics.countConflict("reserved");
+            throw new CampsiteReservationConflictException(reservedDates);
+        }
+    }
+
+    /**
+     * Check the nights against the reservations of the site other than the one being moved, so its own nights don't
+     * count as conflicts.
+     */
+    private void checkForAvailability(String siteId, List<LocalDate> nights, String movedReservationId) {
+        final Set<LocalDate> wantedNights = new HashSet<>(nights);
+        final List<LocalDate> reservedDates = repository.findOverlapping(siteId, nights.get(0), nights.get(nights.size() - 1).plusDays(1)).stream()
+                .filter(reservation -> !reservation.getId().equals(movedReservationId))
+                .flatMap(reservation -> findLocalDateBetween(reservation.getStartDate(), reservation.getEndDate()).stream())
+                .filter(wantedNights::contains)
+                .sorted()
+                .collect(toList());
         if (!reservedDates.isEmpty()) {
+            metrics.countConflict("reserved");
             throw new CampsiteReservationConflictException(reservedDates);
         }
     }
 
-    private List<LocalDate> getReservedDatesBetween(LocalDate fromInterval, LocalDate toInterval) {
-        return StreamSupport.stream(repository.findAll().spliterator(), false)
-                .filter(campsiteReservation -> isDayInInterval(campsiteReservation.getStartDate(), fromInterval, toInterval))
+    /**
+     * Only the reservations overlapping the interval are loaded, and their dates are clipped to the interval since a
+     * reservation can start before or end after it.
+     */
+    private List<LocalDate> getReservedDatesBetween(String siteId, LocalDate fromInterval, LocalDate toInterval) {
+        return repository.findOverlapping(siteId, fromInterval, toInterval).stream()
                 .flatMap(campsiteReservation -> findLocalDateBetween(campsiteReservation.getStartDate(), campsiteReservation.getEndDate()).stream())
+                .filter(date -> isDayInInterval(date, fromInterval, toInterval))
                 .collect(toList());
     }
 
@@ -97,42 +857,135 @@ public class CampsiteService {
         return (day.isEqual(fromInterval) || day.isAfter(fromInterval)) && day.isBefore(toInterval);
     }
 
-    private List<LocalDate> findLocalDateBetween(LocalDate start, LocalDate end) {
+    static List<LocalDate> findLocalDateBetween(LocalDate start, LocalDate end) {
         final long nbDaysBetween = DAYS.between(start, end);
         return LongStream.range(0, nbDaysBetween).mapToObj(offset -> start.plusDays(offset)).collect(Collectors.toList());
     }
 
-    public Iterable<CampsiteReservation> getAllReservation() {
-        return repository.findAll();
+    public Iterable<CampsiteReservation> getAllReservation(String siteId) {
+        validator.validateSite(siteId);
+        return repository.findBySiteId(siteId);
     }
 
-    public CampsiteReservation updateReservation(String id, CampsiteReservation reservation) {
-        final CampsiteReservation entity = repository.findById(id)
-                .orElseThrow(() -> new NoSuchElementException(format("No reservation with id=%s was found", id)));
+    /**
+     * The reservations of the user on the site, by start date, past ones included.
+     */
+    public List<CampsiteReservation> getReservationsOfUser(String siteId, String email) {
+        validator.validateSite(siteId);
+        validator.validateEmail(email);
+        return repository.findBySiteIdAndUserEmailOrderByStartDateAsc(siteId, email);
+    }
+
+    /**
+     * The reservations of the site starting in [from, until), in (startDate, id) order. Both dates are optional.
+     *
+     * @param after where the page starts, null for the first page.
+     */
+    public ReservationPage getReservationPage(String siteId, LocalDate from, LocalDate until, ReservationCursor after, int limit) {
+        validator.validateSite(siteId);
+        validator.validatePage(limit, from, until);
+        final List<CampsiteReservation> reservations = repository.findPage(siteId, from, until, after, limit);
+        return ReservationPage.builder()
+                .reservations(reservations)
+                .next(reservations.size() < limit ? null : ReservationCursor.after(reservations.get(reservations.size() - 1)))
+                .build();
+    }
+
+    /**
+     * Same order and filters as the pages, but read from a single cursor. The stream must be closed once consumed.
+     */
+    public Stream<CampsiteReservation> streamReservations(String siteId, LocalDate from, LocalDate until) {
+        validator.validateSite(siteId);
+        validator.validatePage(1, from, until);
+        return repository.streamAll(siteId, from, until);
+    }
+
+    public CampsiteReservation updateReservation(String siteId, String id, CampsiteReservation reservation) {
+        final CampsiteReservation entity = metrics.time(UPDATE, "find", () -> findReservation(siteId, id));
         if (!entity.getUser().equals(reservation.getUser())) {
             throw new IllegalArgumentException("It's not possible to change the owner of a reservation, only the reservation time can be changed");
         }
         final LocalDate startDate = reservation.getStartDate();
         final LocalDate endDate = reservation.getEndDate();
         validator.validateReservation(startDate, endDate);
-        if(lockDatesForProcessing(startDate, endDate)) {
-            try {
-                checkForAvailability(startDate, endDate);
-                entity.setStartDate(startDate);
-                entity.setEndDate(endDate);
-                return repository.save(entity);
-            } finally {
-                unlockDates(startDate, endDate);
+        try {
+            if (sequencer != null) {
+                return metrics.time(UPDATE, "sequencer", () -> awaitDecision(sequencer.move(entity, startDate, endDate)));
+            }
+            if (reservationDayRepository != null) {
+                return updateClaimedReservation(entity, startDate, endDate);
+            }
+            return updateLockedReservation(entity, startDate, endDate);
+        } catch (CampsiteReservationConflictException e) {
+            throw metrics.time(UPDATE, "alternatives", () -> withAlternatives(e, siteId, startDate, endDate));
+        }
+    }
+
+    /**
+     * A move only locks the nights it adds and only checks those against the other reservations, so the nights it keeps
+     * never conflict with the reservation itself and a shorter stay takes no lock at all. The nights it releases are
+     * freed by the save of the new dates, which writes a single document, so no booking can see them free before the
+     * move is saved.
+     *
+     * Against a concurrent booking: a booking of an added night either holds its lock first, and the move is in conflict,
+     * or waits for the move to release it and then finds the night reserved. A booking of a kept or released night always
+     * finds the reservation on it until the move is saved, and only the released nights after.
+     *
+     * The kept and added nights are relative to the dates the reservation was read with, so the move is only saved if
+     * the reservation still has them. Otherwise another move could have freed the kept nights, which may be booked since.
+     */
+    private CampsiteReservation updateLockedReservation(CampsiteReservation entity, LocalDate startDate, LocalDate endDate) {
+        final String siteId = entity.getSiteId();
+        final List<LocalDate> previousNights = findLocalDateBetween(entity.getStartDate(), entity.getEndDate());
+        final List<LocalDate> addedNights = findLocalDateBetween(startDate, endDate).stream().filter(night -> !previousNights.contains(night)).collect(toList());
+        final DateLease lease = addedNights.isEmpty() ? null : metrics.time(UPDATE, "lock", () -> lockDatesForProcessing(siteId, addedNights));
+        try {
+            if (lease != null) {
+                metrics.time(UPDATE, "fence", () -> fenceDates(lease));
+                metrics.time(UPDATE, "check", () -> checkForAvailability(siteId, addedNights, entity.getId()));
+            }
+            final LocalDate previousStartDate = entity.getStartDate();
+            final LocalDate previousEndDate = entity.getEndDate();
+            if (lease != null) {
+                metrics.time(UPDATE, "lease", () -> checkLeaseIsHeld(lease));
+            }
+            metrics.time(UPDATE, "save", () -> moveAsRead(entity, startDate, endDate));
+            if (lease != null) {
+                metrics.time(UPDATE, "verify", () -> checkStillFenced(lease, () -> moveBack(entity, previousStartDate, previousEndDate)));
+            }
+            return entity;
+        } finally {
+            if (lease != null) {
+                metrics.time(UPDATE, "unlock", () -> unlockDates(lease));
             }
         }
-        throw new CampsiteReservationConflictException(findLocalDateBetween(startDate, endDate));
+    }
 
+    /**
+     * The nights freed are those of the reservation as it was deleted, not as it was read, since it may have been moved
+     * in between.
+     */
+    public void deleteReservation(String siteId, String id) {
+        findReservation(siteId, id);
+        final CampsiteReservation entity = occupancyIndex.changeReservation(id, () -> {
+            final CampsiteReservation cancelled = repository.cancel(id).orElseThrow(() -> new NoSuchElementException(format("No reservation with id=%s was found", id)));
+            occupancyIndex.markAvailable(siteId, cancelled.getStartDate(), cancelled.getEndDate());
+            return cancelled;
+        });
+        if (reservationDayRepository != null) {
+            // Released after the delete: if this fails the nights stay claimed, which is safer than a reservation without claims
+            reservationDayRepository.releaseDays(siteId, findLocalDateBetween(entity.getStartDate(), entity.getEndDate()), entity.getId());
+        }
     }
 
-    public void deleteReservation(String id) {
-        final CampsiteReservation entity = repository.findById(id)
+    /**
+     * A reservation of another site is treated as missing, so a reservation can only be changed through its own site.
+     */
+    private CampsiteReservation findReservation(String siteId, String id) {
+        validator.validateSite(siteId);
+        return repository.findById(id)
+                .filter(reservation -> siteId.equals(reservation.getSiteId()))
                 .orElseThrow(() -> new NoSuchElementException(format("No reservation with id=%s was found", id)));
-        repository.delete(entity);
     }
 
 }
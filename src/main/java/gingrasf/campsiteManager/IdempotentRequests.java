@@ -0,0 +1,146 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.IdempotencyRecord;
+import gingrasf.campsiteManager.persistence.IdempotencyRepository;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Processes a request made with an Idempotency-Key at most once: the response is stored under the key, and a retry with
+ * the same key gets the stored response back without being processed again.
+ *
+ * The rejections decided by the request itself, a conflict or a bad request, are stored like any other response since
+ * a retry would get the same answer, or worse a different one once the dates are taken by the first attempt. Any other
+ * failure releases the key so the request can be retried.
+ *
+ * A duplicate arriving while the first request is still processed waits for its response. Within this instance it
+ * waits for the first request to finish, while a request processed by another instance is polled for until its
+ * response is stored or its lease expires.
+ *
+ * The lease of a request is renewed while it is processed, so a slow request keeps its key and only the key of a request
+ * whose instance died is taken over. The pending record holds a token of the request, and the response is only stored,
+ * or the key released, by the request still holding it.
+ */
+public class IdempotentRequests {
+
+    private final IdempotencyRepository repository;
+    private final Duration timeToLive;
+    private final Duration leaseDuration;
+    private final long pollIntervalMillis;
+    private final ConcurrentMap<String, CompletableFuture<Void>> inProgress = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "idempotency-lease-renewer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public IdempotentRequests(IdempotencyRepository repository, Duration timeToLive, Duration leaseDuration, Duration pollInterval) {
+        this.repository = repository;
+        this.timeToLive = timeToLive;
+        this.leaseDuration = leaseDuration;
+        this.pollIntervalMillis = pollInterval.toMillis();
+    }
+
+    public void shutdown() {
+        renewer.shutdownNow();
+    }
+
+    /**
+     * @param fingerprint what the request asks for. Reusing a key for a request with another fingerprint is a bad request.
+     */
+    public ResponseEntity<String> process(String key, String fingerprint, Supplier<ResponseEntity<String>> request) {
+        while (true) {
+            final CompletableFuture<Void> processed = new CompletableFuture<>();
+            final CompletableFuture<Void> running = inProgress.putIfAbsent(key, processed);
+            if (running != null) {
+                running.join();
+                continue;
+            }
+            try {
+                final String owner = UUID.randomUUID().toString();
+                final Optional<IdempotencyRecord> existing = repository.begin(key, owner, fingerprint, leaseDuration);
+                if (!existing.isPresent()) {
+                    return processOnce(key, owner, request);
+                }
+                final IdempotencyRecord record = existing.get();
+                if (!fingerprint.equals(record.getFingerprint())) {
+                    throw new IllegalArgumentException("The Idempotency-Key was already used for another request");
+                }
+                if (record.isCompleted()) {
+                    return replay(record);
+                }
+            } finally {
+                inProgress.remove(key, processed);
+                processed.complete(null);
+            }
+            waitForAnotherInstance();
+        }
+    }
+
+    private ResponseEntity<String> processOnce(String key, String owner, Supplier<ResponseEntity<String>> request) {
+        final ResponseEntity<String> response;
+        final ScheduledFuture<?> renewal = renewLeaseOf(key, owner);
+        try {
+            response = request.get();
+        } catch (CampsiteReservationConflictException e) {
+            repository.complete(key, owner, HttpStatus.CONFLICT.value(), null, e.getMessage(), timeToLive);
+            throw e;
+        } catch (IllegalArgumentException e) {
+            repository.complete(key, owner, HttpStatus.BAD_REQUEST.value(), null, e.getMessage(), timeToLive);
+            throw e;
+        } catch (RuntimeException e) {
+            repository.forget(key, owner);
+            throw e;
+        } finally {
+            renewal.cancel(false);
+        }
+        final String contentType = ofNullable(response.getHeaders().getContentType()).map(Object::toString).orElse(null);
+        repository.complete(key, owner, response.getStatusCodeValue(), contentType, response.getBody(), timeToLive);
+        return response;
+    }
+
+    /**
+     * Renewed three times per lease, so a renewal can be late or fail once without losing the lease. A failed renewal is
+     * tried again on the next one rather than stopping the renewals.
+     */
+    private ScheduledFuture<?> renewLeaseOf(String key, String owner) {
+        final long renewEveryMillis = Math.max(leaseDuration.toMillis() / 3, 1);
+        return renewer.scheduleWithFixedDelay(() -> {
+            try {
+                repository.renew(key, owner, leaseDuration);
+            } catch (RuntimeException e) {
+                // Renewed again on the next run
+            }
+        }, renewEveryMillis, renewEveryMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ResponseEntity<String> replay(IdempotencyRecord record) {
+        final HttpHeaders headers = new HttpHeaders();
+        ofNullable(record.getContentType()).ifPresent(contentType -> headers.set(HttpHeaders.CONTENT_TYPE, contentType));
+        return new ResponseEntity<>(record.getBody(), headers, HttpStatus.valueOf(record.getStatus()));
+    }
+
+    private void waitForAnotherInstance() {
+        try {
+            Thread.sleep(pollIntervalMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the request with the same Idempotency-Key", e);
+        }
+    }
+}
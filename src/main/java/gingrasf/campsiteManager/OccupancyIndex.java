@@ -0,0 +1,375 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * In-memory view of the reserved days of each campsite, kept as one bit per day starting today.
+ *
+ * Since a reservation can only start up to one month in advance and last at most
+ * {@link CampsiteReservationValidator#MAX_RESERVATION_DURATION} days, every bookable day fits in the {@link #HORIZON_DAYS}
+ * days tracked here. Days past the horizon are always available.
+ *
+ * The reserved days of a site are loaded from the repository the first time the site is used, and each site is locked
+ * on its own so writes to different sites never contend. Reads never lock, they work on an immutable snapshot. Writes are
+ * expected to be made by the {@link CampsiteService} once a reservation change is persisted, and each of them bumps the
+ * {@link #getVersion(String) version} of the site.
+ *
+ * The writes only cover the reservations made through this instance, so the sites are also reloaded from the repository
+ * every refresh interval, and right after midnight to slide the horizon. A reload that finds other days reserved than the
+ * ones known here bumps the version and notifies the listeners of the days that changed, like a write would.
+ */
+public class OccupancyIndex {
+
+    public static final int HORIZON_DAYS = Long.SIZE;
+
+    private static final int RESERVATION_STRIPES = 64;
+
+    private final CampsiteRepository repository;
+
+    private final Map<String, Site> sites = new ConcurrentHashMap<>();
+
+    /**
+     * The versions of all the sites come from this counter, so a site loaded again never goes back to an older version.
+     */
+    private final AtomicLong versions = new AtomicLong();
+
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    private final Object[] reservationStripes = IntStream.range(0, RESERVATION_STRIPES).mapToObj(stripe -> new Object()).toArray();
+
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * The sites are only loaded once, for a single instance or for the tests.
+     */
+    public OccupancyIndex(CampsiteRepository repository) {
+        this(repository, Duration.ZERO);
+    }
+
+    /**
+     * @param refreshInterval how often the sites are reloaded from the repository, zero to never reload them.
+     */
+    public OccupancyIndex(CampsiteRepository repository, Duration refreshInterval) {
+        this.repository = repository;
+        if (refreshInterval.isZero()) {
+            this.refresher = null;
+        } else {
+            this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "occupancy-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(this::refresh, refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+            scheduleMidnightRefresh();
+        }
+    }
+
+    public void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * Forget the reserved days of all the sites, each site is reloaded from the repository the next time it is used.
+     */
+    public void rebuild() {
+        sites.clear();
+    }
+
+    /**
+     * Reload the reserved days of all the sites used so far.
+     */
+    public void refresh() {
+        refresh(sites.keySet());
+    }
+
+    /**
+     * Reload the reserved days of the sites, loading the ones never used so far. A site that fails to load keeps its
+     * reserved days until the next refresh, and the other sites are still reloaded.
+     */
+    public void refresh(Collection<String> siteIds) {
+        for (String siteId : siteIds) {
+            try {
+                final Site site = sites.get(siteId);
+                if (site == null) {
+                    site(siteId);
+                } else {
+                    site.reload();
+                }
+            } catch (RuntimeException e) {
+                // Reloaded on the next refresh
+            }
+        }
+    }
+
+    /**
+     * @return a counter bumped every time the reserved days of the site are loaded, a reservation of the site is
+     * created, moved or cancelled through this instance, or a reload finds the site changed through another one.
+     */
+    public long getVersion(String siteId) {
+        return site(siteId).version;
+    }
+
+    public boolean isReserved(String siteId, LocalDate date) {
+        return site(siteId).current().isReserved(date.toEpochDay());
+    }
+
+    /**
+     * @return the reserved days of the site in the [from, until) interval, in chronological order.
+     */
+    public List<LocalDate> getReservedDatesBetween(String siteId, LocalDate from, LocalDate until) {
+        final Occupancy snapshot = site(siteId).current();
+        return LongStream.range(from.toEpochDay(), until.toEpochDay())
+                .filter(snapshot::isReserved)
+                .mapToObj(LocalDate::ofEpochDay)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Flag the days of the [startDate, endDate) interval as reserved on the site.
+     */
+    public void markReserved(String siteId, LocalDate startDate, LocalDate endDate) {
+        site(siteId).mark(startDate, endDate, true);
+    }
+
+    /**
+     * Flag the days of the [startDate, endDate) interval as available on the site.
+     */
+    public void markAvailable(String siteId, LocalDate startDate, LocalDate endDate) {
+        site(siteId).mark(startDate, endDate, false);
+    }
+
+    /**
+     * Flag the days of a reservation moved from [previousStartDate, previousEndDate) to [startDate, endDate). The days it
+     * keeps are never flagged available in between, only the days it releases are, and no other change of the site is
+     * applied in between either.
+     *
+     * The previous dates must be the ones the saved move replaced, otherwise the days released are not the ones the
+     * reservation actually freed.
+     */
+    public void markMoved(String siteId, LocalDate previousStartDate, LocalDate previousEndDate, LocalDate startDate, LocalDate endDate) {
+        final Site site = site(siteId);
+        synchronized (site) {
+            site.mark(startDate, endDate, true);
+            if (previousStartDate.isBefore(startDate)) {
+                site.mark(previousStartDate, previousEndDate.isBefore(startDate) ? previousEndDate : startDate, false);
+            }
+            if (previousEndDate.isAfter(endDate)) {
+                site.mark(previousStartDate.isAfter(endDate) ? previousStartDate : endDate, previousEndDate, false);
+            }
+        }
+    }
+
+    /**
+     * Save a change of an existing reservation and mark it, while no other change of the same reservation is. Otherwise a
+     * move and a cancellation of the reservation could be marked in the opposite order they were saved, and leave the
+     * days of a cancelled reservation reserved. The reservations share a few stripes, so the change should only be the
+     * save and its marks.
+     */
+    public <T> T changeReservation(String reservationId, Supplier<T> change) {
+        synchronized (reservationStripes[Math.floorMod(reservationId.hashCode(), RESERVATION_STRIPES)]) {
+            return change.get();
+        }
+    }
+
+    /**
+     * The listener is called every time days are marked reserved or available, or a reload finds them changed. It is
+     * called while the site is locked so it must return quickly.
+     */
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Move the start of the horizon of the site forward. Package-private so the tests don't have to wait for tomorrow.
+     */
+    void slideTo(String siteId, long today) {
+        site(siteId).slideTo(today);
+    }
+
+    private Site site(String siteId) {
+        return sites.computeIfAbsent(siteId, this::load);
+    }
+
+    private Site load(String siteId) {
+        return new Site(siteId, loadOccupancy(siteId), versions.incrementAndGet());
+    }
+
+    private Occupancy loadOccupancy(String siteId) {
+        final LocalDate today = LocalDate.now();
+        Occupancy loaded = new Occupancy(today.toEpochDay(), 0L);
+        for (CampsiteReservation reservation : repository.findOverlapping(siteId, today, today.plusDays(HORIZON_DAYS))) {
+            loaded = loaded.with(reservation.getStartDate(), reservation.getEndDate(), true);
+        }
+        return loaded;
+    }
+
+    /**
+     * Scheduled one day at a time rather than at a fixed rate, so the refresh stays at midnight across daylight saving
+     * changes.
+     */
+    private void scheduleMidnightRefresh() {
+        final LocalDateTime now = LocalDateTime.now();
+        final Duration untilMidnight = Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay());
+        refresher.schedule(() -> {
+            refresh();
+            scheduleMidnightRefresh();
+        }, untilMidnight.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public interface ChangeListener {
+
+        /**
+         * The days of the [startDate, endDate) interval of the site were marked reserved, or available.
+         */
+        void onChange(String siteId, LocalDate startDate, LocalDate endDate, boolean reserved);
+    }
+
+    private final class Site {
+
+        private final String siteId;
+        private volatile Occupancy occupancy;
+        private volatile long version;
+
+        private Site(String siteId, Occupancy occupancy, long version) {
+            this.siteId = siteId;
+            this.occupancy = occupancy;
+            this.version = version;
+        }
+
+        synchronized void mark(LocalDate startDate, LocalDate endDate, boolean reserved) {
+            occupancy = current().with(startDate, endDate, reserved);
+            version = versions.incrementAndGet();
+            changeListeners.forEach(listener -> listener.onChange(siteId, startDate, endDate, reserved));
+        }
+
+        /**
+         * The repository is read without locking the site, so a write of this instance made meanwhile may be missing from
+         * what was read. The reload is then dropped, and the site reloaded on the next refresh. A reservation persisted but
+         * not marked yet is harmless either way, since its mark only sets the days it reserves or frees.
+         */
+        void reload() {
+            final long readVersion = version;
+            final Occupancy loaded = loadOccupancy(siteId);
+            synchronized (this) {
+                if (version != readVersion) {
+                    return;
+                }
+                final Occupancy previous = slideTo(loaded.getStartDay());
+                final Occupancy reloaded = loaded.slideTo(previous.getStartDay());
+                final long changedDays = previous.getReservedDays() ^ reloaded.getReservedDays();
+                if (changedDays == 0) {
+                    return;
+                }
+                occupancy = reloaded;
+                version = versions.incrementAndGet();
+                notifyChanges(reloaded, changedDays);
+            }
+        }
+
+        /**
+         * Each run of consecutive days that changed the same way is notified as a single change.
+         */
+        private void notifyChanges(Occupancy reloaded, long changedDays) {
+            int offset = Long.numberOfTrailingZeros(changedDays);
+            while (offset < HORIZON_DAYS) {
+                final long startDay = reloaded.getStartDay() + offset;
+                final boolean reserved = reloaded.isReserved(startDay);
+                int end = offset + 1;
+                while (end < HORIZON_DAYS && (changedDays & (1L << end)) != 0 && reloaded.isReserved(reloaded.getStartDay() + end) == reserved) {
+                    end++;
+                }
+                final LocalDate startDate = LocalDate.ofEpochDay(startDay);
+                final LocalDate endDate = LocalDate.ofEpochDay(reloaded.getStartDay() + end);
+                changeListeners.forEach(listener -> listener.onChange(siteId, startDate, endDate, reserved));
+                offset = end == HORIZON_DAYS ? HORIZON_DAYS : end + Long.numberOfTrailingZeros(changedDays >>> end);
+            }
+        }
+
+        Occupancy current() {
+            final Occupancy snapshot = occupancy;
+            final long today = LocalDate.now().toEpochDay();
+            return snapshot.getStartDay() >= today ? snapshot : slideTo(today);
+        }
+
+        /**
+         * Move the start of the horizon forward, dropping the days that are now in the past. The days entering the
+         * horizon are available since they were too far ahead to be booked.
+         */
+        synchronized Occupancy slideTo(long today) {
+            if (occupancy.getStartDay() < today) {
+                occupancy = occupancy.slideTo(today);
+            }
+            return occupancy;
+        }
+    }
+
+    private static final class Occupancy {
+
+        private final long startDay;
+        private final long reservedDays;
+
+        private Occupancy(long startDay, long reservedDays) {
+            this.startDay = startDay;
+            this.reservedDays = reservedDays;
+        }
+
+        long getStartDay() {
+            return startDay;
+        }
+
+        long getReservedDays() {
+            return reservedDays;
+        }
+
+        boolean isReserved(long epochDay) {
+            final long offset = epochDay - startDay;
+            return offset >= 0 && offset < HORIZON_DAYS && (reservedDays & (1L << offset)) != 0;
+        }
+
+        Occupancy with(LocalDate startDate, LocalDate endDate, boolean reserved) {
+            final long mask = maskBetween(startDate.toEpochDay(), endDate.toEpochDay());
+            return new Occupancy(startDay, reserved ? reservedDays | mask : reservedDays & ~mask);
+        }
+
+        Occupancy slideTo(long newStartDay) {
+            if (newStartDay <= startDay) {
+                return this;
+            }
+            final long shift = newStartDay - startDay;
+            return new Occupancy(newStartDay, shift >= HORIZON_DAYS ? 0L : reservedDays >>> shift);
+        }
+
+        /**
+         * @return a mask with the bits of the [fromDay, untilDay) interval set, clipped to the horizon.
+         */
+        private long maskBetween(long fromDay, long untilDay) {
+            final long from = Math.max(fromDay - startDay, 0);
+            final long until = Math.min(untilDay - startDay, HORIZON_DAYS);
+            if (from >= until) {
+                return 0L;
+            }
+            final long upperBits = until == HORIZON_DAYS ? -1L : (1L << until) - 1;
+            return upperBits & (-1L << from);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.AvailabilityFormat;
+import gingrasf.campsiteManager.model.CampsiteAvailability;
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import java.time.LocalDate;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * The reservation and availability endpoints of the {@link CampsiteManagerController} on WebFlux, served by the
+ * {@link ReactiveCampsiteService} when the reactive profile is active. The paths, the bodies and the statuses are the
+ * same for the operations on a single reservation and for the availability. Listing the reservations isn't paged here:
+ * the from, until, cursor and limit parameters and the Link header are only on the servlet stack.
+ */
+@RestController
+@RequestMapping("/campsite")
+@Profile("reactive")
+public class ReactiveCampsiteManagerController {
+
+    private final ReactiveCampsiteService campsiteService;
+
+    public ReactiveCampsiteManagerController(ReactiveCampsiteService campsiteService) {
+        this.campsiteService = campsiteService;
+    }
+
+    @GetMapping({"/availability", "/{siteId}/availability"})
+    public Mono<CampsiteAvailability> getAvailability(@PathVariable(name = "siteId", required = false) String siteId,
+                                                      @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                      @RequestParam(name = "until", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate until,
+                                                      @RequestParam(name = "format", required = false, defaultValue = "dates") String format) {
+        return campsiteService.getAvailabilityBetween(siteOrDefault(siteId), ofNullable(from).orElse(LocalDate.now()), ofNullable(until).orElse(LocalDate.now().plusMonths(1)), AvailabilityFormat.fromValue(format));
+    }
+
+    @PutMapping({"/reservation", "/{siteId}/reservation"})
+    public Mono<String> createReservation(@PathVariable(name = "siteId", required = false) String siteId, @Valid @RequestBody CampsiteReservation reservation) {
+        return campsiteService.createReservation(siteOrDefault(siteId), reservation.getUser(), reservation.getStartDate(), reservation.getEndDate()).map(CampsiteReservation::getId);
+    }
+
+    /**
+     * Every reservation of the site, without pages. With an email, every reservation of that user by start date, as on
+     * the servlet stack.
+     */
+    @GetMapping({"/reservation", "/{siteId}/reservation"})
+    public Flux<CampsiteReservation> getAllReservations(@PathVariable(name = "siteId", required = false) String siteId,
+                                                        @RequestParam(name = "email", required = false) String email) {
+        if (email != null) {
+            return campsiteService.getReservationsOfUser(siteOrDefault(siteId), email);
+        }
+        return campsiteService.getAllReservation(siteOrDefault(siteId));
+    }
+
+    @DeleteMapping({"/reservation/{id}", "/{siteId}/reservation/{id}"})
+    public Mono<Void> delete(@PathVariable(name = "siteId", required = false) String siteId, @PathVariable("id") String id) {
+        return campsiteService.deleteReservation(siteOrDefault(siteId), id);
+    }
+
+    @PostMapping({"/reservation/{id}", "/{siteId}/reservation/{id}"})
+    public Mono<CampsiteReservation> update(@PathVariable(name = "siteId", required = false) String siteId, @PathVariable("id") String id, @Valid @RequestBody CampsiteReservation reservation) {
+        return campsiteService.updateReservation(siteOrDefault(siteId), id, reservation);
+    }
+
+    /**
+     * Same answers as the {@link ControllerExceptionHandler}, which only applies to the servlet stack.
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleBadRequest(Exception ex) {
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(CampsiteReservationConflictException.class)
+    public ResponseEntity<String> handleConflict(Exception ex) {
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.CONFLICT);
+    }
+
+    private static String siteOrDefault(String siteId) {
+        return ofNullable(siteId).orElse(CampsiteService.DEFAULT_SITE_ID);
+    }
+}
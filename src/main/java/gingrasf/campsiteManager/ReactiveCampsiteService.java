@@ -0,0 +1,241 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.AvailabilityFormat;
+import gingrasf.campsiteManager.model.CampsiteAvailability;
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.DateLease;
+import gingrasf.campsiteManager.model.User;
+import gingrasf.campsiteManager.persistence.ReactiveAvailableDateLockRepository;
+import gingrasf.campsiteManager.persistence.ReactiveCampsiteRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static gingrasf.campsiteManager.CampsiteService.findLocalDateBetween;
+import static java.lang.String.format;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Non-blocking counterpart of the single reservation operations of the {@link CampsiteService}, with the same validation,
+ * including the limit of upcoming reservations per user, and the same answers. A reservation locks its dates with the
+ * same Mongo leases, so both services can work on the same campsites at the same time. The bulk, batch, paged and
+ * idempotent operations are only on the {@link CampsiteService}.
+ *
+ * Nothing is kept in memory: the availability is read from the reservations overlapping the period, which also makes
+ * it consistent across the instances.
+ */
+public class ReactiveCampsiteService {
+
+    private final ReactiveCampsiteRepository repository;
+    private final ReactiveAvailableDateLockRepository availableDateLockRepository;
+    private final CampsiteReservationValidator validator;
+
+    public ReactiveCampsiteService(ReactiveCampsiteRepository repository, ReactiveAvailableDateLockRepository availableDateLockRepository, CampsiteReservationValidator validator) {
+        this.repository = repository;
+        this.availableDateLockRepository = availableDateLockRepository;
+        this.validator = validator;
+    }
+
+    public Mono<CampsiteAvailability> getAvailabilityBetween(String siteId, LocalDate from, LocalDate until, AvailabilityFormat format) {
+        return Mono.defer(() -> {
+            validator.validateSite(siteId);
+            CampsiteService.validateAvailabilityPeriod(validator, from, until);
+            return getReservedDatesBetween(siteId, from, until)
+                    .map(reservedDates -> CampsiteService.buildAvailability(from, until, format, date -> !reservedDates.contains(date)));
+        });
+    }
+
+    public Mono<CampsiteReservation> createReservation(String siteId, User user, LocalDate startDate, LocalDate endDate) {
+        return Mono.defer(() -> {
+            validator.validateSite(siteId);
+            validator.validateReservation(startDate, endDate);
+            validator.validateUser(user);
+            final CampsiteReservation reservation = CampsiteReservation.builder()
+                    .id(UUID.randomUUID().toString())
+                    .siteId(siteId)
+                    .startDate(startDate)
+                    .endDate(endDate)
+                    .user(user)
+                    .build();
+            return checkUpcomingReservations(user)
+                    .then(Mono.defer(() -> withLockedDates(siteId, startDate, endDate, findLocalDateBetween(startDate, endDate), lease -> fenceDates(lease)
+                            .then(checkForAvailability(siteId, startDate, endDate))
+                            .then(checkLeaseIsHeld(lease))
+                            .then(Mono.defer(() -> repository.save(reservation)))
+                            .flatMap(saved -> checkStillFenced(lease, repository.delete(saved)).thenReturn(saved)))));
+        });
+    }
+
+    public Flux<CampsiteReservation> getAllReservation(String siteId) {
+        return Flux.defer(() -> {
+            validator.validateSite(siteId);
+            return repository.findBySiteId(siteId);
+        });
+    }
+
+    /**
+     * The reservations of the user on the site, by start date, past ones included.
+     */
+    public Flux<CampsiteReservation> getReservationsOfUser(String siteId, String email) {
+        return Flux.defer(() -> {
+            validator.validateSite(siteId);
+            validator.validateEmail(email);
+            return repository.findBySiteIdAndUserEmailOrderByStartDateAsc(siteId, email);
+        });
+    }
+
+    public Mono<CampsiteReservation> updateReservation(String siteId, String id, CampsiteReservation reservation) {
+        return findReservation(siteId, id).flatMap(entity -> {
+            if (!entity.getUser().equals(reservation.getUser())) {
+                throw new IllegalArgumentException("It's not possible to change the owner of a reservation, only the reservation time can be changed");
+            }
+            final LocalDate startDate = reservation.getStartDate();
+            final LocalDate endDate = reservation.getEndDate();
+            validator.validateReservation(startDate, endDate);
+            final List<LocalDate> previousNights = findLocalDateBetween(entity.getStartDate(), entity.getEndDate());
+            final List<LocalDate> addedNights = findLocalDateBetween(startDate, endDate).stream().filter(night -> !previousNights.contains(night)).collect(toList());
+            final LocalDate previousStartDate = entity.getStartDate();
+            final LocalDate previousEndDate = entity.getEndDate();
+            // Only saved if the reservation still has the dates it was read with, like in the CampsiteService
+            final Mono<CampsiteReservation> move = Mono.defer(() -> repository.move(entity, startDate, endDate))
+                    .flatMap(moved -> {
+                        if (!moved) {
+                            return Mono.<CampsiteReservation>error(new CampsiteReservationConflictException(findLocalDateBetween(startDate, endDate)));
+                        }
+                        entity.setStartDate(startDate);
+                        entity.setEndDate(endDate);
+                        return Mono.just(entity);
+                    });
+            if (addedNights.isEmpty()) {
+                return move;
+            }
+            final Mono<Boolean> moveBack = Mono.defer(() -> repository.move(entity, previousStartDate, previousEndDate))
+                    .doOnNext(moved -> {
+                        if (moved) {
+                            entity.setStartDate(previousStartDate);
+                            entity.setEndDate(previousEndDate);
+                        }
+                    });
+            return withLockedDates(siteId, startDate, endDate, addedNights, lease -> fenceDates(lease)
+                    .then(checkForAvailability(siteId, addedNights, entity.getId()))
+                    .then(checkLeaseIsHeld(lease))
+                    .then(move)
+                    .flatMap(saved -> checkStillFenced(lease, moveBack.then()).thenReturn(saved)));
+        });
+    }
+
+    public Mono<Void> deleteReservation(String siteId, String id) {
+        return findReservation(siteId, id).flatMap(repository::delete);
+    }
+
+    /**
+     * Each attempt locks the nights under its own unique owner. The nights are released once the action is done, whether
+     * it succeeded or not, and a conflict comes with the nearest free stays of [startDate, endDate) like in the
+     * {@link CampsiteService}. A move only locks the nights it adds, as in the {@link CampsiteService}.
+     */
+    private Mono<CampsiteReservation> withLockedDates(String siteId, LocalDate startDate, LocalDate endDate, List<LocalDate> nights, Function<DateLease, Mono<CampsiteReservation>> action) {
+        return availableDateLockRepository.lockDates(siteId, nights, UUID.randomUUID().toString())
+                .flatMap(lease -> {
+                    if (!lease.isAcquired()) {
+                        return Mono.<CampsiteReservation>error(new CampsiteReservationConflictException(lease.getConflictingDates()));
+                    }
+                    return action.apply(lease)
+                            .onErrorResume(e -> unlockDates(lease).then(Mono.error(e)))
+                            .flatMap(result -> unlockDates(lease).thenReturn(result));
+                })
+                .onErrorResume(CampsiteReservationConflictException.class, e -> withAlternatives(e, siteId, startDate, endDate));
+    }
+
+    /**
+     * The alternatives are only a hint: if they can't be found the conflict is reported without them.
+     */
+    private Mono<CampsiteReservation> withAlternatives(CampsiteReservationConflictException conflict, String siteId, LocalDate startDate, LocalDate endDate) {
+        final int nights = (int) DAYS.between(startDate, endDate);
+        final LocalDate firstStart = CampsiteService.firstWindowStart();
+        return getReservedDatesBetween(siteId, firstStart, CampsiteService.lastWindowEnd(nights))
+                .map(reservedDates -> CampsiteService.withAlternatives(conflict, startDate, nights, CampsiteService.findFreeWindowStarts(firstStart, nights, date -> !reservedDates.contains(date))))
+                .onErrorReturn(conflict)
+                .flatMap(alternatives -> Mono.<CampsiteReservation>error(alternatives));
+    }
+
+    /**
+     * The upcoming reservations of the user are counted before the dates are locked, as in the {@link CampsiteService}.
+     */
+    private Mono<Void> checkUpcomingReservations(User user) {
+        return repository.countByUserEmailAndEndDateAfter(user.getEmail(), LocalDate.now())
+                .doOnNext(upcoming -> validator.validateUpcomingReservations(() -> upcoming))
+                .then();
+    }
+
+    private Mono<Void> checkLeaseIsHeld(DateLease lease) {
+        return availableDateLockRepository.isHeld(lease)
+                .flatMap(held -> held ? Mono.<Void>empty() : Mono.error(new CampsiteReservationConflictException(lease.getDates())));
+    }
+
+    /**
+     * The dates are fenced before being checked and the fence is checked again once saved, as in the {@link CampsiteService}.
+     */
+    private Mono<Void> fenceDates(DateLease lease) {
+        return availableDateLockRepository.fence(lease)
+                .flatMap(fenced -> fenced ? Mono.<Void>empty() : Mono.error(new CampsiteReservationConflictException(lease.getDates())));
+    }
+
+    /**
+     * @param undo reverts the save when a newer lease fenced the dates in the meantime.
+     */
+    private Mono<Void> checkStillFenced(DateLease lease, Mono<Void> undo) {
+        return availableDateLockRepository.isFenced(lease)
+                .flatMap(fenced -> fenced ? Mono.<Void>empty() : undo.then(Mono.error(new CampsiteReservationConflictException(lease.getDates()))));
+    }
+
+    private Mono<Void> unlockDates(DateLease lease) {
+        return availableDateLockRepository.freeDates(lease.getSiteId(), lease.getDates(), lease.getOwner());
+    }
+
+    private Mono<Void> checkForAvailability(String siteId, LocalDate startDate, LocalDate endDate) {
+        return getReservedDatesBetween(siteId, startDate, endDate)
+                .flatMap(reservedDates -> reservedDates.isEmpty() ? Mono.<Void>empty() : Mono.error(new CampsiteReservationConflictException(reservedDates.stream().sorted().collect(toList()))));
+    }
+
+    /**
+     * The nights of the reservation being moved don't count as conflicts.
+     */
+    private Mono<Void> checkForAvailability(String siteId, List<LocalDate> nights, String movedReservationId) {
+        return repository.findOverlapping(siteId, nights.get(0), nights.get(nights.size() - 1).plusDays(1))
+                .filter(reservation -> !reservation.getId().equals(movedReservationId))
+                .flatMapIterable(reservation -> findLocalDateBetween(reservation.getStartDate(), reservation.getEndDate()))
+                .filter(nights::contains)
+                .collectSortedList()
+                .flatMap(reservedDates -> reservedDates.isEmpty() ? Mono.<Void>empty() : Mono.error(new CampsiteReservationConflictException(reservedDates)));
+    }
+
+    /**
+     * Only the reservations overlapping the interval are loaded, and their dates are clipped to the interval.
+     */
+    private Mono<Set<LocalDate>> getReservedDatesBetween(String siteId, LocalDate from, LocalDate until) {
+        return repository.findOverlapping(siteId, from, until)
+                .flatMapIterable(reservation -> findLocalDateBetween(reservation.getStartDate(), reservation.getEndDate()))
+                .filter(date -> !date.isBefore(from) && date.isBefore(until))
+                .collect(HashSet::new, Set::add);
+    }
+
+    /**
+     * A reservation of another site is treated as missing, so a reservation can only be changed through its own site.
+     */
+    private Mono<CampsiteReservation> findReservation(String siteId, String id) {
+        return Mono.defer(() -> {
+            validator.validateSite(siteId);
+            return repository.findById(id)
+                    .filter(reservation -> siteId.equals(reservation.getSiteId()))
+                    .switchIfEmpty(Mono.error(new NoSuchElementException(format("No reservation with id=%s was found", id))));
+        });
+    }
+}
@@ -0,0 +1,210 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Decides every reservation change of this instance on a single writer thread, instead of locking the days.
+ *
+ * The commands wait in a bounded queue and the writer takes them in batches. Since it is the only one making
+ * reservations, the {@link OccupancyIndex} is the authoritative state of the days and a conflict is decided in memory
+ * without any round trip. The commands accepted in a batch are then saved with a single write, and only marked in the
+ * index once saved. A command is answered through its future, with the saved reservation or with a conflict.
+ *
+ * Like the in-process locks, this is only safe when a single instance is running.
+ */
+public class ReservationSequencer {
+
+    private final CampsiteRepository repository;
+    private final OccupancyIndex occupancyIndex;
+    private final BlockingQueue<Command> commands;
+    private final int batchSize;
+    private final long timeoutNanos;
+    private final Thread writer;
+
+    public ReservationSequencer(CampsiteRepository repository, OccupancyIndex occupancyIndex, int queueCapacity, int batchSize, Duration timeout) {
+        this.repository = repository;
+        this.occupancyIndex = occupancyIndex;
+        this.commands = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.timeoutNanos = timeout.toNanos();
+        this.writer = new Thread(this::run, "reservation-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Reserve the nights of a new reservation, which already has its id and site.
+     */
+    public CompletableFuture<CampsiteReservation> create(CampsiteReservation reservation) {
+        return submit(new Command(reservation, reservation.getStartDate(), reservation.getEndDate(), false));
+    }
+
+    /**
+     * Move a saved reservation to new dates. Its current nights don't conflict with the new ones.
+     */
+    public CompletableFuture<CampsiteReservation> move(CampsiteReservation reservation, LocalDate startDate, LocalDate endDate) {
+        return submit(new Command(reservation, startDate, endDate, true));
+    }
+
+    public void shutdown() {
+        writer.interrupt();
+    }
+
+    /**
+     * A queue still full after the timeout is reported as a conflict on the requested nights, like a lock that can't be
+     * taken in time: the campsite is too busy to take the reservation right now.
+     */
+    private CompletableFuture<CampsiteReservation> submit(Command command) {
+        try {
+            if (!commands.offer(command, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                command.result.completeExceptionally(new CampsiteReservationConflictException(command.nights()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            command.result.completeExceptionally(e);
+        }
+        return command.result;
+    }
+
+    private void run() {
+        final List<Command> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.add(commands.take());
+                commands.drainTo(batch, batchSize - 1);
+                try {
+                    process(batch);
+                } catch (RuntimeException e) {
+                    // Keeps the writer alive, the commands already answered are left as they are
+                    batch.forEach(command -> command.result.completeExceptionally(e));
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            batch.addAll(commands);
+            batch.forEach(command -> command.result.completeExceptionally(new IllegalStateException("The reservation writer was stopped")));
+        }
+    }
+
+    /**
+     * The nights freed by a move only become available once it is saved, so the other commands of its batch still see
+     * them reserved.
+     */
+    private void process(List<Command> batch) {
+        final Map<String, Set<LocalDate>> nightsTakenBySite = new HashMap<>();
+        final List<Command> accepted = new ArrayList<>();
+        for (Command command : batch) {
+            final String siteId = command.reservation.getSiteId();
+            final Set<LocalDate> nightsTaken = nightsTakenBySite.computeIfAbsent(siteId, site -> new HashSet<>());
+            final Set<LocalDate> ownNights = command.move ? new HashSet<>(nightsBetween(command.previousStartDate, command.previousEndDate)) : Collections.emptySet();
+            try {
+                final List<LocalDate> conflictingNights = command.nights().stream()
+                        .filter(night -> nightsTaken.contains(night) || (occupancyIndex.isReserved(siteId, night) && !ownNights.contains(night)))
+                        .collect(toList());
+                if (!conflictingNights.isEmpty()) {
+                    command.result.completeExceptionally(new CampsiteReservationConflictException(conflictingNights));
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                command.result.completeExceptionally(e);
+                continue;
+            }
+            nightsTaken.addAll(command.nights());
+            accepted.add(command);
+        }
+        if (!accepted.isEmpty()) {
+            save(accepted);
+        }
+    }
+
+    /**
+     * The new reservations of the batch are saved with a single write, and if it fails every one of them fails. Each move
+     * is saved on its own, only if the reservation still has the dates it was read with: it may have been moved or
+     * cancelled since, and then the nights it would keep are not its own anymore.
+     */
+    private void save(List<Command> accepted) {
+        final List<Command> creates = accepted.stream().filter(command -> !command.move).collect(toList());
+        if (!creates.isEmpty()) {
+            try {
+                repository.saveAll(creates.stream().map(command -> command.reservation).collect(toList()));
+                creates.forEach(command -> {
+                    occupancyIndex.markReserved(command.reservation.getSiteId(), command.startDate, command.endDate);
+                    command.result.complete(command.reservation);
+                });
+            } catch (RuntimeException e) {
+                creates.forEach(command -> command.result.completeExceptionally(e));
+            }
+        }
+        accepted.stream().filter(command -> command.move).forEach(this::saveMove);
+    }
+
+    private void saveMove(Command command) {
+        final CampsiteReservation reservation = command.reservation;
+        try {
+            final boolean moved = occupancyIndex.changeReservation(reservation.getId(), () -> {
+                if (!repository.move(reservation, command.startDate, command.endDate)) {
+                    return false;
+                }
+                occupancyIndex.markMoved(reservation.getSiteId(), command.previousStartDate, command.previousEndDate, command.startDate, command.endDate);
+                return true;
+            });
+            if (!moved) {
+                command.result.completeExceptionally(new CampsiteReservationConflictException(command.nights()));
+                return;
+            }
+        } catch (RuntimeException e) {
+            command.result.completeExceptionally(e);
+            return;
+        }
+        reservation.setStartDate(command.startDate);
+        reservation.setEndDate(command.endDate);
+        command.result.complete(reservation);
+    }
+
+    private static List<LocalDate> nightsBetween(LocalDate startDate, LocalDate endDate) {
+        return LongStream.range(0, DAYS.between(startDate, endDate)).mapToObj(startDate::plusDays).collect(toList());
+    }
+
+    private static final class Command {
+
+        private final CampsiteReservation reservation;
+        private final LocalDate previousStartDate;
+        private final LocalDate previousEndDate;
+        private final LocalDate startDate;
+        private final LocalDate endDate;
+        private final boolean move;
+        private final CompletableFuture<CampsiteReservation> result = new CompletableFuture<>();
+
+        private Command(CampsiteReservation reservation, LocalDate startDate, LocalDate endDate, boolean move) {
+            this.reservation = reservation;
+            this.previousStartDate = reservation.getStartDate();
+            this.previousEndDate = reservation.getEndDate();
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.move = move;
+        }
+
+        List<LocalDate> nights() {
+            return nightsBetween(startDate, endDate);
+        }
+    }
+}
@@ -1,29 +1,168 @@
 package gingrasf.campsiteManager.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gingrasf.campsiteManager.AvailabilityBroadcaster;
+import gingrasf.campsiteManager.AvailabilityCache;
+import gingrasf.campsiteManager.CampsiteMetrics;
 import gingrasf.campsiteManager.CampsiteReservationValidator;
 import gingrasf.campsiteManager.CampsiteService;
+import gingrasf.campsiteManager.IdempotentRequests;
+import gingrasf.campsiteManager.OccupancyIndex;
+import gingrasf.campsiteManager.ReactiveCampsiteService;
+import gingrasf.campsiteManager.ReservationSequencer;
 import gingrasf.campsiteManager.persistence.AvailableDateLockRepository;
 import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import gingrasf.campsiteManager.persistence.IdempotencyRepository;
+import gingrasf.campsiteManager.persistence.JournalCampsiteRepository;
+import gingrasf.campsiteManager.persistence.MongoIdempotencyRepository;
+import gingrasf.campsiteManager.persistence.MonthBucketReservationDayRepository;
 import gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository;
+import gingrasf.campsiteManager.persistence.MongoReservationDayRepository;
+import gingrasf.campsiteManager.persistence.ReactiveAvailableDateLockRepository;
+import gingrasf.campsiteManager.persistence.ReactiveCampsiteRepository;
+import gingrasf.campsiteManager.persistence.ReactiveMongoConcurrencySafeRepository;
+import gingrasf.campsiteManager.persistence.ReservationDayRepository;
+import gingrasf.campsiteManager.persistence.SiteMigration;
+import gingrasf.campsiteManager.persistence.StripedDateLockRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+import java.nio.file.Paths;
 
 @Configuration
+@EnableConfigurationProperties(CampsiteManagerProperties.class)
 public class CampsiteManagerConfig {
 
     @Bean
-    public CampsiteReservationValidator validator() {
-        return new CampsiteReservationValidator();
+    public CampsiteReservationValidator validator(CampsiteManagerProperties properties) {
+        return new CampsiteReservationValidator(properties.getAvailability().getMaxWindowDays(), properties.getSites(), properties.getReservation().getMaxUpcomingPerUser());
+    }
+
+    @Bean
+    public AvailableDateLockRepository availableDateLockRepository(CampsiteManagerProperties properties) {
+        final CampsiteManagerProperties.Lock lock = properties.getLock();
+        if (lock.getMode() == CampsiteManagerProperties.Lock.Mode.IN_PROCESS) {
+            return new StripedDateLockRepository(lock.getStripes(), lock.getTimeout());
+        }
+        return new MongoConcurrencySafeRepository(lock.getLeaseDuration());
+    }
+
+    @Bean
+    public ReservationDayRepository reservationDayRepository(CampsiteManagerProperties properties) {
+        if (properties.getLock().getMode() == CampsiteManagerProperties.Lock.Mode.MONTH_BUCKETS) {
+            return new MonthBucketReservationDayRepository(properties.getLock().getLeaseDuration());
+        }
+        return new MongoReservationDayRepository(properties.getLock().getLeaseDuration());
+    }
+
+    /**
+     * Takes precedence over the Mongo repository, which is still created but no longer used for the reservations.
+     */
+    @Bean(destroyMethod = "close")
+    @Primary
+    @ConditionalOnProperty(name = "campsite.storage.mode", havingValue = "journal")
+    public CampsiteRepository journalCampsiteRepository(CampsiteManagerProperties properties) {
+        final CampsiteManagerProperties.Storage storage = properties.getStorage();
+        return new JournalCampsiteRepository(Paths.get(storage.getDirectory()), storage.getSnapshotEvery());
+    }
+
+    /**
+     * Runs before the index loads the sites, which would otherwise miss the reservations stored without a site.
+     */
+    @Bean(initMethod = "run")
+    public SiteMigration siteMigration() {
+        return new SiteMigration(CampsiteService.DEFAULT_SITE_ID);
+    }
+
+    /**
+     * The sites of the park are loaded on startup rather than on their first request.
+     */
+    @Bean(destroyMethod = "shutdown")
+    @DependsOn("siteMigration")
+    public OccupancyIndex occupancyIndex(CampsiteRepository campsiteRepository, CampsiteManagerProperties properties) {
+        final OccupancyIndex occupancyIndex = new OccupancyIndex(campsiteRepository, properties.getAvailability().getIndexRefreshInterval());
+        occupancyIndex.refresh(properties.getSites());
+        return occupancyIndex;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "campsite.lock.mode", havingValue = "sequencer")
+    public ReservationSequencer reservationSequencer(CampsiteRepository campsiteRepository, OccupancyIndex occupancyIndex, CampsiteManagerProperties properties) {
+        final CampsiteManagerProperties.Lock lock = properties.getLock();
+        return new ReservationSequencer(campsiteRepository, occupancyIndex, lock.getQueueCapacity(), lock.getBatchSize(), lock.getTimeout());
+    }
+
+    @Bean
+    public CampsiteMetrics campsiteMetrics(MeterRegistry meterRegistry) {
+        return new CampsiteMetrics(meterRegistry);
     }
 
     @Bean
-    public AvailableDateLockRepository availableDateLockRepository() {
-        return new MongoConcurrencySafeRepository();
+    public CampsiteService campsiteService(CampsiteManagerProperties properties, CampsiteRepository campsiteRepository, AvailableDateLockRepository availableDateLockRepository, ReservationDayRepository reservationDayRepository, ObjectProvider<ReservationSequencer> reservationSequencer, CampsiteReservationValidator validator, OccupancyIndex occupancyIndex, CampsiteMetrics campsiteMetrics) {
+        final CampsiteManagerProperties.Lock.Mode mode = properties.getLock().getMode();
+        if (mode == CampsiteManagerProperties.Lock.Mode.SEQUENCER) {
+            return new CampsiteService(campsiteRepository, reservationSequencer.getObject(), validator, occupancyIndex, campsiteMetrics);
+        }
+        if (mode == CampsiteManagerProperties.Lock.Mode.CLAIMS || mode == CampsiteManagerProperties.Lock.Mode.MONTH_BUCKETS) {
+            return new CampsiteService(campsiteRepository, reservationDayRepository, validator, occupancyIndex, campsiteMetrics);
+        }
+        return new CampsiteService(campsiteRepository, availableDateLockRepository, validator, occupancyIndex, campsiteMetrics);
+    }
+
+    /**
+     * The reactive stack always locks the dates with the Mongo leases, whatever the lock mode of the servlet stack.
+     */
+    @Bean
+    @Profile("reactive")
+    public ReactiveAvailableDateLockRepository reactiveAvailableDateLockRepository(CampsiteManagerProperties properties) {
+        return new ReactiveMongoConcurrencySafeRepository(properties.getLock().getLeaseDuration());
+    }
+
+    @Bean
+    @Profile("reactive")
+    public ReactiveCampsiteService reactiveCampsiteService(ReactiveCampsiteRepository reactiveCampsiteRepository, ReactiveAvailableDateLockRepository reactiveAvailableDateLockRepository, CampsiteReservationValidator validator) {
+        return new ReactiveCampsiteService(reactiveCampsiteRepository, reactiveAvailableDateLockRepository, validator);
+    }
+
+    @Bean
+    public AvailabilityCache availabilityCache(CampsiteService campsiteService, OccupancyIndex occupancyIndex, ObjectMapper objectMapper, CampsiteManagerProperties properties) {
+        return new AvailabilityCache(campsiteService, occupancyIndex, objectMapper, properties.getAvailability().getCacheMaxAge());
+    }
+
+    @Bean
+    public IdempotencyRepository idempotencyRepository() {
+        return new MongoIdempotencyRepository();
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public IdempotentRequests idempotentRequests(IdempotencyRepository idempotencyRepository, CampsiteManagerProperties properties) {
+        final CampsiteManagerProperties.Idempotency idempotency = properties.getIdempotency();
+        return new IdempotentRequests(idempotencyRepository, idempotency.getTimeToLive(), idempotency.getLeaseDuration(), idempotency.getPollInterval());
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public AvailabilityBroadcaster availabilityBroadcaster(OccupancyIndex occupancyIndex, AvailabilityCache availabilityCache, CampsiteManagerProperties properties) {
+        final CampsiteManagerProperties.Availability availability = properties.getAvailability();
+        return new AvailabilityBroadcaster(occupancyIndex, availabilityCache, availability.getStreamFlushInterval(), availability.getStreamTimeout());
     }
 
+    /**
+     * The held locks are counted each time the gauge is scraped, with the Mongo locks that's a count query.
+     */
     @Bean
-    public CampsiteService campsiteService(CampsiteRepository campsiteRepository, AvailableDateLockRepository availableDateLockRepository, CampsiteReservationValidator validator) {
-        return new CampsiteService(campsiteRepository, availableDateLockRepository, validator);
+    public MeterBinder heldLocksMetrics(AvailableDateLockRepository availableDateLockRepository) {
+        return registry -> Gauge.builder(CampsiteMetrics.HELD_LOCKS_GAUGE, availableDateLockRepository, AvailableDateLockRepository::countHeldLocks)
+                .description("Number of date locks currently held")
+                .register(registry);
     }
 
 
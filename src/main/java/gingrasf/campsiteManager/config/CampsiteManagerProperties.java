@@ -0,0 +1,166 @@
+package gingrasf.campsiteManager.config;
+
+import gingrasf.campsiteManager.CampsiteReservationValidator;
+import gingrasf.campsiteManager.CampsiteService;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Tuning knobs of the Campsite Manager, bound from the campsite.* properties.
+ */
+@Data
+@ConfigurationProperties("campsite")
+public class CampsiteManagerProperties {
+
+    /**
+     * Ids of the campsites of the park, as used in the /campsite/{siteId}/... paths. The paths without a site use the
+     * default one.
+     */
+    private List<String> sites = new ArrayList<>(singletonList(CampsiteService.DEFAULT_SITE_ID));
+
+    private final Lock lock = new Lock();
+
+    private final Storage storage = new Storage();
+
+    private final Availability availability = new Availability();
+
+    private final Idempotency idempotency = new Idempotency();
+
+    private final Reservation reservation = new Reservation();
+
+    @Data
+    public static class Lock {
+
+        /**
+         * Where the locks on the days are kept. The in-process locks are only safe when a single instance is running.
+         * With claims, each reservation claims its nights instead and no lock is taken, either with a document per night
+         * or with a bitmask per month. The reservations made before switching to claims have no claims for their nights,
+         * so this is meant for a fresh campsite. With the sequencer, a single writer thread decides every reservation in
+         * memory and saves them in batches, which like the in-process locks is only safe when a single instance is running.
+         */
+        private Mode mode = Mode.MONGO;
+
+        /**
+         * How long a lock on a day is held before it can be taken over, in case its owner never releases it. This is also
+         * how long a claim stays pending before it can be given up, in case its reservation is never saved.
+         */
+        private Duration leaseDuration = Duration.ofSeconds(30);
+
+        /**
+         * Number of in-process locks the days of each site are spread over.
+         */
+        private int stripes = 64;
+
+        /**
+         * How long to wait for the in-process locks of a reservation, or for room in the queue of the sequencer, before
+         * reporting a conflict.
+         */
+        private Duration timeout = Duration.ofMillis(500);
+
+        /**
+         * Number of reservations that can wait for the writer of the sequencer.
+         */
+        private int queueCapacity = 1024;
+
+        /**
+         * Maximum number of reservations the writer of the sequencer decides and saves at once.
+         */
+        private int batchSize = 128;
+
+        public enum Mode {
+            MONGO, IN_PROCESS, CLAIMS, MONTH_BUCKETS, SEQUENCER
+        }
+    }
+
+    @Data
+    public static class Storage {
+
+        /**
+         * Where the reservations are kept. With the journal they are kept in memory and made durable by appending to a
+         * journal file of this instance, so like the in-process locks it is only safe when a single instance is running.
+         */
+        private Mode mode = Mode.MONGO;
+
+        /**
+         * Directory of the journal and of its snapshot.
+         */
+        private String directory = "data/journal";
+
+        /**
+         * Number of events after which the journal is replaced by a snapshot of the reservations, which bounds the
+         * number of events to replay on startup.
+         */
+        private long snapshotEvery = 100_000;
+
+        public enum Mode {
+            MONGO, JOURNAL
+        }
+    }
+
+    @Data
+    public static class Availability {
+
+        /**
+         * How long a cached availability can be served, to pick up the reservations made through other instances.
+         */
+        private Duration cacheMaxAge = Duration.ofSeconds(5);
+
+        /**
+         * How often the reserved days known by this instance are reloaded, to pick up the reservations made, moved or
+         * cancelled through the other instances. Zero to never reload them when a single instance is running.
+         */
+        private Duration indexRefreshInterval = Duration.ofSeconds(5);
+
+        /**
+         * Longest period, in days, the availability can be queried for at once.
+         */
+        private int maxWindowDays = CampsiteReservationValidator.DEFAULT_MAX_AVAILABILITY_WINDOW;
+
+        /**
+         * How often the changes are sent to the subscribers of the availability stream. The changes made in between are
+         * merged into a single event.
+         */
+        private Duration streamFlushInterval = Duration.ofMillis(200);
+
+        /**
+         * How long a subscription to the availability stream lasts before the client has to reconnect.
+         */
+        private Duration streamTimeout = Duration.ofMinutes(30);
+    }
+
+    @Data
+    public static class Idempotency {
+
+        /**
+         * How long the response of a request made with an Idempotency-Key is kept for its retries.
+         */
+        private Duration timeToLive = Duration.ofHours(24);
+
+        /**
+         * How long a request holds its Idempotency-Key without renewing it, before a retry can take it over in case the
+         * instance processing it died. The lease is renewed while the request is processed.
+         */
+        private Duration leaseDuration = Duration.ofSeconds(30);
+
+        /**
+         * How often a retry checks for the response of a request with the same key processed by another instance.
+         */
+        private Duration pollInterval = Duration.ofMillis(50);
+    }
+
+    @Data
+    public static class Reservation {
+
+        /**
+         * Number of reservations ending after today a user can have on the whole park, 0 for no limit. Two reservations
+         * made by the same user at the same time can both be accepted, so this is a policy rather than a hard limit.
+         */
+        private int maxUpcomingPerUser = 0;
+    }
+}
@@ -2,14 +2,19 @@ package gingrasf.campsiteManager.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import springfox.documentation.builders.PathSelectors;
 import springfox.documentation.builders.RequestHandlerSelectors;
 import springfox.documentation.spi.DocumentationType;
 import springfox.documentation.spring.web.plugins.Docket;
 import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
+/**
+ * Springfox only documents the servlet stack.
+ */
 @Configuration
 @EnableSwagger2
+@Profile("!reactive")
 public class SwaggerConfig {
 
     @Bean
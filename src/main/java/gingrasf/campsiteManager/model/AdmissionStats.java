@@ -0,0 +1,22 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Counts of the reservations rejected in conflict since this instance started.
+ */
+@Builder
+@Value
+public class AdmissionStats {
+
+    /**
+     * Rejected by the pre-check, before any night was locked or claimed.
+     */
+    long precheckRejections;
+
+    /**
+     * Rejected after locking or claiming their nights.
+     */
+    long fullPathConflicts;
+}
@@ -0,0 +1,24 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Days of a subscribed period whose availability changed since the previous event.
+ */
+@Builder
+@Value
+public class AvailabilityDelta {
+    /**
+     * Days that became available, in chronological order.
+     */
+    List<LocalDate> availableDates;
+
+    /**
+     * Days that became reserved, in chronological order.
+     */
+    List<LocalDate> reservedDates;
+}
@@ -0,0 +1,33 @@
+package gingrasf.campsiteManager.model;
+
+import static java.lang.String.format;
+
+/**
+ * How the available dates of a {@link CampsiteAvailability} are represented.
+ */
+public enum AvailabilityFormat {
+
+    /**
+     * Every available date, in {@link CampsiteAvailability#getAvailableDates()}.
+     */
+    DATES,
+
+    /**
+     * The runs of consecutive available dates, in {@link CampsiteAvailability#getAvailableRanges()}.
+     */
+    RANGES,
+
+    /**
+     * One bit per day of the search period, in {@link CampsiteAvailability#getAvailableDays()}.
+     */
+    BITMAP;
+
+    public static AvailabilityFormat fromValue(String value) {
+        for (AvailabilityFormat format : values()) {
+            if (format.name().equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException(format("Unknown availability format %s, it must be one of dates, ranges or bitmap", value));
+    }
+}
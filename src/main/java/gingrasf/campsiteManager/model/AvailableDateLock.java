@@ -4,24 +4,48 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.NoArgsConstructor;
 import lombok.Value;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
 
 
 @AllArgsConstructor
 @NoArgsConstructor(force = true)
 @Builder
 @Value
+@Document
 /**
- * Simple wrapper entity used to represent a lock on single day while we are processing a reservation. This ensure
- * that only one request is processing a reservation for that specific day.
+ * Simple wrapper entity used to represent a lease on single day while we are processing a reservation. This ensure
+ * that only one request is processing a reservation for that specific day. The lease expires on its own so a crashed
+ * instance can't keep a day locked forever.
  */
+@CompoundIndex(name = "siteId_date", def = "{ 'siteId' : 1, 'date' : 1 }", unique = true)
 public class AvailableDateLock {
+    /**
+     * The campsite the day belongs to. Each site has its own locks, so reservations of different sites never contend.
+     */
+    String siteId;
+
     /**
      * String representation of a day in ISO-8601. Ex: 2019-01-30
      */
     String date;
 
     /**
-     * String to represent the current owner of a lock.
+     * Unique token representing the reservation attempt currently owning the lock.
      */
     String owner;
+
+    /**
+     * Monotonically increasing token given to each lease. A lease taken over after an expiry always gets a greater token.
+     */
+    long fencingToken;
+
+    @Indexed(expireAfterSeconds = 0)
+    /**
+     * When the lease expires. Past that time the lock can be taken over, and Mongo eventually removes it.
+     */
+    Date expiresAt;
 }
@@ -0,0 +1,28 @@
+package gingrasf.campsiteManager.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Answer for one of the ranges of a batch availability query. Either the availability or the error is filled.
+ */
+@Builder
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchAvailability {
+    /**
+     * The range as it was requested.
+     */
+    DateRange range;
+
+    /**
+     * The availability of the range, when the range is valid.
+     */
+    CampsiteAvailability availability;
+
+    /**
+     * Why the availability of the range can't be queried, when the range is not valid.
+     */
+    String error;
+}
@@ -0,0 +1,28 @@
+package gingrasf.campsiteManager.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Outcome of one of the reservations of a bulk creation. Either the id or the error is filled.
+ */
+@Builder
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkReservation {
+    /**
+     * The reservation as it was requested.
+     */
+    CampsiteReservation reservation;
+
+    /**
+     * The id of the created reservation, when it could be made.
+     */
+    String id;
+
+    /**
+     * Why the reservation could not be made, when it is not valid or in conflict.
+     */
+    String error;
+}
@@ -0,0 +1,34 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+
+/**
+ * Availability already serialized to JSON, as computed for one version of the reservations.
+ */
+@Builder
+@Value
+public class CachedAvailability {
+
+    /**
+     * The version of the {@link gingrasf.campsiteManager.OccupancyIndex} it was computed for.
+     */
+    long version;
+
+    /**
+     * The serialized {@link CampsiteAvailability}.
+     */
+    String json;
+
+    /**
+     * Strong ETag of the JSON, quoted as sent in the ETag header.
+     */
+    String etag;
+
+    /**
+     * When it was computed.
+     */
+    Instant computedAt;
+}
@@ -1,19 +1,36 @@
 package gingrasf.campsiteManager.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Builder;
 import lombok.Value;
 
 import java.time.LocalDate;
 import java.util.List;
 
+/**
+ * Only one of the representations of the available dates is filled, depending on the requested {@link AvailabilityFormat}.
+ */
 @Builder
 @Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class CampsiteAvailability {
     /**
      * List of dates available for the campsite for the searched period.
      */
     List<LocalDate> availableDates;
 
+    /**
+     * The runs of consecutive dates available for the campsite for the searched period, in chronological order.
+     */
+    List<DateRange> availableRanges;
+
+    /**
+     * Base64 bitmap of the days available for the campsite, where the bit i is set when the i-th day of the searched
+     * period is available. The bits are numbered from the least significant bit of the first byte, as in
+     * {@link java.util.BitSet#valueOf(byte[])}, and the trailing unavailable days are left out.
+     */
+    String availableDays;
+
     /**
      * The start of the search period, this is inclusive
      */
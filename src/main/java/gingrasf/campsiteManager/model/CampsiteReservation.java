@@ -7,6 +7,9 @@ import lombok.Setter;
 import lombok.Value;
 import lombok.experimental.NonFinal;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.validation.annotation.Validated;
 
 import javax.validation.Valid;
@@ -20,14 +23,42 @@ import java.time.LocalDate;
 @Builder
 @Value
 @Validated
+@Document
+/**
+ * The siteId goes first in the index so a query only ever scans the reservations of its own site. The endDate comes
+ * next since past reservations (the bulk of the collection over time) all end before any date we can query for, which
+ * keep the index scan proportional to the number of upcoming reservations of the site.
+ */
+@CompoundIndexes({
+        @CompoundIndex(name = CampsiteReservation.OVERLAP_INDEX, def = "{ 'siteId' : 1, 'endDate' : 1, 'startDate' : 1 }"),
+        /*
+         * Lists the reservations of a site page by page: the _id makes the order total, so a page resumes by seeking right
+         * after the last reservation of the previous one.
+         */
+        @CompoundIndex(name = CampsiteReservation.PAGE_INDEX, def = "{ 'siteId' : 1, 'startDate' : 1, '_id' : 1 }"),
+        /*
+         * The email is the id of the embedded user, hence user._id. The endDate lets the upcoming reservations of a user
+         * be counted without reading the ones in the past.
+         */
+        @CompoundIndex(name = CampsiteReservation.USER_INDEX, def = "{ 'user._id' : 1, 'endDate' : 1 }")
+})
 public class CampsiteReservation implements Serializable {
 
+    public static final String OVERLAP_INDEX = "siteId_endDate_startDate";
+    public static final String PAGE_INDEX = "siteId_startDate_id";
+    public static final String USER_INDEX = "user_endDate";
+
     @Id
     /**
      * Unique id representing a completed reservation
      */
     String id;
 
+    /**
+     * The campsite that is reserved. It comes from the path of the request, not from its body.
+     */
+    String siteId;
+
     @NotNull
     @Valid
     /**
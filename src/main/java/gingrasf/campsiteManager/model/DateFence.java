@@ -0,0 +1,45 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+@Builder
+@Value
+@Document
+/**
+ * The greatest fencing token of the leases that wrote a reservation for a single day. Unlike the lock, the fence stays
+ * after the lease is freed, so a lease that lost its dates can tell that a newer one wrote them in the meantime.
+ */
+@CompoundIndex(name = "siteId_date", def = "{ 'siteId' : 1, 'date' : 1 }", unique = true)
+public class DateFence {
+    /**
+     * The campsite the day belongs to.
+     */
+    String siteId;
+
+    /**
+     * String representation of a day in ISO-8601. Ex: 2019-01-30
+     */
+    String date;
+
+    /**
+     * Fencing token of the last lease that wrote the day. It only ever grows.
+     */
+    long fencingToken;
+
+    @Indexed(expireAfterSeconds = 0)
+    /**
+     * The day after the night, once it is past no lease can be taken for the day anymore and Mongo removes the fence.
+     */
+    Date expiresAt;
+}
@@ -0,0 +1,46 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of an attempt to lock a set of dates.
+ */
+@Builder
+@Value
+public class DateLease {
+
+    /**
+     * The campsite the dates belong to.
+     */
+    String siteId;
+
+    /**
+     * The owner the dates were locked for.
+     */
+    String owner;
+
+    /**
+     * The fencing token given to this lease.
+     */
+    long fencingToken;
+
+    /**
+     * The dates requested, in chronological order.
+     */
+    List<LocalDate> dates;
+
+    /**
+     * The dates that were already locked by someone else, in chronological order. None of the dates are locked when this isn't empty.
+     */
+    @Builder.Default
+    List<LocalDate> conflictingDates = Collections.emptyList();
+
+    public boolean isAcquired() {
+        return conflictingDates.isEmpty();
+    }
+}
@@ -0,0 +1,27 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+import java.time.LocalDate;
+
+/**
+ * A run of consecutive days.
+ */
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+@Builder
+@Value
+public class DateRange {
+    /**
+     * The first day of the run, this is inclusive
+     */
+    LocalDate start;
+
+    /**
+     * The day following the run, this is exclusive.
+     */
+    LocalDate end;
+}
@@ -0,0 +1,67 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+@Builder
+@Value
+@Document
+/**
+ * Outcome of a request made with an Idempotency-Key, so a retry of the request gets the same response instead of being
+ * processed again. The record is pending while the first request is processed, then holds its response until it expires.
+ */
+public class IdempotencyRecord {
+
+    @Id
+    /**
+     * The Idempotency-Key given by the client.
+     */
+    String key;
+
+    /**
+     * Token of the request processing the key, so a request that lost its lease can't store its response over the one of
+     * the request that took the key over.
+     */
+    String owner;
+
+    /**
+     * What the request asked for, so the key can't be reused for a different request.
+     */
+    String fingerprint;
+
+    /**
+     * Whether the response is known. A pending record belongs to a request still being processed.
+     */
+    boolean completed;
+
+    /**
+     * HTTP status of the response.
+     */
+    int status;
+
+    /**
+     * Content type of the response, if it had one.
+     */
+    String contentType;
+
+    /**
+     * Body of the response.
+     */
+    String body;
+
+    @Indexed(expireAfterSeconds = 0)
+    /**
+     * When the record expires. Past that time a pending record can be taken over, and Mongo eventually removes it.
+     */
+    Date expiresAt;
+}
@@ -0,0 +1,52 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position of a reservation in the (startDate, id) order of the reservations of a site. A page starts right after the
+ * position of the last reservation of the previous page, so a page is found with an index seek however deep it is, and
+ * the reservations created or cancelled meanwhile never shift the following pages.
+ */
+@Builder
+@Value
+public class ReservationCursor {
+
+    private static final String SEPARATOR = "/";
+
+    LocalDate startDate;
+
+    String id;
+
+    public static ReservationCursor after(CampsiteReservation reservation) {
+        return ReservationCursor.builder().startDate(reservation.getStartDate()).id(reservation.getId()).build();
+    }
+
+    /**
+     * @return the cursor as an opaque token for the clients.
+     */
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((startDate + SEPARATOR + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token isn't a cursor given by {@link #encode()}.
+     */
+    public static ReservationCursor decode(String token) {
+        try {
+            final String position = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            final int separator = position.indexOf(SEPARATOR);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return ReservationCursor.builder().startDate(LocalDate.parse(position.substring(0, separator))).id(position.substring(separator + 1)).build();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
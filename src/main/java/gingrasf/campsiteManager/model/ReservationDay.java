@@ -0,0 +1,48 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+@Builder
+@Value
+@Document
+/**
+ * Claim of a single night of a site by a reservation. There can only be one claim per day and site, so inserting the
+ * claims of a reservation fails on the first night that is already taken. A claim is pending until its reservation is
+ * saved, so the claims of a reservation that never got saved can be told apart and given up.
+ */
+@CompoundIndex(name = "siteId_day", def = "{ 'siteId' : 1, 'day' : 1 }", unique = true)
+public class ReservationDay {
+    /**
+     * The campsite the night belongs to.
+     */
+    String siteId;
+
+    /**
+     * String representation of the night in ISO-8601. Ex: 2019-01-30
+     */
+    String day;
+
+    /**
+     * Id of the reservation holding the night.
+     */
+    String reservationId;
+
+    /**
+     * When the claim expires if its reservation is not saved by then, null once it is.
+     */
+    Date expiresAt;
+
+    public boolean isPending() {
+        return expiresAt != null;
+    }
+}
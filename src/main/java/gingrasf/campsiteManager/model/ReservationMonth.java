@@ -0,0 +1,65 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.Map;
+
+
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+@Builder
+@Value
+@Document
+/**
+ * Booked nights of a site for a calendar month, one bit per night. The bit 0 is the first day of the month.
+ */
+@CompoundIndex(name = "siteId_month", def = "{ 'siteId' : 1, 'month' : 1 }", unique = true)
+public class ReservationMonth {
+    /**
+     * The campsite the nights belong to.
+     */
+    String siteId;
+
+    /**
+     * String representation of the month in ISO-8601. Ex: 2019-01
+     */
+    String month;
+
+    /**
+     * Bitmask of the booked nights, pending or confirmed.
+     */
+    long nights;
+
+    /**
+     * The claim of each booked night, by night in ISO-8601. Ex: 2019-01-30
+     */
+    Map<String, NightClaim> claims;
+
+    @Indexed(expireAfterSeconds = 0)
+    /**
+     * The first day after the month. Once it is past no night of the month can be booked anymore and Mongo removes it.
+     */
+    Date expiresAt;
+
+    @AllArgsConstructor
+    @NoArgsConstructor(force = true)
+    @Value
+    public static class NightClaim {
+        /**
+         * Id of the reservation holding the night.
+         */
+        String reservationId;
+
+        /**
+         * When the claim expires if its reservation is not saved by then, null once it is.
+         */
+        Date expiresAt;
+    }
+}
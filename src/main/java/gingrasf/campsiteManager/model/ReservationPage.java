@@ -0,0 +1,21 @@
+package gingrasf.campsiteManager.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * A page of the reservations of a site, in (startDate, id) order.
+ */
+@Builder
+@Value
+public class ReservationPage {
+
+    List<CampsiteReservation> reservations;
+
+    /**
+     * Where the next page starts, null when this is the last page.
+     */
+    ReservationCursor next;
+}
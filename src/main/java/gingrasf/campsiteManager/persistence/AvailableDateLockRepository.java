@@ -1,13 +1,59 @@
 package gingrasf.campsiteManager.persistence;
 
+import gingrasf.campsiteManager.model.DateLease;
+
 import java.time.LocalDate;
+import java.util.Collection;
+
+import static java.util.Collections.singletonList;
 
 public interface AvailableDateLockRepository {
 
     /**
      * @return true is the lock was acquired correctly for this date, false otherwise.
      */
-    boolean lockAvailableDate(LocalDate date, String owner);
+    default boolean lockAvailableDate(String siteId, LocalDate date, String owner) {
+        return lockDates(siteId, singletonList(date), owner).isAcquired();
+    }
+
+    default void freeAvailableDate(String siteId, LocalDate date, String owner) {
+        freeDates(siteId, singletonList(date), owner);
+    }
+
+    /**
+     * Lock all the given dates of the site for the owner. The dates of each site are locked independently. This is all-or-nothing: if any of the dates is already locked, the dates
+     * that could be locked by this call are released before returning and the lease lists the conflicting dates.
+     */
+    DateLease lockDates(String siteId, Collection<LocalDate> dates, String owner);
+
+    /**
+     * @return true if the owner still holds the lease on all its dates, i.e. it did not expire and was not taken over.
+     */
+    boolean isHeld(DateLease lease);
+
+    /**
+     * Record the fencing token of the lease on each of its dates, unless a lease with a greater token already did. A lease
+     * fences its dates before checking they are free, so a newer lease taking them over always fences them before it can
+     * check them.
+     *
+     * @return false if a newer lease fenced any of the dates, nothing must then be written for them under this lease.
+     */
+    boolean fence(DateLease lease);
+
+    /**
+     * @return true if no newer lease fenced any of the dates since this lease fenced them. Checked once the reservation is
+     * written: if the lease was taken over in between, the newer lease may have checked the dates before the write, which
+     * must then be undone.
+     */
+    boolean isFenced(DateLease lease);
 
-    void freeAvailableDate(LocalDate date, String owner);
+    /**
+     * Release the dates of the site locked by the owner. The dates locked by someone else are left untouched.
+     */
+    void freeDates(String siteId, Collection<LocalDate> dates, String owner);
+
+    /**
+     * @return the number of locks currently held, across all the sites and owners.
+     */
+    long countHeldLocks();
 }
@@ -1,9 +1,34 @@
 package gingrasf.campsiteManager.persistence;
 
 import gingrasf.campsiteManager.model.CampsiteReservation;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 
+import java.time.LocalDate;
+import java.util.List;
 
-public interface CampsiteRepository extends CrudRepository<CampsiteReservation, String> {
 
+public interface CampsiteRepository extends CrudRepository<CampsiteReservation, String>, ReservationCursorRepository, ReservationChangeRepository {
+
+    String OVERLAP_QUERY = "{ 'siteId' : ?0, 'endDate' : { $gt : ?1 }, 'startDate' : { $lt : ?2 } }";
+
+    /**
+     * Find all the reservations of the site that overlap the [from, until) interval, i.e. that start before until and end
+     * after from. This is backed by the siteId/endDate/startDate compound index declared on {@link CampsiteReservation}.
+     */
+    @Query(OVERLAP_QUERY)
+    List<CampsiteReservation> findOverlapping(String siteId, LocalDate from, LocalDate until);
+
+    List<CampsiteReservation> findBySiteId(String siteId);
+
+    /**
+     * The reservations of the user on the site, by start date. This is backed by the user/endDate compound index declared
+     * on {@link CampsiteReservation}.
+     */
+    List<CampsiteReservation> findBySiteIdAndUserEmailOrderByStartDateAsc(String siteId, String email);
+
+    /**
+     * Count the reservations of the user, on every site, that end after the date. Only the index is read.
+     */
+    long countByUserEmailAndEndDateAfter(String email, LocalDate date);
 }
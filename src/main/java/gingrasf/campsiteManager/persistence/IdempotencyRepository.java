@@ -0,0 +1,34 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.IdempotencyRecord;
+
+import java.time.Duration;
+import java.util.Optional;
+
+public interface IdempotencyRepository {
+
+    /**
+     * Take the key for a request, with a pending record of the owner that expires after the lease duration unless
+     * completed or renewed.
+     *
+     * @return empty if the key was taken, otherwise the record already holding it, pending or completed.
+     */
+    Optional<IdempotencyRecord> begin(String key, String owner, String fingerprint, Duration leaseDuration);
+
+    /**
+     * Extend the lease of the pending key for another lease duration, if the owner still holds it.
+     */
+    void renew(String key, String owner, Duration leaseDuration);
+
+    /**
+     * Store the response of the request holding the key, which is then kept for the given time to live. Nothing is
+     * stored if the key is no longer held by the owner.
+     */
+    void complete(String key, String owner, int status, String contentType, String body, Duration timeToLive);
+
+    /**
+     * Release a pending key without a response, so the request can be retried. A completed record, or a record of
+     * another owner, is left untouched.
+     */
+    void forget(String key, String owner);
+}
@@ -0,0 +1,325 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.ReservationCursor;
+import gingrasf.campsiteManager.persistence.ReservationJournal.EventType;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps the reservations in memory and makes them durable with a {@link ReservationJournal} instead of Mongo, so saving a
+ * reservation is an append to a memory-mapped file and a force shared with the other writers.
+ *
+ * The reservations of each site are grouped by end date, in end date order like the overlap index of the Mongo
+ * collection, so an overlap query skips the past reservations. The writes are serialized, the reads never lock. Every
+ * reservation handed out is a copy, since the callers change the dates of the reservations they get before saving them.
+ *
+ * The snapshots are written on a background thread. A write only starts a new journal when a snapshot is due, along with
+ * a copy of the references to the reservations, which are never changed once stored.
+ *
+ * The state is only in this process, so like the in-process locks this is only safe when a single instance is running.
+ */
+public class JournalCampsiteRepository implements CampsiteRepository, AutoCloseable {
+
+    private final ReservationJournal journal;
+    private final long snapshotEvery;
+    private final Map<String, CampsiteReservation> reservationsById = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<LocalDate, Map<String, CampsiteReservation>>> reservationsBySiteAndEndDate = new ConcurrentHashMap<>();
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "journal-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The journal of the directory is replayed before this returns.
+     *
+     * @param snapshotEvery number of events after which the journal is replaced by a snapshot.
+     */
+    public JournalCampsiteRepository(Path directory, long snapshotEvery) {
+        this.journal = new ReservationJournal(directory);
+        this.snapshotEvery = snapshotEvery;
+        journal.recover().values().forEach(this::apply);
+    }
+
+    @Override
+    public <S extends CampsiteReservation> S save(S entity) {
+        saveAll(Collections.singletonList(entity));
+        return entity;
+    }
+
+    /**
+     * All the reservations are appended before waiting for the journal, so they are made durable together. They are all
+     * checked before the first one is appended, so a reservation that can't be journaled fails the whole save rather
+     * than leaving the ones before it saved. Unlike Mongo this doesn't generate the ids, the reservations must come with
+     * theirs.
+     */
+    @Override
+    public <S extends CampsiteReservation> Iterable<S> saveAll(Iterable<S> entities) {
+        final List<S> saved = StreamSupport.stream(entities.spliterator(), false).collect(toList());
+        if (saved.stream().anyMatch(entity -> entity.getId() == null || entity.getSiteId() == null)) {
+            throw new IllegalArgumentException("A reservation needs an id and a site to be journaled");
+        }
+        saved.forEach(ReservationJournal::checkFits);
+        final long sequence;
+        synchronized (this) {
+            long lastSequence = 0;
+            for (S entity : saved) {
+                final CampsiteReservation reservation = copyOf(entity);
+                lastSequence = journal.append(reservationsById.containsKey(reservation.getId()) ? EventType.MOVED : EventType.CREATED, reservation);
+                apply(reservation);
+            }
+            sequence = lastSequence;
+            snapshotIfDue();
+        }
+        journal.awaitDurable(sequence);
+        return saved;
+    }
+
+    @Override
+    public Optional<CampsiteReservation> findById(String id) {
+        return Optional.ofNullable(reservationsById.get(id)).map(JournalCampsiteRepository::copyOf);
+    }
+
+    @Override
+    public boolean existsById(String id) {
+        return reservationsById.containsKey(id);
+    }
+
+    @Override
+    public Iterable<CampsiteReservation> findAll() {
+        return reservationsById.values().stream().map(JournalCampsiteRepository::copyOf).collect(toList());
+    }
+
+    @Override
+    public Iterable<CampsiteReservation> findAllById(Iterable<String> ids) {
+        return StreamSupport.stream(ids.spliterator(), false)
+                .map(reservationsById::get)
+                .filter(reservation -> reservation != null)
+                .map(JournalCampsiteRepository::copyOf)
+                .collect(toList());
+    }
+
+    @Override
+    public long count() {
+        return reservationsById.size();
+    }
+
+    @Override
+    public void deleteById(String id) {
+        final CampsiteReservation reservation = reservationsById.get(id);
+        if (reservation != null) {
+            delete(reservation);
+        }
+    }
+
+    @Override
+    public void delete(CampsiteReservation entity) {
+        deleteAll(Collections.singletonList(entity));
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends CampsiteReservation> entities) {
+        final long sequence;
+        synchronized (this) {
+            long lastSequence = 0;
+            for (CampsiteReservation entity : entities) {
+                final CampsiteReservation reservation = reservationsById.remove(entity.getId());
+                if (reservation != null) {
+                    remove(reservation);
+                    lastSequence = journal.append(EventType.CANCELLED, reservation);
+                }
+            }
+            sequence = lastSequence;
+            snapshotIfDue();
+        }
+        journal.awaitDurable(sequence);
+    }
+
+    @Override
+    public void deleteAll() {
+        deleteAll(new ArrayList<>(reservationsById.values()));
+    }
+
+    @Override
+    public boolean move(CampsiteReservation reservation, LocalDate startDate, LocalDate endDate) {
+        final long sequence;
+        synchronized (this) {
+            final CampsiteReservation current = reservationsById.get(reservation.getId());
+            if (current == null || !current.getStartDate().equals(reservation.getStartDate()) || !current.getEndDate().equals(reservation.getEndDate())) {
+                return false;
+            }
+            final CampsiteReservation moved = copyOf(current);
+            moved.setStartDate(startDate);
+            moved.setEndDate(endDate);
+            sequence = journal.append(EventType.MOVED, moved);
+            apply(moved);
+            snapshotIfDue();
+        }
+        journal.awaitDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public Optional<CampsiteReservation> cancel(String id) {
+        final long sequence;
+        final CampsiteReservation reservation;
+        synchronized (this) {
+            reservation = reservationsById.remove(id);
+            if (reservation == null) {
+                return Optional.empty();
+            }
+            remove(reservation);
+            sequence = journal.append(EventType.CANCELLED, reservation);
+            snapshotIfDue();
+        }
+        journal.awaitDurable(sequence);
+        return Optional.of(copyOf(reservation));
+    }
+
+    /**
+     * The reservations ending after from are the tail of the site's reservations by end date.
+     */
+    @Override
+    public List<CampsiteReservation> findOverlapping(String siteId, LocalDate from, LocalDate until) {
+        return reservationsBySiteAndEndDate.getOrDefault(siteId, Collections.emptyNavigableMap()).tailMap(from, false).values().stream()
+                .flatMap(reservations -> reservations.values().stream())
+                .filter(reservation -> reservation.getStartDate().isBefore(until))
+                .map(JournalCampsiteRepository::copyOf)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<CampsiteReservation> findBySiteId(String siteId) {
+        return reservationsBySiteAndEndDate.getOrDefault(siteId, Collections.emptyNavigableMap()).values().stream()
+                .flatMap(reservations -> reservations.values().stream())
+                .map(JournalCampsiteRepository::copyOf)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * There is no index by user in memory, the reservations of the site are scanned.
+     */
+    @Override
+    public List<CampsiteReservation> findBySiteIdAndUserEmailOrderByStartDateAsc(String siteId, String email) {
+        return inPageOrder(siteId, null, null)
+                .filter(reservation -> email.equals(reservation.getUser().getEmail()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long countByUserEmailAndEndDateAfter(String email, LocalDate date) {
+        return reservationsById.values().stream()
+                .filter(reservation -> email.equals(reservation.getUser().getEmail()) && reservation.getEndDate().isAfter(date))
+                .count();
+    }
+
+    @Override
+    public List<CampsiteReservation> findPage(String siteId, LocalDate from, LocalDate until, ReservationCursor after, int limit) {
+        return inPageOrder(siteId, from, until)
+                .filter(reservation -> after == null || isAfter(reservation, after))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The reservations are already in memory, the stream only spares building the list.
+     */
+    @Override
+    public Stream<CampsiteReservation> streamAll(String siteId, LocalDate from, LocalDate until) {
+        return inPageOrder(siteId, from, until);
+    }
+
+    /**
+     * Waits for the snapshot being written, if any.
+     */
+    @Override
+    public void close() {
+        snapshotWriter.shutdown();
+        try {
+            snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    private Stream<CampsiteReservation> inPageOrder(String siteId, LocalDate from, LocalDate until) {
+        return reservationsBySiteAndEndDate.getOrDefault(siteId, Collections.emptyNavigableMap()).values().stream()
+                .flatMap(reservations -> reservations.values().stream())
+                .filter(reservation -> from == null || !reservation.getStartDate().isBefore(from))
+                .filter(reservation -> until == null || reservation.getStartDate().isBefore(until))
+                .sorted(Comparator.comparing(CampsiteReservation::getStartDate).thenComparing(CampsiteReservation::getId))
+                .map(JournalCampsiteRepository::copyOf);
+    }
+
+    private static boolean isAfter(CampsiteReservation reservation, ReservationCursor cursor) {
+        final int byStartDate = reservation.getStartDate().compareTo(cursor.getStartDate());
+        return byStartDate > 0 || (byStartDate == 0 && reservation.getId().compareTo(cursor.getId()) > 0);
+    }
+
+    private void apply(CampsiteReservation reservation) {
+        final CampsiteReservation previous = reservationsById.put(reservation.getId(), reservation);
+        if (previous != null) {
+            remove(previous);
+        }
+        reservationsBySiteAndEndDate.computeIfAbsent(reservation.getSiteId(), site -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(reservation.getEndDate(), endDate -> new ConcurrentHashMap<>())
+                .put(reservation.getId(), reservation);
+    }
+
+    /**
+     * The group of an end date is kept once empty, there is at most one per day.
+     */
+    private void remove(CampsiteReservation reservation) {
+        reservationsBySiteAndEndDate.get(reservation.getSiteId()).get(reservation.getEndDate()).remove(reservation.getId());
+    }
+
+    /**
+     * Called with the writes serialized, so the copy holds the reservations as of the new journal. A snapshot due while
+     * the previous one is still written waits for a later write.
+     */
+    private void snapshotIfDue() {
+        if (journal.getEventsSinceSnapshot() >= snapshotEvery && snapshotting.compareAndSet(false, true)) {
+            final long nextGeneration = journal.rotate();
+            final List<CampsiteReservation> reservations = new ArrayList<>(reservationsById.values());
+            snapshotWriter.execute(() -> {
+                try {
+                    journal.writeSnapshot(nextGeneration, reservations);
+                } finally {
+                    snapshotting.set(false);
+                }
+            });
+        }
+    }
+
+    private static CampsiteReservation copyOf(CampsiteReservation reservation) {
+        return CampsiteReservation.builder()
+                .id(reservation.getId())
+                .siteId(reservation.getSiteId())
+                .user(reservation.getUser())
+                .startDate(reservation.getStartDate())
+                .endDate(reservation.getEndDate())
+                .build();
+    }
+}
@@ -1,47 +1,172 @@
 package gingrasf.campsiteManager.persistence;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
 import gingrasf.campsiteManager.model.AvailableDateLock;
+import gingrasf.campsiteManager.model.DateFence;
+import gingrasf.campsiteManager.model.DateLease;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 
-import static org.springframework.data.mongodb.core.FindAndModifyOptions.options;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.ReturnDocument.AFTER;
+import static com.mongodb.client.model.Updates.inc;
+import static java.util.stream.Collectors.toList;
+import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.UNORDERED;
 import static org.springframework.data.mongodb.core.query.Criteria.where;
 
 public class MongoConcurrencySafeRepository implements AvailableDateLockRepository {
 
+    static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+    static final String FENCING_TOKEN_COLLECTION = "availableDateLockSequence";
+    static final String FENCING_TOKEN_ID_PREFIX = "fencingToken:";
+
     @Autowired
     MongoOperations mongoOperations;
 
+    private final Duration leaseDuration;
+
+    public MongoConcurrencySafeRepository(Duration leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
+
+
+    /**
+     * All the leases are upserted with a single bulk write. The upsert only matches an expired lease for the date, so
+     * when the date is leased by someone else it tries to insert a new lock instead, and since there is a unique index on
+     * the site and date it fails with a duplicate key error.
+     */
+    @Override
+    public DateLease lockDates(String siteId, Collection<LocalDate> dates, String owner) {
+        final List<LocalDate> sortedDates = dates.stream().distinct().sorted().collect(toList());
+        final long fencingToken = nextFencingToken(siteId);
+        final Date now = new Date();
+        final Update leaseUpdate = buildLeaseUpdate(owner, fencingToken, Date.from(now.toInstant().plus(leaseDuration)));
+        final BulkOperations bulkOperations = mongoOperations.bulkOps(UNORDERED, AvailableDateLock.class);
+        sortedDates.forEach(date -> bulkOperations.upsert(buildQueryForExpiredLease(siteId, date, now), leaseUpdate));
+        final DateLease.DateLeaseBuilder lease = DateLease.builder().siteId(siteId).owner(owner).fencingToken(fencingToken).dates(sortedDates);
+        try {
+            bulkOperations.execute();
+            return lease.build();
+        } catch (MongoBulkWriteException e) {
+            final List<BulkWriteError> errors = e.getWriteErrors();
+            final List<LocalDate> lockedDates = new ArrayList<>(sortedDates);
+            final List<LocalDate> conflictingDates = errors.stream()
+                    .map(error -> sortedDates.get(error.getIndex()))
+                    .collect(toList());
+            lockedDates.removeAll(conflictingDates);
+            freeDates(siteId, lockedDates, owner);
+            if (errors.stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY_ERROR_CODE)) {
+                throw e;
+            }
+            return lease.conflictingDates(conflictingDates).build();
+        }
+    }
 
     @Override
-    public boolean lockAvailableDate(LocalDate date, String owner) {
-        final AvailableDateLock existingLock = mongoOperations
-                                                    .findAndModify(buildQueryForSpecificDate(date),
-                                                                    buildUpsertQuery(date, owner),
-                                                                    options().upsert(true).returnNew(false),
-                                                                    AvailableDateLock.class);
-        return existingLock == null;
+    public boolean isHeld(DateLease lease) {
+        final Query heldLeaseQuery = buildQueryForDates(lease.getSiteId(), lease.getDates(), lease.getOwner())
+                .addCriteria(where("fencingToken").is(lease.getFencingToken()))
+                .addCriteria(where("expiresAt").gt(new Date()));
+        return mongoOperations.count(heldLeaseQuery, AvailableDateLock.class) == lease.getDates().size();
     }
 
     /**
-     * Build an upsert query that will insert the date is it's not present, is it is it will update it.
-     * The owner will only be added on insert request, i.e. if the record already exist, there won't be any change to it since we'll only update the date to itself.
+     * Like the locks, the fences are upserted with a single bulk write. The upsert only matches a fence with a lower token,
+     * so a fence with a greater one makes it insert a duplicate instead. The dates fenced before the conflict keep the
+     * token of this lease, which is harmless since a token is only ever compared with greater ones.
      */
-    private Update buildUpsertQuery(LocalDate date, String owner) {
-        return Update.update("date", date.toString())
-                .setOnInsert("owner", owner);
+    @Override
+    public boolean fence(DateLease lease) {
+        if (lease.getDates().isEmpty()) {
+            return true;
+        }
+        final BulkOperations bulkOperations = mongoOperations.bulkOps(UNORDERED, DateFence.class);
+        lease.getDates().forEach(date -> bulkOperations.upsert(buildQueryForLowerFence(lease.getSiteId(), date, lease.getFencingToken()), buildFenceUpdate(date, lease.getFencingToken())));
+        try {
+            bulkOperations.execute();
+            return true;
+        } catch (MongoBulkWriteException e) {
+            if (e.getWriteErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY_ERROR_CODE)) {
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isFenced(DateLease lease) {
+        return mongoOperations.count(buildQueryForFence(lease), DateFence.class) == lease.getDates().size();
     }
 
-    private Query buildQueryForSpecificDate(LocalDate date) {
-        return Query.query(where("date").is(date.toString()));
+    @Override
+    public void freeDates(String siteId, Collection<LocalDate> dates, String owner) {
+        if (!dates.isEmpty()) {
+            mongoOperations.remove(buildQueryForDates(siteId, dates, owner), AvailableDateLock.class);
+        }
     }
 
+    /**
+     * An expired lease is left in the collection until it is taken over, so only the leases not yet expired are counted.
+     */
     @Override
-    public void freeAvailableDate(LocalDate date, String owner) {
-        mongoOperations.remove(buildQueryForSpecificDate(date), AvailableDateLock.class);
+    public long countHeldLocks() {
+        return mongoOperations.count(Query.query(where("expiresAt").gt(new Date())), AvailableDateLock.class);
+    }
+
+    /**
+     * Each lease gets its token from the counter document of its site, which keeps the tokens increasing across all the
+     * instances. A token is only ever compared with the tokens of the same dates, so the sites don't need to share a counter.
+     */
+    private long nextFencingToken(String siteId) {
+        final Document sequence = mongoOperations.getCollection(FENCING_TOKEN_COLLECTION)
+                .findOneAndUpdate(eq("_id", FENCING_TOKEN_ID_PREFIX + siteId), inc("value", 1L), new FindOneAndUpdateOptions().upsert(true).returnDocument(AFTER));
+        return sequence.getLong("value");
+    }
+
+    static Update buildLeaseUpdate(String owner, long fencingToken, Date expiresAt) {
+        return Update.update("owner", owner)
+                .set("fencingToken", fencingToken)
+                .set("expiresAt", expiresAt);
+    }
+
+    static Query buildQueryForExpiredLease(String siteId, LocalDate date, Date now) {
+        return Query.query(where("siteId").is(siteId).and("date").is(date.toString()).and("expiresAt").lt(now));
+    }
+
+    static Query buildQueryForLowerFence(String siteId, LocalDate date, long fencingToken) {
+        return Query.query(where("siteId").is(siteId).and("date").is(date.toString()).and("fencingToken").lt(fencingToken));
+    }
+
+    /**
+     * The fence is only needed while a lease can still be taken for the night, so it expires the day after.
+     */
+    static Update buildFenceUpdate(LocalDate date, long fencingToken) {
+        return Update.update("fencingToken", fencingToken)
+                .set("expiresAt", Date.from(date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+    }
+
+    static Query buildQueryForFence(DateLease lease) {
+        return Query.query(where("siteId").is(lease.getSiteId())
+                .and("date").in(lease.getDates().stream().map(LocalDate::toString).collect(toList()))
+                .and("fencingToken").is(lease.getFencingToken()));
+    }
+
+    static Query buildQueryForDates(String siteId, Collection<LocalDate> dates, String owner) {
+        return Query.query(where("siteId").is(siteId).and("date").in(dates.stream().map(LocalDate::toString).collect(toList())).and("owner").is(owner));
     }
 }
@@ -0,0 +1,71 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.IdempotencyRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class MongoIdempotencyRepository implements IdempotencyRepository {
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    /**
+     * The pending record is upserted by key and the previous version of the document is returned, so taking a new key
+     * and finding the record of a replayed request are the same single lookup on the _id index. Mongo only removes the
+     * expired records once in a while, so an expired record is removed here before trying again.
+     */
+    @Override
+    public Optional<IdempotencyRecord> begin(String key, String owner, String fingerprint, Duration leaseDuration) {
+        while (true) {
+            final Date now = new Date();
+            final Update pending = new Update()
+                    .setOnInsert("owner", owner)
+                    .setOnInsert("fingerprint", fingerprint)
+                    .setOnInsert("completed", false)
+                    .setOnInsert("expiresAt", Date.from(now.toInstant().plus(leaseDuration)));
+            final IdempotencyRecord existing = mongoOperations.findAndModify(byKey(key), pending, FindAndModifyOptions.options().upsert(true), IdempotencyRecord.class);
+            if (existing == null || existing.getExpiresAt().after(now)) {
+                return Optional.ofNullable(existing);
+            }
+            mongoOperations.remove(byKey(key).addCriteria(where("expiresAt").is(existing.getExpiresAt())), IdempotencyRecord.class);
+        }
+    }
+
+    @Override
+    public void renew(String key, String owner, Duration leaseDuration) {
+        final Update lease = Update.update("expiresAt", Date.from(new Date().toInstant().plus(leaseDuration)));
+        mongoOperations.updateFirst(pendingOf(key, owner), lease, IdempotencyRecord.class);
+    }
+
+    @Override
+    public void complete(String key, String owner, int status, String contentType, String body, Duration timeToLive) {
+        final Update response = Update.update("completed", true)
+                .set("status", status)
+                .set("contentType", contentType)
+                .set("body", body)
+                .set("expiresAt", Date.from(new Date().toInstant().plus(timeToLive)));
+        mongoOperations.updateFirst(pendingOf(key, owner), response, IdempotencyRecord.class);
+    }
+
+    @Override
+    public void forget(String key, String owner) {
+        mongoOperations.remove(pendingOf(key, owner), IdempotencyRecord.class);
+    }
+
+    private Query pendingOf(String key, String owner) {
+        return byKey(key).addCriteria(where("owner").is(owner)).addCriteria(where("completed").is(false));
+    }
+
+    private Query byKey(String key) {
+        return Query.query(where("_id").is(key));
+    }
+}
@@ -0,0 +1,118 @@
+package gingrasf.campsiteManager.persistence;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import gingrasf.campsiteManager.model.ReservationDay;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.ORDERED;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class MongoReservationDayRepository implements ReservationDayRepository {
+
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    private final Duration pendingDuration;
+
+    public MongoReservationDayRepository(Duration pendingDuration) {
+        this.pendingDuration = pendingDuration;
+    }
+
+    /**
+     * All the claims are inserted with a single ordered bulk write, so the insert stops at the first night already
+     * claimed thanks to the unique index on the site and day. The claims before it were inserted and are removed again,
+     * which is the only case needing a second round trip. Only that first night is reported since the following ones were
+     * never tried. The release still covers all the other nights, the remove only matches claims of this reservation anyway.
+     */
+    @Override
+    public List<LocalDate> claimDays(String siteId, Collection<LocalDate> days, String reservationId) {
+        final List<LocalDate> sortedDays = days.stream().distinct().sorted().collect(toList());
+        if (sortedDays.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final Date expiresAt = Date.from(Instant.now().plus(pendingDuration));
+        final BulkOperations bulkOperations = mongoOperations.bulkOps(ORDERED, ReservationDay.class);
+        bulkOperations.insert(sortedDays.stream()
+                .map(day -> ReservationDay.builder().siteId(siteId).day(day.toString()).reservationId(reservationId).expiresAt(expiresAt).build())
+                .collect(toList()));
+        try {
+            bulkOperations.execute();
+            return Collections.emptyList();
+        } catch (MongoBulkWriteException e) {
+            final BulkWriteError error = e.getWriteErrors().get(0);
+            final LocalDate conflictingDay = sortedDays.get(error.getIndex());
+            releaseDays(siteId, sortedDays.stream().filter(day -> !day.equals(conflictingDay)).collect(toList()), reservationId);
+            if (error.getCode() != DUPLICATE_KEY_ERROR_CODE) {
+                throw e;
+            }
+            return Collections.singletonList(conflictingDay);
+        }
+    }
+
+    @Override
+    public boolean confirmDays(String siteId, Collection<LocalDate> days, String reservationId) {
+        if (days.isEmpty()) {
+            return true;
+        }
+        final Query claimsQuery = buildQueryForDays(siteId, days).addCriteria(where("reservationId").is(reservationId));
+        return mongoOperations.updateMulti(claimsQuery, new Update().unset("expiresAt"), ReservationDay.class).getMatchedCount() == days.stream().distinct().count();
+    }
+
+    /**
+     * The days are stored in ISO-8601, so their alphabetical order is also their chronological order.
+     */
+    @Override
+    public List<LocalDate> findClaimedDays(String siteId, LocalDate from, LocalDate until) {
+        final Query claimedDaysQuery = Query.query(where("siteId").is(siteId).and("day").gte(from.toString()).lt(until.toString())
+                .orOperator(where("expiresAt").is(null), where("expiresAt").gt(new Date())));
+        return mongoOperations.find(claimedDaysQuery, ReservationDay.class).stream()
+                .map(reservationDay -> LocalDate.parse(reservationDay.getDay()))
+                .sorted()
+                .collect(toList());
+    }
+
+    @Override
+    public List<ReservationDay> findExpiredClaims(String siteId, Collection<LocalDate> days) {
+        if (days.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return mongoOperations.find(buildQueryForDays(siteId, days).addCriteria(where("expiresAt").lt(new Date())), ReservationDay.class);
+    }
+
+    @Override
+    public void releaseDays(String siteId, Collection<LocalDate> days, String reservationId) {
+        if (!days.isEmpty()) {
+            mongoOperations.remove(buildQueryForDays(siteId, days).addCriteria(where("reservationId").is(reservationId)), ReservationDay.class);
+        }
+    }
+
+    /**
+     * Only matches claims still pending: a claim confirmed in the meantime has no expiry anymore.
+     */
+    @Override
+    public void releaseExpiredDays(String siteId, Collection<LocalDate> days, String reservationId) {
+        if (!days.isEmpty()) {
+            mongoOperations.remove(buildQueryForDays(siteId, days).addCriteria(where("reservationId").is(reservationId)).addCriteria(where("expiresAt").lt(new Date())), ReservationDay.class);
+        }
+    }
+
+    private static Query buildQueryForDays(String siteId, Collection<LocalDate> days) {
+        return Query.query(where("siteId").is(siteId).and("day").in(days.stream().map(LocalDate::toString).collect(toList())));
+    }
+}
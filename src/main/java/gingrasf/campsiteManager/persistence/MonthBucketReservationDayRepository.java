@@ -0,0 +1,242 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.ReservationDay;
+import gingrasf.campsiteManager.model.ReservationMonth;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.time.temporal.ChronoUnit.MONTHS;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.UNORDERED;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Keeps the booked nights in one {@link ReservationMonth} per site and calendar month, so claiming the nights of a stay
+ * in a month is a single conditional update on the bits of the month and reading the availability of a month is a single
+ * document read.
+ *
+ * The bits alone decide the conflicts. Each month also records the reservation holding each night and whether its claim
+ * is still pending, so a release only clears the nights of its own reservation and an expired pending claim can be given
+ * up. A month holds at most 31 claims and Mongo removes it once it is past, so the documents never grow with the years of
+ * bookings.
+ */
+public class MonthBucketReservationDayRepository implements ReservationDayRepository {
+
+    private static final String NIGHTS = "nights";
+    private static final String CLAIMS = "claims";
+    private static final int MAX_CLAIM_ATTEMPTS = 2;
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    private final Duration pendingDuration;
+
+    public MonthBucketReservationDayRepository(Duration pendingDuration) {
+        this.pendingDuration = pendingDuration;
+    }
+
+    /**
+     * A stay crossing a month boundary claims its months in chronological order, and releases the months it already
+     * claimed if a later one conflicts. There is no transaction across documents here, so another reservation can see
+     * those nights booked for a moment, but two reservations can never both hold a night. Only the conflicting nights of
+     * the first month in conflict are reported since the following months were never tried.
+     */
+    @Override
+    public List<LocalDate> claimDays(String siteId, Collection<LocalDate> days, String reservationId) {
+        final Date expiresAt = Date.from(Instant.now().plus(pendingDuration));
+        final List<LocalDate> claimedDays = new ArrayList<>();
+        for (Map.Entry<YearMonth, List<LocalDate>> month : daysByMonth(days).entrySet()) {
+            if (!claimMonth(siteId, month.getKey(), month.getValue(), new Document("reservationId", reservationId).append("expiresAt", expiresAt))) {
+                releaseDays(siteId, claimedDays, reservationId);
+                return findBookedDays(siteId, month.getKey(), month.getValue());
+            }
+            claimedDays.addAll(month.getValue());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Each night is confirmed by its own update, which only matches a claim of the reservation still pending. The claims
+     * are then read back to check they all still belong to the reservation.
+     */
+    @Override
+    public boolean confirmDays(String siteId, Collection<LocalDate> days, String reservationId) {
+        if (days.isEmpty()) {
+            return true;
+        }
+        final BulkOperations bulkOperations = mongoOperations.bulkOps(UNORDERED, ReservationMonth.class);
+        days.forEach(day -> bulkOperations.updateOne(Query.query(claimOf(siteId, day, reservationId).and(claimField(day) + ".expiresAt").exists(true)),
+                new Update().unset(claimField(day) + ".expiresAt")));
+        bulkOperations.execute();
+        final Map<LocalDate, ReservationMonth.NightClaim> claims = findClaims(siteId, days);
+        return days.stream().allMatch(day -> claims.containsKey(day) && reservationId.equals(claims.get(day).getReservationId()));
+    }
+
+    @Override
+    public List<LocalDate> findClaimedDays(String siteId, LocalDate from, LocalDate until) {
+        if (!from.isBefore(until)) {
+            return Collections.emptyList();
+        }
+        final List<String> months = Stream.iterate(YearMonth.from(from), month -> month.plusMonths(1))
+                .limit(YearMonth.from(from).until(YearMonth.from(until.minusDays(1)), MONTHS) + 1)
+                .map(YearMonth::toString)
+                .collect(toList());
+        final Date now = new Date();
+        return mongoOperations.find(Query.query(where("siteId").is(siteId).and("month").in(months)), ReservationMonth.class).stream()
+                .flatMap(reservationMonth -> nightsOf(YearMonth.parse(reservationMonth.getMonth()), reservationMonth.getNights()).stream()
+                        .filter(night -> !isExpired(claimOf(reservationMonth, night), now)))
+                .filter(night -> !night.isBefore(from) && night.isBefore(until))
+                .sorted()
+                .collect(toList());
+    }
+
+    @Override
+    public List<ReservationDay> findExpiredClaims(String siteId, Collection<LocalDate> days) {
+        final Date now = new Date();
+        return findClaims(siteId, days).entrySet().stream()
+                .filter(claim -> isExpired(claim.getValue(), now))
+                .map(claim -> ReservationDay.builder()
+                        .siteId(siteId)
+                        .day(claim.getKey().toString())
+                        .reservationId(claim.getValue().getReservationId())
+                        .expiresAt(claim.getValue().getExpiresAt())
+                        .build())
+                .collect(toList());
+    }
+
+    /**
+     * Each night is released by its own update, which only matches the claim of the reservation and clears its bit along
+     * with it.
+     */
+    @Override
+    public void releaseDays(String siteId, Collection<LocalDate> days, String reservationId) {
+        releaseClaims(days, day -> claimOf(siteId, day, reservationId));
+    }
+
+    @Override
+    public void releaseExpiredDays(String siteId, Collection<LocalDate> days, String reservationId) {
+        final Date now = new Date();
+        releaseClaims(days, day -> claimOf(siteId, day, reservationId).and(claimField(day) + ".expiresAt").lt(now));
+    }
+
+    /**
+     * Set the bits of the month and record the claims only if none of the bits is set yet. When one of the nights is
+     * already booked the upsert doesn't match and tries to insert the month instead, which fails on the unique index of
+     * the site and month. The first two reservations of a month can also both try to insert it, so a duplicate month is
+     * tried again once since the month now exists.
+     */
+    private boolean claimMonth(String siteId, YearMonth month, List<LocalDate> days, Document claim) {
+        final long mask = maskOf(days);
+        final Query freeNightsQuery = new BasicQuery(new Document("siteId", siteId).append("month", month.toString()).append(NIGHTS, new Document("$bitsAllClear", mask)));
+        final Update bookNights = new Update().bitwise(NIGHTS).or(mask)
+                .setOnInsert("expiresAt", Date.from(month.plusMonths(1).atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+        days.forEach(day -> bookNights.set(claimField(day), claim));
+        for (int attempt = 1; ; attempt++) {
+            try {
+                mongoOperations.upsert(freeNightsQuery, bookNights, ReservationMonth.class);
+                return true;
+            } catch (DuplicateKeyException e) {
+                if (attempt == MAX_CLAIM_ATTEMPTS) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void releaseClaims(Collection<LocalDate> days, Function<LocalDate, Criteria> claimCriteria) {
+        if (days.isEmpty()) {
+            return;
+        }
+        final BulkOperations bulkOperations = mongoOperations.bulkOps(UNORDERED, ReservationMonth.class);
+        days.forEach(day -> bulkOperations.updateOne(Query.query(claimCriteria.apply(day)),
+                new Update().bitwise(NIGHTS).and(~maskOf(Collections.singletonList(day))).unset(claimField(day))));
+        bulkOperations.execute();
+    }
+
+    /**
+     * @return the given nights of the month already booked, all of them if the month can't be read.
+     */
+    private List<LocalDate> findBookedDays(String siteId, YearMonth month, List<LocalDate> days) {
+        final ReservationMonth reservationMonth = mongoOperations.findOne(monthQuery(siteId, month), ReservationMonth.class);
+        return nightsOf(month, reservationMonth == null ? maskOf(days) : reservationMonth.getNights() & maskOf(days));
+    }
+
+    /**
+     * @return the claims of the given nights of the site, read from the months of the nights.
+     */
+    private Map<LocalDate, ReservationMonth.NightClaim> findClaims(String siteId, Collection<LocalDate> days) {
+        final Map<LocalDate, ReservationMonth.NightClaim> claims = new TreeMap<>();
+        daysByMonth(days).forEach((month, monthDays) -> {
+            final ReservationMonth reservationMonth = mongoOperations.findOne(monthQuery(siteId, month), ReservationMonth.class);
+            if (reservationMonth != null) {
+                monthDays.forEach(day -> {
+                    final ReservationMonth.NightClaim claim = claimOf(reservationMonth, day);
+                    if (claim != null) {
+                        claims.put(day, claim);
+                    }
+                });
+            }
+        });
+        return claims;
+    }
+
+    private static ReservationMonth.NightClaim claimOf(ReservationMonth reservationMonth, LocalDate day) {
+        return reservationMonth.getClaims() == null ? null : reservationMonth.getClaims().get(day.toString());
+    }
+
+    private static boolean isExpired(ReservationMonth.NightClaim claim, Date now) {
+        return claim != null && claim.getExpiresAt() != null && claim.getExpiresAt().before(now);
+    }
+
+    private static Criteria claimOf(String siteId, LocalDate day, String reservationId) {
+        return where("siteId").is(siteId).and("month").is(YearMonth.from(day).toString()).and(claimField(day) + ".reservationId").is(reservationId);
+    }
+
+    private static Query monthQuery(String siteId, YearMonth month) {
+        return Query.query(where("siteId").is(siteId).and("month").is(month.toString()));
+    }
+
+    private static String claimField(LocalDate day) {
+        return CLAIMS + "." + day;
+    }
+
+    private static SortedMap<YearMonth, List<LocalDate>> daysByMonth(Collection<LocalDate> days) {
+        return days.stream().distinct().sorted().collect(groupingBy(YearMonth::from, TreeMap::new, toList()));
+    }
+
+    private static long maskOf(Collection<LocalDate> days) {
+        return days.stream().mapToLong(day -> 1L << (day.getDayOfMonth() - 1)).reduce(0L, (a, b) -> a | b);
+    }
+
+    private static List<LocalDate> nightsOf(YearMonth month, long mask) {
+        return IntStream.rangeClosed(1, month.lengthOfMonth())
+                .filter(dayOfMonth -> (mask & (1L << (dayOfMonth - 1))) != 0)
+                .mapToObj(month::atDay)
+                .collect(toList());
+    }
+}
@@ -0,0 +1,38 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.DateLease;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Non-blocking version of the {@link AvailableDateLockRepository}, sharing its locks.
+ */
+public interface ReactiveAvailableDateLockRepository {
+
+    /**
+     * Lock all the given dates of the site for the owner. This is all-or-nothing, as in {@link AvailableDateLockRepository#lockDates}.
+     */
+    Mono<DateLease> lockDates(String siteId, Collection<LocalDate> dates, String owner);
+
+    /**
+     * @return true if the owner still holds the lease on all its dates, i.e. it did not expire and was not taken over.
+     */
+    Mono<Boolean> isHeld(DateLease lease);
+
+    /**
+     * Record the fencing token of the lease on its dates, as in {@link AvailableDateLockRepository#fence}.
+     */
+    Mono<Boolean> fence(DateLease lease);
+
+    /**
+     * @return true if no newer lease fenced any of the dates since, as in {@link AvailableDateLockRepository#isFenced}.
+     */
+    Mono<Boolean> isFenced(DateLease lease);
+
+    /**
+     * Release the dates of the site locked by the owner. The dates locked by someone else are left untouched.
+     */
+    Mono<Void> freeDates(String siteId, Collection<LocalDate> dates, String owner);
+}
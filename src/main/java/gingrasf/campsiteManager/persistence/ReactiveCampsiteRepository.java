@@ -0,0 +1,33 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+
+/**
+ * Non-blocking access to the same reservations as the {@link CampsiteRepository}.
+ */
+public interface ReactiveCampsiteRepository extends ReactiveCrudRepository<CampsiteReservation, String>, ReactiveReservationChangeRepository {
+
+    /**
+     * Same query as {@link CampsiteRepository#findOverlapping}, backed by the same index.
+     */
+    @Query(CampsiteRepository.OVERLAP_QUERY)
+    Flux<CampsiteReservation> findOverlapping(String siteId, LocalDate from, LocalDate until);
+
+    Flux<CampsiteReservation> findBySiteId(String siteId);
+
+    /**
+     * Same query as {@link CampsiteRepository#findBySiteIdAndUserEmailOrderByStartDateAsc}, backed by the same index.
+     */
+    Flux<CampsiteReservation> findBySiteIdAndUserEmailOrderByStartDateAsc(String siteId, String email);
+
+    /**
+     * Same count as {@link CampsiteRepository#countByUserEmailAndEndDateAfter}, only the index is read.
+     */
+    Mono<Long> countByUserEmailAndEndDateAfter(String email, LocalDate date);
+}
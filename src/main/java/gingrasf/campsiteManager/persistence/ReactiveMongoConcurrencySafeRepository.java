@@ -0,0 +1,130 @@
+package gingrasf.campsiteManager.persistence;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import gingrasf.campsiteManager.model.AvailableDateLock;
+import gingrasf.campsiteManager.model.DateFence;
+import gingrasf.campsiteManager.model.DateLease;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.ReturnDocument.AFTER;
+import static com.mongodb.client.model.Updates.inc;
+import static gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository.DUPLICATE_KEY_ERROR_CODE;
+import static gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository.FENCING_TOKEN_COLLECTION;
+import static gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository.FENCING_TOKEN_ID_PREFIX;
+import static gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository.buildFenceUpdate;
+import static gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository.buildLeaseUpdate;
+import static gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository.buildQueryForDates;
+import static gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository.buildQueryForExpiredLease;
+import static gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository.buildQueryForFence;
+import static gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository.buildQueryForLowerFence;
+import static java.util.stream.Collectors.toList;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Takes the same leases as the {@link MongoConcurrencySafeRepository}, in the same documents, so both stacks can run
+ * against the same database. The reactive template has no bulk operations, so the upserts go straight to the collection.
+ */
+public class ReactiveMongoConcurrencySafeRepository implements ReactiveAvailableDateLockRepository {
+
+    @Autowired
+    ReactiveMongoOperations reactiveMongoOperations;
+
+    private final Duration leaseDuration;
+
+    public ReactiveMongoConcurrencySafeRepository(Duration leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
+
+    @Override
+    public Mono<DateLease> lockDates(String siteId, Collection<LocalDate> dates, String owner) {
+        final List<LocalDate> sortedDates = dates.stream().distinct().sorted().collect(toList());
+        return nextFencingToken(siteId).flatMap(fencingToken -> {
+            final Date now = new Date();
+            final Document leaseUpdate = buildLeaseUpdate(owner, fencingToken, Date.from(now.toInstant().plus(leaseDuration))).getUpdateObject();
+            final List<WriteModel<Document>> upserts = sortedDates.stream()
+                    .map(date -> new UpdateOneModel<Document>(buildQueryForExpiredLease(siteId, date, now).getQueryObject(), leaseUpdate, new UpdateOptions().upsert(true)))
+                    .collect(toList());
+            final DateLease.DateLeaseBuilder lease = DateLease.builder().siteId(siteId).owner(owner).fencingToken(fencingToken).dates(sortedDates);
+            return Mono.from(reactiveMongoOperations.getCollection(collectionName(AvailableDateLock.class)).bulkWrite(upserts, new BulkWriteOptions().ordered(false)))
+                    .map(result -> lease.build())
+                    .onErrorResume(MongoBulkWriteException.class, e -> releaseAfterConflict(lease, sortedDates, e));
+        });
+    }
+
+    @Override
+    public Mono<Boolean> isHeld(DateLease lease) {
+        final Query heldLeaseQuery = buildQueryForDates(lease.getSiteId(), lease.getDates(), lease.getOwner())
+                .addCriteria(where("fencingToken").is(lease.getFencingToken()))
+                .addCriteria(where("expiresAt").gt(new Date()));
+        return reactiveMongoOperations.count(heldLeaseQuery, AvailableDateLock.class).map(count -> count == lease.getDates().size());
+    }
+
+    @Override
+    public Mono<Boolean> fence(DateLease lease) {
+        if (lease.getDates().isEmpty()) {
+            return Mono.just(true);
+        }
+        final List<WriteModel<Document>> upserts = lease.getDates().stream()
+                .map(date -> new UpdateOneModel<Document>(buildQueryForLowerFence(lease.getSiteId(), date, lease.getFencingToken()).getQueryObject(), buildFenceUpdate(date, lease.getFencingToken()).getUpdateObject(), new UpdateOptions().upsert(true)))
+                .collect(toList());
+        return Mono.from(reactiveMongoOperations.getCollection(collectionName(DateFence.class)).bulkWrite(upserts, new BulkWriteOptions().ordered(false)))
+                .map(result -> true)
+                .onErrorResume(MongoBulkWriteException.class, e -> e.getWriteErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY_ERROR_CODE) ? Mono.error(e) : Mono.just(false));
+    }
+
+    @Override
+    public Mono<Boolean> isFenced(DateLease lease) {
+        return reactiveMongoOperations.count(buildQueryForFence(lease), DateFence.class).map(count -> count == lease.getDates().size());
+    }
+
+    @Override
+    public Mono<Void> freeDates(String siteId, Collection<LocalDate> dates, String owner) {
+        if (dates.isEmpty()) {
+            return Mono.empty();
+        }
+        return reactiveMongoOperations.remove(buildQueryForDates(siteId, dates, owner), AvailableDateLock.class).then();
+    }
+
+    /**
+     * The dates that could be locked are released before reporting the conflicting ones, as in the blocking repository.
+     */
+    private Mono<DateLease> releaseAfterConflict(DateLease.DateLeaseBuilder lease, List<LocalDate> sortedDates, MongoBulkWriteException e) {
+        final List<BulkWriteError> errors = e.getWriteErrors();
+        final List<LocalDate> lockedDates = new ArrayList<>(sortedDates);
+        final List<LocalDate> conflictingDates = errors.stream()
+                .map(error -> sortedDates.get(error.getIndex()))
+                .collect(toList());
+        lockedDates.removeAll(conflictingDates);
+        final DateLease conflict = lease.conflictingDates(conflictingDates).build();
+        return freeDates(conflict.getSiteId(), lockedDates, conflict.getOwner())
+                .then(errors.stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY_ERROR_CODE) ? Mono.error(e) : Mono.just(conflict));
+    }
+
+    private String collectionName(Class<?> entityClass) {
+        return reactiveMongoOperations.getConverter().getMappingContext().getRequiredPersistentEntity(entityClass).getCollection();
+    }
+
+    private Mono<Long> nextFencingToken(String siteId) {
+        return Mono.from(reactiveMongoOperations.getCollection(FENCING_TOKEN_COLLECTION)
+                .findOneAndUpdate(eq("_id", FENCING_TOKEN_ID_PREFIX + siteId), inc("value", 1L), new FindOneAndUpdateOptions().upsert(true).returnDocument(AFTER)))
+                .map(sequence -> sequence.getLong("value"));
+    }
+}
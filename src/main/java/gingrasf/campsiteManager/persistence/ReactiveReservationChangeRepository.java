@@ -0,0 +1,19 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+
+/**
+ * Non-blocking counterpart of the {@link ReservationChangeRepository} move.
+ */
+public interface ReactiveReservationChangeRepository {
+
+    /**
+     * Move the reservation to [startDate, endDate), only if it still has the dates of the given reservation.
+     *
+     * @return false if the reservation was moved or cancelled since it was read, in which case nothing is changed.
+     */
+    Mono<Boolean> move(CampsiteReservation reservation, LocalDate startDate, LocalDate endDate);
+}
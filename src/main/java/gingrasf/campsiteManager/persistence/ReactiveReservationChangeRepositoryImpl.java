@@ -0,0 +1,26 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+
+import static gingrasf.campsiteManager.persistence.ReservationChangeRepositoryImpl.buildMoveUpdate;
+import static gingrasf.campsiteManager.persistence.ReservationChangeRepositoryImpl.buildQueryAsRead;
+
+/**
+ * Mongo implementation of the {@link ReactiveReservationChangeRepository} fragment of the {@link ReactiveCampsiteRepository}.
+ */
+public class ReactiveReservationChangeRepositoryImpl implements ReactiveReservationChangeRepository {
+
+    @Autowired
+    ReactiveMongoOperations reactiveMongoOperations;
+
+    @Override
+    public Mono<Boolean> move(CampsiteReservation reservation, LocalDate startDate, LocalDate endDate) {
+        return Mono.defer(() -> reactiveMongoOperations.updateFirst(buildQueryAsRead(reservation), buildMoveUpdate(startDate, endDate), CampsiteReservation.class))
+                .map(result -> result.getMatchedCount() == 1);
+    }
+}
@@ -0,0 +1,29 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+/**
+ * Changes a reservation in a single conditional write, so a request working from a reservation it read earlier can't
+ * overwrite what another request changed in the meantime.
+ */
+public interface ReservationChangeRepository {
+
+    /**
+     * Move the reservation to [startDate, endDate), only if it still has the dates of the given reservation. The given
+     * reservation is left as is.
+     *
+     * @return false if the reservation was moved or cancelled since it was read, in which case nothing is changed.
+     */
+    boolean move(CampsiteReservation reservation, LocalDate startDate, LocalDate endDate);
+
+    /**
+     * Delete the reservation.
+     *
+     * @return the reservation as it was when deleted, so its dates are the ones it actually freed. Empty if it was already
+     * deleted.
+     */
+    Optional<CampsiteReservation> cancel(String id);
+}
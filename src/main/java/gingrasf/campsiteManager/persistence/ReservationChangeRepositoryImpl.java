@@ -0,0 +1,45 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Mongo implementation of the {@link ReservationChangeRepository} fragment of the {@link CampsiteRepository}.
+ */
+public class ReservationChangeRepositoryImpl implements ReservationChangeRepository {
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    @Override
+    public boolean move(CampsiteReservation reservation, LocalDate startDate, LocalDate endDate) {
+        return mongoOperations.updateFirst(buildQueryAsRead(reservation), buildMoveUpdate(startDate, endDate), CampsiteReservation.class).getMatchedCount() == 1;
+    }
+
+    @Override
+    public Optional<CampsiteReservation> cancel(String id) {
+        return Optional.ofNullable(mongoOperations.findAndRemove(Query.query(where("id").is(id)), CampsiteReservation.class));
+    }
+
+    /**
+     * Matches the reservation only while it still has the dates it was read with. Package-private to be shared with the
+     * reactive repository.
+     */
+    static Query buildQueryAsRead(CampsiteReservation reservation) {
+        return Query.query(where("id").is(reservation.getId())
+                .and("startDate").is(reservation.getStartDate())
+                .and("endDate").is(reservation.getEndDate()));
+    }
+
+    static Update buildMoveUpdate(LocalDate startDate, LocalDate endDate) {
+        return Update.update("startDate", startDate).set("endDate", endDate);
+    }
+}
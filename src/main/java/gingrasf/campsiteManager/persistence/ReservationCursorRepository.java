@@ -0,0 +1,27 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.ReservationCursor;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads the reservations of a site in (startDate, id) order, backed by the siteId/startDate/_id compound index declared
+ * on {@link CampsiteReservation}. The from and until filters are optional and keep the reservations starting in the
+ * [from, until) interval.
+ */
+public interface ReservationCursorRepository {
+
+    /**
+     * @param after the position the page starts after, null for the first page.
+     */
+    List<CampsiteReservation> findPage(String siteId, LocalDate from, LocalDate until, ReservationCursor after, int limit);
+
+    /**
+     * The reservations are read from a cursor as the stream is consumed, so they are never all in memory. The stream must
+     * be closed to release the cursor.
+     */
+    Stream<CampsiteReservation> streamAll(String siteId, LocalDate from, LocalDate until);
+}
@@ -0,0 +1,62 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.ReservationCursor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.StreamUtils;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Mongo implementation of the {@link ReservationCursorRepository} fragment of the {@link CampsiteRepository}.
+ */
+public class ReservationCursorRepositoryImpl implements ReservationCursorRepository {
+
+    private static final Sort START_DATE_THEN_ID = Sort.by("startDate", "id");
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    /**
+     * The position is expressed as startDate > cursor.startDate, or the same startDate with a greater id, which the index
+     * answers by seeking to the position.
+     */
+    @Override
+    public List<CampsiteReservation> findPage(String siteId, LocalDate from, LocalDate until, ReservationCursor after, int limit) {
+        final Query page = buildQuery(siteId, from, until).with(START_DATE_THEN_ID).limit(limit);
+        if (after != null) {
+            page.addCriteria(new Criteria().orOperator(
+                    where("startDate").gt(after.getStartDate()),
+                    where("startDate").is(after.getStartDate()).and("id").gt(after.getId())));
+        }
+        return mongoOperations.find(page, CampsiteReservation.class);
+    }
+
+    @Override
+    public Stream<CampsiteReservation> streamAll(String siteId, LocalDate from, LocalDate until) {
+        return StreamUtils.createStreamFromIterator(mongoOperations.stream(buildQuery(siteId, from, until).with(START_DATE_THEN_ID), CampsiteReservation.class));
+    }
+
+    private Query buildQuery(String siteId, LocalDate from, LocalDate until) {
+        final Query query = Query.query(where("siteId").is(siteId));
+        if (from != null || until != null) {
+            final Criteria startDate = where("startDate");
+            if (from != null) {
+                startDate.gte(from);
+            }
+            if (until != null) {
+                startDate.lt(until);
+            }
+            query.addCriteria(startDate);
+        }
+        return query;
+    }
+}
@@ -0,0 +1,47 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.ReservationDay;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+public interface ReservationDayRepository {
+
+    /**
+     * Claim all the given nights of the site for the reservation. This is all-or-nothing: if a night is already claimed, the nights
+     * claimed by this call are released before returning. The claims are pending until {@link #confirmDays confirmed}.
+     *
+     * @return the nights that are already claimed by another reservation, empty if all the nights were claimed.
+     */
+    List<LocalDate> claimDays(String siteId, Collection<LocalDate> days, String reservationId);
+
+    /**
+     * Confirm the claims of the reservation once it is saved, so they no longer expire.
+     *
+     * @return false if any of the nights is no longer claimed by the reservation, i.e. its pending claim expired and was
+     * given up.
+     */
+    boolean confirmDays(String siteId, Collection<LocalDate> days, String reservationId);
+
+    /**
+     * @return the nights of the site in the [from, until) interval claimed by any reservation, in chronological order.
+     * The pending claims that expired are left out.
+     */
+    List<LocalDate> findClaimedDays(String siteId, LocalDate from, LocalDate until);
+
+    /**
+     * @return the pending claims of the given nights of the site that expired.
+     */
+    List<ReservationDay> findExpiredClaims(String siteId, Collection<LocalDate> days);
+
+    /**
+     * Give up the claims of the reservation on the given nights of the site, if they are still pending and expired.
+     */
+    void releaseExpiredDays(String siteId, Collection<LocalDate> days, String reservationId);
+
+    /**
+     * Release the nights of the site claimed by the reservation. The nights claimed by another reservation are left untouched.
+     */
+    void releaseDays(String siteId, Collection<LocalDate> days, String reservationId);
+}
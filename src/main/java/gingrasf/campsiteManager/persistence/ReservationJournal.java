@@ -0,0 +1,458 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.User;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the reservation events, kept in memory-mapped files of fixed-size binary records.
+ *
+ * Each record holds a CRC32 of its content, so a record torn by a crash is found on recovery: the journal ends at the
+ * first record that doesn't check out, and the next appends overwrite it. An append only writes to the mapping, the
+ * callers then wait for {@link #awaitDurable(long)}, where the first one in forces the mapping for everyone that
+ * appended before it (group commit).
+ *
+ * A snapshot holds every live reservation and replaces the journals before it. The journal first starts a new
+ * generation, which is all the appends wait for, then the snapshot of the reservations as of that point is written aside
+ * and moved in place while the appends go on. Recovering is reading the snapshot then replaying the journals following
+ * it, which is a single one unless the instance stopped while writing a snapshot.
+ */
+public class ReservationJournal implements AutoCloseable {
+
+    static final int RECORD_SIZE = 256;
+    static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+    private static final int MAX_PAYLOAD = RECORD_SIZE - HEADER_SIZE;
+    private static final short NULL_FIELD = -1;
+    private static final int SNAPSHOT_BUFFER_RECORDS = 4096;
+
+    public enum EventType {
+        // 0 is left for the zeroes past the end of the journal
+        CREATED(1), MOVED(2), CANCELLED(3), SNAPSHOT(4);
+
+        private final byte code;
+
+        EventType(int code) {
+            this.code = (byte) code;
+        }
+
+        private static EventType fromCode(byte code) {
+            for (EventType type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Path directory;
+    private final Object commitLock = new Object();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<MappedByteBuffer> retiredSegments = new ArrayList<>();
+    private int firstUnforcedSegment;
+    private long generation;
+    private FileChannel channel;
+    private long position;
+    private long eventsSinceSnapshot;
+    private volatile long appendedSequence;
+    private long durableSequence;
+    private boolean flushing;
+
+    public ReservationJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Load the snapshot, replay the journal following it and open the journal for appending.
+     *
+     * @return the reservations alive when the journal was last written, by id.
+     */
+    public synchronized Map<String, CampsiteReservation> recover() {
+        try {
+            Files.createDirectories(directory);
+            final Map<String, CampsiteReservation> reservations = new LinkedHashMap<>();
+            generation = readSnapshot(reservations);
+            deleteJournalsBefore(generation);
+            while (true) {
+                openJournal();
+                final long journalSize = channel.size();
+                final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+                while (readRecord(position, journalSize, record)) {
+                    final EventType type = EventType.fromCode(record.get(4));
+                    final CampsiteReservation reservation = decode(record);
+                    if (type == EventType.CANCELLED) {
+                        reservations.remove(reservation.getId());
+                    } else {
+                        reservations.put(reservation.getId(), reservation);
+                    }
+                    position += RECORD_SIZE;
+                    eventsSinceSnapshot++;
+                }
+                if (!Files.exists(journalFile(generation + 1))) {
+                    return reservations;
+                }
+                closeJournal();
+                generation++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write the event at the end of the journal. It is only durable once {@link #awaitDurable(long)} returns.
+     *
+     * @return the sequence of the event, to wait for.
+     */
+    public synchronized long append(EventType type, CampsiteReservation reservation) {
+        final ByteBuffer record = encode(type, reservation);
+        final ByteBuffer target = segmentAt(position).duplicate();
+        target.position((int) (position % SEGMENT_SIZE));
+        target.put(record);
+        position += RECORD_SIZE;
+        eventsSinceSnapshot++;
+        return ++appendedSequence;
+    }
+
+    /**
+     * Wait until the event of the sequence, and every event before it, is on disk. One force covers all the events
+     * appended before it started, so the callers waiting together share it.
+     */
+    public void awaitDurable(long sequence) {
+        while (true) {
+            synchronized (commitLock) {
+                while (durableSequence < sequence && flushing) {
+                    try {
+                        commitLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for the journal to be written", e);
+                    }
+                }
+                if (durableSequence >= sequence) {
+                    return;
+                }
+                flushing = true;
+            }
+            long forcedSequence = 0;
+            try {
+                final long target;
+                final long forcedGeneration;
+                final int lastSegment;
+                final int retired;
+                final List<MappedByteBuffer> toForce;
+                synchronized (this) {
+                    target = appendedSequence;
+                    forcedGeneration = generation;
+                    lastSegment = segments.size() - 1;
+                    retired = retiredSegments.size();
+                    toForce = new ArrayList<>(retiredSegments);
+                    toForce.addAll(segments.subList(Math.min(firstUnforcedSegment, segments.size()), segments.size()));
+                }
+                toForce.forEach(MappedByteBuffer::force);
+                synchronized (this) {
+                    // The segments retired meanwhile are after the ones forced
+                    retiredSegments.subList(0, retired).clear();
+                    // The last segment is still being appended to, it is forced again next time. A snapshot taken
+                    // meanwhile started a new journal, whose segments are all still to force.
+                    if (generation == forcedGeneration) {
+                        firstUnforcedSegment = Math.max(firstUnforcedSegment, lastSegment);
+                    }
+                }
+                forcedSequence = target;
+            } finally {
+                synchronized (commitLock) {
+                    flushing = false;
+                    durableSequence = Math.max(durableSequence, forcedSequence);
+                    commitLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    public synchronized long getEventsSinceSnapshot() {
+        return eventsSinceSnapshot;
+    }
+
+    /**
+     * Start a new generation of the journal for the events following a snapshot. The previous journal is neither forced
+     * nor deleted here: its segments are forced with the next events waited for, and it is deleted once the snapshot is
+     * written.
+     *
+     * @return the generation of the new journal, to give to {@link #writeSnapshot(long, Collection)}.
+     */
+    public synchronized long rotate() {
+        retiredSegments.addAll(segments.subList(Math.min(firstUnforcedSegment, segments.size()), segments.size()));
+        try {
+            channel.close();
+            generation++;
+            openJournal();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        eventsSinceSnapshot = 0;
+        return generation;
+    }
+
+    /**
+     * Replace the snapshot and the journals before the given generation by a snapshot of the given reservations, which
+     * must be the live reservations as of the {@link #rotate()} that returned the generation. It doesn't block the
+     * appends, but the snapshots must be written one at a time. A crash at any point leaves either the previous snapshot
+     * and all the journals following it, or the new snapshot.
+     */
+    public void writeSnapshot(long nextGeneration, Collection<CampsiteReservation> reservations) {
+        try {
+            final Path snapshotFile = directory.resolve(SNAPSHOT);
+            final Path writing = directory.resolve(SNAPSHOT + ".tmp");
+            try (FileChannel snapshot = FileChannel.open(writing, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_BUFFER_RECORDS * RECORD_SIZE);
+                buffer.put(encodeSnapshotHeader(nextGeneration, reservations.size()));
+                for (CampsiteReservation reservation : reservations) {
+                    if (!buffer.hasRemaining()) {
+                        writeFully(snapshot, buffer);
+                    }
+                    buffer.put(encode(EventType.SNAPSHOT, reservation));
+                }
+                writeFully(snapshot, buffer);
+                snapshot.force(true);
+            }
+            Files.move(writing, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            deleteJournalsBefore(nextGeneration);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        awaitDurable(appendedSequence);
+        synchronized (this) {
+            closeJournal();
+        }
+    }
+
+    /**
+     * @return the generation of the journal following the snapshot, 0 when there is no snapshot yet.
+     */
+    private long readSnapshot(Map<String, CampsiteReservation> reservations) throws IOException {
+        final Path snapshotFile = directory.resolve(SNAPSHOT);
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        try (FileChannel snapshot = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            final MappedByteBuffer records = snapshot.map(FileChannel.MapMode.READ_ONLY, 0, snapshot.size());
+            final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            if (!readRecord(records, record)) {
+                throw new IOException("The snapshot header is corrupted");
+            }
+            final long nextGeneration = record.getLong(5);
+            final long count = record.getLong(13);
+            for (long i = 0; i < count; i++) {
+                if (!readRecord(records, record)) {
+                    throw new IOException("The snapshot is corrupted");
+                }
+                final CampsiteReservation reservation = decode(record);
+                reservations.put(reservation.getId(), reservation);
+            }
+            return nextGeneration;
+        }
+    }
+
+    /**
+     * The journals before a snapshot are deleted once it is in place, or on recovery when the instance stopped before.
+     */
+    private void deleteJournalsBefore(long journalGeneration) throws IOException {
+        // From the last one back, the generations before were deleted along with their snapshot
+        long previous = journalGeneration - 1;
+        while (previous >= 0 && Files.deleteIfExists(journalFile(previous))) {
+            previous--;
+        }
+    }
+
+    private void openJournal() throws IOException {
+        channel = FileChannel.open(journalFile(generation), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.clear();
+        firstUnforcedSegment = 0;
+        position = 0;
+    }
+
+    private void closeJournal() {
+        segments.forEach(MappedByteBuffer::force);
+        segments.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path journalFile(long journalGeneration) {
+        return directory.resolve("journal-" + journalGeneration + ".log");
+    }
+
+    /**
+     * Mapping a segment past the end of the file grows the file with zeroes, which read as the end of the journal.
+     */
+    private MappedByteBuffer segmentAt(long journalPosition) {
+        final int index = (int) (journalPosition / SEGMENT_SIZE);
+        try {
+            while (segments.size() <= index) {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return segments.get(index);
+    }
+
+    /**
+     * @return true if a whole record that checks out was read at the position of the journal.
+     */
+    private boolean readRecord(long journalPosition, long journalSize, ByteBuffer record) {
+        if (journalPosition + RECORD_SIZE > journalSize) {
+            return false;
+        }
+        final ByteBuffer source = segmentAt(journalPosition).duplicate();
+        source.position((int) (journalPosition % SEGMENT_SIZE));
+        return readRecord(source, record);
+    }
+
+    /**
+     * @return true if a whole record that checks out was read at the position of the source, which is moved past it.
+     */
+    private static boolean readRecord(ByteBuffer source, ByteBuffer record) {
+        if (source.remaining() < RECORD_SIZE) {
+            return false;
+        }
+        record.clear();
+        source.get(record.array(), 0, RECORD_SIZE);
+        return isValid(record);
+    }
+
+    private static boolean isValid(ByteBuffer record) {
+        return EventType.fromCode(record.get(4)) != null && record.getInt(0) == checksum(record);
+    }
+
+    private static int checksum(ByteBuffer record) {
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, RECORD_SIZE - 4);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel file, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            file.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The header of a snapshot is a record holding the generation of the journal following the snapshot and the number of
+     * reservations in it, in place of the dates.
+     */
+    private static ByteBuffer encodeSnapshotHeader(long nextGeneration, long count) {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(4, EventType.SNAPSHOT.code);
+        record.putLong(5, nextGeneration);
+        record.putLong(13, count);
+        record.putInt(0, checksum(record));
+        return record;
+    }
+
+    /**
+     * The record is the checksum, the type, the dates as epoch days, then the id, site, email and full name as UTF-8
+     * prefixed by their length. They all have to fit in the record.
+     */
+    static ByteBuffer encode(EventType type, CampsiteReservation reservation) {
+        final byte[][] fields = fieldsOf(reservation);
+        checkFits(fields);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.position(4);
+        record.put(type.code);
+        record.putLong(reservation.getStartDate().toEpochDay());
+        record.putLong(reservation.getEndDate().toEpochDay());
+        for (byte[] field : fields) {
+            if (field == null) {
+                record.putShort(NULL_FIELD);
+            } else {
+                record.putShort((short) field.length);
+                record.put(field);
+            }
+        }
+        record.putInt(0, checksum(record));
+        record.clear();
+        return record;
+    }
+
+    /**
+     * Check the reservation fits in a record before appending it, so the reservations saved together are either all
+     * appended or none of them.
+     */
+    static void checkFits(CampsiteReservation reservation) {
+        checkFits(fieldsOf(reservation));
+    }
+
+    private static byte[][] fieldsOf(CampsiteReservation reservation) {
+        final User user = reservation.getUser();
+        return new byte[][]{
+                bytes(reservation.getId()), bytes(reservation.getSiteId()),
+                bytes(user == null ? null : user.getEmail()), bytes(user == null ? null : user.getFullName())};
+    }
+
+    private static void checkFits(byte[][] fields) {
+        int payload = 0;
+        for (byte[] field : fields) {
+            payload += Short.BYTES + (field == null ? 0 : field.length);
+        }
+        if (payload > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("The reservation is too large to be journaled, its ids, email and name must fit in " + MAX_PAYLOAD + " bytes");
+        }
+    }
+
+    static CampsiteReservation decode(ByteBuffer record) {
+        record.position(5);
+        final LocalDate startDate = LocalDate.ofEpochDay(record.getLong());
+        final LocalDate endDate = LocalDate.ofEpochDay(record.getLong());
+        final String id = string(record);
+        final String siteId = string(record);
+        final String email = string(record);
+        final String fullName = string(record);
+        final User user = email == null && fullName == null ? null : User.builder().email(email).fullName(fullName).build();
+        return CampsiteReservation.builder().id(id).siteId(siteId).user(user).startDate(startDate).endDate(endDate).build();
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer record) {
+        final short length = record.getShort();
+        if (length == NULL_FIELD) {
+            return null;
+        }
+        final byte[] value = new byte[length];
+        record.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
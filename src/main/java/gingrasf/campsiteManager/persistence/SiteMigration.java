@@ -0,0 +1,54 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.AvailableDateLock;
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.ReservationDay;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Arrays;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Brings the documents stored before the park had several sites to the default site. Without a site the reservations
+ * would be missing from every site query, and their nights could be booked again.
+ *
+ * The single-field unique indexes of that time, on the day of a lock and of a claim, are dropped since they would keep
+ * two sites from booking the same night. The overlap index without the site is dropped as well, the one with the site
+ * replaces it. Running it again finds nothing to do, so every instance runs it on startup.
+ */
+public class SiteMigration {
+
+    static final String LOCK_DATE_INDEX = "date";
+    static final String CLAIM_DAY_INDEX = "day";
+    static final String OVERLAP_INDEX_WITHOUT_SITE = "endDate_startDate";
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    private final String defaultSiteId;
+
+    public SiteMigration(String defaultSiteId) {
+        this.defaultSiteId = defaultSiteId;
+    }
+
+    public void run() {
+        for (Class<?> type : Arrays.asList(CampsiteReservation.class, AvailableDateLock.class, ReservationDay.class)) {
+            mongoOperations.updateMulti(Query.query(where("siteId").exists(false)), Update.update("siteId", defaultSiteId), type);
+        }
+        dropIndexIfExists(AvailableDateLock.class, LOCK_DATE_INDEX);
+        dropIndexIfExists(ReservationDay.class, CLAIM_DAY_INDEX);
+        dropIndexIfExists(CampsiteReservation.class, OVERLAP_INDEX_WITHOUT_SITE);
+    }
+
+    private void dropIndexIfExists(Class<?> type, String name) {
+        final IndexOperations indexes = mongoOperations.indexOps(type);
+        if (indexes.getIndexInfo().stream().anyMatch(index -> index.getName().equals(name))) {
+            indexes.dropIndex(name);
+        }
+    }
+}
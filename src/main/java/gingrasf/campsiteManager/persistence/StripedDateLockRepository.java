@@ -0,0 +1,170 @@
+package gingrasf.campsiteManager.persistence;
+
+import gingrasf.campsiteManager.model.DateLease;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * In-process implementation of the date locks, for deployments running a single instance of the application. It saves
+ * the round trips to Mongo but gives no protection at all across several instances.
+ *
+ * Each site has its own set of locks, created the first time the site is booked, so reservations of different sites
+ * never contend. Within a site each day maps to one of a fixed number of locks by its epoch-day, so consecutive days
+ * always use different locks and with at least {@link gingrasf.campsiteManager.OccupancyIndex#HORIZON_DAYS} locks every
+ * bookable day has its own.
+ *
+ * The locks belong to the thread that took them: the dates must be freed by the thread that locked them, which is what
+ * the {@link gingrasf.campsiteManager.CampsiteService} does.
+ */
+public class StripedDateLockRepository implements AvailableDateLockRepository {
+
+    private final int nbStripes;
+    private final long timeoutNanos;
+    private final Map<String, Stripes> stripesBySite = new ConcurrentHashMap<>();
+    private final Map<String, Holding> holdings = new ConcurrentHashMap<>();
+
+    public StripedDateLockRepository(int nbStripes, Duration timeout) {
+        if (nbStripes <= 0) {
+            throw new IllegalArgumentException("The number of lock stripes must be positive");
+        }
+        this.nbStripes = nbStripes;
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    /**
+     * The stripes are always taken in increasing order so two overlapping reservations can't each wait on a stripe held
+     * by the other. A stripe that can't be taken within the timeout is a conflict, and only the dates of that stripe are
+     * reported since the following ones were never tried.
+     */
+    @Override
+    public DateLease lockDates(String siteId, Collection<LocalDate> dates, String owner) {
+        final Stripes stripes = stripesBySite.computeIfAbsent(siteId, site -> new Stripes(nbStripes));
+        final List<LocalDate> sortedDates = dates.stream().distinct().sorted().collect(toList());
+        final int[] stripeIndexes = sortedDates.stream().mapToInt(stripes::stripeOf).distinct().sorted().toArray();
+        final DateLease.DateLeaseBuilder lease = DateLease.builder().siteId(siteId).owner(owner).dates(sortedDates);
+        final long deadline = System.nanoTime() + timeoutNanos;
+        for (int i = 0; i < stripeIndexes.length; i++) {
+            if (!tryLock(stripes.locks[stripeIndexes[i]], deadline)) {
+                stripes.unlock(Arrays.copyOf(stripeIndexes, i));
+                final int conflictingStripe = stripeIndexes[i];
+                return lease.conflictingDates(sortedDates.stream().filter(date -> stripes.stripeOf(date) == conflictingStripe).collect(toList())).build();
+            }
+        }
+        final long fencingToken = stripes.fencingTokens.incrementAndGet();
+        holdings.put(owner, new Holding(stripes, fencingToken, stripeIndexes));
+        return lease.fencingToken(fencingToken).build();
+    }
+
+    /**
+     * There is no expiry here, a lease is held until it is freed.
+     */
+    @Override
+    public boolean isHeld(DateLease lease) {
+        final Holding holding = holdings.get(lease.getOwner());
+        return holding != null
+                && holding.stripes == stripesBySite.get(lease.getSiteId())
+                && holding.fencingToken == lease.getFencingToken()
+                && Arrays.stream(holding.stripeIndexes).allMatch(i -> holding.stripes.locks[i].isHeldByCurrentThread());
+    }
+
+    /**
+     * A stripe is never taken over, so a lease still held can't have been fenced by a newer one.
+     */
+    @Override
+    public boolean fence(DateLease lease) {
+        return isHeld(lease);
+    }
+
+    @Override
+    public boolean isFenced(DateLease lease) {
+        return isHeld(lease);
+    }
+
+    @Override
+    public void freeDates(String siteId, Collection<LocalDate> dates, String owner) {
+        final Holding holding = holdings.get(owner);
+        if (holding == null || holding.stripes != stripesBySite.get(siteId)) {
+            return;
+        }
+        final List<Integer> freedStripes = dates.stream().map(holding.stripes::stripeOf).distinct().collect(toList());
+        final List<Integer> remainingStripes = new ArrayList<>();
+        final List<Integer> stripesToUnlock = new ArrayList<>();
+        for (int stripeIndex : holding.stripeIndexes) {
+            (freedStripes.contains(stripeIndex) ? stripesToUnlock : remainingStripes).add(stripeIndex);
+        }
+        if (remainingStripes.isEmpty()) {
+            holdings.remove(owner);
+        } else {
+            holdings.put(owner, new Holding(holding.stripes, holding.fencingToken, remainingStripes.stream().mapToInt(Integer::intValue).toArray()));
+        }
+        holding.stripes.unlock(stripesToUnlock.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * The locks are the stripes, so this counts the stripes held rather than the dates.
+     */
+    @Override
+    public long countHeldLocks() {
+        return holdings.values().stream().mapToLong(holding -> holding.stripeIndexes.length).sum();
+    }
+
+    private boolean tryLock(ReentrantLock lock, long deadline) {
+        try {
+            return lock.tryLock(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * The locks of a single site, with the counter giving the fencing tokens of its leases.
+     */
+    private static final class Stripes {
+
+        private final ReentrantLock[] locks;
+        private final AtomicLong fencingTokens = new AtomicLong();
+
+        private Stripes(int nbStripes) {
+            this.locks = new ReentrantLock[nbStripes];
+            Arrays.setAll(locks, i -> new ReentrantLock());
+        }
+
+        private int stripeOf(LocalDate date) {
+            return (int) Math.floorMod(date.toEpochDay(), (long) locks.length);
+        }
+
+        private void unlock(int[] stripeIndexes) {
+            for (int stripeIndex : stripeIndexes) {
+                if (locks[stripeIndex].isHeldByCurrentThread()) {
+                    locks[stripeIndex].unlock();
+                }
+            }
+        }
+    }
+
+    private static final class Holding {
+
+        private final Stripes stripes;
+        private final long fencingToken;
+        private final int[] stripeIndexes;
+
+        private Holding(Stripes stripes, long fencingToken, int[] stripeIndexes) {
+            this.stripes = stripes;
+            this.fencingToken = fencingToken;
+            this.stripeIndexes = stripeIndexes;
+        }
+    }
+}
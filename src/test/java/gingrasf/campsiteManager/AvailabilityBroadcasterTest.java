@@ -0,0 +1,276 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.AvailabilityDelta;
+import gingrasf.campsiteManager.model.CachedAvailability;
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.when;
+
+public class AvailabilityBroadcasterTest {
+
+    private static final int NB_SUBSCRIBERS = 2000;
+
+    @Mock
+    CampsiteRepository repository;
+
+    @Mock
+    AvailabilityCache availabilityCache;
+
+    OccupancyIndex occupancyIndex;
+
+    AvailabilityBroadcaster broadcaster;
+
+    final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        occupancyIndex = new OccupancyIndex(repository);
+        when(availabilityCache.getAvailabilityBetween(any(), any(), any(), any())).thenReturn(CachedAvailability.builder().json("{}").build());
+        // Flushed by hand in the tests
+        broadcaster = new AvailabilityBroadcaster(occupancyIndex, availabilityCache, Duration.ofHours(1), Duration.ofHours(1));
+    }
+
+    @After
+    public void tearDown() {
+        broadcaster.shutdown();
+    }
+
+    @Test
+    public void whenSubscribingTheSnapshotIsSentFirst() throws IOException {
+        final RecordingEmitter emitter = new RecordingEmitter();
+
+        broadcaster.subscribe(emitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5));
+
+        assertThat(emitter.events).hasSize(1);
+        assertThat(emitter.events.get(0)).contains("{}");
+    }
+
+    @Test
+    public void whenABurstOfChangesHappensBetweenFlushesItIsSentAsOneDelta() throws IOException {
+        final RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.subscribe(emitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5));
+
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(2));
+        occupancyIndex.markAvailable(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1));
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow.plusDays(3), tomorrow.plusDays(4));
+        broadcaster.flush();
+
+        waitUntil(() -> emitter.deltas.size() == 1);
+        assertThat(emitter.deltas.get(0).getAvailableDates()).containsExactly(tomorrow);
+        assertThat(emitter.deltas.get(0).getReservedDates()).containsExactly(tomorrow.plusDays(1), tomorrow.plusDays(3));
+    }
+
+    @Test
+    public void whenAChangeIsOutsideTheSubscribedPeriodNothingIsSent() throws IOException {
+        final RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.subscribe(emitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(2));
+
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow.plusDays(2), tomorrow.plusDays(4));
+        broadcaster.flush();
+
+        assertThat(emitter.deltas).isEmpty();
+    }
+
+    @Test
+    public void whenAChangeIsOnAnotherSiteNothingIsSent() throws IOException {
+        final RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.subscribe(emitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(2));
+
+        occupancyIndex.markReserved("other-site", tomorrow, tomorrow.plusDays(2));
+        broadcaster.flush();
+
+        assertThat(emitter.deltas).isEmpty();
+    }
+
+    @Test
+    public void whenASubscriberIsSlowTheOthersStillGetTheirChanges() throws IOException, InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingEmitter slowEmitter = new RecordingEmitter(release);
+        final RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.subscribe(slowEmitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5));
+        broadcaster.subscribe(emitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5));
+
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1));
+        broadcaster.flush();
+        waitUntil(() -> emitter.deltas.size() == 1);
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow.plusDays(1), tomorrow.plusDays(2));
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow.plusDays(2), tomorrow.plusDays(3));
+        // The first delta may still be finishing, in which case the flush skips the subscriber until it is done
+        waitUntil(() -> {
+            broadcaster.flush();
+            return emitter.deltas.size() == 2;
+        });
+
+        release.countDown();
+        waitUntil(() -> {
+            broadcaster.flush();
+            return slowEmitter.deltas.size() == 2;
+        });
+        assertThat(slowEmitter.deltas.get(1).getReservedDates()).containsExactly(tomorrow.plusDays(1), tomorrow.plusDays(2));
+    }
+
+    @Test
+    public void whenMoreSubscribersAreSlowThanThereAreSenderThreadsTheOthersStillGetTheirChanges() throws IOException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<RecordingEmitter> slowEmitters = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final RecordingEmitter slowEmitter = new RecordingEmitter(release);
+            broadcaster.subscribe(slowEmitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5));
+            slowEmitters.add(slowEmitter);
+        }
+        final RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.subscribe(emitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5));
+
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1));
+        broadcaster.flush();
+
+        waitUntil(() -> emitter.deltas.size() == 1);
+        release.countDown();
+        waitUntil(() -> slowEmitters.stream().allMatch(slowEmitter -> slowEmitter.deltas.size() == 1));
+    }
+
+    @Test
+    public void whenASubscriberIsStuckReceivingAnEventItIsDroppedButNotTheOthers() throws IOException {
+        broadcaster.shutdown();
+        // A stall timeout of 50ms, flushed by the broadcaster itself
+        broadcaster = new AvailabilityBroadcaster(occupancyIndex, availabilityCache, Duration.ofMillis(1), Duration.ofHours(1));
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingEmitter stuckEmitter = new RecordingEmitter(release);
+        final RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.subscribe(stuckEmitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5));
+        broadcaster.subscribe(emitter, DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5));
+
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1));
+
+        waitUntil(() -> broadcaster.getSubscriberCount() == 1);
+        release.countDown();
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow.plusDays(1), tomorrow.plusDays(2));
+        waitUntil(() -> emitter.deltas.stream().mapToInt(delta -> delta.getReservedDates().size()).sum() == 2);
+    }
+
+    @Test
+    public void whenManySubscribersWatchConcurrentChangesTheyAllEndWithTheFinalState() throws IOException {
+        final List<RecordingEmitter> emitters = new CopyOnWriteArrayList<>();
+        final Set<LocalDate> changedDays = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, NB_SUBSCRIBERS).parallel().forEach(i -> {
+            final RecordingEmitter emitter = new RecordingEmitter();
+            final LocalDate from = tomorrow.plusDays(i % 20);
+            try {
+                broadcaster.subscribe(emitter, DEFAULT_SITE_ID, from, from.plusDays(10));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            emitter.from = from;
+            emitters.add(emitter);
+        });
+        assertThat(broadcaster.getSubscriberCount()).isEqualTo(NB_SUBSCRIBERS);
+
+        // Each thread works on its own days, so the final state of every day is known
+        IntStream.range(0, 8).parallel().forEach(thread -> {
+            for (int i = 0; i < 200; i++) {
+                final LocalDate day = tomorrow.plusDays(thread * 4 + ThreadLocalRandom.current().nextInt(4));
+                changedDays.add(day);
+                occupancyIndex.markReserved(DEFAULT_SITE_ID, day, day.plusDays(1));
+                if (i % 10 == 0) {
+                    broadcaster.flush();
+                }
+                occupancyIndex.markAvailable(DEFAULT_SITE_ID, day, day.plusDays(1));
+            }
+            occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow.plusDays(thread * 4), tomorrow.plusDays(thread * 4 + 1));
+            changedDays.add(tomorrow.plusDays(thread * 4));
+        });
+
+        waitUntil(() -> {
+            broadcaster.flush();
+            return emitters.stream().allMatch(emitter -> emitter.lastStateByDay().equals(expectedStateByDay(emitter.from, changedDays)));
+        });
+        assertThat(broadcaster.getSubscriberCount()).isEqualTo(NB_SUBSCRIBERS);
+    }
+
+    /**
+     * @return the current state of the changed days of the 10 days period starting on the given day.
+     */
+    private Map<LocalDate, Boolean> expectedStateByDay(LocalDate from, Set<LocalDate> changedDays) {
+        return IntStream.range(0, 10)
+                .mapToObj(from::plusDays)
+                .filter(changedDays::contains)
+                .collect(Collectors.toMap(day -> day, day -> occupancyIndex.isReserved(DEFAULT_SITE_ID, day)));
+    }
+
+    private static void waitUntil(BooleanSupplier condition) {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met in time");
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Records the events instead of writing them to a response. It can also block until released, like a slow client.
+     */
+    private static class RecordingEmitter extends SseEmitter {
+
+        private final CountDownLatch release;
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private final List<AvailabilityDelta> deltas = new CopyOnWriteArrayList<>();
+        private LocalDate from;
+
+        RecordingEmitter() {
+            this(new CountDownLatch(0));
+        }
+
+        RecordingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            final Set<DataWithMediaType> event = builder.build();
+            final Object data = event.stream().map(DataWithMediaType::getData).filter(AvailabilityDelta.class::isInstance).findFirst().orElse(null);
+            if (data instanceof AvailabilityDelta) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                deltas.add((AvailabilityDelta) data);
+            }
+            events.add(event.stream().map(dataWithMediaType -> String.valueOf(dataWithMediaType.getData())).collect(Collectors.joining()));
+        }
+
+        Map<LocalDate, Boolean> lastStateByDay() {
+            final Map<LocalDate, Boolean> stateByDay = new ConcurrentHashMap<>();
+            for (AvailabilityDelta delta : deltas) {
+                delta.getAvailableDates().forEach(day -> stateByDay.put(day, false));
+                delta.getReservedDates().forEach(day -> stateByDay.put(day, true));
+            }
+            return stateByDay;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package gingrasf.campsiteManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gingrasf.campsiteManager.model.CachedAvailability;
+import gingrasf.campsiteManager.model.CampsiteAvailability;
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.model.AvailabilityFormat.DATES;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AvailabilityCacheTest {
+
+    @Mock
+    CampsiteService campsiteService;
+
+    @Mock
+    CampsiteRepository repository;
+
+    OccupancyIndex occupancyIndex;
+
+    AvailabilityCache availabilityCache;
+
+    final LocalDate from = LocalDate.now().plusDays(1);
+    final LocalDate until = from.plusDays(1);
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        occupancyIndex = new OccupancyIndex(repository);
+        availabilityCache = new AvailabilityCache(campsiteService, occupancyIndex, new ObjectMapper().findAndRegisterModules(), Duration.ofHours(1));
+        when(campsiteService.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES)).thenReturn(buildAvailability(singletonList(from)));
+    }
+
+    @Test
+    public void whenNothingChangedTheAvailabilityIsOnlyComputedOnce() {
+        final CachedAvailability first = availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+        final CachedAvailability second = availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+
+        assertThat(second).isSameAs(first);
+        verify(campsiteService, times(1)).getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+    }
+
+    @Test
+    public void whenAReservationIsMadeTheAvailabilityIsComputedAgainWithANewETag() {
+        final CachedAvailability before = availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+
+        when(campsiteService.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES)).thenReturn(buildAvailability(emptyList()));
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, from, until);
+        final CachedAvailability after = availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+
+        assertThat(after.getVersion()).isGreaterThan(before.getVersion());
+        assertThat(after.getEtag()).isNotEqualTo(before.getEtag());
+        verify(campsiteService, times(2)).getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+    }
+
+    @Test
+    public void whenTheAvailabilityIsTheSameTheETagIsTheSame() {
+        final CachedAvailability before = availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+
+        occupancyIndex.markAvailable(DEFAULT_SITE_ID, from, until);
+        final CachedAvailability after = availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+
+        assertThat(after).isNotSameAs(before);
+        assertThat(after.getEtag()).isEqualTo(before.getEtag()).startsWith("\"").endsWith("\"");
+    }
+
+    @Test
+    public void whenAnotherSiteChangesTheAvailabilityIsNotComputedAgain() {
+        final CachedAvailability before = availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+
+        occupancyIndex.markReserved("other-site", from, until);
+        final CachedAvailability after = availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+
+        assertThat(after).isSameAs(before);
+        verify(campsiteService, times(1)).getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+    }
+
+    @Test
+    public void whenTheEntryIsTooOldTheAvailabilityIsComputedAgain() {
+        availabilityCache = new AvailabilityCache(campsiteService, occupancyIndex, new ObjectMapper().findAndRegisterModules(), Duration.ZERO);
+
+        availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+        availabilityCache.getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+
+        verify(campsiteService, times(2)).getAvailabilityBetween(DEFAULT_SITE_ID, from, until, DATES);
+    }
+
+    private CampsiteAvailability buildAvailability(List<LocalDate> availableDates) {
+        return CampsiteAvailability.builder().availableDates(availableDates).searchPeriodStart(from).searchPeriodEnd(until).build();
+    }
+}
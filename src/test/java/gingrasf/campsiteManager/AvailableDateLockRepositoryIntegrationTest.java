@@ -0,0 +1,105 @@
+package gingrasf.campsiteManager;
+
+
+import gingrasf.campsiteManager.model.AvailableDateLock;
+import gingrasf.campsiteManager.model.DateFence;
+import gingrasf.campsiteManager.model.DateLease;
+import gingrasf.campsiteManager.persistence.AvailableDateLockRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+import java.util.Date;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class AvailableDateLockRepositoryIntegrationTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private AvailableDateLockRepository availableDateLockRepository;
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(new Query(), AvailableDateLock.class);
+        mongoTemplate.remove(new Query(), DateFence.class);
+    }
+
+    @Test
+    public void testDatesLockedBySomeoneElseAreReportedAndNothingIsLocked() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        availableDateLockRepository.lockDates(DEFAULT_SITE_ID, singletonList(tomorrow.plusDays(1)), "first-owner");
+
+        final DateLease lease = availableDateLockRepository.lockDates(DEFAULT_SITE_ID, asList(tomorrow.plusDays(2), tomorrow, tomorrow.plusDays(1)), "second-owner");
+
+        assertThat(lease.isAcquired()).isFalse();
+        assertThat(lease.getConflictingDates()).containsExactly(tomorrow.plusDays(1));
+        assertThat(mongoTemplate.count(Query.query(where("owner").is("second-owner")), AvailableDateLock.class)).isZero();
+    }
+
+    @Test
+    public void testDatesCanOnlyBeFreedByTheirOwner() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final DateLease lease = availableDateLockRepository.lockDates(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "owner");
+
+        availableDateLockRepository.freeDates(DEFAULT_SITE_ID, lease.getDates(), "someone-else");
+        assertThat(availableDateLockRepository.isHeld(lease)).isTrue();
+
+        availableDateLockRepository.freeDates(DEFAULT_SITE_ID, lease.getDates(), "owner");
+        assertThat(mongoTemplate.count(new Query(), AvailableDateLock.class)).isZero();
+    }
+
+    @Test
+    public void testOnlyTheLeasesNotYetExpiredAreCountedAsHeld() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        availableDateLockRepository.lockDates(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "owner");
+        mongoTemplate.insert(AvailableDateLock.builder().siteId(DEFAULT_SITE_ID).date(tomorrow.plusDays(2).toString()).owner("expired-owner").fencingToken(1).expiresAt(new Date(0)).build());
+
+        assertThat(availableDateLockRepository.countHeldLocks()).isEqualTo(2);
+    }
+
+    @Test
+    public void testAnExpiredLeaseIsTakenOverWithAGreaterFencingToken() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final DateLease expiredLease = availableDateLockRepository.lockDates(DEFAULT_SITE_ID, singletonList(tomorrow), "crashed-owner");
+        mongoTemplate.updateFirst(Query.query(where("date").is(tomorrow.toString())), Update.update("expiresAt", new Date(0)), AvailableDateLock.class);
+
+        final DateLease lease = availableDateLockRepository.lockDates(DEFAULT_SITE_ID, singletonList(tomorrow), "new-owner");
+
+        assertThat(lease.isAcquired()).isTrue();
+        assertThat(lease.getFencingToken()).isGreaterThan(expiredLease.getFencingToken());
+        assertThat(availableDateLockRepository.isHeld(lease)).isTrue();
+        assertThat(availableDateLockRepository.isHeld(expiredLease)).isFalse();
+    }
+
+    @Test
+    public void testALeaseTakenOverAfterItWasCheckedIsNoLongerFenced() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final DateLease stalledLease = availableDateLockRepository.lockDates(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "stalled-owner");
+        assertThat(availableDateLockRepository.fence(stalledLease)).isTrue();
+        assertThat(availableDateLockRepository.isHeld(stalledLease)).isTrue();
+        mongoTemplate.updateMulti(Query.query(where("owner").is("stalled-owner")), Update.update("expiresAt", new Date(0)), AvailableDateLock.class);
+
+        final DateLease lease = availableDateLockRepository.lockDates(DEFAULT_SITE_ID, singletonList(tomorrow.plusDays(1)), "new-owner");
+        assertThat(availableDateLockRepository.fence(lease)).isTrue();
+
+        assertThat(availableDateLockRepository.isFenced(lease)).isTrue();
+        assertThat(availableDateLockRepository.isFenced(stalledLease)).isFalse();
+        assertThat(availableDateLockRepository.fence(stalledLease)).isFalse();
+    }
+}
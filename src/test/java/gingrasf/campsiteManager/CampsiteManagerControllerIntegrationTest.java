@@ -1,10 +1,16 @@
 package gingrasf.campsiteManager;
 
 
+import gingrasf.campsiteManager.model.AdmissionStats;
 import gingrasf.campsiteManager.model.AvailableDateLock;
+import gingrasf.campsiteManager.model.BatchAvailability;
+import gingrasf.campsiteManager.model.BulkReservation;
 import gingrasf.campsiteManager.model.CampsiteAvailability;
 import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.DateRange;
+import gingrasf.campsiteManager.model.IdempotencyRecord;
 import gingrasf.campsiteManager.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -14,15 +20,25 @@ import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.web.server.LocalServerPort;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
@@ -39,7 +55,7 @@ import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "campsite.sites=default,site-1")
 public class CampsiteManagerControllerIntegrationTest {
 
     @LocalServerPort
@@ -48,6 +64,11 @@ public class CampsiteManagerControllerIntegrationTest {
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private OccupancyIndex occupancyIndex;
+
+    @Autowired
+    private ObjectMapper objectMapper;
 
 
     private TestRestTemplate restTemplate = new TestRestTemplate();
@@ -57,8 +78,11 @@ public class CampsiteManagerControllerIntegrationTest {
     @Before
     public void setup(){
 
-        mongoTemplate.dropCollection(CampsiteReservation.class);
-        mongoTemplate.dropCollection(AvailableDateLock.class);
+        // Remove the documents rather than dropping the collections to keep their indexes
+        mongoTemplate.remove(new Query(), CampsiteReservation.class);
+        mongoTemplate.remove(new Query(), AvailableDateLock.class);
+        mongoTemplate.remove(new Query(), IdempotencyRecord.class);
+        occupancyIndex.rebuild();
     }
 
 
@@ -99,6 +123,92 @@ public class CampsiteManagerControllerIntegrationTest {
         assertThat(response.getBody().getAvailableDates()).contains(today);
     }
 
+    @Test
+    public void testAvailabilityIsNotModifiedUntilAReservationIsMade() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final String availabilityUrl = UriComponentsBuilder.fromHttpUrl(createURLWithPort("/campsite/availability"))
+                .queryParam("from", tomorrow)
+                .queryParam("until", tomorrow.plusDays(3))
+                .toUriString();
+
+        ResponseEntity<String> response = restTemplate.exchange(availabilityUrl, HttpMethod.GET, new HttpEntity<>(null, headers), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        final String eTag = response.getHeaders().getETag();
+        assertThat(eTag).isNotEmpty();
+
+        final HttpHeaders conditionalHeaders = new HttpHeaders();
+        conditionalHeaders.setIfNoneMatch(eTag);
+        response = restTemplate.exchange(availabilityUrl, HttpMethod.GET, new HttpEntity<>(null, conditionalHeaders), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+        createReservationAndGetUniqueId(tomorrow, 1);
+        response = restTemplate.exchange(availabilityUrl, HttpMethod.GET, new HttpEntity<>(null, conditionalHeaders), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getETag()).isNotEqualTo(eTag);
+        assertThat(restTemplate.getForObject(availabilityUrl, CampsiteAvailability.class).getAvailableDates()).doesNotContain(tomorrow);
+    }
+
+    @Test
+    public void testRecoverAvailabilityAsRanges() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        createReservationAndGetUniqueId(tomorrow.plusDays(1), 1);
+
+        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(createURLWithPort("/campsite/availability"))
+                .queryParam("from", tomorrow)
+                .queryParam("until", tomorrow.plusDays(4))
+                .queryParam("format", "ranges");
+
+        ResponseEntity<CampsiteAvailability> response = restTemplate.exchange(
+                builder.toUriString(),
+                HttpMethod.GET, new HttpEntity<>(null, headers), CampsiteAvailability.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().getAvailableDates()).isNull();
+        assertThat(response.getBody().getAvailableRanges()).containsExactly(
+                DateRange.builder().start(tomorrow).end(tomorrow.plusDays(1)).build(),
+                DateRange.builder().start(tomorrow.plusDays(2)).end(tomorrow.plusDays(4)).build());
+    }
+
+    @Test
+    public void testRecoverAvailabilityForATooLongRangeIsABadRequest() {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(createURLWithPort("/campsite/availability"))
+                .queryParam("from", LocalDate.now())
+                .queryParam("until", LocalDate.now().plusYears(10));
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                builder.toUriString(),
+                HttpMethod.GET, new HttpEntity<>(null, headers), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    public void testAvailabilityStreamSendsASnapshotThenTheChanges() throws IOException {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final URL streamUrl = new URL(UriComponentsBuilder.fromHttpUrl(createURLWithPort("/campsite/availability/stream"))
+                .queryParam("from", tomorrow)
+                .queryParam("until", tomorrow.plusDays(3))
+                .toUriString());
+        final HttpURLConnection connection = (HttpURLConnection) streamUrl.openConnection();
+        connection.setReadTimeout(10_000);
+
+        try (BufferedReader events = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            assertThat(connection.getContentType()).startsWith(MediaType.TEXT_EVENT_STREAM_VALUE);
+            assertThat(events.readLine()).isEqualTo("event:snapshot");
+            assertThat(events.readLine()).contains(tomorrow.plusDays(1).toString());
+
+            createReservationAndGetUniqueId(tomorrow.plusDays(1), 1);
+
+            String line = events.readLine();
+            while (!"event:delta".equals(line)) {
+                line = events.readLine();
+            }
+            assertThat(events.readLine()).contains("\"reservedDates\":[\"" + tomorrow.plusDays(1) + "\"]");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
     @Test
     public void testValidReservationCreation() {
         HttpEntity<CampsiteReservation> entity = new HttpEntity<>(buildReservationRequest(LocalDate.now().plusDays(1), 2), headers);
@@ -154,6 +264,119 @@ public class CampsiteManagerControllerIntegrationTest {
         assertThat(response.getBody().getEndDate()).isEqualTo(newEnd);
     }
 
+    @Test
+    public void testBookingTakenNightsIsRejectedByThePrecheckAndCounted() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        createReservationAndGetUniqueId(start, 2);
+        final long rejectionsBefore = restTemplate.getForObject(createURLWithPort("/campsite/stats/admission"), AdmissionStats.class).getPrecheckRejections();
+
+        final ResponseEntity<String> response = createReservation(start.plusDays(1), 1);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        assertThat(restTemplate.getForObject(createURLWithPort("/campsite/stats/admission"), AdmissionStats.class).getPrecheckRejections()).isEqualTo(rejectionsBefore + 1);
+        assertThat(mongoTemplate.count(new Query(), AvailableDateLock.class)).isZero();
+    }
+
+    @Test
+    public void testTheStagesAndTheConflictsArePublishedInThePrometheusFormat() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        createReservationAndGetUniqueId(start, 1);
+        createReservation(start, 1);
+
+        final String metrics = restTemplate.getForObject(createURLWithPort("/actuator/prometheus"), String.class);
+
+        assertThat(metrics).contains("campsite_stage_seconds_bucket{operation=\"create\",stage=\"save\"");
+        assertThat(metrics).contains("campsite_reservation_conflicts_total{cause=\"precheck\",}");
+        assertThat(metrics).contains("campsite_locks_held");
+    }
+
+    @Test
+    public void testShiftingAReservationByOneDayIsNotAConflictWithItself() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String existingReservationId = createReservationAndGetUniqueId(start, 3);
+
+        final ResponseEntity<CampsiteReservation> response = restTemplate.exchange(
+                createURLWithPort(format("/campsite/reservation/%s", existingReservationId)),
+                HttpMethod.POST, new HttpEntity<>(buildReservationRequest(start.plusDays(1), 3), headers), CampsiteReservation.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().getStartDate()).isEqualTo(start.plusDays(1));
+        assertThat(mongoTemplate.count(new Query(), AvailableDateLock.class)).isZero();
+        // The night released by the move can be booked right away
+        assertThat(createReservation(start, 1).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    public void testAMoveRacingBookingsOfTheNightsItAddsAndReleasesNeverDoubleBooksThem() throws ExecutionException, InterruptedException {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String existingReservationId = createReservationAndGetUniqueId(start, 2);
+        final HttpEntity<CampsiteReservation> move = new HttpEntity<>(buildReservationRequest(start.plusDays(1), 2), headers);
+
+        final CompletableFuture<ResponseEntity<String>> moved = CompletableFuture.supplyAsync(() -> restTemplate.exchange(
+                createURLWithPort(format("/campsite/reservation/%s", existingReservationId)), HttpMethod.POST, move, String.class));
+        final List<CompletableFuture<ResponseEntity<String>>> bookings = IntStream.range(0, 50)
+                .mapToObj(nb -> CompletableFuture.supplyAsync(() -> createReservation(nb % 2 == 0 ? start : start.plusDays(2), 1)))
+                .collect(toList());
+        CompletableFuture.allOf(bookings.toArray(new CompletableFuture<?>[0])).get();
+
+        assertThat(moved.get().getStatusCode()).isIn(HttpStatus.OK, HttpStatus.CONFLICT);
+        final List<LocalDate> reservedDates = getAllReservations().stream()
+                .flatMap(reservation -> LongStream.range(0, DAYS.between(reservation.getStartDate(), reservation.getEndDate())).mapToObj(offset -> reservation.getStartDate().plusDays(offset)))
+                .collect(toList());
+        assertThat(reservedDates).doesNotHaveDuplicates();
+        assertThat(reservedDates).contains(start.plusDays(1));
+        assertThat(mongoTemplate.count(new Query(), AvailableDateLock.class)).isZero();
+    }
+
+    @Test
+    public void testReservationCreationRetriedWithTheSameIdempotencyKeyIsOnlyMadeOnce() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final HttpHeaders idempotentHeaders = new HttpHeaders();
+        idempotentHeaders.set(CampsiteManagerController.IDEMPOTENCY_KEY_HEADER, "create-once");
+        HttpEntity<CampsiteReservation> entity = new HttpEntity<>(buildReservationRequest(start, 2), idempotentHeaders);
+
+        final List<ResponseEntity<String>> responses = IntStream.range(0, 20)
+                .mapToObj(nb -> CompletableFuture.supplyAsync(() -> restTemplate.exchange(createURLWithPort("/campsite/reservation"), HttpMethod.PUT, entity, String.class)))
+                .collect(toList()).stream()
+                .map(CompletableFuture::join)
+                .collect(toList());
+
+        assertThat(responses.stream().map(ResponseEntity::getStatusCode)).containsOnly(HttpStatus.OK);
+        assertThat(responses.stream().map(ResponseEntity::getBody).distinct()).hasSize(1);
+        assertThat(getAllReservations()).hasSize(1);
+    }
+
+    @Test
+    public void testReservationUpdateRetriedWithTheSameIdempotencyKeyGetsTheSameResponse() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String existingReservationId = createReservationAndGetUniqueId(start, 2);
+        final HttpHeaders idempotentHeaders = new HttpHeaders();
+        idempotentHeaders.set(CampsiteManagerController.IDEMPOTENCY_KEY_HEADER, "update-once");
+        final CampsiteReservation newReservation = CampsiteReservation.builder().user(buildValidUser()).startDate(start.plusDays(5)).endDate(start.plusDays(6)).build();
+        HttpEntity<CampsiteReservation> entity = new HttpEntity<>(newReservation, idempotentHeaders);
+
+        final ResponseEntity<CampsiteReservation> first = restTemplate.exchange(createURLWithPort(format("/campsite/reservation/%s", existingReservationId)), HttpMethod.POST, entity, CampsiteReservation.class);
+        createReservationAndGetUniqueId(start, 2);
+        final ResponseEntity<CampsiteReservation> retry = restTemplate.exchange(createURLWithPort(format("/campsite/reservation/%s", existingReservationId)), HttpMethod.POST, entity, CampsiteReservation.class);
+
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(retry.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(retry.getBody()).isEqualTo(first.getBody());
+        assertThat(retry.getBody().getStartDate()).isEqualTo(start.plusDays(5));
+    }
+
+    @Test
+    public void testIdempotencyKeyReusedForAnotherReservationReturnBadRequest() {
+        final HttpHeaders idempotentHeaders = new HttpHeaders();
+        idempotentHeaders.set(CampsiteManagerController.IDEMPOTENCY_KEY_HEADER, "reused");
+        restTemplate.exchange(createURLWithPort("/campsite/reservation"), HttpMethod.PUT, new HttpEntity<>(buildReservationRequest(LocalDate.now().plusDays(1), 1), idempotentHeaders), String.class);
+
+        ResponseEntity<String> response = restTemplate.exchange(createURLWithPort("/campsite/reservation"), HttpMethod.PUT, new HttpEntity<>(buildReservationRequest(LocalDate.now().plusDays(3), 1), idempotentHeaders), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(getAllReservations()).hasSize(1);
+    }
+
     @Test
     public void testReservationCancel() {
         final LocalDate start = LocalDate.now().plusDays(1);
@@ -295,6 +518,100 @@ public class CampsiteManagerControllerIntegrationTest {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
     }
 
+    @Test
+    public void testReservationOnASiteLeavesTheOtherSitesAvailable() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        HttpEntity<CampsiteReservation> entity = new HttpEntity<>(buildReservationRequest(tomorrow, 1), headers);
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                createURLWithPort("/campsite/site-1/reservation"),
+                HttpMethod.PUT, entity, String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        final String siteAvailabilityUrl = UriComponentsBuilder.fromHttpUrl(createURLWithPort("/campsite/site-1/availability"))
+                .queryParam("from", tomorrow)
+                .queryParam("until", tomorrow.plusDays(2))
+                .toUriString();
+        ResponseEntity<CampsiteAvailability> availability = restTemplate.exchange(siteAvailabilityUrl, HttpMethod.GET, new HttpEntity<>(null, headers), CampsiteAvailability.class);
+        assertThat(availability.getBody().getAvailableDates()).containsExactly(tomorrow.plusDays(1));
+
+        final String defaultAvailabilityUrl = UriComponentsBuilder.fromHttpUrl(createURLWithPort("/campsite/availability"))
+                .queryParam("from", tomorrow)
+                .queryParam("until", tomorrow.plusDays(2))
+                .toUriString();
+        availability = restTemplate.exchange(defaultAvailabilityUrl, HttpMethod.GET, new HttpEntity<>(null, headers), CampsiteAvailability.class);
+        assertThat(availability.getBody().getAvailableDates()).containsExactly(tomorrow, tomorrow.plusDays(1));
+        assertThat(getAllReservations()).isEmpty();
+        assertThat(createReservationAndGetUniqueId(tomorrow, 1)).isNotEmpty();
+    }
+
+    @Test
+    public void testBatchAvailabilityAnswersEachRangeAndReportsTheInvalidOnes() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        createReservationAndGetUniqueId(tomorrow.plusDays(1), 1);
+        final List<DateRange> ranges = Arrays.asList(
+                DateRange.builder().start(tomorrow).end(tomorrow.plusDays(3)).build(),
+                DateRange.builder().start(tomorrow).end(tomorrow).build());
+
+        ResponseEntity<List<BatchAvailability>> response = restTemplate.exchange(
+                createURLWithPort("/campsite/availability/batch"),
+                HttpMethod.POST, new HttpEntity<>(ranges, headers), new ParameterizedTypeReference<List<BatchAvailability>>(){});
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).hasSize(2);
+        assertThat(response.getBody().get(0).getAvailability().getAvailableDates()).containsExactly(tomorrow, tomorrow.plusDays(2));
+        assertThat(response.getBody().get(1).getError()).isNotEmpty();
+    }
+
+    @Test
+    public void testBulkCreationCreatesEachFreeReservationAndReportsTheOthers() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        createReservationAndGetUniqueId(tomorrow, 1);
+        final List<CampsiteReservation> reservations = Arrays.asList(
+                buildReservationRequest(tomorrow, 1),
+                buildReservationRequest(tomorrow.plusDays(1), 2),
+                buildReservationRequest(tomorrow.plusDays(2), 1));
+
+        ResponseEntity<List<BulkReservation>> response = restTemplate.exchange(
+                createURLWithPort("/campsite/reservation/bulk"),
+                HttpMethod.PUT, new HttpEntity<>(reservations, headers), new ParameterizedTypeReference<List<BulkReservation>>(){});
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).hasSize(3);
+        assertThat(response.getBody().get(0).getError()).isNotEmpty();
+        assertThat(response.getBody().get(1).getId()).isNotEmpty();
+        assertThat(response.getBody().get(2).getError()).isNotEmpty();
+        assertThat(getAllReservations()).extracting(CampsiteReservation::getId).contains(response.getBody().get(1).getId()).hasSize(2);
+    }
+
+    @Test
+    public void testFreeWindowsSkipTheReservedDates() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        createReservationAndGetUniqueId(tomorrow.plusDays(1), 1);
+        final String windowsUrl = UriComponentsBuilder.fromHttpUrl(createURLWithPort("/campsite/availability/windows"))
+                .queryParam("nights", 2)
+                .queryParam("limit", 2)
+                .toUriString();
+
+        ResponseEntity<List<DateRange>> response = restTemplate.exchange(windowsUrl, HttpMethod.GET, new HttpEntity<>(null, headers), new ParameterizedTypeReference<List<DateRange>>(){});
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).containsExactly(
+                DateRange.builder().start(tomorrow.plusDays(2)).end(tomorrow.plusDays(4)).build(),
+                DateRange.builder().start(tomorrow.plusDays(3)).end(tomorrow.plusDays(5)).build());
+    }
+
+    @Test
+    public void testUnknownSiteReturnBadRequest() {
+        HttpEntity<String> entity = new HttpEntity<>(null, headers);
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                createURLWithPort("/campsite/unknown-site/availability"),
+                HttpMethod.GET, entity, String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
     @Test
     public void testCannotCreateReservationForUnavailableDateReturnConflict() {
         final LocalDate start = LocalDate.now().plusDays(2);
@@ -307,6 +624,7 @@ public class CampsiteManagerControllerIntegrationTest {
                 HttpMethod.PUT, entity, String.class);
 
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        assertThat(response.getBody()).contains("Nearest available stays");
     }
 
     @Test
@@ -365,6 +683,106 @@ public class CampsiteManagerControllerIntegrationTest {
     }
 
 
+    @Test
+    public void testConcurrentOverlappingReservationsDoNotLeaveLocksBehind() throws ExecutionException, InterruptedException {
+        final int nbOfRequest = 2000;
+        final LocalDate firstStart = LocalDate.now().plusDays(1);
+        final int nbOfStartDates = 10;
+
+        final List<CompletableFuture<ResponseEntity<String>>> requestsFutures = IntStream.range(0, nbOfRequest)
+                .mapToObj(nb -> CompletableFuture.supplyAsync(() -> createReservation(firstStart.plusDays(nb % nbOfStartDates), 1 + nb % MAX_RESERVATION_DURATION)))
+                .collect(toList());
+
+        CompletableFuture.allOf(requestsFutures.toArray(new CompletableFuture[requestsFutures.size()])).get();
+
+        final List<HttpStatus> statuses = requestsFutures.stream().map(future -> future.join().getStatusCode()).collect(toList());
+        assertThat(statuses).contains(HttpStatus.OK);
+        assertThat(statuses).containsOnly(HttpStatus.OK, HttpStatus.CONFLICT);
+        assertThat(mongoTemplate.count(new Query(), AvailableDateLock.class)).isZero();
+
+        final List<LocalDate> reservedDates = getAllReservations().stream()
+                .flatMap(reservation -> LongStream.range(0, DAYS.between(reservation.getStartDate(), reservation.getEndDate())).mapToObj(offset -> reservation.getStartDate().plusDays(offset)))
+                .collect(toList());
+        assertThat(reservedDates).doesNotHaveDuplicates();
+    }
+
+    @Test
+    public void testFollowingTheNextLinksListsEveryReservationOnceInStartDateOrder() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        fillWithOneDayReservationBetween(tomorrow, tomorrow.plusDays(5));
+
+        final List<CampsiteReservation> listed = new ArrayList<>();
+        String nextUrl = createURLWithPort("/campsite/reservation?limit=2");
+        int pages = 0;
+        while (nextUrl != null) {
+            final ResponseEntity<List<CampsiteReservation>> response = restTemplate.exchange(nextUrl, HttpMethod.GET, new HttpEntity<>(null, headers), new ParameterizedTypeReference<List<CampsiteReservation>>(){});
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+            listed.addAll(response.getBody());
+            final String link = response.getHeaders().getFirst(HttpHeaders.LINK);
+            nextUrl = link == null ? null : link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+            pages++;
+        }
+
+        assertThat(pages).isEqualTo(3);
+        assertThat(listed).extracting(CampsiteReservation::getStartDate).containsExactly(tomorrow, tomorrow.plusDays(1), tomorrow.plusDays(2), tomorrow.plusDays(3), tomorrow.plusDays(4));
+    }
+
+    @Test
+    public void testTheReservationsAreFilteredByStartDate() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        fillWithOneDayReservationBetween(tomorrow, tomorrow.plusDays(5));
+        final String url = UriComponentsBuilder.fromHttpUrl(createURLWithPort("/campsite/reservation"))
+                .queryParam("from", tomorrow.plusDays(1))
+                .queryParam("until", tomorrow.plusDays(3))
+                .toUriString();
+
+        final ResponseEntity<List<CampsiteReservation>> response = restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(null, headers), new ParameterizedTypeReference<List<CampsiteReservation>>(){});
+
+        assertThat(response.getBody()).extracting(CampsiteReservation::getStartDate).containsExactly(tomorrow.plusDays(1), tomorrow.plusDays(2));
+        assertThat(response.getHeaders().get(HttpHeaders.LINK)).isNull();
+    }
+
+    @Test
+    public void testTheReservationsOfAUserAreLookedUpByEmail() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final User other = User.builder().email("other@test.com").fullName("Other Person").build();
+        createReservationAndGetUniqueId(tomorrow, 1);
+        restTemplate.exchange(createURLWithPort("/campsite/reservation"), HttpMethod.PUT, new HttpEntity<>(buildReservationRequest(tomorrow.plusDays(1), 1, other), headers), String.class);
+        final String url = UriComponentsBuilder.fromHttpUrl(createURLWithPort("/campsite/reservation")).queryParam("email", other.getEmail()).toUriString();
+
+        final ResponseEntity<List<CampsiteReservation>> response = restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(null, headers), new ParameterizedTypeReference<List<CampsiteReservation>>(){});
+
+        assertThat(response.getBody()).extracting(CampsiteReservation::getUser).containsExactly(other);
+    }
+
+    @Test
+    public void testAnInvalidCursorIsABadRequest() {
+        final ResponseEntity<String> response = restTemplate.exchange(createURLWithPort("/campsite/reservation?cursor=not-a-cursor"), HttpMethod.GET, new HttpEntity<>(null, headers), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    public void testTheReservationsCanBeStreamedAsNewlineDelimitedJson() throws IOException {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        fillWithOneDayReservationBetween(tomorrow, tomorrow.plusDays(3));
+        final HttpURLConnection connection = (HttpURLConnection) new URL(createURLWithPort("/campsite/reservation")).openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT, CampsiteManagerController.NDJSON_VALUE);
+
+        final List<CampsiteReservation> streamed = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                streamed.add(objectMapper.readValue(line, CampsiteReservation.class));
+            }
+        }
+
+        assertThat(connection.getContentType()).startsWith(CampsiteManagerController.NDJSON_VALUE);
+        assertThat(streamed).extracting(CampsiteReservation::getStartDate).containsExactly(tomorrow, tomorrow.plusDays(1), tomorrow.plusDays(2));
+        // Without asking for it the reservations are still listed as a JSON array
+        assertThat(new URL(createURLWithPort("/campsite/reservation")).openConnection().getContentType()).startsWith(MediaType.APPLICATION_JSON_VALUE);
+    }
+
     private ResponseEntity<String> createReservation(LocalDate start, int duration) {
         HttpEntity<CampsiteReservation> entity = new HttpEntity<>(buildReservationRequest(start, duration), headers);
 
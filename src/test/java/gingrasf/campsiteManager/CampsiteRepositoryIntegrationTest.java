@@ -0,0 +1,162 @@
+package gingrasf.campsiteManager;
+
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.ReservationCursor;
+import gingrasf.campsiteManager.model.User;
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.TestUtil.buildValidUser;
+import static gingrasf.campsiteManager.persistence.CampsiteRepository.OVERLAP_QUERY;
+import static gingrasf.campsiteManager.TestUtil.generateOneDayReservationsBetween;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class CampsiteRepositoryIntegrationTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CampsiteRepository repository;
+
+    @Before
+    public void setup() {
+        repository.deleteAll();
+    }
+
+    @Test
+    public void testOverlapQueryReturnReservationsStartingBeforeTheInterval() {
+        final LocalDate today = LocalDate.now();
+        final CampsiteReservation runningIntoInterval = CampsiteReservation.builder().id("running-into").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(today.minusDays(1)).endDate(today.plusDays(2)).build();
+        final CampsiteReservation endingAtInterval = CampsiteReservation.builder().id("ending-at").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(today.minusDays(3)).endDate(today).build();
+        final CampsiteReservation startingAtIntervalEnd = CampsiteReservation.builder().id("starting-at-end").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(today.plusDays(5)).endDate(today.plusDays(6)).build();
+        repository.save(runningIntoInterval);
+        repository.save(endingAtInterval);
+        repository.save(startingAtIntervalEnd);
+
+        final List<String> overlappingIds = repository.findOverlapping(DEFAULT_SITE_ID, today, today.plusDays(5)).stream().map(CampsiteReservation::getId).collect(toList());
+
+        assertThat(overlappingIds).containsOnly("running-into");
+    }
+
+    @Test
+    public void testOverlapQueryOnlyReturnReservationsOfTheSite() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        repository.save(CampsiteReservation.builder().id("on-site").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow).endDate(tomorrow.plusDays(1)).build());
+        repository.save(CampsiteReservation.builder().id("on-other-site").siteId("other-site").user(buildValidUser()).startDate(tomorrow).endDate(tomorrow.plusDays(1)).build());
+
+        final List<String> overlappingIds = repository.findOverlapping(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1)).stream().map(CampsiteReservation::getId).collect(toList());
+
+        assertThat(overlappingIds).containsOnly("on-site");
+        assertThat(repository.findBySiteId("other-site")).extracting(CampsiteReservation::getId).containsOnly("on-other-site");
+    }
+
+    @Test
+    public void testAReservationIsOnlyMovedIfItStillHasTheDatesItWasReadWith() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final CampsiteReservation read = repository.save(CampsiteReservation.builder().id("moved").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow).endDate(tomorrow.plusDays(1)).build());
+
+        assertThat(repository.move(read, tomorrow.plusDays(2), tomorrow.plusDays(3))).isTrue();
+        assertThat(repository.move(read, tomorrow.plusDays(4), tomorrow.plusDays(5))).isFalse();
+
+        assertThat(repository.findById("moved").get().getStartDate()).isEqualTo(tomorrow.plusDays(2));
+        assertThat(repository.cancel("moved").get().getEndDate()).isEqualTo(tomorrow.plusDays(3));
+        assertThat(repository.cancel("moved")).isEmpty();
+        assertThat(repository.move(read, tomorrow.plusDays(4), tomorrow.plusDays(5))).isFalse();
+    }
+
+    @Test
+    public void testOverlapQueryUsesTheOverlapIndex() {
+        final LocalDate today = LocalDate.now();
+        repository.saveAll(generateOneDayReservationsBetween(today.minusMonths(6), today.plusMonths(1)));
+
+        final Document filter = bind(OVERLAP_QUERY, DEFAULT_SITE_ID, today, today.plusMonths(1));
+        final Document explain = mongoTemplate.getDb().runCommand(new Document("explain", new Document("find", mongoTemplate.getCollectionName(CampsiteReservation.class)).append("filter", filter))
+                .append("verbosity", "queryPlanner"));
+
+        final Document indexScan = findStage(((Document) explain.get("queryPlanner")).get("winningPlan", Document.class), "IXSCAN");
+        assertThat(indexScan).isNotNull();
+        assertThat(indexScan.getString("indexName")).isEqualTo(CampsiteReservation.OVERLAP_INDEX);
+    }
+
+    @Test
+    public void testPagesResumeRightAfterTheCursorInStartDateThenIdOrder() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        repository.save(CampsiteReservation.builder().id("b").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow).endDate(tomorrow.plusDays(1)).build());
+        repository.save(CampsiteReservation.builder().id("a").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow).endDate(tomorrow.plusDays(1)).build());
+        repository.save(CampsiteReservation.builder().id("c").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow.plusDays(1)).endDate(tomorrow.plusDays(2)).build());
+        repository.save(CampsiteReservation.builder().id("on-other-site").siteId("other-site").user(buildValidUser()).startDate(tomorrow).endDate(tomorrow.plusDays(1)).build());
+
+        final List<CampsiteReservation> firstPage = repository.findPage(DEFAULT_SITE_ID, null, null, null, 2);
+        final List<CampsiteReservation> secondPage = repository.findPage(DEFAULT_SITE_ID, null, null, ReservationCursor.after(firstPage.get(1)), 2);
+
+        assertThat(firstPage).extracting(CampsiteReservation::getId).containsExactly("a", "b");
+        assertThat(secondPage).extracting(CampsiteReservation::getId).containsExactly("c");
+        try (Stream<CampsiteReservation> stream = repository.streamAll(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1))) {
+            assertThat(stream.map(CampsiteReservation::getId)).containsExactly("a", "b");
+        }
+    }
+
+    @Test
+    public void testTheReservationsOfAUserAreFoundAndTheUpcomingOnesCountedByEmail() {
+        final LocalDate today = LocalDate.now();
+        final User other = User.builder().email("other@test.com").fullName("Other Person").build();
+        repository.save(CampsiteReservation.builder().id("past").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(today.minusDays(3)).endDate(today.minusDays(2)).build());
+        repository.save(CampsiteReservation.builder().id("upcoming").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(today.plusDays(1)).endDate(today.plusDays(2)).build());
+        repository.save(CampsiteReservation.builder().id("on-other-site").siteId("other-site").user(buildValidUser()).startDate(today.plusDays(1)).endDate(today.plusDays(2)).build());
+        repository.save(CampsiteReservation.builder().id("of-other-user").siteId(DEFAULT_SITE_ID).user(other).startDate(today.plusDays(3)).endDate(today.plusDays(4)).build());
+
+        assertThat(repository.findBySiteIdAndUserEmailOrderByStartDateAsc(DEFAULT_SITE_ID, buildValidUser().getEmail())).extracting(CampsiteReservation::getId).containsExactly("past", "upcoming");
+        assertThat(repository.countByUserEmailAndEndDateAfter(buildValidUser().getEmail(), today)).isEqualTo(2);
+        // The user index is declared on the field the email is stored in
+        assertThat(mongoTemplate.getCollection(mongoTemplate.getCollectionName(CampsiteReservation.class)).find(new Document("_id", "upcoming")).first().get("user", Document.class))
+                .containsKey("_id");
+    }
+
+    private Document findStage(Document plan, String stage) {
+        Document current = plan;
+        while (current != null && !stage.equals(current.getString("stage"))) {
+            current = current.get("inputStage", Document.class);
+        }
+        return current;
+    }
+
+    /**
+     * The query of the repository with its ?n placeholders replaced by the parameters, converted the way the repository
+     * converts them, so the query explained is the one the repository runs.
+     */
+    private Document bind(String query, Object... parameters) {
+        final Document bound = Document.parse(query.replaceAll("\\?(\\d+)", "'?$1'"));
+        bindParameters(bound, parameters);
+        return bound;
+    }
+
+    private void bindParameters(Document document, Object[] parameters) {
+        document.replaceAll((key, value) -> {
+            if (value instanceof Document) {
+                bindParameters((Document) value, parameters);
+                return value;
+            }
+            if (value instanceof String && ((String) value).matches("\\?\\d+")) {
+                return mongoTemplate.getConverter().convertToMongoType(parameters[Integer.parseInt(((String) value).substring(1))]);
+            }
+            return value;
+        });
+    }
+}
@@ -1,11 +1,19 @@
 package gingrasf.campsiteManager;
 
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.DateRange;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.time.LocalDate;
+import java.util.Collections;
 
+import static gingrasf.campsiteManager.CampsiteReservationValidator.DEFAULT_MAX_AVAILABILITY_WINDOW;
+import static gingrasf.campsiteManager.CampsiteReservationValidator.MAX_BATCH_RANGES;
+import static gingrasf.campsiteManager.CampsiteReservationValidator.MAX_BULK_RESERVATIONS;
+import static gingrasf.campsiteManager.CampsiteReservationValidator.MAX_PAGE_SIZE;
 import static gingrasf.campsiteManager.CampsiteReservationValidator.MAX_RESERVATION_DURATION;
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
 import static gingrasf.campsiteManager.TestUtil.buildValidUser;
 
 public class CampsiteReservationValidatorTest {
@@ -84,4 +92,61 @@ public class CampsiteReservationValidatorTest {
     public void whenCreatingAReservationWithoutValidUserThrowException() {
         validator.validateUser(null);
     }
+
+    @Test
+    public void whenQueryingAvailabilityForTheMaxWindowItShouldNotThrowAnyException() {
+        final LocalDate from = LocalDate.now();
+        validator.validateAvailabilityWindow(from, from.plusDays(DEFAULT_MAX_AVAILABILITY_WINDOW));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenQueryingAvailabilityForMoreThanTheMaxWindowThrowException() {
+        final LocalDate from = LocalDate.now();
+        validator.validateAvailabilityWindow(from, from.plusYears(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenQueryingAnEmptyBatchThrowException() {
+        validator.validateBatch(Collections.emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenQueryingABatchWithTooManyRangesThrowException() {
+        final LocalDate from = LocalDate.now();
+        validator.validateBatch(Collections.nCopies(MAX_BATCH_RANGES + 1, DateRange.builder().start(from).end(from.plusDays(1)).build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenTheRangesOfABatchSpanMoreThanTheMaxWindowThrowException() {
+        final LocalDate from = LocalDate.now();
+        validator.validateBatchSpan(from, from.plusDays(DEFAULT_MAX_AVAILABILITY_WINDOW + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenSearchingWindowsLongerThanTheMaxDurationThrowException() {
+        validator.validateWindowSearch(MAX_RESERVATION_DURATION + 1, 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenCreatingTooManyReservationsInBulkThrowException() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        validator.validateBulk(Collections.nCopies(MAX_BULK_RESERVATIONS + 1, CampsiteReservation.builder().startDate(tomorrow).endDate(tomorrow.plusDays(1)).build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenReadingAPageLargerThanTheMaxPageSizeThrowException() {
+        validator.validatePage(MAX_PAGE_SIZE + 1, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenTheUserAlreadyHasTheMaxUpcomingReservationsThrowException() {
+        new CampsiteReservationValidator(DEFAULT_MAX_AVAILABILITY_WINDOW, Collections.singletonList(DEFAULT_SITE_ID), 2).validateUpcomingReservations(() -> 2);
+    }
+
+    @Test
+    public void whenThereIsNoLimitOnUpcomingReservationsTheyAreNotCounted() {
+        validator.validateUpcomingReservations(() -> {
+            throw new AssertionError("The upcoming reservations should not be counted");
+        });
+    }
 }
@@ -2,28 +2,61 @@ package gingrasf.campsiteManager;
 
 import gingrasf.campsiteManager.persistence.AvailableDateLockRepository;
 import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import gingrasf.campsiteManager.persistence.ReservationDayRepository;
+import gingrasf.campsiteManager.model.AvailabilityFormat;
+import gingrasf.campsiteManager.model.BatchAvailability;
+import gingrasf.campsiteManager.model.BulkReservation;
 import gingrasf.campsiteManager.model.CampsiteAvailability;
 import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.DateLease;
+import gingrasf.campsiteManager.model.DateRange;
+import gingrasf.campsiteManager.model.ReservationCursor;
+import gingrasf.campsiteManager.model.ReservationDay;
+import gingrasf.campsiteManager.model.ReservationPage;
 import gingrasf.campsiteManager.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.NoSuchElementException;
-
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import static gingrasf.campsiteManager.CampsiteReservationValidator.DEFAULT_MAX_AVAILABILITY_WINDOW;
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.TestUtil.buildReservationRequest;
 import static gingrasf.campsiteManager.TestUtil.buildValidUser;
 import static gingrasf.campsiteManager.TestUtil.generateMultiDayReservation;
 import static gingrasf.campsiteManager.TestUtil.generateOneDayReservationsBetween;
 import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.Optional.empty;
 import static java.util.Optional.ofNullable;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class CampsiteServiceTest {
@@ -36,16 +69,41 @@ public class CampsiteServiceTest {
     @Mock
     AvailableDateLockRepository availableDateLockRepository;
 
+    @Mock
+    ReservationDayRepository reservationDayRepository;
+
     @Mock
     CampsiteReservationValidator validator;
 
+    @Captor
+    ArgumentCaptor<Iterable<CampsiteReservation>> savedReservations;
+
+    OccupancyIndex occupancyIndex;
+
     CampsiteService service;
 
+    CampsiteService claimingService;
+
+    SimpleMeterRegistry meterRegistry;
+
+    CampsiteMetrics metrics;
+
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
-        service = new CampsiteService(repository, availableDateLockRepository, validator);
-        when(availableDateLockRepository.lockAvailableDate(any(), any())).thenReturn(true);
+        meterRegistry = new SimpleMeterRegistry();
+        metrics = new CampsiteMetrics(meterRegistry);
+        occupancyIndex = new OccupancyIndex(repository);
+        service = new CampsiteService(repository, availableDateLockRepository, validator, occupancyIndex, metrics);
+        when(availableDateLockRepository.lockDates(any(), any(), any())).thenAnswer(i -> DateLease.builder().siteId(i.getArgument(0)).owner(i.getArgument(2)).dates(new ArrayList<>(i.getArgument(1))).build());
+        when(availableDateLockRepository.isHeld(any())).thenReturn(true);
+        when(availableDateLockRepository.fence(any())).thenReturn(true);
+        when(availableDateLockRepository.isFenced(any())).thenReturn(true);
+        when(repository.move(any(), any(), any())).thenReturn(true);
+        when(repository.cancel(any())).thenAnswer(i -> repository.findById(i.getArgument(0)));
+        claimingService = new CampsiteService(repository, reservationDayRepository, validator, occupancyIndex, metrics);
+        when(reservationDayRepository.claimDays(any(), any(), any())).thenReturn(Collections.emptyList());
+        when(reservationDayRepository.confirmDays(any(), any(), any())).thenReturn(true);
     }
 
     // Get Availability Cases
@@ -54,9 +112,11 @@ public class CampsiteServiceTest {
         final LocalDate now = LocalDate.now();
         final LocalDate until = now.plusMonths(2);
 
-        when(repository.findAll()).thenReturn(Collections.emptyList());
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Collections.emptyList());
+
+        occupancyIndex.rebuild();
 
-        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(now, until);
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until);
 
         assertThat(campsiteAvailability).isNotNull();
         assertThat(campsiteAvailability.getSearchPeriodStart()).isEqualTo(now);
@@ -70,9 +130,11 @@ public class CampsiteServiceTest {
         final LocalDate until = now.plusMonths(2);
         final long expectedNbOfDays = DAYS.between(now, until);
 
-        when(repository.findAll()).thenReturn(Collections.emptyList());
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Collections.emptyList());
 
-        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(now, until);
+        occupancyIndex.rebuild();
+
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until);
 
         assertThat(campsiteAvailability.getAvailableDates().size()).isEqualTo(expectedNbOfDays);
     }
@@ -83,9 +145,11 @@ public class CampsiteServiceTest {
         final LocalDate until = now.plusMonths(2);
         final LocalDate tomorrow = now.plusDays(1);
 
-        when(repository.findAll()).thenReturn(Collections.emptyList());
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Collections.emptyList());
+
+        occupancyIndex.rebuild();
 
-        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(now, until);
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until);
 
         assertThat(campsiteAvailability.getAvailableDates()).contains(tomorrow);
     }
@@ -97,22 +161,47 @@ public class CampsiteServiceTest {
         final LocalDate tomorrow = now.plusDays(1);
         final long expectedNbOfDays = DAYS.between(now, until) - 1;
 
-        when(repository.findAll()).thenReturn(generateOneDayReservationsBetween(tomorrow, tomorrow.plusDays(1)));
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateOneDayReservationsBetween(tomorrow, tomorrow.plusDays(1)));
+
+        occupancyIndex.rebuild();
 
-        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(now, until);
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until);
 
         assertThat(campsiteAvailability.getAvailableDates().size()).isEqualTo(expectedNbOfDays);
         assertThat(campsiteAvailability.getAvailableDates()).doesNotContain(tomorrow);
     }
 
+    @Test
+    public void whenAReservationIsMadeThroughAnotherInstanceItIsNotAvailableOnceTheIndexRefreshes() throws Exception {
+        final LocalDate now = LocalDate.now();
+        final LocalDate until = now.plusMonths(1);
+        final LocalDate tomorrow = now.plusDays(1);
+        occupancyIndex = new OccupancyIndex(repository, Duration.ofMillis(10));
+        service = new CampsiteService(repository, availableDateLockRepository, validator, occupancyIndex, metrics);
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Collections.emptyList());
+        assertThat(service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until).getAvailableDates()).contains(tomorrow);
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateOneDayReservationsBetween(tomorrow, tomorrow.plusDays(1)));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until).getAvailableDates().contains(tomorrow) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        occupancyIndex.shutdown();
+
+        assertThat(service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until).getAvailableDates()).doesNotContain(tomorrow);
+    }
+
     @Test
     public void whenAllTheDatesAreReservedReturnNoAvailability() {
         final LocalDate now = LocalDate.now();
         final LocalDate until = now.plusMonths(1);
 
-        when(repository.findAll()).thenReturn(generateOneDayReservationsBetween(now, until));
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateOneDayReservationsBetween(now, until));
 
-        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(now, until);
+        occupancyIndex.rebuild();
+
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until);
 
         assertThat(campsiteAvailability.getAvailableDates()).isEmpty();
     }
@@ -125,9 +214,11 @@ public class CampsiteServiceTest {
         final LocalDate dayAfterTomorrow = tomorrow.plusDays(1);
         final long expectedNbOfDays = DAYS.between(now, until) - 3;
 
-        when(repository.findAll()).thenReturn(generateMultiDayReservation(now, 3));
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(now, 3));
+
+        occupancyIndex.rebuild();
 
-        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(now, until);
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until);
 
         assertThat(campsiteAvailability.getAvailableDates().size()).isEqualTo(expectedNbOfDays);
         assertThat(campsiteAvailability.getAvailableDates()).doesNotContain(now);
@@ -136,14 +227,35 @@ public class CampsiteServiceTest {
 
     }
 
+    @Test
+    public void whenAReservationStartedBeforeTheSearchPeriodItsRemainingDatesAreNotAvailable() {
+        final LocalDate now = LocalDate.now();
+        final LocalDate until = now.plusMonths(2);
+        final LocalDate yesterday = now.minusDays(1);
+        final LocalDate tomorrow = now.plusDays(1);
+        final long expectedNbOfDays = DAYS.between(now, until) - 2;
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(yesterday, 3));
+
+        occupancyIndex.rebuild();
+
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until);
+
+        assertThat(campsiteAvailability.getAvailableDates().size()).isEqualTo(expectedNbOfDays);
+        assertThat(campsiteAvailability.getAvailableDates()).doesNotContain(now);
+        assertThat(campsiteAvailability.getAvailableDates()).doesNotContain(tomorrow);
+    }
+
     @Test
     public void whenQueryingAvailabilityUntilTomorrowAndTodayIsFreeItShouldBeReturned() {
         final LocalDate now = LocalDate.now();
         final LocalDate tomorrow = now.plusDays(1);
 
-        when(repository.findAll()).thenReturn(Collections.emptyList());
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Collections.emptyList());
+
+        occupancyIndex.rebuild();
 
-        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(now, tomorrow);
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, now, tomorrow);
 
         assertThat(campsiteAvailability.getAvailableDates()).contains(now);
     }
@@ -151,7 +263,7 @@ public class CampsiteServiceTest {
     @Test(expected = IllegalArgumentException.class)
     public void whenQueryingAvailabilityUntilTodayThrowException() {
         final LocalDate now = LocalDate.now();
-        service.getAvailabilityBetween(now, now);
+        service.getAvailabilityBetween(DEFAULT_SITE_ID, now, now);
     }
 
 
@@ -159,17 +271,122 @@ public class CampsiteServiceTest {
     public void whenQueryingAvailabilityForAPastDateThrowException() {
         final LocalDate now = LocalDate.now();
         final LocalDate yesterday = now.minusDays(1);
-        service.getAvailabilityBetween(yesterday, now);
+        service.getAvailabilityBetween(DEFAULT_SITE_ID, yesterday, now);
     }
 
-    @Test(expected = RuntimeException.class)
-    public void whenRepositoryThrowsAnExceptionPropagateIt() {
+    @Test
+    public void whenQueryingAvailabilityTheRepositoryIsNotQueried() {
         final LocalDate now = LocalDate.now();
         final LocalDate until = now.plusMonths(2);
+        // The first query loads the site in the index
+        service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until);
 
-        doThrow(new RuntimeException("BOOM!")).when(repository.findAll());
+        doThrow(new RuntimeException("BOOM!")).when(repository).findOverlapping(any(), any(), any());
 
-        service.getAvailabilityBetween(now, until);
+        service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until);
+    }
+
+    @Test
+    public void whenQueryingAvailabilityAsRangesWeGetTheRunsOfFreeDates() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate until = tomorrow.plusDays(10);
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(asList(
+                CampsiteReservation.builder().id("first").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow).endDate(tomorrow.plusDays(2)).build(),
+                CampsiteReservation.builder().id("second").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow.plusDays(5)).endDate(tomorrow.plusDays(6)).build()));
+        occupancyIndex.rebuild();
+
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, tomorrow, until, AvailabilityFormat.RANGES);
+
+        assertThat(campsiteAvailability.getAvailableDates()).isNull();
+        assertThat(campsiteAvailability.getAvailableRanges()).containsExactly(
+                DateRange.builder().start(tomorrow.plusDays(2)).end(tomorrow.plusDays(5)).build(),
+                DateRange.builder().start(tomorrow.plusDays(6)).end(until).build());
+    }
+
+    @Test
+    public void whenQueryingAvailabilityAsABitmapEachFreeDayHasItsBitSet() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate until = tomorrow.plusDays(10);
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(tomorrow.plusDays(1), 2));
+        occupancyIndex.rebuild();
+
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, tomorrow, until, AvailabilityFormat.BITMAP);
+
+        final BitSet availableDays = BitSet.valueOf(Base64.getDecoder().decode(campsiteAvailability.getAvailableDays()));
+        assertThat(availableDays.get(0)).isTrue();
+        assertThat(availableDays.get(1)).isFalse();
+        assertThat(availableDays.get(2)).isFalse();
+        assertThat(availableDays.cardinality()).isEqualTo(8);
+    }
+
+    @Test
+    public void whenQueryingAvailabilityTheWindowIsValidated() {
+        final LocalDate now = LocalDate.now();
+        final LocalDate until = now.plusYears(10);
+
+        doThrow(new IllegalArgumentException("Too long")).when(validator).validateAvailabilityWindow(now, until);
+
+        assertThatThrownBy(() -> service.getAvailabilityBetween(DEFAULT_SITE_ID, now, until, AvailabilityFormat.RANGES)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void whenQueryingABatchOfRangesTheClaimsAreReadOnceForTheirSpan() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final DateRange firstRange = DateRange.builder().start(tomorrow).end(tomorrow.plusDays(2)).build();
+        final DateRange secondRange = DateRange.builder().start(tomorrow.plusDays(7)).end(tomorrow.plusDays(9)).build();
+
+        when(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(9))).thenReturn(asList(tomorrow.plusDays(1), tomorrow.plusDays(7)));
+        final List<BatchAvailability> availabilities = claimingService.getAvailabilityBetween(DEFAULT_SITE_ID, asList(firstRange, secondRange), AvailabilityFormat.DATES);
+
+        verify(reservationDayRepository, times(1)).findClaimedDays(any(), any(), any());
+        assertThat(availabilities).extracting(BatchAvailability::getRange).containsExactly(firstRange, secondRange);
+        assertThat(availabilities.get(0).getAvailability().getAvailableDates()).containsExactly(tomorrow);
+        assertThat(availabilities.get(1).getAvailability().getAvailableDates()).containsExactly(tomorrow.plusDays(8));
+    }
+
+    @Test
+    public void whenARangeOfTheBatchIsNotValidItsErrorIsReportedAndTheOtherRangesAreAnswered() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final DateRange pastRange = DateRange.builder().start(tomorrow.minusDays(3)).end(tomorrow).build();
+        final DateRange validRange = DateRange.builder().start(tomorrow).end(tomorrow.plusDays(2)).build();
+        final DateRange rangeWithoutEnd = DateRange.builder().start(tomorrow).build();
+
+        when(reservationDayRepository.findClaimedDays(any(), any(), any())).thenReturn(Collections.emptyList());
+        final List<BatchAvailability> availabilities = claimingService.getAvailabilityBetween(DEFAULT_SITE_ID, asList(pastRange, validRange, rangeWithoutEnd), AvailabilityFormat.DATES);
+
+        assertThat(availabilities.get(0).getError()).isNotEmpty();
+        assertThat(availabilities.get(0).getAvailability()).isNull();
+        assertThat(availabilities.get(1).getAvailability().getAvailableDates()).containsExactly(tomorrow, tomorrow.plusDays(1));
+        assertThat(availabilities.get(2).getError()).isNotEmpty();
+        verify(reservationDayRepository).findClaimedDays(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(2));
+    }
+
+    @Test
+    public void whenSearchingFreeWindowsTheEarliestOnesAroundTheReservationsAreReturned() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(asList(
+                CampsiteReservation.builder().id("first").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow.plusDays(1)).endDate(tomorrow.plusDays(2)).build(),
+                CampsiteReservation.builder().id("second").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow.plusDays(4)).endDate(tomorrow.plusDays(5)).build()));
+        occupancyIndex.rebuild();
+
+        final List<DateRange> windows = service.findFreeWindows(DEFAULT_SITE_ID, 2, 2);
+
+        assertThat(windows).containsExactly(
+                DateRange.builder().start(tomorrow.plusDays(2)).end(tomorrow.plusDays(4)).build(),
+                DateRange.builder().start(tomorrow.plusDays(5)).end(tomorrow.plusDays(7)).build());
+    }
+
+    @Test
+    public void whenNoWindowIsFreeNothingIsReturned() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateOneDayReservationsBetween(tomorrow, tomorrow.plusMonths(2)));
+        occupancyIndex.rebuild();
+
+        assertThat(service.findFreeWindows(DEFAULT_SITE_ID, 1, 5)).isEmpty();
     }
 
     // Get All Reservations Cases
@@ -179,8 +396,8 @@ public class CampsiteServiceTest {
         final LocalDate until = start.plusDays(1);
         final List<CampsiteReservation> existingCampsiteReservations = generateOneDayReservationsBetween(start, until);
 
-        when(repository.findAll()).thenReturn(existingCampsiteReservations);
-        final Iterable<CampsiteReservation> campsiteReservations = service.getAllReservation();
+        when(repository.findBySiteId(DEFAULT_SITE_ID)).thenReturn(existingCampsiteReservations);
+        final Iterable<CampsiteReservation> campsiteReservations = service.getAllReservation(DEFAULT_SITE_ID);
 
         assertThat(campsiteReservations).isNotNull();
         assertThat(campsiteReservations).isNotEmpty();
@@ -189,9 +406,9 @@ public class CampsiteServiceTest {
 
     @Test
     public void whenRequestingAllReservationsAndThereAreNoneWeGetEmptyList() {
-        when(repository.findAll()).thenReturn(Collections.emptyList());
+        when(repository.findBySiteId(DEFAULT_SITE_ID)).thenReturn(Collections.emptyList());
 
-        final Iterable<CampsiteReservation> campsiteReservations = service.getAllReservation();
+        final Iterable<CampsiteReservation> campsiteReservations = service.getAllReservation(DEFAULT_SITE_ID);
 
         assertThat(campsiteReservations).isNotNull();
         assertThat(campsiteReservations).isEmpty();
@@ -199,11 +416,101 @@ public class CampsiteServiceTest {
 
     @Test(expected = RuntimeException.class)
     public void whenWeGetAllReservationAndRepositoryThrowsAnExceptionPropagateIt() {
-        doThrow(new RuntimeException("BOOM!")).when(repository.findAll());
-        service.getAllReservation();
+        doThrow(new RuntimeException("BOOM!")).when(repository.findBySiteId(DEFAULT_SITE_ID));
+        service.getAllReservation(DEFAULT_SITE_ID);
+    }
+
+    @Test
+    public void whenAPageIsFullItEndsWithACursorAfterItsLastReservation() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final List<CampsiteReservation> reservations = generateOneDayReservationsBetween(start, start.plusDays(2));
+        final ReservationCursor after = ReservationCursor.builder().startDate(start.minusDays(1)).id("test-id-0").build();
+        when(repository.findPage(DEFAULT_SITE_ID, start, null, after, 2)).thenReturn(reservations);
+
+        final ReservationPage page = service.getReservationPage(DEFAULT_SITE_ID, start, null, after, 2);
+
+        assertThat(page.getReservations()).isEqualTo(reservations);
+        assertThat(page.getNext()).isEqualTo(ReservationCursor.builder().startDate(start.plusDays(1)).id("test-id-1").build());
+    }
+
+    @Test
+    public void whenAPageIsNotFullItIsTheLastOne() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        when(repository.findPage(DEFAULT_SITE_ID, null, null, null, 2)).thenReturn(generateOneDayReservationsBetween(start, start.plusDays(1)));
+
+        assertThat(service.getReservationPage(DEFAULT_SITE_ID, null, null, null, 2).getNext()).isNull();
+    }
+
+    @Test
+    public void whenRequestingTheReservationsOfAUserTheyComeFromTheUserQuery() {
+        final List<CampsiteReservation> reservations = generateOneDayReservationsBetween(LocalDate.now().plusDays(1), LocalDate.now().plusDays(3));
+        when(repository.findBySiteIdAndUserEmailOrderByStartDateAsc(DEFAULT_SITE_ID, "test@test.com")).thenReturn(reservations);
+
+        assertThat(service.getReservationsOfUser(DEFAULT_SITE_ID, "test@test.com")).isEqualTo(reservations);
+        verify(validator).validateEmail("test@test.com");
     }
 
     // Create cases
+    @Test
+    public void whenTheIndexShowsTheNightsReservedAndTheReservationsConfirmItTheRequestIsRejectedBeforeLocking() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(tomorrow, 2));
+        occupancyIndex.rebuild();
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow.plusDays(1), tomorrow.plusDays(2)))
+                .isInstanceOf(CampsiteReservationConflictException.class);
+
+        verify(availableDateLockRepository, never()).lockDates(any(), any(), any());
+        assertThat(service.getAdmissionStats().getPrecheckRejections()).isEqualTo(1);
+        assertThat(service.getAdmissionStats().getFullPathConflicts()).isZero();
+    }
+
+    @Test
+    public void whenTheIndexIsStaleTheRequestTakesTheUsualPath() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(tomorrow, 2));
+        occupancyIndex.rebuild();
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow.plusDays(1))).isTrue();
+        // Cancelled through another instance
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Collections.emptyList());
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+
+        service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow.plusDays(1), tomorrow.plusDays(2));
+
+        verify(availableDateLockRepository).lockDates(eq(DEFAULT_SITE_ID), eq(singletonList(tomorrow.plusDays(1))), any());
+        assertThat(service.getAdmissionStats().getPrecheckRejections()).isZero();
+    }
+
+    @Test
+    public void whenTheIndexDoesNotKnowTheReservationTheConflictIsFoundAfterLocking() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Collections.emptyList());
+        occupancyIndex.rebuild();
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow.plusDays(1))).isFalse();
+        // Made through another instance
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(tomorrow, 2));
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow.plusDays(1), tomorrow.plusDays(2)))
+                .isInstanceOf(CampsiteReservationConflictException.class);
+
+        verify(availableDateLockRepository).lockDates(any(), any(), any());
+        assertThat(service.getAdmissionStats().getFullPathConflicts()).isEqualTo(1);
+        assertThat(service.getAdmissionStats().getPrecheckRejections()).isZero();
+    }
+
+    @Test
+    public void whenCreatingAReservationTheUpcomingReservationsOfTheUserAreValidated() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        when(repository.countByUserEmailAndEndDateAfter("test@test.com", LocalDate.now())).thenReturn(2L);
+
+        service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1));
+
+        final ArgumentCaptor<LongSupplier> upcomingReservations = ArgumentCaptor.forClass(LongSupplier.class);
+        verify(validator).validateUpcomingReservations(upcomingReservations.capture());
+        assertThat(upcomingReservations.getValue().getAsLong()).isEqualTo(2L);
+    }
+
     @Test
     public void whenCreatingAOneDayReservationForTomorrowItShouldWork() {
         final LocalDate tomorrow = LocalDate.now().plusDays(1);
@@ -212,7 +519,7 @@ public class CampsiteServiceTest {
 
         when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        final CampsiteReservation campsiteReservation = service.createReservation(validUser, tomorrow, dayAfterTomorrow);
+        final CampsiteReservation campsiteReservation = service.createReservation(DEFAULT_SITE_ID, validUser, tomorrow, dayAfterTomorrow);
 
         assertThat(campsiteReservation).isNotNull();
         assertThat(campsiteReservation.getStartDate()).isEqualTo(tomorrow);
@@ -221,6 +528,19 @@ public class CampsiteServiceTest {
         assertThat(campsiteReservation.getId()).isNotEmpty();
     }
 
+    @Test
+    public void whenCreatingAReservationEachStageIsTimed() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+
+        service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1));
+
+        for (String stage : asList("precheck", "lock", "check", "lease", "save", "unlock")) {
+            assertThat(meterRegistry.get(CampsiteMetrics.STAGE_TIMER).tag("operation", CampsiteMetrics.CREATE).tag("stage", stage).timer().count()).as(stage).isEqualTo(1);
+        }
+    }
+
     @Test
     public void whenCreatingAReservationForMaxDurationForTomorrowItShouldWork() {
         final LocalDate tomorrow = LocalDate.now().plusDays(1);
@@ -229,7 +549,7 @@ public class CampsiteServiceTest {
 
         when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        final CampsiteReservation campsiteReservation = service.createReservation(validUser, tomorrow, until);
+        final CampsiteReservation campsiteReservation = service.createReservation(DEFAULT_SITE_ID, validUser, tomorrow, until);
 
         assertThat(campsiteReservation).isNotNull();
         assertThat(campsiteReservation.getStartDate()).isEqualTo(tomorrow);
@@ -247,7 +567,7 @@ public class CampsiteServiceTest {
 
         when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        final CampsiteReservation campsiteReservation = service.createReservation(validUser, start, until);
+        final CampsiteReservation campsiteReservation = service.createReservation(DEFAULT_SITE_ID, validUser, start, until);
 
         assertThat(campsiteReservation).isNotNull();
         assertThat(campsiteReservation.getStartDate()).isEqualTo(start);
@@ -256,16 +576,31 @@ public class CampsiteServiceTest {
         assertThat(campsiteReservation.getId()).isNotEmpty();
     }
 
+    @Test
+    public void whenAReservationIsCreatedItsDatesAreNoLongerAvailable() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate until = tomorrow.plusDays(2);
+
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, until);
+
+        final CampsiteAvailability campsiteAvailability = service.getAvailabilityBetween(DEFAULT_SITE_ID, tomorrow, until.plusDays(1));
+
+        assertThat(campsiteAvailability.getAvailableDates()).containsExactly(until);
+    }
+
     @Test(expected = CampsiteReservationConflictException.class)
     public void whenCreatingAReservationForADayAlreadyReservedThrowConflictException() {
         final LocalDate tomorrow = LocalDate.now().plusDays(1);
         final LocalDate until = tomorrow.plusDays(1);
         final User validUser = buildValidUser();
 
-        when(repository.findAll()).thenReturn(generateOneDayReservationsBetween(tomorrow, tomorrow.plusDays(1)));
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateOneDayReservationsBetween(tomorrow, tomorrow.plusDays(1)));
+
+        occupancyIndex.rebuild();
         when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        service.createReservation(validUser, tomorrow, until);
+        service.createReservation(DEFAULT_SITE_ID, validUser, tomorrow, until);
     }
 
     @Test(expected = CampsiteReservationConflictException.class)
@@ -274,10 +609,12 @@ public class CampsiteServiceTest {
         final LocalDate until = tomorrow.plusDays(MAX_RESERVATION_DURATION);
         final User validUser = buildValidUser();
 
-        when(repository.findAll()).thenReturn(generateOneDayReservationsBetween(tomorrow, tomorrow.plusDays(1)));
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateOneDayReservationsBetween(tomorrow, tomorrow.plusDays(1)));
+
+        occupancyIndex.rebuild();
         when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        service.createReservation(validUser, tomorrow, until);
+        service.createReservation(DEFAULT_SITE_ID, validUser, tomorrow, until);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -289,7 +626,7 @@ public class CampsiteServiceTest {
         doThrow(new IllegalArgumentException("Invalid!")).when(validator).validateReservation(any(LocalDate.class), any(LocalDate.class));
         when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        service.createReservation(validUser, tomorrow, until);
+        service.createReservation(DEFAULT_SITE_ID, validUser, tomorrow, until);
     }
 
     @Test(expected = CampsiteReservationConflictException.class)
@@ -298,11 +635,105 @@ public class CampsiteServiceTest {
         final LocalDate until = tomorrow.plusDays(MAX_RESERVATION_DURATION + 1);
         final User validUser = buildValidUser();
 
-        when(availableDateLockRepository.lockAvailableDate(any(), any())).thenReturn(false);
+        doReturn(DateLease.builder().conflictingDates(singletonList(tomorrow)).build()).when(availableDateLockRepository).lockDates(any(), any(), any());
+
+        service.createReservation(DEFAULT_SITE_ID, validUser, tomorrow, until);
+    }
+
+
+    @Test
+    public void whenTheLockIsNotAcquiredTheConflictingDatesAreReportedAndNothingIsSaved() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate until = tomorrow.plusDays(MAX_RESERVATION_DURATION);
+        final LocalDate lockedDate = tomorrow.plusDays(1);
+
+        doReturn(DateLease.builder().conflictingDates(singletonList(lockedDate)).build()).when(availableDateLockRepository).lockDates(any(), any(), any());
 
-        service.createReservation(validUser, tomorrow, until);
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, until))
+                .isInstanceOf(CampsiteReservationConflictException.class)
+                .hasMessageContaining(lockedDate.toString());
+        verify(repository, never()).save(any());
+        verify(availableDateLockRepository, never()).freeDates(any(), any(), any());
     }
 
+    @Test
+    public void whenTheLockIsNotAcquiredTheConflictAndTheContendedNightsAreCounted() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate lockedDate = tomorrow.plusDays(1);
+
+        doReturn(DateLease.builder().conflictingDates(singletonList(lockedDate)).build()).when(availableDateLockRepository).lockDates(any(), any(), any());
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(MAX_RESERVATION_DURATION)))
+                .isInstanceOf(CampsiteReservationConflictException.class);
+        assertThat(meterRegistry.get(CampsiteMetrics.CONFLICT_COUNTER).tag("cause", "locked").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(CampsiteMetrics.CONTENTION_COUNTER).tag("site", DEFAULT_SITE_ID).tag("night", lockedDate.toString()).counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.find(CampsiteMetrics.CONTENTION_COUNTER).tag("night", tomorrow.toString()).counter()).isNull();
+    }
+
+    @Test
+    public void whenTheLeaseIsLostBeforeSavingThrowConflictExceptionAndNothingIsSaved() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate until = tomorrow.plusDays(2);
+
+        when(availableDateLockRepository.isHeld(any())).thenReturn(false);
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, until)).isInstanceOf(CampsiteReservationConflictException.class);
+        verify(repository, never()).save(any());
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), eq(asList(tomorrow, tomorrow.plusDays(1))), any());
+    }
+
+    @Test
+    public void whenANewerLeaseAlreadyFencedTheDatesThrowConflictExceptionAndNothingIsSaved() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(availableDateLockRepository.fence(any())).thenReturn(false);
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(2))).isInstanceOf(CampsiteReservationConflictException.class);
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    public void whenTheLeaseIsTakenOverAfterItWasCheckedTheSavedReservationIsDeleted() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate until = tomorrow.plusDays(2);
+
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        when(availableDateLockRepository.isFenced(any())).thenReturn(false);
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, until)).isInstanceOf(CampsiteReservationConflictException.class);
+        final ArgumentCaptor<CampsiteReservation> saved = ArgumentCaptor.forClass(CampsiteReservation.class);
+        verify(repository).save(saved.capture());
+        verify(repository).delete(saved.getValue());
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), eq(asList(tomorrow, tomorrow.plusDays(1))), any());
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow)).isFalse();
+        assertThat(meterRegistry.get(CampsiteMetrics.CONFLICT_COUNTER).tag("cause", "fenced").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void whenCreatingReservationsEachAttemptLocksWithItsOwnOwner() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final ArgumentCaptor<String> owners = ArgumentCaptor.forClass(String.class);
+
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1));
+        service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow.plusDays(1), tomorrow.plusDays(2));
+
+        verify(availableDateLockRepository, times(2)).lockDates(any(), any(), owners.capture());
+        assertThat(owners.getAllValues()).doesNotHaveDuplicates();
+        verify(availableDateLockRepository).freeDates(any(), any(), eq(owners.getAllValues().get(0)));
+        verify(availableDateLockRepository).freeDates(any(), any(), eq(owners.getAllValues().get(1)));
+    }
+
+    @Test
+    public void whenSavingAReservationFailsTheLockedDatesAreReleased() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate until = tomorrow.plusDays(2);
+
+        when(repository.save(any())).thenThrow(new RuntimeException("BOOM!"));
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, until)).isInstanceOf(RuntimeException.class);
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), eq(asList(tomorrow, tomorrow.plusDays(1))), any());
+    }
 
     @Test(expected = RuntimeException.class)
     public void whenWeCreateReservationAndRepositoryThrowsAnExceptionPropagateIt() {
@@ -310,9 +741,104 @@ public class CampsiteServiceTest {
         final LocalDate until = tomorrow.plusDays(1);
         final User validUser = buildValidUser();
         doThrow(new RuntimeException("BOOM!")).when(repository.save(any()));
-        service.createReservation(validUser, tomorrow, until);
+        service.createReservation(DEFAULT_SITE_ID, validUser, tomorrow, until);
+    }
+
+    @Test
+    public void whenCreatingReservationsInBulkTheDatesAreLockedOnceAndTheReservationsSavedTogether() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final List<CampsiteReservation> requested = asList(
+                buildReservationRequest(tomorrow.plusDays(4), 1),
+                buildReservationRequest(tomorrow, 2),
+                buildReservationRequest(tomorrow.plusDays(1), 1),
+                CampsiteReservation.builder().user(buildValidUser()).startDate(tomorrow.plusDays(8)).build());
+
+        final List<BulkReservation> results = service.createReservations(DEFAULT_SITE_ID, requested);
+
+        assertThat(results).extracting(BulkReservation::getReservation).containsExactlyElementsOf(requested);
+        assertThat(results.get(0).getId()).isNotEmpty();
+        assertThat(results.get(1).getId()).isNotEmpty();
+        assertThat(results.get(2).getError()).contains(tomorrow.plusDays(1).toString());
+        assertThat(results.get(3).getError()).isNotEmpty();
+        verify(availableDateLockRepository, times(1)).lockDates(eq(DEFAULT_SITE_ID), eq(new TreeSet<>(asList(tomorrow, tomorrow.plusDays(1), tomorrow.plusDays(4)))), any());
+        verify(repository, times(1)).findOverlapping(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5));
+        verify(repository, times(1)).saveAll(savedReservations.capture());
+        verify(repository, never()).save(any());
+        assertThat(savedReservations.getValue()).extracting(CampsiteReservation::getId).containsExactly(results.get(0).getId(), results.get(1).getId());
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow.plusDays(4))).isTrue();
     }
 
+    @Test
+    public void whenSomeDatesOfABulkCreationAreLockedOrReservedOnlyTheReservationsNeedingThemFail() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        doReturn(DateLease.builder().conflictingDates(singletonList(tomorrow)).build())
+                .doAnswer(i -> DateLease.builder().siteId(i.getArgument(0)).owner(i.getArgument(2)).dates(new ArrayList<>(i.getArgument(1))).build())
+                .when(availableDateLockRepository).lockDates(any(), any(), any());
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(tomorrow.plusDays(2), 1));
+
+        final List<BulkReservation> results = service.createReservations(DEFAULT_SITE_ID, asList(
+                buildReservationRequest(tomorrow, 1),
+                buildReservationRequest(tomorrow.plusDays(2), 1),
+                buildReservationRequest(tomorrow.plusDays(4), 1)));
+
+        assertThat(results.get(0).getError()).contains(tomorrow.toString());
+        assertThat(results.get(1).getError()).contains(tomorrow.plusDays(2).toString());
+        assertThat(results.get(2).getId()).isNotEmpty();
+        verify(availableDateLockRepository, times(2)).lockDates(any(), any(), any());
+        verify(availableDateLockRepository, times(1)).freeDates(any(), any(), any());
+        verify(repository, times(1)).saveAll(any());
+    }
+
+    @Test
+    public void whenCreatingReservationsInBulkWithClaimsOnlyTheClaimedOnesAreSaved() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        when(reservationDayRepository.claimDays(any(), eq(singletonList(tomorrow.plusDays(3))), any())).thenReturn(singletonList(tomorrow.plusDays(3)));
+
+        final List<BulkReservation> results = claimingService.createReservations(DEFAULT_SITE_ID, asList(
+                buildReservationRequest(tomorrow.plusDays(3), 1),
+                buildReservationRequest(tomorrow, 2)));
+
+        assertThat(results.get(0).getError()).contains(tomorrow.plusDays(3).toString());
+        assertThat(results.get(1).getId()).isNotEmpty();
+        verify(repository, times(1)).saveAll(savedReservations.capture());
+        assertThat(savedReservations.getValue()).extracting(CampsiteReservation::getId).containsExactly(results.get(1).getId());
+        verify(availableDateLockRepository, never()).lockDates(any(), any(), any());
+    }
+
+    @Test
+    public void whenABulkCreationWithClaimsCantBeSavedAllTheClaimsAreReleased() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        when(repository.saveAll(any())).thenThrow(new RuntimeException("BOOM!"));
+
+        assertThatThrownBy(() -> claimingService.createReservations(DEFAULT_SITE_ID, asList(
+                buildReservationRequest(tomorrow, 1),
+                buildReservationRequest(tomorrow.plusDays(2), 1))))
+                .hasMessage("BOOM!");
+        verify(reservationDayRepository, times(1)).releaseDays(eq(DEFAULT_SITE_ID), eq(singletonList(tomorrow)), any());
+        verify(reservationDayRepository, times(1)).releaseDays(eq(DEFAULT_SITE_ID), eq(singletonList(tomorrow.plusDays(2))), any());
+    }
+
+    @Test
+    public void whenCreatingReservationsInBulkTheUpcomingReservationsOfEachUserAreLimited() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final User otherUser = User.builder().email("other@test.com").fullName("Other Tester").build();
+        final CampsiteService limitedService = new CampsiteService(repository, availableDateLockRepository,
+                new CampsiteReservationValidator(DEFAULT_MAX_AVAILABILITY_WINDOW, singletonList(DEFAULT_SITE_ID), 2), occupancyIndex, metrics);
+        when(repository.countByUserEmailAndEndDateAfter("test@test.com", LocalDate.now())).thenReturn(1L);
+
+        final List<BulkReservation> results = limitedService.createReservations(DEFAULT_SITE_ID, asList(
+                buildReservationRequest(tomorrow, 1),
+                buildReservationRequest(tomorrow.plusDays(2), 1),
+                buildReservationRequest(tomorrow.plusDays(4), 1, otherUser),
+                buildReservationRequest(tomorrow.plusDays(6), 1, otherUser)));
+
+        assertThat(results.get(0).getId()).isNotEmpty();
+        assertThat(results.get(1).getError()).contains("maximum of 2 upcoming reservations");
+        assertThat(results.get(2).getId()).isNotEmpty();
+        assertThat(results.get(3).getId()).isNotEmpty();
+        verify(repository, times(1)).countByUserEmailAndEndDateAfter("test@test.com", LocalDate.now());
+        verify(repository, times(1)).countByUserEmailAndEndDateAfter("other@test.com", LocalDate.now());
+    }
 
     // Update cases
     @Test
@@ -321,17 +847,16 @@ public class CampsiteServiceTest {
         final LocalDate end = start.plusDays(1);
         final User validUser = buildValidUser();
         final String existingId = "some-test-unique-id";
-        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).startDate(start).endDate(end).user(validUser).build();
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(end).user(validUser).build();
 
         final LocalDate newStart = start.plusDays(3);
         final LocalDate newEnd = end.plusDays(3);
-        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).startDate(newStart).endDate(newEnd).user(validUser).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(newStart).endDate(newEnd).user(validUser).build();
 
         when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
-        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
 
-        final CampsiteReservation campsiteReservation = service.updateReservation(existingId, newReservation);
+        final CampsiteReservation campsiteReservation = service.updateReservation(DEFAULT_SITE_ID, existingId, newReservation);
 
         assertThat(campsiteReservation.getStartDate()).isEqualTo(newStart);
         assertThat(campsiteReservation.getEndDate()).isEqualTo(newEnd);
@@ -345,18 +870,18 @@ public class CampsiteServiceTest {
         final LocalDate end = start.plusDays(1);
         final User validUser = buildValidUser();
         final String existingId = "some-test-unique-id";
-        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).startDate(start).endDate(end).user(validUser).build();
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(end).user(validUser).build();
 
         final LocalDate newStart = start;
         final LocalDate newEnd = newStart.plusDays(MAX_RESERVATION_DURATION);
-        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).startDate(newStart).endDate(newEnd).user(validUser).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(newStart).endDate(newEnd).user(validUser).build();
 
 
         when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
-        when(repository.findAll()).thenReturn(generateOneDayReservationsBetween(newStart.plusDays(1), newStart.plusDays(2)));
-        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateOneDayReservationsBetween(newStart.plusDays(1), newStart.plusDays(2)));
+        occupancyIndex.rebuild();
 
-        service.updateReservation(existingId, newReservation);
+        service.updateReservation(DEFAULT_SITE_ID, existingId, newReservation);
     }
 
     @Test(expected = NoSuchElementException.class)
@@ -367,12 +892,11 @@ public class CampsiteServiceTest {
 
         final LocalDate newStart = start;
         final LocalDate newEnd = newStart.plusDays(MAX_RESERVATION_DURATION);
-        final CampsiteReservation newReservation = CampsiteReservation.builder().id(nonExistingId).startDate(newStart).endDate(newEnd).user(validUser).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(nonExistingId).siteId(DEFAULT_SITE_ID).startDate(newStart).endDate(newEnd).user(validUser).build();
 
         when(repository.findById(nonExistingId)).thenReturn(empty());
-        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        service.updateReservation(nonExistingId, newReservation);
+        service.updateReservation(DEFAULT_SITE_ID, nonExistingId, newReservation);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -382,17 +906,16 @@ public class CampsiteServiceTest {
         final User validUser = buildValidUser();
         final User newGuy = User.builder().email("newguy@test.com").fullName("New Guy").build();
         final String existingId = "some-test-unique-id";
-        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).startDate(start).endDate(end).user(validUser).build();
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(end).user(validUser).build();
 
         final LocalDate newStart = start;
         final LocalDate newEnd = newStart.plusDays(MAX_RESERVATION_DURATION);
-        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).startDate(newStart).endDate(newEnd).user(newGuy).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(newStart).endDate(newEnd).user(newGuy).build();
 
         doThrow(new IllegalArgumentException("Invalid!")).when(validator).validateReservation(any(LocalDate.class), any(LocalDate.class));
         when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
-        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        service.updateReservation(existingId, newReservation);
+        service.updateReservation(DEFAULT_SITE_ID, existingId, newReservation);
     }
 
 
@@ -402,19 +925,18 @@ public class CampsiteServiceTest {
         final LocalDate end = start.plusDays(1);
         final User validUser = buildValidUser();
         final String existingId = "some-test-unique-id";
-        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).startDate(start).endDate(end).user(validUser).build();
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(end).user(validUser).build();
 
 
         final LocalDate newStart = start;
         final LocalDate newEnd = newStart.plusDays(MAX_RESERVATION_DURATION);
-        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).startDate(newStart).endDate(newEnd).user(validUser).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(newStart).endDate(newEnd).user(validUser).build();
 
 
         doThrow(new IllegalArgumentException("Invalid!")).when(validator).validateReservation(any(LocalDate.class), any(LocalDate.class));
         when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
-        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        service.updateReservation(existingId, newReservation);
+        service.updateReservation(DEFAULT_SITE_ID, existingId, newReservation);
     }
 
     @Test(expected = CampsiteReservationConflictException.class)
@@ -423,18 +945,109 @@ public class CampsiteServiceTest {
         final LocalDate end = start.plusDays(1);
         final User validUser = buildValidUser();
         final String existingId = "some-test-unique-id";
-        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).startDate(start).endDate(end).user(validUser).build();
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(end).user(validUser).build();
 
         final LocalDate newStart = start.plusDays(3);
         final LocalDate newEnd = end.plusDays(3);
-        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).startDate(newStart).endDate(newEnd).user(validUser).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(newStart).endDate(newEnd).user(validUser).build();
 
-        when(availableDateLockRepository.lockAvailableDate(any(), any())).thenReturn(false);
+        doReturn(DateLease.builder().conflictingDates(singletonList(newStart)).build()).when(availableDateLockRepository).lockDates(any(), any(), any());
         when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
+
+
+        service.updateReservation(DEFAULT_SITE_ID, existingId, newReservation);
+    }
+
+    @Test
+    public void whenShiftingAReservationByADayOnlyTheAddedNightIsLockedAndItsOwnNightsAreNoConflict() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final CampsiteReservation existingReservation = generateMultiDayReservation(start, 2).get(0);
+        final CampsiteReservation newReservation = buildReservationRequest(start.plusDays(1), 2);
+        when(repository.findById(existingReservation.getId())).thenReturn(ofNullable(existingReservation));
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(singletonList(existingReservation));
+        occupancyIndex.rebuild();
+
+        final CampsiteReservation moved = service.updateReservation(DEFAULT_SITE_ID, existingReservation.getId(), newReservation);
+
+        assertThat(moved.getStartDate()).isEqualTo(start.plusDays(1));
+        verify(availableDateLockRepository).lockDates(eq(DEFAULT_SITE_ID), eq(singletonList(start.plusDays(2))), any());
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), eq(singletonList(start.plusDays(2))), any());
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, start, start.plusDays(3))).containsExactly(start.plusDays(1), start.plusDays(2));
+    }
+
+    @Test(expected = CampsiteReservationConflictException.class)
+    public void whenAReservationIsMovedOntoTheNightOfAnotherOneThrowConflictException() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final CampsiteReservation existingReservation = generateMultiDayReservation(start, 2).get(0);
+        final CampsiteReservation nextReservation = CampsiteReservation.builder().id("next").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(start.plusDays(2)).endDate(start.plusDays(3)).build();
+        when(repository.findById(existingReservation.getId())).thenReturn(ofNullable(existingReservation));
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(asList(existingReservation, nextReservation));
+
+        service.updateReservation(DEFAULT_SITE_ID, existingReservation.getId(), buildReservationRequest(start.plusDays(1), 2));
+    }
+
+    @Test
+    public void whenTheLeaseOfAMoveIsTakenOverAfterItWasCheckedTheReservationGoesBackToItsDates() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final CampsiteReservation existingReservation = generateMultiDayReservation(start, 2).get(0);
+        final List<LocalDate> savedStartDates = new ArrayList<>();
+        when(repository.findById(existingReservation.getId())).thenReturn(ofNullable(existingReservation));
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(singletonList(existingReservation));
+        when(repository.move(any(), any(), any())).thenAnswer(i -> savedStartDates.add(i.getArgument(1)));
+        when(availableDateLockRepository.isFenced(any())).thenReturn(false);
+
+        assertThatThrownBy(() -> service.updateReservation(DEFAULT_SITE_ID, existingReservation.getId(), buildReservationRequest(start.plusDays(1), 2)))
+                .isInstanceOf(CampsiteReservationConflictException.class);
+        assertThat(savedStartDates).containsExactly(start.plusDays(1), start);
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), eq(singletonList(start.plusDays(2))), any());
+    }
+
+    @Test
+    public void whenAReservationIsMovedTwiceAtOnceTheMoveReadBeforeTheOtherIsInConflict() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final CampsiteReservation storedReservation = generateMultiDayReservation(start, 1).get(0);
+        final String id = storedReservation.getId();
+        final AtomicBoolean otherChangesDone = new AtomicBoolean();
+        when(repository.findOverlapping(any(), any(), any())).thenAnswer(i -> storedReservation.getStartDate().isBefore(i.getArgument(2)) && storedReservation.getEndDate().isAfter(i.getArgument(1))
+                ? singletonList(copyOf(storedReservation)) : Collections.emptyList());
+        when(repository.findById(id)).thenAnswer(i -> ofNullable(copyOf(storedReservation)));
         when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        when(repository.move(any(), any(), any())).thenAnswer(i -> {
+            final CampsiteReservation asRead = i.getArgument(0);
+            if (!asRead.getStartDate().equals(storedReservation.getStartDate()) || !asRead.getEndDate().equals(storedReservation.getEndDate())) {
+                return false;
+            }
+            storedReservation.setStartDate(i.getArgument(1));
+            storedReservation.setEndDate(i.getArgument(2));
+            return true;
+        });
+        // While the first move waits for its lock, another one moves the reservation away and its night is booked
+        doAnswer(i -> {
+            if (otherChangesDone.compareAndSet(false, true)) {
+                service.updateReservation(DEFAULT_SITE_ID, id, buildReservationRequest(start.plusDays(5), 1));
+                service.createReservation(DEFAULT_SITE_ID, buildValidUser(), start, start.plusDays(1));
+            }
+            return DateLease.builder().siteId(i.getArgument(0)).owner(i.getArgument(2)).dates(new ArrayList<>(i.getArgument(1))).build();
+        }).when(availableDateLockRepository).lockDates(any(), any(), any());
+        occupancyIndex.rebuild();
+
+        assertThatThrownBy(() -> service.updateReservation(DEFAULT_SITE_ID, id, buildReservationRequest(start, 2)))
+                .isInstanceOf(CampsiteReservationConflictException.class);
+        assertThat(storedReservation.getStartDate()).isEqualTo(start.plusDays(5));
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, start, start.plusDays(7))).containsExactly(start, start.plusDays(5));
+        assertThat(meterRegistry.get(CampsiteMetrics.CONFLICT_COUNTER).tag("cause", "moved").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void whenShorteningAReservationNoNightIsLocked() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final CampsiteReservation existingReservation = generateMultiDayReservation(start, 3).get(0);
+        when(repository.findById(existingReservation.getId())).thenReturn(ofNullable(existingReservation));
 
+        final CampsiteReservation shortened = service.updateReservation(DEFAULT_SITE_ID, existingReservation.getId(), buildReservationRequest(start, 1));
 
-        service.updateReservation(existingId, newReservation);
+        assertThat(shortened.getEndDate()).isEqualTo(start.plusDays(1));
+        verify(availableDateLockRepository, never()).lockDates(any(), any(), any());
     }
 
     @Test(expected = RuntimeException.class)
@@ -443,18 +1056,16 @@ public class CampsiteServiceTest {
         final LocalDate end = start.plusDays(1);
         final User validUser = buildValidUser();
         final String existingId = "some-test-unique-id";
-        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).startDate(start).endDate(end).user(validUser).build();
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(end).user(validUser).build();
 
         final LocalDate newStart = start.plusDays(3);
         final LocalDate newEnd = end.plusDays(3);
-        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).startDate(newStart).endDate(newEnd).user(validUser).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(newStart).endDate(newEnd).user(validUser).build();
 
-        when(availableDateLockRepository.lockAvailableDate(any(), any())).thenReturn(false);
         when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
-        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
 
-        doThrow(new RuntimeException("BOOM!")).when(repository.save(any()));
-        service.updateReservation(existingId, newReservation);
+        when(repository.move(any(), any(), any())).thenThrow(new RuntimeException("BOOM!"));
+        service.updateReservation(DEFAULT_SITE_ID, existingId, newReservation);
     }
 
     // Delete cases
@@ -464,11 +1075,27 @@ public class CampsiteServiceTest {
         final LocalDate end = start.plusDays(1);
         final User validUser = buildValidUser();
         final String existingId = "some-test-unique-id";
-        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).startDate(start).endDate(end).user(validUser).build();
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(end).user(validUser).build();
 
         when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
 
-        service.deleteReservation(existingId);
+        service.deleteReservation(DEFAULT_SITE_ID, existingId);
+    }
+
+    @Test
+    public void whenDeletingAnExistingReservationItsDatesAreAvailableAgain() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final LocalDate end = start.plusDays(2);
+        final String existingId = "some-test-unique-id";
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(end).user(buildValidUser()).build();
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Collections.singletonList(existingReservation));
+        occupancyIndex.rebuild();
+        when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
+
+        service.deleteReservation(DEFAULT_SITE_ID, existingId);
+
+        assertThat(service.getAvailabilityBetween(DEFAULT_SITE_ID, start, end).getAvailableDates()).containsExactly(start, start.plusDays(1));
     }
 
     @Test(expected = NoSuchElementException.class)
@@ -477,7 +1104,32 @@ public class CampsiteServiceTest {
 
         when(repository.findById(nonExistingId)).thenReturn(empty());
 
-        service.deleteReservation(nonExistingId);
+        service.deleteReservation(DEFAULT_SITE_ID, nonExistingId);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void whenDeletingAReservationOfAnotherSiteThrowNoSuchElementException() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String existingId = "some-test-unique-id";
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId("other-site").startDate(start).endDate(start.plusDays(1)).user(buildValidUser()).build();
+
+        when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
+
+        service.deleteReservation(DEFAULT_SITE_ID, existingId);
+    }
+
+    @Test
+    public void whenCreatingAReservationOnASiteOnlyThatSiteIsLockedAndReserved() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        final CampsiteReservation reservation = service.createReservation("site-1", buildValidUser(), tomorrow, tomorrow.plusDays(1));
+
+        assertThat(reservation.getSiteId()).isEqualTo("site-1");
+        verify(availableDateLockRepository).lockDates(eq("site-1"), eq(singletonList(tomorrow)), any());
+        verify(repository).findOverlapping("site-1", tomorrow, tomorrow.plusDays(1));
+        assertThat(occupancyIndex.isReserved("site-1", tomorrow)).isTrue();
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow)).isFalse();
     }
 
     @Test(expected = RuntimeException.class)
@@ -486,10 +1138,229 @@ public class CampsiteServiceTest {
         final LocalDate end = start.plusDays(1);
         final User validUser = buildValidUser();
         final String existingId = "some-test-unique-id";
-        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).startDate(start).endDate(end).user(validUser).build();
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(end).user(validUser).build();
+
+        when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
+        when(repository.cancel(existingId)).thenThrow(new RuntimeException("BOOM!"));
+        service.deleteReservation(DEFAULT_SITE_ID, existingId);
+    }
+
+    @Test
+    public void whenCreatingAReservationInConflictTheNearestFreeWindowsAreSuggested() {
+        // The earliest of two windows as near wins
+        final LocalDate start = LocalDate.now().plusDays(10);
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateOneDayReservationsBetween(start.minusDays(1), start.plusDays(2)));
+        occupancyIndex.rebuild();
+        doReturn(DateLease.builder().conflictingDates(singletonList(start)).build()).when(availableDateLockRepository).lockDates(any(), any(), any());
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), start, start.plusDays(1)))
+                .isInstanceOfSatisfying(CampsiteReservationConflictException.class, conflict -> {
+                    assertThat(conflict.getReservedDates()).containsExactly(start);
+                    assertThat(conflict.getAlternatives()).containsExactly(
+                            DateRange.builder().start(start.minusDays(3)).end(start.minusDays(2)).build(),
+                            DateRange.builder().start(start.minusDays(2)).end(start.minusDays(1)).build(),
+                            DateRange.builder().start(start.plusDays(2)).end(start.plusDays(3)).build());
+                    assertThat(conflict.getMessage()).contains(start.minusDays(2) + "/" + start.minusDays(1));
+                });
+    }
+
+    // Claim cases
+    @Test
+    public void whenCreatingAReservationWithClaimsEachNightIsClaimedAndNoLockIsTaken() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        final CampsiteReservation reservation = claimingService.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(2));
+
+        verify(reservationDayRepository).claimDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), reservation.getId());
+        verify(availableDateLockRepository, never()).lockDates(any(), any(), any());
+        verify(repository, never()).findOverlapping(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(2));
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow)).isTrue();
+    }
+
+    @Test
+    public void whenANightIsAlreadyClaimedThrowConflictExceptionAndNothingIsSaved() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(reservationDayRepository.claimDays(any(), any(), any())).thenReturn(singletonList(tomorrow.plusDays(1)));
+
+        assertThatThrownBy(() -> claimingService.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(2)))
+                .isInstanceOf(CampsiteReservationConflictException.class)
+                .hasMessageContaining(tomorrow.plusDays(1).toString());
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    public void whenSavingAReservationWithClaimsFailsTheNightsAreReleased() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(repository.save(any())).thenThrow(new RuntimeException("BOOM!"));
+
+        assertThatThrownBy(() -> claimingService.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(2))).isInstanceOf(RuntimeException.class);
+        verify(reservationDayRepository).releaseDays(eq(DEFAULT_SITE_ID), eq(asList(tomorrow, tomorrow.plusDays(1))), any());
+    }
+
+    @Test
+    public void whenASavedReservationHasItsClaimsConfirmed() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        final CampsiteReservation reservation = claimingService.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(2));
+
+        verify(reservationDayRepository).confirmDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), reservation.getId());
+    }
+
+    @Test
+    public void whenTheClaimsExpiredBeforeBeingConfirmedTheSavedReservationIsDeletedAndItsNightsReleased() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        when(reservationDayRepository.confirmDays(any(), any(), any())).thenReturn(false);
+
+        assertThatThrownBy(() -> claimingService.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(2))).isInstanceOf(CampsiteReservationConflictException.class);
+        final ArgumentCaptor<CampsiteReservation> saved = ArgumentCaptor.forClass(CampsiteReservation.class);
+        verify(repository).save(saved.capture());
+        verify(repository).delete(saved.getValue());
+        verify(reservationDayRepository).releaseDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), saved.getValue().getId());
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow)).isFalse();
+    }
+
+    @Test
+    public void whenANightIsHeldByAnExpiredClaimOfAReservationNeverSavedTheClaimIsGivenUp() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final ReservationDay orphanedClaim = ReservationDay.builder().siteId(DEFAULT_SITE_ID).day(tomorrow.toString()).reservationId("never-saved").expiresAt(new Date(0)).build();
+
+        when(reservationDayRepository.claimDays(any(), any(), any())).thenReturn(singletonList(tomorrow)).thenReturn(Collections.emptyList());
+        when(reservationDayRepository.findExpiredClaims(DEFAULT_SITE_ID, singletonList(tomorrow))).thenReturn(singletonList(orphanedClaim));
+        when(repository.findById("never-saved")).thenReturn(empty());
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+
+        final CampsiteReservation reservation = claimingService.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1));
+
+        verify(reservationDayRepository).releaseExpiredDays(DEFAULT_SITE_ID, singletonList(tomorrow), "never-saved");
+        verify(reservationDayRepository, times(2)).claimDays(DEFAULT_SITE_ID, singletonList(tomorrow), reservation.getId());
+    }
+
+    @Test
+    public void whenANightIsHeldByAnExpiredClaimOfASavedReservationTheClaimIsConfirmedAndItIsAConflict() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final CampsiteReservation savedReservation = CampsiteReservation.builder().id("saved").siteId(DEFAULT_SITE_ID).startDate(tomorrow).endDate(tomorrow.plusDays(1)).user(buildValidUser()).build();
+        final ReservationDay unconfirmedClaim = ReservationDay.builder().siteId(DEFAULT_SITE_ID).day(tomorrow.toString()).reservationId("saved").expiresAt(new Date(0)).build();
+
+        when(reservationDayRepository.claimDays(any(), any(), any())).thenReturn(singletonList(tomorrow));
+        when(reservationDayRepository.findExpiredClaims(DEFAULT_SITE_ID, singletonList(tomorrow))).thenReturn(singletonList(unconfirmedClaim));
+        when(repository.findById("saved")).thenReturn(ofNullable(savedReservation));
+
+        assertThatThrownBy(() -> claimingService.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1))).isInstanceOf(CampsiteReservationConflictException.class);
+        verify(reservationDayRepository).confirmDays(DEFAULT_SITE_ID, singletonList(tomorrow), "saved");
+        verify(reservationDayRepository, never()).releaseExpiredDays(any(), any(), any());
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    public void whenShiftingAReservationWithClaimsOnlyTheChangedNightsAreClaimedAndReleased() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String existingId = "some-test-unique-id";
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(start.plusDays(2)).user(buildValidUser()).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start.plusDays(1)).endDate(start.plusDays(3)).user(buildValidUser()).build();
+
+        when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
+        when(repository.save(any())).thenAnswer(i -> i.getArguments()[0]);
+        claimingService.updateReservation(DEFAULT_SITE_ID, existingId, newReservation);
+
+        verify(reservationDayRepository).claimDays(DEFAULT_SITE_ID, singletonList(start.plusDays(2)), existingId);
+        verify(reservationDayRepository).releaseDays(DEFAULT_SITE_ID, singletonList(start), existingId);
+    }
+
+    @Test
+    public void whenAReservationWithClaimsWasMovedSinceItWasReadTheNightsItClaimedAreReleased() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String existingId = "some-test-unique-id";
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(start.plusDays(2)).user(buildValidUser()).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start.plusDays(1)).endDate(start.plusDays(3)).user(buildValidUser()).build();
 
         when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
-        doThrow(new RuntimeException("BOOM!")).when(repository).delete(any());
-        service.deleteReservation(existingId);
+        when(repository.move(any(), any(), any())).thenReturn(false);
+
+        assertThatThrownBy(() -> claimingService.updateReservation(DEFAULT_SITE_ID, existingId, newReservation)).isInstanceOf(CampsiteReservationConflictException.class);
+        verify(reservationDayRepository).releaseDays(DEFAULT_SITE_ID, singletonList(start.plusDays(2)), existingId);
+        verify(reservationDayRepository, never()).releaseDays(DEFAULT_SITE_ID, singletonList(start), existingId);
+        verify(reservationDayRepository, never()).confirmDays(any(), any(), any());
+    }
+
+    @Test
+    public void whenAReservationWithClaimsIsCancelledBeforeItsMoveIsConfirmedTheNightsItGaveUpAreReleased() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String existingId = "some-test-unique-id";
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(start.plusDays(2)).user(buildValidUser()).build();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start.plusDays(1)).endDate(start.plusDays(3)).user(buildValidUser()).build();
+
+        when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
+        when(repository.move(any(), any(), any())).thenReturn(true, false);
+        when(reservationDayRepository.confirmDays(any(), any(), any())).thenReturn(false);
+
+        assertThatThrownBy(() -> claimingService.updateReservation(DEFAULT_SITE_ID, existingId, newReservation)).isInstanceOf(CampsiteReservationConflictException.class);
+        verify(reservationDayRepository).releaseDays(DEFAULT_SITE_ID, singletonList(start.plusDays(2)), existingId);
+        verify(reservationDayRepository).releaseDays(DEFAULT_SITE_ID, singletonList(start), existingId);
+    }
+
+    @Test
+    public void whenDeletingAReservationMovedSinceItWasReadTheNightsItHasWhenDeletedAreReleased() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String existingId = "some-test-unique-id";
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(start.plusDays(1)).user(buildValidUser()).build();
+
+        when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
+        when(repository.cancel(existingId)).thenReturn(ofNullable(CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start.plusDays(4)).endDate(start.plusDays(5)).user(buildValidUser()).build()));
+        claimingService.deleteReservation(DEFAULT_SITE_ID, existingId);
+
+        verify(reservationDayRepository).releaseDays(DEFAULT_SITE_ID, singletonList(start.plusDays(4)), existingId);
+    }
+
+    @Test
+    public void whenDeletingAReservationWithClaimsItsNightsAreReleased() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String existingId = "some-test-unique-id";
+        final CampsiteReservation existingReservation = CampsiteReservation.builder().id(existingId).siteId(DEFAULT_SITE_ID).startDate(start).endDate(start.plusDays(2)).user(buildValidUser()).build();
+
+        when(repository.findById(existingId)).thenReturn(ofNullable(existingReservation));
+        claimingService.deleteReservation(DEFAULT_SITE_ID, existingId);
+
+        verify(reservationDayRepository).releaseDays(DEFAULT_SITE_ID, asList(start, start.plusDays(1)), existingId);
+    }
+
+    @Test
+    public void whenQueryingAvailabilityWithClaimsTheClaimedNightsAreNotAvailable() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        when(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(3))).thenReturn(singletonList(tomorrow.plusDays(1)));
+
+        assertThat(claimingService.getAvailabilityBetween(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(3)).getAvailableDates()).containsExactly(tomorrow, tomorrow.plusDays(2));
+    }
+
+    // Sequencer cases
+    @Test
+    public void whenCreatingAReservationWithTheSequencerTheConflictIsDecidedInMemoryAndNoLockIsTaken() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final ReservationSequencer sequencer = new ReservationSequencer(repository, occupancyIndex, 16, 16, Duration.ofMillis(50));
+        final CampsiteService sequencedService = new CampsiteService(repository, sequencer, validator, occupancyIndex, metrics);
+        try {
+            final CampsiteReservation reservation = sequencedService.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(2));
+
+            assertThat(reservation.getSiteId()).isEqualTo(DEFAULT_SITE_ID);
+            assertThatThrownBy(() -> sequencedService.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow.plusDays(1), tomorrow.plusDays(3)))
+                    .isInstanceOf(CampsiteReservationConflictException.class)
+                    .hasMessageContaining(tomorrow.plusDays(1).toString());
+            verify(repository, times(1)).saveAll(any());
+            verify(availableDateLockRepository, never()).lockDates(any(), any(), any());
+            verify(reservationDayRepository, never()).claimDays(any(), any(), any());
+        } finally {
+            sequencer.shutdown();
+        }
+    }
+
+    private static CampsiteReservation copyOf(CampsiteReservation reservation) {
+        return CampsiteReservation.builder().id(reservation.getId()).siteId(reservation.getSiteId()).startDate(reservation.getStartDate()).endDate(reservation.getEndDate()).user(reservation.getUser()).build();
     }
 }
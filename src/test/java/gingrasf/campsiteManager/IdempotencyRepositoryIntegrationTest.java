@@ -0,0 +1,91 @@
+package gingrasf.campsiteManager;
+
+
+import gingrasf.campsiteManager.model.IdempotencyRecord;
+import gingrasf.campsiteManager.persistence.IdempotencyRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class IdempotencyRepositoryIntegrationTest {
+
+    private static final Duration LEASE_DURATION = Duration.ofSeconds(30);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private IdempotencyRepository idempotencyRepository;
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(new Query(), IdempotencyRecord.class);
+    }
+
+    @Test
+    public void testKeyIsOnlyTakenOnceAndThenHoldsTheResponse() {
+        assertThat(idempotencyRepository.begin("key", "owner", "create", LEASE_DURATION)).isEmpty();
+
+        final Optional<IdempotencyRecord> pending = idempotencyRepository.begin("key", "owner", "create", LEASE_DURATION);
+        assertThat(pending.get().isCompleted()).isFalse();
+        idempotencyRepository.complete("key", "owner", 200, "text/plain", "reservation-id", Duration.ofHours(1));
+
+        final IdempotencyRecord completed = idempotencyRepository.begin("key", "owner", "create", LEASE_DURATION).get();
+        assertThat(completed.isCompleted()).isTrue();
+        assertThat(completed.getStatus()).isEqualTo(200);
+        assertThat(completed.getBody()).isEqualTo("reservation-id");
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() {
+        assertThat(idempotencyRepository.begin("key", "owner", "create", Duration.ofMillis(-1))).isEmpty();
+
+        assertThat(idempotencyRepository.begin("key", "owner", "create", LEASE_DURATION)).isEmpty();
+        assertThat(idempotencyRepository.begin("key", "owner", "create", LEASE_DURATION)).isPresent();
+    }
+
+    @Test
+    public void testForgottenKeyCanBeTakenAgainButNotACompletedOne() {
+        idempotencyRepository.begin("forgotten", "owner", "create", LEASE_DURATION);
+        idempotencyRepository.forget("forgotten", "owner");
+        idempotencyRepository.begin("completed", "owner", "create", LEASE_DURATION);
+        idempotencyRepository.complete("completed", "owner", 409, null, "conflict", Duration.ofHours(1));
+        idempotencyRepository.forget("completed", "owner");
+
+        assertThat(idempotencyRepository.begin("forgotten", "owner", "create", LEASE_DURATION)).isEmpty();
+        assertThat(idempotencyRepository.begin("completed", "owner", "create", LEASE_DURATION).get().getStatus()).isEqualTo(409);
+    }
+
+    @Test
+    public void testRequestThatLostItsKeyCanNeitherCompleteNorForgetIt() {
+        idempotencyRepository.begin("key", "first", "create", Duration.ofMillis(-1));
+        assertThat(idempotencyRepository.begin("key", "second", "create", LEASE_DURATION)).isEmpty();
+
+        idempotencyRepository.complete("key", "first", 200, "text/plain", "first-reservation-id", Duration.ofHours(1));
+        idempotencyRepository.forget("key", "first");
+
+        final IdempotencyRecord pending = idempotencyRepository.begin("key", "third", "create", LEASE_DURATION).get();
+        assertThat(pending.getOwner()).isEqualTo("second");
+        assertThat(pending.isCompleted()).isFalse();
+    }
+
+    @Test
+    public void testRenewedLeaseIsNotTakenOver() {
+        idempotencyRepository.begin("key", "owner", "create", Duration.ofMillis(-1));
+        idempotencyRepository.renew("key", "owner", LEASE_DURATION);
+
+        assertThat(idempotencyRepository.begin("key", "another-owner", "create", LEASE_DURATION).get().getOwner()).isEqualTo("owner");
+    }
+}
@@ -0,0 +1,186 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.IdempotencyRecord;
+import gingrasf.campsiteManager.persistence.IdempotencyRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IdempotentRequestsTest {
+
+    private static final Duration TIME_TO_LIVE = Duration.ofHours(24);
+    private static final Duration LEASE_DURATION = Duration.ofSeconds(30);
+
+    @Mock
+    IdempotencyRepository repository;
+
+    IdempotentRequests idempotentRequests;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        idempotentRequests = new IdempotentRequests(repository, TIME_TO_LIVE, LEASE_DURATION, Duration.ofMillis(1));
+        when(repository.begin(eq("key"), anyString(), eq("create"), eq(LEASE_DURATION))).thenReturn(Optional.empty());
+    }
+
+    @Test
+    public void whenTheKeyIsNewTheRequestIsProcessedAndItsResponseStored() {
+        final ResponseEntity<String> response = idempotentRequests.process("key", "create", () -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body("{}"));
+
+        assertThat(response.getBody()).isEqualTo("{}");
+        verify(repository).complete(eq("key"), anyString(), eq(200), eq(MediaType.APPLICATION_JSON_UTF8_VALUE), eq("{}"), eq(TIME_TO_LIVE));
+    }
+
+    @Test
+    public void whenTheKeyIsCompletedTheStoredResponseIsReplayedWithoutProcessingTheRequest() {
+        when(repository.begin(eq("key"), anyString(), eq("create"), eq(LEASE_DURATION))).thenReturn(Optional.of(buildRecord("create", true)));
+
+        final ResponseEntity<String> response = idempotentRequests.process("key", "create", () -> {
+            throw new IllegalStateException("The request should not be processed again");
+        });
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.TEXT_PLAIN);
+        assertThat(response.getBody()).isEqualTo("reservation-id");
+    }
+
+    @Test
+    public void whenTheKeyWasUsedForAnotherRequestItIsABadRequest() {
+        when(repository.begin(eq("key"), anyString(), eq("update"), eq(LEASE_DURATION))).thenReturn(Optional.of(buildRecord("create", true)));
+
+        assertThatThrownBy(() -> idempotentRequests.process("key", "update", () -> ResponseEntity.ok("reservation-id"))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void whenTheRequestIsAConflictTheConflictIsStored() {
+        final CampsiteReservationConflictException conflict = new CampsiteReservationConflictException(singletonList(LocalDate.now().plusDays(1)));
+
+        assertThatThrownBy(() -> idempotentRequests.process("key", "create", () -> {
+            throw conflict;
+        })).isSameAs(conflict);
+
+        verify(repository).complete(eq("key"), anyString(), eq(409), isNull(), eq(conflict.getMessage()), eq(TIME_TO_LIVE));
+    }
+
+    @Test
+    public void whenTheRequestFailsUnexpectedlyTheKeyIsReleased() {
+        assertThatThrownBy(() -> idempotentRequests.process("key", "create", () -> {
+            throw new RuntimeException("BOOM!");
+        })).hasMessage("BOOM!");
+
+        verify(repository).forget(eq("key"), anyString());
+        verify(repository, never()).complete(eq("key"), any(), any(Integer.class), any(), any(), any());
+    }
+
+    @Test
+    public void whenADuplicateArrivesWhileTheRequestIsProcessedItWaitsForItsResponse() throws InterruptedException {
+        when(repository.begin(eq("key"), anyString(), eq("create"), eq(LEASE_DURATION))).thenReturn(Optional.empty()).thenReturn(Optional.of(buildRecord("create", true)));
+        final CountDownLatch processing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger processed = new AtomicInteger();
+        final CompletableFuture<ResponseEntity<String>> first = CompletableFuture.supplyAsync(() -> idempotentRequests.process("key", "create", () -> {
+            processed.incrementAndGet();
+            processing.countDown();
+            await(release);
+            return ResponseEntity.ok("reservation-id");
+        }));
+        processing.await();
+
+        final CompletableFuture<ResponseEntity<String>> duplicate = CompletableFuture.supplyAsync(() -> idempotentRequests.process("key", "create", () -> {
+            processed.incrementAndGet();
+            return ResponseEntity.ok("another-reservation-id");
+        }));
+        Thread.sleep(50);
+        assertThat(duplicate).isNotDone();
+        release.countDown();
+
+        assertThat(first.join().getBody()).isEqualTo("reservation-id");
+        assertThat(duplicate.join().getBody()).isEqualTo("reservation-id");
+        assertThat(processed.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void whenAnotherInstanceIsProcessingTheKeyItsResponseIsPolledFor() {
+        when(repository.begin(eq("key"), anyString(), eq("create"), eq(LEASE_DURATION))).thenReturn(Optional.of(buildRecord("create", false))).thenReturn(Optional.of(buildRecord("create", true)));
+
+        final ResponseEntity<String> response = idempotentRequests.process("key", "create", () -> ResponseEntity.ok("another-reservation-id"));
+
+        assertThat(response.getBody()).isEqualTo("reservation-id");
+        verify(repository, never()).complete(anyString(), any(), any(Integer.class), any(), any(), any());
+    }
+
+    @Test
+    public void whenTheRequestIsProcessedItsResponseIsStoredByTheOwnerOfTheKey() {
+        final ArgumentCaptor<String> owner = ArgumentCaptor.forClass(String.class);
+
+        idempotentRequests.process("key", "create", () -> ResponseEntity.ok("reservation-id"));
+
+        verify(repository).begin(eq("key"), owner.capture(), eq("create"), eq(LEASE_DURATION));
+        verify(repository).complete(eq("key"), eq(owner.getValue()), eq(200), any(), eq("reservation-id"), eq(TIME_TO_LIVE));
+    }
+
+    @Test
+    public void whenTheRequestOutlastsItsLeaseTheLeaseIsRenewed() {
+        final Duration shortLease = Duration.ofMillis(30);
+        idempotentRequests = new IdempotentRequests(repository, TIME_TO_LIVE, shortLease, Duration.ofMillis(1));
+        when(repository.begin(eq("key"), anyString(), eq("create"), eq(shortLease))).thenReturn(Optional.empty());
+        final ArgumentCaptor<String> owner = ArgumentCaptor.forClass(String.class);
+
+        idempotentRequests.process("key", "create", () -> {
+            sleep(200);
+            return ResponseEntity.ok("reservation-id");
+        });
+
+        verify(repository).begin(eq("key"), owner.capture(), eq("create"), eq(shortLease));
+        verify(repository, atLeast(2)).renew("key", owner.getValue(), shortLease);
+        idempotentRequests.shutdown();
+    }
+
+    private static IdempotencyRecord buildRecord(String fingerprint, boolean completed) {
+        final IdempotencyRecord.IdempotencyRecordBuilder record = IdempotencyRecord.builder().key("key").fingerprint(fingerprint).completed(completed);
+        if (completed) {
+            record.status(200).contentType(MediaType.TEXT_PLAIN_VALUE).body("reservation-id");
+        }
+        return record.build();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
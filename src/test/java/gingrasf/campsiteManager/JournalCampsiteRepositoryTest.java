@@ -0,0 +1,233 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.User;
+import gingrasf.campsiteManager.persistence.JournalCampsiteRepository;
+import gingrasf.campsiteManager.persistence.ReservationJournal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.TestUtil.buildValidUser;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JournalCampsiteRepositoryTest {
+
+    private static final int RECORD_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path directory;
+
+    JournalCampsiteRepository repository;
+
+    final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+    @Before
+    public void setup() {
+        directory = folder.getRoot().toPath();
+        repository = new JournalCampsiteRepository(directory, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Test
+    public void whenReopeningTheCreatedMovedAndCancelledReservationsAreReplayed() {
+        final CampsiteReservation kept = repository.save(buildReservation(tomorrow, 1));
+        final CampsiteReservation moved = repository.save(buildReservation(tomorrow.plusDays(2), 1));
+        final CampsiteReservation cancelled = repository.save(buildReservation(tomorrow.plusDays(5), 2));
+        moved.setStartDate(tomorrow.plusDays(3));
+        moved.setEndDate(tomorrow.plusDays(4));
+        repository.save(moved);
+        repository.delete(cancelled);
+
+        reopen();
+
+        assertThat(repository.count()).isEqualTo(2);
+        assertThat(repository.findById(kept.getId())).contains(kept);
+        assertThat(repository.findById(moved.getId()).get().getStartDate()).isEqualTo(tomorrow.plusDays(3));
+        assertThat(repository.existsById(cancelled.getId())).isFalse();
+    }
+
+    @Test
+    public void whenMovingAReservationItIsOnlyMovedIfItStillHasTheDatesItWasReadWith() {
+        final CampsiteReservation read = repository.save(buildReservation(tomorrow, 1));
+        final CampsiteReservation readAgain = repository.findById(read.getId()).get();
+
+        assertThat(repository.move(read, tomorrow.plusDays(2), tomorrow.plusDays(3))).isTrue();
+        assertThat(repository.move(readAgain, tomorrow.plusDays(4), tomorrow.plusDays(5))).isFalse();
+        reopen();
+
+        assertThat(repository.findById(read.getId()).get().getStartDate()).isEqualTo(tomorrow.plusDays(2));
+        assertThat(repository.findOverlapping(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(2))).isEmpty();
+    }
+
+    @Test
+    public void whenCancellingAReservationItIsReturnedAsItWasWhenDeleted() {
+        final CampsiteReservation read = repository.save(buildReservation(tomorrow, 1));
+        repository.move(read, tomorrow.plusDays(2), tomorrow.plusDays(3));
+
+        assertThat(repository.cancel(read.getId()).get().getStartDate()).isEqualTo(tomorrow.plusDays(2));
+        assertThat(repository.cancel(read.getId())).isEmpty();
+        reopen();
+
+        assertThat(repository.count()).isZero();
+    }
+
+    @Test
+    public void whenTheJournalIsTruncatedMidRecordTheTornRecordIsDroppedAndTheJournalKeepsGoing() throws IOException {
+        final CampsiteReservation first = repository.save(buildReservation(tomorrow, 1));
+        final CampsiteReservation second = repository.save(buildReservation(tomorrow.plusDays(1), 1));
+        repository.close();
+
+        // Cuts the id of the second record, the end of a record is padding which isn't missed when cut
+        truncateJournal(RECORD_SIZE + 40);
+        repository = new JournalCampsiteRepository(directory, 1000);
+
+        assertThat(repository.findById(first.getId())).contains(first);
+        assertThat(repository.existsById(second.getId())).isFalse();
+        final CampsiteReservation third = repository.save(buildReservation(tomorrow.plusDays(2), 1));
+
+        reopen();
+
+        assertThat(repository.findAll()).containsExactlyInAnyOrder(first, third);
+    }
+
+    @Test
+    public void whenTheLastRecordIsCorruptedItIsDropped() throws IOException {
+        final CampsiteReservation first = repository.save(buildReservation(tomorrow, 1));
+        repository.save(buildReservation(tomorrow.plusDays(1), 1));
+        repository.close();
+
+        try (RandomAccessFile journal = new RandomAccessFile(journalFile().toFile(), "rw")) {
+            journal.seek(RECORD_SIZE + 20);
+            journal.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        }
+        repository = new JournalCampsiteRepository(directory, 1000);
+
+        assertThat(repository.findAll()).containsExactly(first);
+    }
+
+    @Test
+    public void whenEnoughEventsAreJournaledTheyAreReplacedByASnapshot() throws IOException {
+        repository.close();
+        repository = new JournalCampsiteRepository(directory, 10);
+        final List<CampsiteReservation> reservations = IntStream.range(0, 25)
+                .mapToObj(i -> repository.save(buildReservation(tomorrow.plusDays(i), 1)))
+                .collect(Collectors.toList());
+        repository.delete(reservations.get(0));
+        // Waits for the snapshot written in the background
+        repository.close();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.map(file -> file.getFileName().toString())).hasSize(2).contains("snapshot.bin").anyMatch(file -> file.matches("journal-[12]\\.log"));
+        }
+        repository = new JournalCampsiteRepository(directory, 1000);
+
+        assertThat(repository.findAll()).containsExactlyInAnyOrderElementsOf(reservations.subList(1, 25));
+    }
+
+    @Test
+    public void whenStoppedBeforeTheSnapshotIsWrittenBothJournalsAreReplayed() {
+        repository.close();
+        final CampsiteReservation beforeRotation = buildReservation(tomorrow, 1);
+        final CampsiteReservation afterRotation = buildReservation(tomorrow.plusDays(1), 1);
+        final ReservationJournal journal = new ReservationJournal(directory);
+        journal.recover();
+        journal.append(ReservationJournal.EventType.CREATED, beforeRotation);
+        journal.rotate();
+        journal.awaitDurable(journal.append(ReservationJournal.EventType.CREATED, afterRotation));
+        journal.close();
+
+        repository = new JournalCampsiteRepository(directory, 1000);
+
+        assertThat(repository.findAll()).containsExactlyInAnyOrder(beforeRotation, afterRotation);
+    }
+
+    @Test
+    public void whenAReservationOfASaveIsTooLargeToBeJournaledNoneOfThemIsSaved() {
+        final CampsiteReservation fitting = buildReservation(tomorrow, 1);
+        final CampsiteReservation tooLarge = CampsiteReservation.builder()
+                .id(UUID.randomUUID().toString())
+                .siteId(DEFAULT_SITE_ID)
+                .user(User.builder().email("test@test.com").fullName(String.join("", Collections.nCopies(RECORD_SIZE, "a"))).build())
+                .startDate(tomorrow.plusDays(1))
+                .endDate(tomorrow.plusDays(2))
+                .build();
+
+        assertThatThrownBy(() -> repository.saveAll(Arrays.asList(fitting, tooLarge))).isInstanceOf(IllegalArgumentException.class);
+        reopen();
+
+        assertThat(repository.count()).isZero();
+    }
+
+    @Test
+    public void whenSavingConcurrentlyEveryReservationIsDurable() {
+        final List<CampsiteReservation> reservations = IntStream.range(0, 200).parallel()
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> repository.save(buildReservation(tomorrow.plusDays(i % 30), 1))))
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+
+        reopen();
+
+        assertThat(repository.findAll()).containsExactlyInAnyOrderElementsOf(reservations);
+    }
+
+    @Test
+    public void whenQueryingOverlappingReservationsOnlyTheOnesOfTheSiteOverlappingThePeriodAreReturned() {
+        final CampsiteReservation before = repository.save(buildReservation(tomorrow, 2));
+        final CampsiteReservation overlapping = repository.save(buildReservation(tomorrow.plusDays(2), 2));
+        final CampsiteReservation after = repository.save(buildReservation(tomorrow.plusDays(5), 1));
+        repository.save(CampsiteReservation.builder().id(UUID.randomUUID().toString()).siteId("site-1").user(buildValidUser()).startDate(tomorrow.plusDays(3)).endDate(tomorrow.plusDays(4)).build());
+
+        assertThat(repository.findOverlapping(DEFAULT_SITE_ID, tomorrow.plusDays(2), tomorrow.plusDays(5))).containsExactly(overlapping);
+        assertThat(repository.findBySiteId(DEFAULT_SITE_ID)).containsExactly(before, overlapping, after);
+    }
+
+    private void reopen() {
+        repository.close();
+        repository = new JournalCampsiteRepository(directory, 1000);
+    }
+
+    private void truncateJournal(long length) throws IOException {
+        try (RandomAccessFile journal = new RandomAccessFile(journalFile().toFile(), "rw")) {
+            journal.setLength(length);
+        }
+    }
+
+    private Path journalFile() {
+        return directory.resolve("journal-0.log");
+    }
+
+    private static CampsiteReservation buildReservation(LocalDate start, int nights) {
+        return CampsiteReservation.builder()
+                .id(UUID.randomUUID().toString())
+                .siteId(DEFAULT_SITE_ID)
+                .user(buildValidUser())
+                .startDate(start)
+                .endDate(start.plusDays(nights))
+                .build();
+    }
+}
@@ -0,0 +1,68 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.persistence.JournalCampsiteRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.TestUtil.buildValidUser;
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures the startup of the journal repository: replaying a journal of a million events, then loading the snapshot
+ * replacing it. Half of the events move a reservation created just before, so half a million reservations are live.
+ *
+ * This is not part of the regular test run, use mvn test -Dtest=JournalRecoveryBenchmark -DargLine=-Xmx2g to run it, the
+ * default heap of the test JVM makes the replay mostly garbage collection.
+ */
+public class JournalRecoveryBenchmark {
+
+    private static final int NB_EVENTS = 1_000_000;
+    private static final int BATCH_SIZE = 10_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void measureStartupTime() {
+        final Path directory = folder.getRoot().toPath();
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        long start = System.nanoTime();
+        try (JournalCampsiteRepository repository = new JournalCampsiteRepository(directory, Long.MAX_VALUE)) {
+            for (int batch = 0; batch < NB_EVENTS / BATCH_SIZE; batch++) {
+                final List<CampsiteReservation> created = IntStream.range(0, BATCH_SIZE / 2)
+                        .mapToObj(i -> CampsiteReservation.builder().id(UUID.randomUUID().toString()).siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(tomorrow.plusDays(i % 30)).endDate(tomorrow.plusDays(i % 30 + 1)).build())
+                        .collect(Collectors.toList());
+                repository.saveAll(created);
+                created.forEach(reservation -> reservation.setEndDate(reservation.getEndDate().plusDays(1)));
+                repository.saveAll(created);
+            }
+        }
+        System.out.println(format("journaled %d events in %d ms", NB_EVENTS, (System.nanoTime() - start) / 1_000_000));
+
+        start = System.nanoTime();
+        try (JournalCampsiteRepository repository = new JournalCampsiteRepository(directory, NB_EVENTS)) {
+            System.out.println(format("replayed %d events in %d ms", NB_EVENTS, (System.nanoTime() - start) / 1_000_000));
+            assertThat(repository.count()).isEqualTo(NB_EVENTS / 2);
+            // The next event goes over the limit and replaces the journal by a snapshot
+            repository.delete(repository.findAll().iterator().next());
+        }
+
+        start = System.nanoTime();
+        try (JournalCampsiteRepository repository = new JournalCampsiteRepository(directory, NB_EVENTS)) {
+            System.out.println(format("loaded a snapshot of %d reservations in %d ms", repository.count(), (System.nanoTime() - start) / 1_000_000));
+            assertThat(repository.count()).isEqualTo(NB_EVENTS / 2 - 1);
+        }
+    }
+}
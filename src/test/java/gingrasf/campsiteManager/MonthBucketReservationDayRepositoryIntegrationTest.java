@@ -0,0 +1,135 @@
+package gingrasf.campsiteManager;
+
+
+import gingrasf.campsiteManager.model.ReservationDay;
+import gingrasf.campsiteManager.model.ReservationMonth;
+import gingrasf.campsiteManager.persistence.MonthBucketReservationDayRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class MonthBucketReservationDayRepositoryIntegrationTest {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private MonthBucketReservationDayRepository reservationDayRepository;
+
+    private LocalDate lastDayOfMonth;
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(new Query(), ReservationMonth.class);
+        reservationDayRepository = new MonthBucketReservationDayRepository(Duration.ofSeconds(30));
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(reservationDayRepository);
+        lastDayOfMonth = YearMonth.now().plusMonths(1).atEndOfMonth();
+    }
+
+    @Test
+    public void testNightsClaimedAcrossAMonthBoundaryAreInTheMonthOfEachNight() {
+        final List<LocalDate> nights = asList(lastDayOfMonth, lastDayOfMonth.plusDays(1));
+        assertThat(reservationDayRepository.claimDays(DEFAULT_SITE_ID, nights, "reservation")).isEmpty();
+        assertThat(reservationDayRepository.confirmDays(DEFAULT_SITE_ID, nights, "reservation")).isTrue();
+
+        assertThat(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, lastDayOfMonth.minusDays(1), lastDayOfMonth.plusDays(3))).containsExactly(lastDayOfMonth, lastDayOfMonth.plusDays(1));
+        assertThat(mongoTemplate.find(new Query(), ReservationMonth.class)).extracting(ReservationMonth::getMonth)
+                .containsExactlyInAnyOrder(YearMonth.from(lastDayOfMonth).toString(), YearMonth.from(lastDayOfMonth.plusDays(1)).toString());
+    }
+
+    @Test
+    public void testConflictInTheSecondMonthClaimsNothingInTheFirstMonth() {
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(lastDayOfMonth.plusDays(1)), "first-reservation");
+
+        final List<LocalDate> conflictingNights = reservationDayRepository.claimDays(DEFAULT_SITE_ID, asList(lastDayOfMonth.minusDays(1), lastDayOfMonth, lastDayOfMonth.plusDays(1)), "second-reservation");
+
+        assertThat(conflictingNights).containsExactly(lastDayOfMonth.plusDays(1));
+        assertThat(reservationDayRepository.claimDays(DEFAULT_SITE_ID, asList(lastDayOfMonth.minusDays(1), lastDayOfMonth), "third-reservation")).isEmpty();
+    }
+
+    @Test
+    public void testSameNightCanBeClaimedOnEachSite() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        assertThat(reservationDayRepository.claimDays("site-1", singletonList(tomorrow), "first-reservation")).isEmpty();
+
+        assertThat(reservationDayRepository.claimDays("site-2", singletonList(tomorrow), "second-reservation")).isEmpty();
+        assertThat(mongoTemplate.count(new Query(), ReservationMonth.class)).isEqualTo(2);
+    }
+
+    @Test
+    public void testNightsAreClaimedUntilReleasedByTheirReservation() {
+        final LocalDate firstDayOfMonth = lastDayOfMonth.withDayOfMonth(1);
+        final List<LocalDate> nights = asList(firstDayOfMonth, firstDayOfMonth.plusDays(1));
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, nights, "first-reservation");
+        reservationDayRepository.confirmDays(DEFAULT_SITE_ID, nights, "first-reservation");
+        assertThat(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, firstDayOfMonth, firstDayOfMonth.plusDays(3))).containsExactlyElementsOf(nights);
+
+        reservationDayRepository.releaseDays(DEFAULT_SITE_ID, nights, "second-reservation");
+        assertThat(reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(firstDayOfMonth.plusDays(1)), "second-reservation")).containsExactly(firstDayOfMonth.plusDays(1));
+        assertThat(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, firstDayOfMonth, firstDayOfMonth.plusDays(3))).containsExactlyElementsOf(nights);
+
+        reservationDayRepository.releaseDays(DEFAULT_SITE_ID, nights, "first-reservation");
+        assertThat(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, firstDayOfMonth, firstDayOfMonth.plusDays(3))).isEmpty();
+        assertThat(reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(firstDayOfMonth.plusDays(1)), "second-reservation")).isEmpty();
+    }
+
+    @Test
+    public void testClaimsOfAnotherReservationAreNotConfirmed() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "reservation");
+
+        assertThat(reservationDayRepository.confirmDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "another-reservation")).isFalse();
+        assertThat(reservationDayRepository.confirmDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "reservation")).isTrue();
+    }
+
+    @Test
+    public void testAnExpiredPendingClaimCanBeGivenUp() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(tomorrow), "never-saved");
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(tomorrow.plusDays(1)), "saved");
+        reservationDayRepository.confirmDays(DEFAULT_SITE_ID, singletonList(tomorrow.plusDays(1)), "saved");
+        mongoTemplate.updateFirst(Query.query(where("siteId").is(DEFAULT_SITE_ID).and("month").is(YearMonth.from(tomorrow).toString())),
+                Update.update("claims." + tomorrow + ".expiresAt", new Date(0)), ReservationMonth.class);
+
+        assertThat(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1))).isEmpty();
+        assertThat(reservationDayRepository.findExpiredClaims(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)))).extracting(ReservationDay::getReservationId).containsExactly("never-saved");
+        reservationDayRepository.releaseExpiredDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "saved");
+        reservationDayRepository.releaseExpiredDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "never-saved");
+
+        assertThat(reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(tomorrow), "new-reservation")).isEmpty();
+        assertThat(reservationDayRepository.confirmDays(DEFAULT_SITE_ID, singletonList(tomorrow), "never-saved")).isFalse();
+        assertThat(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, tomorrow.plusDays(1), tomorrow.plusDays(2))).containsExactly(tomorrow.plusDays(1));
+    }
+
+    @Test
+    public void testMonthExpiresOnceItIsPast() {
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(lastDayOfMonth), "reservation");
+
+        final ReservationMonth month = mongoTemplate.findOne(new Query(), ReservationMonth.class);
+        assertThat(month.getExpiresAt()).isEqualTo(Date.from(lastDayOfMonth.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+    }
+}
@@ -0,0 +1,230 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.OccupancyIndex.HORIZON_DAYS;
+import static gingrasf.campsiteManager.TestUtil.generateMultiDayReservation;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OccupancyIndexTest {
+
+    @Mock
+    CampsiteRepository repository;
+
+    OccupancyIndex occupancyIndex;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        occupancyIndex = new OccupancyIndex(repository);
+    }
+
+    @Test
+    public void whenRebuildingTheExistingReservationsAreReserved() {
+        final LocalDate yesterday = LocalDate.now().minusDays(1);
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(yesterday, 3));
+        occupancyIndex.rebuild();
+
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, yesterday, yesterday.plusDays(5))).containsExactly(yesterday.plusDays(1), yesterday.plusDays(2));
+    }
+
+    @Test
+    public void whenMarkingDatesTheyAreReservedUntilMarkedAvailable() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final LocalDate end = start.plusDays(3);
+
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, start, end);
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, start, end)).containsExactly(start, start.plusDays(1), start.plusDays(2));
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, end)).isFalse();
+
+        occupancyIndex.markAvailable(DEFAULT_SITE_ID, start, start.plusDays(1));
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, start, end)).containsExactly(start.plusDays(1), start.plusDays(2));
+    }
+
+    @Test
+    public void whenMarkingAMoveOnlyTheReleasedDaysBecomeAvailable() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, start, start.plusDays(3));
+        final boolean[] keptDayWasAvailable = {false};
+        occupancyIndex.addChangeListener((siteId, startDate, endDate, reserved) -> keptDayWasAvailable[0] |= !occupancyIndex.isReserved(DEFAULT_SITE_ID, start.plusDays(2)));
+
+        occupancyIndex.markMoved(DEFAULT_SITE_ID, start, start.plusDays(3), start.plusDays(2), start.plusDays(4));
+
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, start, start.plusDays(5))).containsExactly(start.plusDays(2), start.plusDays(3));
+        assertThat(keptDayWasAvailable[0]).isFalse();
+    }
+
+    @Test
+    public void whenAReservationIsChangedTwiceAtOnceTheSecondChangeWaitsForTheFirst() throws Exception {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final CountDownLatch moving = new CountDownLatch(1);
+        final CountDownLatch saved = new CountDownLatch(1);
+        final CompletableFuture<Void> move = CompletableFuture.runAsync(() -> occupancyIndex.changeReservation("reservation", () -> {
+            moving.countDown();
+            await(saved);
+            occupancyIndex.markMoved(DEFAULT_SITE_ID, start, start.plusDays(1), start.plusDays(2), start.plusDays(3));
+            return true;
+        }));
+        moving.await();
+
+        final CompletableFuture<Void> cancel = CompletableFuture.runAsync(() -> occupancyIndex.changeReservation("reservation", () -> {
+            occupancyIndex.markAvailable(DEFAULT_SITE_ID, start.plusDays(2), start.plusDays(3));
+            return true;
+        }));
+        assertThat(occupancyIndex.changeReservation("another-reservation", () -> true)).isTrue();
+        assertThat(cancel.isDone()).isFalse();
+        saved.countDown();
+        CompletableFuture.allOf(move, cancel).get(5, TimeUnit.SECONDS);
+
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, start, start.plusDays(4))).isEmpty();
+    }
+
+    @Test
+    public void whenMarkingDatesPastTheHorizonTheyStayAvailable() {
+        final LocalDate lastDayOfHorizon = LocalDate.now().plusDays(HORIZON_DAYS - 1);
+
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, lastDayOfHorizon, lastDayOfHorizon.plusDays(2));
+
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, lastDayOfHorizon)).isTrue();
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, lastDayOfHorizon.plusDays(1))).isFalse();
+    }
+
+    @Test
+    public void whenTheHorizonSlidesForwardReservedDatesAreKept() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(2));
+        occupancyIndex.slideTo(DEFAULT_SITE_ID, tomorrow.toEpochDay());
+
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(HORIZON_DAYS))).containsExactly(tomorrow, tomorrow.plusDays(1));
+    }
+
+    @Test
+    public void whenTheHorizonSlidesPastAllReservationsEverythingIsAvailable() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate afterTheHorizon = tomorrow.plusDays(HORIZON_DAYS);
+
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(3));
+        occupancyIndex.slideTo(DEFAULT_SITE_ID, afterTheHorizon.toEpochDay());
+
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, afterTheHorizon, afterTheHorizon.plusDays(HORIZON_DAYS))).isEmpty();
+    }
+
+    @Test
+    public void whenMarkingDatesOfASiteTheOtherSitesStayAvailable() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        occupancyIndex.markReserved("site-1", tomorrow, tomorrow.plusDays(2));
+
+        assertThat(occupancyIndex.getReservedDatesBetween("site-1", tomorrow, tomorrow.plusDays(2))).containsExactly(tomorrow, tomorrow.plusDays(1));
+        assertThat(occupancyIndex.getReservedDatesBetween("site-2", tomorrow, tomorrow.plusDays(2))).isEmpty();
+        verify(repository).findOverlapping(eq("site-1"), any(), any());
+        verify(repository).findOverlapping(eq("site-2"), any(), any());
+    }
+
+    @Test
+    public void whenASiteChangesOnlyItsVersionIsBumped() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final long otherSiteVersion = occupancyIndex.getVersion("site-2");
+        final long siteVersion = occupancyIndex.getVersion("site-1");
+
+        occupancyIndex.markReserved("site-1", tomorrow, tomorrow.plusDays(1));
+
+        assertThat(occupancyIndex.getVersion("site-1")).isGreaterThan(siteVersion);
+        assertThat(occupancyIndex.getVersion("site-2")).isEqualTo(otherSiteVersion);
+    }
+
+    @Test
+    public void whenRebuildingTheVersionOfASiteNeverGoesBack() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1));
+        final long version = occupancyIndex.getVersion(DEFAULT_SITE_ID);
+
+        occupancyIndex.rebuild();
+
+        assertThat(occupancyIndex.getVersion(DEFAULT_SITE_ID)).isGreaterThan(version);
+    }
+
+    @Test
+    public void whenRefreshingAChangedSiteTheChangedDaysAreNotified() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(2));
+        final long version = occupancyIndex.getVersion(DEFAULT_SITE_ID);
+        final List<String> changes = new ArrayList<>();
+        occupancyIndex.addChangeListener((siteId, startDate, endDate, reserved) -> changes.add(startDate + "/" + endDate + "/" + reserved));
+
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(tomorrow.plusDays(1), 3));
+        occupancyIndex.refresh();
+
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(5))).containsExactly(tomorrow.plusDays(1), tomorrow.plusDays(2), tomorrow.plusDays(3));
+        assertThat(occupancyIndex.getVersion(DEFAULT_SITE_ID)).isGreaterThan(version);
+        assertThat(changes).containsExactly(tomorrow + "/" + tomorrow.plusDays(1) + "/false", tomorrow.plusDays(2) + "/" + tomorrow.plusDays(4) + "/true");
+    }
+
+    @Test
+    public void whenRefreshingAnUnchangedSiteTheVersionIsKept() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(generateMultiDayReservation(tomorrow, 2));
+        final long version = occupancyIndex.getVersion(DEFAULT_SITE_ID);
+
+        occupancyIndex.refresh();
+
+        assertThat(occupancyIndex.getVersion(DEFAULT_SITE_ID)).isEqualTo(version);
+    }
+
+    @Test
+    public void whenASiteIsMarkedWhileRefreshingTheRefreshIsDropped() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        occupancyIndex.getVersion(DEFAULT_SITE_ID);
+        when(repository.findOverlapping(any(), any(), any())).thenAnswer(i -> {
+            occupancyIndex.markReserved(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1));
+            return Collections.emptyList();
+        });
+
+        occupancyIndex.refresh();
+
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow)).isTrue();
+    }
+
+    @Test
+    public void whenRefreshingSitesNeverUsedTheyAreLoaded() {
+        occupancyIndex.refresh(Arrays.asList("site-1", "site-2"));
+
+        verify(repository).findOverlapping(eq("site-1"), any(), any());
+        verify(repository).findOverlapping(eq("site-2"), any(), any());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void whenLoadingASiteAndRepositoryThrowsAnExceptionPropagateIt() {
+        doThrow(new RuntimeException("BOOM!")).when(repository).findOverlapping(any(), any(), any());
+        occupancyIndex.isReserved(DEFAULT_SITE_ID, LocalDate.now());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
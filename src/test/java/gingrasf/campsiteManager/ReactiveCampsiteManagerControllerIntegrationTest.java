@@ -0,0 +1,143 @@
+package gingrasf.campsiteManager;
+
+
+import gingrasf.campsiteManager.model.AvailableDateLock;
+import gingrasf.campsiteManager.model.CampsiteAvailability;
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static gingrasf.campsiteManager.TestUtil.buildReservationRequest;
+import static gingrasf.campsiteManager.TestUtil.buildValidUser;
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "spring.main.web-application-type=reactive")
+@ActiveProfiles("reactive")
+public class ReactiveCampsiteManagerControllerIntegrationTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private WebTestClient webTestClient;
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(new Query(), CampsiteReservation.class);
+        mongoTemplate.remove(new Query(), AvailableDateLock.class);
+        webTestClient = WebTestClient.bindToServer().baseUrl("http://localhost:" + port).responseTimeout(Duration.ofSeconds(30)).build();
+    }
+
+    @Test
+    public void testReservedDatesAreNotAvailable() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        createReservation(start, 2).expectStatus().isOk();
+
+        final CampsiteAvailability availability = webTestClient.get()
+                .uri(format("/campsite/availability?from=%s&until=%s", start, start.plusDays(3)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(CampsiteAvailability.class).returnResult().getResponseBody();
+
+        assertThat(availability.getAvailableDates()).containsExactly(start.plusDays(2));
+    }
+
+    @Test
+    public void testCannotCreateReservationForUnavailableDateReturnConflict() {
+        final LocalDate start = LocalDate.now().plusDays(2);
+        createReservation(start, 1).expectStatus().isOk();
+
+        final String message = createReservation(start, 2).expectStatus().isEqualTo(HttpStatus.CONFLICT)
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        assertThat(message).contains("Nearest available stays");
+    }
+
+    @Test
+    public void testReservationCreationForMoreThan3DaysReturnBadRequest() {
+        createReservation(LocalDate.now().plusDays(1), 4).expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void testValidReservationUpdate() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        final String id = createReservation(start, 2).expectStatus().isOk().expectBody(String.class).returnResult().getResponseBody();
+        final CampsiteReservation newReservation = CampsiteReservation.builder().user(buildValidUser()).startDate(start.plusDays(10)).endDate(start.plusDays(13)).build();
+
+        final CampsiteReservation updated = webTestClient.post().uri(format("/campsite/reservation/%s", id))
+                .syncBody(newReservation)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(CampsiteReservation.class).returnResult().getResponseBody();
+
+        assertThat(updated.getId()).isEqualTo(id);
+        assertThat(updated.getStartDate()).isEqualTo(start.plusDays(10));
+        assertThat(updated.getEndDate()).isEqualTo(start.plusDays(13));
+    }
+
+    @Test
+    public void testReservationCancel() {
+        final String id = createReservation(LocalDate.now().plusDays(1), 1).expectStatus().isOk().expectBody(String.class).returnResult().getResponseBody();
+
+        webTestClient.delete().uri(format("/campsite/reservation/%s", id)).exchange().expectStatus().isOk();
+
+        webTestClient.get().uri("/campsite/reservation").exchange().expectBodyList(CampsiteReservation.class).hasSize(0);
+    }
+
+    @Test
+    public void testReservationsOfAUserAreLookedUpByEmail() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+        createReservation(start.plusDays(3), 1).expectStatus().isOk();
+        createReservation(start, 1).expectStatus().isOk();
+        webTestClient.put().uri("/campsite/reservation").syncBody(buildReservationRequest(start.plusDays(6), 1, User.builder().email("other@test.com").fullName("Other Person").build())).exchange().expectStatus().isOk();
+
+        final List<CampsiteReservation> reservations = webTestClient.get().uri(format("/campsite/reservation?email=%s", buildValidUser().getEmail()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(CampsiteReservation.class).returnResult().getResponseBody();
+
+        assertThat(reservations).extracting(CampsiteReservation::getStartDate).containsExactly(start, start.plusDays(3));
+    }
+
+    @Test
+    public void testReservationCreationConcurrent() {
+        final LocalDate start = LocalDate.now().plusDays(1);
+
+        final List<HttpStatus> statuses = IntStream.range(0, 500)
+                .mapToObj(nb -> CompletableFuture.supplyAsync(() -> createReservation(start, 1).returnResult(String.class).getStatus()))
+                .collect(toList()).stream()
+                .map(CompletableFuture::join)
+                .collect(toList());
+
+        assertThat(statuses).containsOnlyOnce(HttpStatus.OK);
+        assertThat(statuses).containsOnly(HttpStatus.OK, HttpStatus.CONFLICT);
+        webTestClient.get().uri("/campsite/reservation").exchange().expectBodyList(CampsiteReservation.class).hasSize(1);
+        assertThat(mongoTemplate.count(new Query(), AvailableDateLock.class)).isZero();
+    }
+
+    private WebTestClient.ResponseSpec createReservation(LocalDate start, int duration) {
+        return webTestClient.put().uri("/campsite/reservation").syncBody(buildReservationRequest(start, duration)).exchange();
+    }
+}
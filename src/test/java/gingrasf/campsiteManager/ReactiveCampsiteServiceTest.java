@@ -0,0 +1,190 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.AvailabilityFormat;
+import gingrasf.campsiteManager.model.CampsiteAvailability;
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.DateLease;
+import gingrasf.campsiteManager.model.User;
+import gingrasf.campsiteManager.persistence.ReactiveAvailableDateLockRepository;
+import gingrasf.campsiteManager.persistence.ReactiveCampsiteRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.TestUtil.buildValidUser;
+import static gingrasf.campsiteManager.TestUtil.generateMultiDayReservation;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReactiveCampsiteServiceTest {
+
+    @Mock
+    ReactiveCampsiteRepository repository;
+
+    @Mock
+    ReactiveAvailableDateLockRepository availableDateLockRepository;
+
+    ReactiveCampsiteService service;
+
+    final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        service = new ReactiveCampsiteService(repository, availableDateLockRepository, new CampsiteReservationValidator());
+        when(availableDateLockRepository.lockDates(any(), any(), any())).thenAnswer(i -> Mono.just(DateLease.builder().siteId(i.getArgument(0)).owner(i.getArgument(2)).dates(new ArrayList<>(i.getArgument(1))).build()));
+        when(availableDateLockRepository.isHeld(any())).thenReturn(Mono.just(true));
+        when(availableDateLockRepository.fence(any())).thenReturn(Mono.just(true));
+        when(availableDateLockRepository.isFenced(any())).thenReturn(Mono.just(true));
+        when(availableDateLockRepository.freeDates(any(), any(), any())).thenReturn(Mono.empty());
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Flux.empty());
+        when(repository.save(any(CampsiteReservation.class))).thenAnswer(i -> Mono.just(i.getArgument(0)));
+        when(repository.move(any(), any(), any())).thenReturn(Mono.just(true));
+        when(repository.countByUserEmailAndEndDateAfter(any(), any())).thenReturn(Mono.just(0L));
+    }
+
+    @Test
+    public void whenTheDatesAreFreeTheReservationIsSavedAndTheDatesReleased() {
+        final CampsiteReservation reservation = service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(2)).block();
+
+        assertThat(reservation.getId()).isNotEmpty();
+        assertThat(reservation.getSiteId()).isEqualTo(DEFAULT_SITE_ID);
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), eq(asList(tomorrow, tomorrow.plusDays(1))), any());
+    }
+
+    @Test
+    public void whenTheDatesAreReservedItIsAConflictWithTheNearestFreeStays() {
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Flux.fromIterable(generateMultiDayReservation(tomorrow, 2)));
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow.plusDays(1), tomorrow.plusDays(2)).block())
+                .isInstanceOf(CampsiteReservationConflictException.class)
+                .hasMessageContaining(tomorrow.plusDays(1).toString())
+                .hasMessageContaining("Nearest available stays: " + tomorrow.plusDays(2) + "/" + tomorrow.plusDays(3));
+        verify(repository, never()).save(any(CampsiteReservation.class));
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), any(), any());
+    }
+
+    @Test
+    public void whenTheDatesAreLockedByAnotherReservationItIsAConflict() {
+        doAnswer(i -> Mono.just(DateLease.builder().siteId(i.getArgument(0)).owner(i.getArgument(2)).dates(new ArrayList<>(i.getArgument(1))).conflictingDates(singletonList(tomorrow)).build())).when(availableDateLockRepository).lockDates(any(), any(), any());
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1)).block()).isInstanceOf(CampsiteReservationConflictException.class);
+
+        verify(repository, never()).save(any(CampsiteReservation.class));
+        verify(availableDateLockRepository, never()).freeDates(any(), any(), any());
+    }
+
+    @Test
+    public void whenTheLeaseIsLostBeforeSavingItIsAConflictAndTheDatesAreReleased() {
+        when(availableDateLockRepository.isHeld(any())).thenReturn(Mono.just(false));
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1)).block()).isInstanceOf(CampsiteReservationConflictException.class);
+
+        verify(repository, never()).save(any(CampsiteReservation.class));
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), any(), any());
+    }
+
+    @Test
+    public void whenTheLeaseIsTakenOverAfterItWasCheckedTheSavedReservationIsDeleted() {
+        when(availableDateLockRepository.isFenced(any())).thenReturn(Mono.just(false));
+        when(repository.delete(any(CampsiteReservation.class))).thenReturn(Mono.empty());
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1)).block()).isInstanceOf(CampsiteReservationConflictException.class);
+
+        final ArgumentCaptor<CampsiteReservation> saved = ArgumentCaptor.forClass(CampsiteReservation.class);
+        verify(repository).save(saved.capture());
+        verify(repository).delete(saved.getValue());
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), any(), any());
+    }
+
+    @Test
+    public void whenTheReservationCantBeSavedTheDatesAreReleased() {
+        when(repository.save(any(CampsiteReservation.class))).thenReturn(Mono.error(new RuntimeException("BOOM!")));
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1)).block()).hasMessage("BOOM!");
+
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), any(), any());
+    }
+
+    @Test
+    public void whenQueryingTheAvailabilityTheReservedDatesAreLeftOut() {
+        when(repository.findOverlapping(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(4))).thenReturn(Flux.fromIterable(generateMultiDayReservation(tomorrow.plusDays(1), 2)));
+
+        final CampsiteAvailability availability = service.getAvailabilityBetween(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(4), AvailabilityFormat.DATES).block();
+
+        assertThat(availability.getAvailableDates()).containsExactly(tomorrow, tomorrow.plusDays(3));
+    }
+
+    @Test
+    public void whenUpdatingTheReservationOfAnotherUserItIsABadRequest() {
+        final CampsiteReservation existing = generateMultiDayReservation(tomorrow, 1).get(0);
+        when(repository.findById(existing.getId())).thenReturn(Mono.just(existing));
+        final CampsiteReservation update = CampsiteReservation.builder().user(User.builder().email("another@test.com").fullName("Another Person").build()).startDate(tomorrow.plusDays(2)).endDate(tomorrow.plusDays(3)).build();
+
+        assertThatThrownBy(() -> service.updateReservation(DEFAULT_SITE_ID, existing.getId(), update).block()).isInstanceOf(IllegalArgumentException.class);
+
+        verify(availableDateLockRepository, never()).lockDates(any(), any(), any());
+    }
+
+    @Test
+    public void whenShiftingAReservationByADayOnlyTheAddedNightIsLockedAndItsOwnNightsAreNoConflict() {
+        final CampsiteReservation existing = generateMultiDayReservation(tomorrow, 2).get(0);
+        when(repository.findById(existing.getId())).thenReturn(Mono.just(existing));
+        when(repository.findOverlapping(any(), any(), any())).thenReturn(Flux.just(existing));
+        final CampsiteReservation update = CampsiteReservation.builder().user(buildValidUser()).startDate(tomorrow.plusDays(1)).endDate(tomorrow.plusDays(3)).build();
+
+        final CampsiteReservation moved = service.updateReservation(DEFAULT_SITE_ID, existing.getId(), update).block();
+
+        assertThat(moved.getStartDate()).isEqualTo(tomorrow.plusDays(1));
+        verify(availableDateLockRepository).lockDates(eq(DEFAULT_SITE_ID), eq(singletonList(tomorrow.plusDays(2))), any());
+    }
+
+    @Test
+    public void whenAReservationWasMovedSinceItWasReadTheMoveIsAConflict() {
+        final CampsiteReservation existing = generateMultiDayReservation(tomorrow, 1).get(0);
+        when(repository.findById(existing.getId())).thenReturn(Mono.just(existing));
+        when(repository.move(any(), any(), any())).thenReturn(Mono.just(false));
+        final CampsiteReservation update = CampsiteReservation.builder().user(buildValidUser()).startDate(tomorrow.plusDays(2)).endDate(tomorrow.plusDays(3)).build();
+
+        assertThatThrownBy(() -> service.updateReservation(DEFAULT_SITE_ID, existing.getId(), update).block()).isInstanceOf(CampsiteReservationConflictException.class);
+
+        assertThat(existing.getStartDate()).isEqualTo(tomorrow);
+        verify(availableDateLockRepository).freeDates(eq(DEFAULT_SITE_ID), eq(singletonList(tomorrow.plusDays(2))), any());
+    }
+
+    @Test
+    public void whenTheUserHasTooManyUpcomingReservationsTheReservationIsRejectedBeforeLockingTheDates() {
+        service = new ReactiveCampsiteService(repository, availableDateLockRepository, new CampsiteReservationValidator(CampsiteReservationValidator.DEFAULT_MAX_AVAILABILITY_WINDOW, singletonList(DEFAULT_SITE_ID), 2));
+        when(repository.countByUserEmailAndEndDateAfter(buildValidUser().getEmail(), LocalDate.now())).thenReturn(Mono.just(2L));
+
+        assertThatThrownBy(() -> service.createReservation(DEFAULT_SITE_ID, buildValidUser(), tomorrow, tomorrow.plusDays(1)).block())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("maximum of 2 upcoming reservations");
+        verify(availableDateLockRepository, never()).lockDates(any(), any(), any());
+    }
+
+    @Test
+    public void whenLookingUpTheReservationsOfAUserTheyAreReadByEmail() {
+        final CampsiteReservation reservation = generateMultiDayReservation(tomorrow, 1).get(0);
+        when(repository.findBySiteIdAndUserEmailOrderByStartDateAsc(DEFAULT_SITE_ID, reservation.getUser().getEmail())).thenReturn(Flux.just(reservation));
+
+        assertThat(service.getReservationsOfUser(DEFAULT_SITE_ID, reservation.getUser().getEmail()).collectList().block()).containsExactly(reservation);
+        assertThatThrownBy(() -> service.getReservationsOfUser(DEFAULT_SITE_ID, " ").blockFirst()).isInstanceOf(IllegalArgumentException.class);
+    }
+}
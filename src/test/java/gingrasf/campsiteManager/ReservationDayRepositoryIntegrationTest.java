@@ -0,0 +1,104 @@
+package gingrasf.campsiteManager;
+
+
+import gingrasf.campsiteManager.model.ReservationDay;
+import gingrasf.campsiteManager.persistence.ReservationDayRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class ReservationDayRepositoryIntegrationTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ReservationDayRepository reservationDayRepository;
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(new Query(), ReservationDay.class);
+    }
+
+    @Test
+    public void testNightClaimedByAnotherReservationIsReportedAndNothingIsClaimed() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        assertThat(reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(tomorrow.plusDays(1)), "first-reservation")).isEmpty();
+
+        final List<LocalDate> conflictingNights = reservationDayRepository.claimDays(DEFAULT_SITE_ID, asList(tomorrow.plusDays(2), tomorrow, tomorrow.plusDays(1)), "second-reservation");
+
+        assertThat(conflictingNights).containsExactly(tomorrow.plusDays(1));
+        assertThat(mongoTemplate.count(Query.query(where("reservationId").is("second-reservation")), ReservationDay.class)).isZero();
+        assertThat(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(3))).containsExactly(tomorrow.plusDays(1));
+    }
+
+    @Test
+    public void testSameNightCanBeClaimedOnEachSite() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        assertThat(reservationDayRepository.claimDays("site-1", singletonList(tomorrow), "first-reservation")).isEmpty();
+
+        assertThat(reservationDayRepository.claimDays("site-2", singletonList(tomorrow), "second-reservation")).isEmpty();
+        assertThat(reservationDayRepository.findClaimedDays("site-1", tomorrow, tomorrow.plusDays(1))).containsExactly(tomorrow);
+        assertThat(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1))).isEmpty();
+    }
+
+    @Test
+    public void testNightsCanOnlyBeReleasedByTheirReservation() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "reservation");
+
+        reservationDayRepository.releaseDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "another-reservation");
+        assertThat(mongoTemplate.count(new Query(), ReservationDay.class)).isEqualTo(2);
+
+        reservationDayRepository.releaseDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "reservation");
+        assertThat(mongoTemplate.count(new Query(), ReservationDay.class)).isZero();
+    }
+
+    @Test
+    public void testClaimsArePendingUntilConfirmed() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "reservation");
+        assertThat(mongoTemplate.find(new Query(), ReservationDay.class)).allMatch(ReservationDay::isPending);
+
+        assertThat(reservationDayRepository.confirmDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "reservation")).isTrue();
+
+        assertThat(mongoTemplate.find(new Query(), ReservationDay.class)).noneMatch(ReservationDay::isPending);
+        assertThat(reservationDayRepository.confirmDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "another-reservation")).isFalse();
+    }
+
+    @Test
+    public void testAnExpiredPendingClaimIsNoLongerClaimedAndCanBeGivenUp() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(tomorrow), "never-saved");
+        reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(tomorrow.plusDays(1)), "saved");
+        reservationDayRepository.confirmDays(DEFAULT_SITE_ID, singletonList(tomorrow.plusDays(1)), "saved");
+        mongoTemplate.updateMulti(Query.query(where("reservationId").is("never-saved")), Update.update("expiresAt", new Date(0)), ReservationDay.class);
+
+        assertThat(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(2))).containsExactly(tomorrow.plusDays(1));
+        assertThat(reservationDayRepository.findExpiredClaims(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)))).extracting(ReservationDay::getReservationId).containsExactly("never-saved");
+        reservationDayRepository.releaseExpiredDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "saved");
+        reservationDayRepository.releaseExpiredDays(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "never-saved");
+
+        assertThat(mongoTemplate.find(new Query(), ReservationDay.class)).extracting(ReservationDay::getReservationId).containsExactly("saved");
+        assertThat(reservationDayRepository.claimDays(DEFAULT_SITE_ID, singletonList(tomorrow), "new-reservation")).isEmpty();
+        assertThat(reservationDayRepository.confirmDays(DEFAULT_SITE_ID, singletonList(tomorrow), "never-saved")).isFalse();
+    }
+}
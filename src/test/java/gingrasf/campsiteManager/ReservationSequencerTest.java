@@ -0,0 +1,145 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.TestUtil.buildValidUser;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReservationSequencerTest {
+
+    private static final Duration TIMEOUT = Duration.ofMillis(50);
+
+    @Mock
+    CampsiteRepository repository;
+
+    OccupancyIndex occupancyIndex;
+
+    ReservationSequencer sequencer;
+
+    final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        occupancyIndex = new OccupancyIndex(repository);
+        when(repository.move(any(), any(), any())).thenReturn(true);
+        sequencer = new ReservationSequencer(repository, occupancyIndex, 1024, 128, TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        sequencer.shutdown();
+    }
+
+    @Test
+    public void whenManyReservationsWantTheSameNightOnlyOneGetsIt() {
+        final List<CompletableFuture<CampsiteReservation>> results = IntStream.range(0, 100).parallel()
+                .mapToObj(i -> sequencer.create(buildReservation(tomorrow, tomorrow.plusDays(2))))
+                .collect(Collectors.toList());
+
+        final long created = results.stream().filter(result -> {
+            try {
+                result.join();
+                return true;
+            } catch (CompletionException e) {
+                assertThat(e.getCause()).isInstanceOf(CampsiteReservationConflictException.class);
+                return false;
+            }
+        }).count();
+
+        assertThat(created).isEqualTo(1);
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(3))).containsExactly(tomorrow, tomorrow.plusDays(1));
+    }
+
+    @Test
+    public void whenMovingAReservationItsOwnNightsAreNotAConflict() {
+        final CampsiteReservation reservation = sequencer.create(buildReservation(tomorrow, tomorrow.plusDays(2))).join();
+
+        final CampsiteReservation moved = sequencer.move(reservation, tomorrow.plusDays(1), tomorrow.plusDays(3)).join();
+
+        assertThat(moved.getStartDate()).isEqualTo(tomorrow.plusDays(1));
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(4))).containsExactly(tomorrow.plusDays(1), tomorrow.plusDays(2));
+    }
+
+    @Test
+    public void whenAMoveCantBeSavedTheNightsAreNotReservedAndTheReservationKeepsItsDates() {
+        final CampsiteReservation reservation = sequencer.create(buildReservation(tomorrow, tomorrow.plusDays(1))).join();
+        when(repository.move(any(), any(), any())).thenThrow(new RuntimeException("BOOM!"));
+
+        assertThatThrownBy(() -> sequencer.move(reservation, tomorrow.plusDays(4), tomorrow.plusDays(5)).join()).hasCauseInstanceOf(RuntimeException.class);
+
+        assertThat(reservation.getStartDate()).isEqualTo(tomorrow);
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow)).isTrue();
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow.plusDays(4))).isFalse();
+    }
+
+    @Test
+    public void whenTheBatchCantBeSavedNoneOfItsReservationsIsReserved() {
+        when(repository.saveAll(any())).thenThrow(new RuntimeException("BOOM!"));
+
+        assertThatThrownBy(() -> sequencer.create(buildReservation(tomorrow, tomorrow.plusDays(1))).join()).hasCauseInstanceOf(RuntimeException.class);
+
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow)).isFalse();
+    }
+
+    @Test
+    public void whenAReservationWasMovedSinceItWasReadTheMoveIsAConflict() {
+        final CampsiteReservation reservation = sequencer.create(buildReservation(tomorrow, tomorrow.plusDays(1))).join();
+        when(repository.move(any(), any(), any())).thenReturn(false);
+
+        assertThatThrownBy(() -> sequencer.move(reservation, tomorrow.plusDays(4), tomorrow.plusDays(5)).join()).hasCauseInstanceOf(CampsiteReservationConflictException.class);
+
+        assertThat(reservation.getStartDate()).isEqualTo(tomorrow);
+        assertThat(occupancyIndex.isReserved(DEFAULT_SITE_ID, tomorrow.plusDays(4))).isFalse();
+    }
+
+    @Test
+    public void whenTheQueueStaysFullTheReservationIsAConflict() throws InterruptedException {
+        final CountDownLatch saving = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(repository.saveAll(any())).thenAnswer(i -> {
+            saving.countDown();
+            release.await();
+            return i.getArgument(0);
+        });
+        sequencer.shutdown();
+        sequencer = new ReservationSequencer(repository, occupancyIndex, 1, 1, TIMEOUT);
+
+        final CompletableFuture<CampsiteReservation> beingSaved = sequencer.create(buildReservation(tomorrow, tomorrow.plusDays(1)));
+        saving.await();
+        final CompletableFuture<CampsiteReservation> queued = sequencer.create(buildReservation(tomorrow.plusDays(1), tomorrow.plusDays(2)));
+        final CompletableFuture<CampsiteReservation> rejected = sequencer.create(buildReservation(tomorrow.plusDays(2), tomorrow.plusDays(3)));
+
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(CampsiteReservationConflictException.class);
+        release.countDown();
+        assertThat(beingSaved.join().getStartDate()).isEqualTo(tomorrow);
+        assertThat(queued.join().getStartDate()).isEqualTo(tomorrow.plusDays(1));
+        verify(repository, never()).save(any());
+    }
+
+    private static CampsiteReservation buildReservation(LocalDate startDate, LocalDate endDate) {
+        return CampsiteReservation.builder().id(UUID.randomUUID().toString()).siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(startDate).endDate(endDate).build();
+    }
+}
@@ -0,0 +1,291 @@
+package gingrasf.campsiteManager;
+
+
+import gingrasf.campsiteManager.config.CampsiteManagerProperties;
+import gingrasf.campsiteManager.model.AvailableDateLock;
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.DateFence;
+import gingrasf.campsiteManager.model.IdempotencyRecord;
+import gingrasf.campsiteManager.model.ReservationDay;
+import gingrasf.campsiteManager.model.ReservationMonth;
+import gingrasf.campsiteManager.model.User;
+import gingrasf.campsiteManager.persistence.AvailableDateLockRepository;
+import gingrasf.campsiteManager.persistence.ReservationDayRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static gingrasf.campsiteManager.CampsiteReservationValidator.MAX_RESERVATION_DURATION;
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.CampsiteService.findLocalDateBetween;
+import static gingrasf.campsiteManager.TestUtil.buildReservationRequest;
+import static java.lang.String.format;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Fires overlapping reservations, moves and cancellations at the REST API from many threads, then checks the final state
+ * against the history of the operations: no night is booked twice, every reservation is where one of its successful
+ * operations left it and is gone once cancelled, and no lock, claim or reserved day of the index is left behind. The
+ * throughput and the p50/p99 latencies of each operation are printed.
+ *
+ * The threads move and cancel any reservation, not only their own, so the same reservation is changed by several
+ * threads at once. The order of those changes is unknown, which is why the final dates only have to match one of them.
+ * A change of a reservation that another thread cancelled first finds it missing, which is only accepted on a
+ * reservation that was cancelled. The period is kept short so most requests contend.
+ *
+ * This is not part of the regular test run, use mvn test -Dtest=ReservationStressBenchmark to run it. The lock mode is
+ * the configured one, e.g. add -Dcampsite.lock.mode=claims to check another concurrency mode.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ReservationStressBenchmark {
+
+    private static final int NB_THREADS = 16;
+    private static final int OPERATIONS_PER_THREAD = 250;
+    private static final int NB_START_DATES = 14;
+
+    private enum OperationType { CREATE, MOVE, CANCEL }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private OccupancyIndex occupancyIndex;
+
+    @Autowired
+    private AvailableDateLockRepository availableDateLockRepository;
+
+    @Autowired
+    private ReservationDayRepository reservationDayRepository;
+
+    @Autowired
+    private CampsiteManagerProperties properties;
+
+    private TestRestTemplate restTemplate = new TestRestTemplate();
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(new Query(), CampsiteReservation.class);
+        mongoTemplate.remove(new Query(), AvailableDateLock.class);
+        mongoTemplate.remove(new Query(), DateFence.class);
+        mongoTemplate.remove(new Query(), ReservationDay.class);
+        mongoTemplate.remove(new Query(), ReservationMonth.class);
+        mongoTemplate.remove(new Query(), IdempotencyRecord.class);
+        occupancyIndex.rebuild();
+    }
+
+    @Test
+    public void overlappingOperationsNeverDoubleBookANightNorLeaveALockBehind() {
+        final Map<String, User> owners = new ConcurrentHashMap<>();
+        final List<String> reservationIds = new CopyOnWriteArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+        final long start = System.nanoTime();
+        final List<Operation> history = IntStream.range(0, NB_THREADS)
+                .mapToObj(thread -> CompletableFuture.supplyAsync(() -> runOperations(thread, owners, reservationIds), executor))
+                .collect(toList()).stream()
+                .flatMap(operations -> operations.join().stream())
+                .collect(toList());
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        report(history, seconds);
+        final List<String> cancelledIds = succeeded(history, OperationType.CANCEL).map(operation -> operation.reservationId).collect(toList());
+        assertThat(cancelledIds).doesNotHaveDuplicates();
+        assertThat(history.stream().filter(operation -> operation.status != HttpStatus.OK && operation.status != HttpStatus.CONFLICT))
+                .allSatisfy(operation -> assertThat(cancelledIds).as("%s %s answered %s", operation.type, operation.reservationId, operation.status).contains(operation.reservationId));
+        assertThat(succeeded(history, OperationType.CREATE).count()).isPositive();
+
+        final List<CampsiteReservation> reservations = mongoTemplate.findAll(CampsiteReservation.class);
+        final List<LocalDate> reservedNights = reservations.stream()
+                .flatMap(reservation -> findLocalDateBetween(reservation.getStartDate(), reservation.getEndDate()).stream())
+                .collect(toList());
+        assertThat(reservedNights).doesNotHaveDuplicates();
+        final Map<String, Set<List<LocalDate>>> savedDates = savedDates(history);
+        cancelledIds.forEach(savedDates::remove);
+        assertThat(reservations.stream().map(CampsiteReservation::getId)).containsOnlyElementsOf(savedDates.keySet()).hasSameSizeAs(savedDates.keySet());
+        assertThat(reservations).allSatisfy(reservation -> assertThat(savedDates.get(reservation.getId())).as(reservation.getId()).contains(datesOf(reservation)));
+
+        assertThat(availableDateLockRepository.countHeldLocks()).isZero();
+        assertThat(mongoTemplate.count(new Query(), AvailableDateLock.class)).isZero();
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final LocalDate until = tomorrow.plusDays(NB_START_DATES + MAX_RESERVATION_DURATION);
+        assertThat(occupancyIndex.getReservedDatesBetween(DEFAULT_SITE_ID, tomorrow, until)).containsExactlyElementsOf(new TreeSet<>(reservedNights));
+        if (isClaimingNights()) {
+            assertThat(new TreeSet<>(reservationDayRepository.findClaimedDays(DEFAULT_SITE_ID, tomorrow, until))).containsExactlyElementsOf(new TreeSet<>(reservedNights));
+            final Set<String> expectedClaims = reservations.stream()
+                    .flatMap(reservation -> findLocalDateBetween(reservation.getStartDate(), reservation.getEndDate()).stream().map(night -> claimOf(night.toString(), reservation.getId())))
+                    .collect(toSet());
+            assertThat(findConfirmedClaims()).containsExactlyInAnyOrderElementsOf(expectedClaims);
+        }
+    }
+
+    /**
+     * Creates with the user of the thread, and moves or cancels any reservation created so far with the user of its
+     * owner, since only the dates of a reservation can change.
+     */
+    private List<Operation> runOperations(int thread, Map<String, User> owners, List<String> reservationIds) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final User user = User.builder().email(format("stress-%d@test.com", thread)).fullName(format("Stress Tester %d", thread)).build();
+        final List<Operation> operations = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+            final LocalDate startDate = LocalDate.now().plusDays(random.nextInt(1, NB_START_DATES + 1));
+            final int nights = random.nextInt(1, MAX_RESERVATION_DURATION + 1);
+            final int choice = random.nextInt(4);
+            final String id = pick(reservationIds, random);
+            if (id == null || choice < 2) {
+                final CampsiteReservation request = buildReservationRequest(startDate, nights, user);
+                final Operation operation = timed(OperationType.CREATE, null, request, () -> exchange("/campsite/reservation", HttpMethod.PUT, request));
+                if (operation.status == HttpStatus.OK) {
+                    operation.reservationId = operation.body;
+                    owners.put(operation.body, user);
+                    reservationIds.add(operation.body);
+                }
+                operations.add(operation);
+            } else if (choice == 2) {
+                final CampsiteReservation request = buildReservationRequest(startDate, nights, owners.get(id));
+                operations.add(timed(OperationType.MOVE, id, request, () -> exchange("/campsite/reservation/" + id, HttpMethod.POST, request)));
+            } else {
+                final Operation operation = timed(OperationType.CANCEL, id, null, () -> exchange("/campsite/reservation/" + id, HttpMethod.DELETE, null));
+                if (operation.status == HttpStatus.OK) {
+                    reservationIds.remove(id);
+                }
+                operations.add(operation);
+            }
+        }
+        return operations;
+    }
+
+    private static String pick(List<String> reservationIds, ThreadLocalRandom random) {
+        final String[] snapshot = reservationIds.toArray(new String[0]);
+        return snapshot.length == 0 ? null : snapshot[random.nextInt(snapshot.length)];
+    }
+
+    private Operation timed(OperationType type, String reservationId, CampsiteReservation request, Supplier<ResponseEntity<String>> call) {
+        final long start = System.nanoTime();
+        final ResponseEntity<String> response = call.get();
+        return new Operation(type, reservationId, request, response.getStatusCode(), response.getBody(), System.nanoTime() - start);
+    }
+
+    private ResponseEntity<String> exchange(String uri, HttpMethod method, CampsiteReservation body) {
+        return restTemplate.exchange("http://localhost:" + port + uri, method, new HttpEntity<>(body), String.class);
+    }
+
+    /**
+     * The dates each reservation was created or moved to, by the successful operations of any thread.
+     */
+    private static Map<String, Set<List<LocalDate>>> savedDates(List<Operation> history) {
+        final Map<String, Set<List<LocalDate>>> savedDates = new HashMap<>();
+        history.stream()
+                .filter(operation -> operation.status == HttpStatus.OK && operation.type != OperationType.CANCEL)
+                .forEach(operation -> savedDates.computeIfAbsent(operation.reservationId, id -> new HashSet<>()).add(datesOf(operation.request)));
+        return savedDates;
+    }
+
+    private static Stream<Operation> succeeded(List<Operation> history, OperationType type) {
+        return history.stream().filter(operation -> operation.type == type && operation.status == HttpStatus.OK);
+    }
+
+    /**
+     * The claims of the site, as night/reservation id. A claim still pending once every operation is done was left behind,
+     * so it fails the check.
+     */
+    private List<String> findConfirmedClaims() {
+        if (properties.getLock().getMode() == CampsiteManagerProperties.Lock.Mode.MONTH_BUCKETS) {
+            return mongoTemplate.find(Query.query(where("siteId").is(DEFAULT_SITE_ID)), ReservationMonth.class).stream()
+                    .filter(month -> month.getClaims() != null)
+                    .flatMap(month -> month.getClaims().entrySet().stream())
+                    .map(claim -> claim.getValue().getExpiresAt() == null ? claimOf(claim.getKey(), claim.getValue().getReservationId()) : "pending " + claim.getKey())
+                    .collect(toList());
+        }
+        return mongoTemplate.find(Query.query(where("siteId").is(DEFAULT_SITE_ID)), ReservationDay.class).stream()
+                .map(claim -> claim.isPending() ? "pending " + claim.getDay() : claimOf(claim.getDay(), claim.getReservationId()))
+                .collect(toList());
+    }
+
+    private static String claimOf(String night, String reservationId) {
+        return night + "/" + reservationId;
+    }
+
+    private static List<LocalDate> datesOf(CampsiteReservation reservation) {
+        final List<LocalDate> dates = new ArrayList<>();
+        dates.add(reservation.getStartDate());
+        dates.add(reservation.getEndDate());
+        return dates;
+    }
+
+    private boolean isClaimingNights() {
+        final CampsiteManagerProperties.Lock.Mode mode = properties.getLock().getMode();
+        return mode == CampsiteManagerProperties.Lock.Mode.CLAIMS || mode == CampsiteManagerProperties.Lock.Mode.MONTH_BUCKETS;
+    }
+
+    private void report(List<Operation> history, double seconds) {
+        System.out.println(format("%s: %d operations in %.1fs, %.1f operations/s", properties.getLock().getMode(), history.size(), seconds, history.size() / seconds));
+        final Map<OperationType, List<Operation>> byType = history.stream().collect(groupingBy(operation -> operation.type, () -> new EnumMap<>(OperationType.class), toList()));
+        byType.forEach((type, operations) -> {
+            final long[] latencies = operations.stream().mapToLong(operation -> operation.nanos).sorted().toArray();
+            final long succeeded = operations.stream().filter(operation -> operation.status == HttpStatus.OK).count();
+            System.out.println(format("%-6s %5d (%5d succeeded) p50 %6.1fms p99 %6.1fms", type, operations.size(), succeeded, percentile(latencies, 50), percentile(latencies, 99)));
+        });
+    }
+
+    private static double percentile(long[] sortedNanos, int percentile) {
+        final int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(index, 0)] / 1e6;
+    }
+
+    private static final class Operation {
+
+        private final OperationType type;
+        private String reservationId;
+        private final CampsiteReservation request;
+        private final HttpStatus status;
+        private final String body;
+        private final long nanos;
+
+        private Operation(OperationType type, String reservationId, CampsiteReservation request, HttpStatus status, String body, long nanos) {
+            this.type = type;
+            this.reservationId = reservationId;
+            this.request = request;
+            this.status = status;
+            this.body = body;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package gingrasf.campsiteManager;
+
+
+import gingrasf.campsiteManager.model.AvailableDateLock;
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.persistence.AvailableDateLockRepository;
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import gingrasf.campsiteManager.persistence.MongoConcurrencySafeRepository;
+import gingrasf.campsiteManager.persistence.StripedDateLockRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.TestUtil.buildValidUser;
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the reservation throughput of the Mongo and in-process date locks, and of the single writer sequencer. Every successful reservation is deleted
+ * right away so the campsite stays mostly free and the threads keep contending for the same days.
+ *
+ * This is not part of the regular test run, use mvn test -Dtest=ReservationThroughputBenchmark to run it.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class ReservationThroughputBenchmark {
+
+    private static final int NB_THREADS = 8;
+    private static final int ATTEMPTS_PER_THREAD = 250;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CampsiteRepository campsiteRepository;
+
+    @Autowired
+    private CampsiteMetrics campsiteMetrics;
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(new Query(), CampsiteReservation.class);
+        mongoTemplate.remove(new Query(), AvailableDateLock.class);
+    }
+
+    @Test
+    public void compareReservationThroughput() {
+        final MongoConcurrencySafeRepository mongoLocks = new MongoConcurrencySafeRepository(Duration.ofSeconds(30));
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(mongoLocks);
+        final StripedDateLockRepository inProcessLocks = new StripedDateLockRepository(64, Duration.ofMillis(500));
+        final OccupancyIndex sequencedOccupancy = new OccupancyIndex(campsiteRepository);
+        final ReservationSequencer sequencer = new ReservationSequencer(campsiteRepository, sequencedOccupancy, 1024, 128, Duration.ofMillis(500));
+        final CampsiteService sequencedService = new CampsiteService(campsiteRepository, sequencer, new CampsiteReservationValidator(), sequencedOccupancy, campsiteMetrics);
+
+        // First round of each only warms up the JIT and the connection pool
+        run("mongo", lockingService(mongoLocks));
+        run("in-process", lockingService(inProcessLocks));
+        run("sequencer", sequencedService);
+        final double mongoThroughput = run("mongo", lockingService(mongoLocks));
+        final double inProcessThroughput = run("in-process", lockingService(inProcessLocks));
+        final double sequencerThroughput = run("sequencer", sequencedService);
+        sequencer.shutdown();
+
+        System.out.println(format("in-process locks: %.1fx the throughput of the mongo locks", inProcessThroughput / mongoThroughput));
+        System.out.println(format("sequencer: %.1fx the throughput of the mongo locks", sequencerThroughput / mongoThroughput));
+        assertThat(campsiteRepository.count()).isZero();
+        assertThat(mongoTemplate.count(new Query(), AvailableDateLock.class)).isZero();
+    }
+
+    private CampsiteService lockingService(AvailableDateLockRepository locks) {
+        return new CampsiteService(campsiteRepository, locks, new CampsiteReservationValidator(), new OccupancyIndex(campsiteRepository), campsiteMetrics);
+    }
+
+    private double run(String name, CampsiteService service) {
+        final AtomicInteger reserved = new AtomicInteger();
+        final AtomicInteger conflicts = new AtomicInteger();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+        final long start = System.nanoTime();
+        CompletableFuture.allOf(IntStream.range(0, NB_THREADS)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> reserveAndCancel(service, reserved, conflicts), executor))
+                .toArray(CompletableFuture[]::new)).join();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        final double throughput = NB_THREADS * ATTEMPTS_PER_THREAD / seconds;
+        System.out.println(format("%-10s %8.1f attempts/s (%d reserved, %d conflicts)", name, throughput, reserved.get(), conflicts.get()));
+        return throughput;
+    }
+
+    private void reserveAndCancel(CampsiteService service, AtomicInteger reserved, AtomicInteger conflicts) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < ATTEMPTS_PER_THREAD; i++) {
+            final LocalDate startDate = LocalDate.now().plusDays(random.nextInt(1, 28));
+            try {
+                final CampsiteReservation reservation = service.createReservation(DEFAULT_SITE_ID, buildValidUser(), startDate, startDate.plusDays(random.nextInt(1, 4)));
+                reserved.incrementAndGet();
+                service.deleteReservation(DEFAULT_SITE_ID, reservation.getId());
+            } catch (CampsiteReservationConflictException e) {
+                conflicts.incrementAndGet();
+            }
+        }
+    }
+}
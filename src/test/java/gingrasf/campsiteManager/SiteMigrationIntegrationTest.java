@@ -0,0 +1,75 @@
+package gingrasf.campsiteManager;
+
+
+import gingrasf.campsiteManager.model.AvailableDateLock;
+import gingrasf.campsiteManager.model.CampsiteReservation;
+import gingrasf.campsiteManager.model.ReservationDay;
+import gingrasf.campsiteManager.persistence.CampsiteRepository;
+import gingrasf.campsiteManager.persistence.SiteMigration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+import java.util.Date;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static gingrasf.campsiteManager.TestUtil.buildValidUser;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class)
+public class SiteMigrationIntegrationTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CampsiteRepository campsiteRepository;
+
+    @Autowired
+    private SiteMigration siteMigration;
+
+    private final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+    @Before
+    public void setup() {
+        mongoTemplate.remove(new Query(), CampsiteReservation.class);
+        mongoTemplate.remove(new Query(), AvailableDateLock.class);
+        mongoTemplate.remove(new Query(), ReservationDay.class);
+    }
+
+    @Test
+    public void testReservationStoredWithoutASiteIsMovedToTheDefaultSite() {
+        mongoTemplate.save(CampsiteReservation.builder().id("reservation").user(buildValidUser()).startDate(tomorrow).endDate(tomorrow.plusDays(2)).build());
+        mongoTemplate.save(ReservationDay.builder().day(tomorrow.toString()).reservationId("reservation").build());
+
+        siteMigration.run();
+
+        assertThat(campsiteRepository.findOverlapping(DEFAULT_SITE_ID, tomorrow, tomorrow.plusDays(1))).extracting(CampsiteReservation::getId).containsExactly("reservation");
+        assertThat(mongoTemplate.findOne(new Query(), ReservationDay.class).getSiteId()).isEqualTo(DEFAULT_SITE_ID);
+    }
+
+    @Test
+    public void testSingleSiteUniqueIndexesAreDropped() {
+        mongoTemplate.indexOps(AvailableDateLock.class).ensureIndex(new Index().on("date", Sort.Direction.ASC).unique().named("date"));
+        mongoTemplate.indexOps(ReservationDay.class).ensureIndex(new Index().on("day", Sort.Direction.ASC).unique().named("day"));
+
+        siteMigration.run();
+        siteMigration.run();
+
+        assertThat(mongoTemplate.indexOps(AvailableDateLock.class).getIndexInfo()).extracting(IndexInfo::getName).doesNotContain("date");
+        assertThat(mongoTemplate.indexOps(ReservationDay.class).getIndexInfo()).extracting(IndexInfo::getName).doesNotContain("day");
+        mongoTemplate.insert(AvailableDateLock.builder().siteId(DEFAULT_SITE_ID).date(tomorrow.toString()).owner("owner").expiresAt(new Date()).build());
+        mongoTemplate.insert(AvailableDateLock.builder().siteId("site-1").date(tomorrow.toString()).owner("owner").expiresAt(new Date()).build());
+        assertThat(mongoTemplate.count(new Query(), AvailableDateLock.class)).isEqualTo(2);
+    }
+}
@@ -0,0 +1,97 @@
+package gingrasf.campsiteManager;
+
+import gingrasf.campsiteManager.model.DateLease;
+import gingrasf.campsiteManager.persistence.StripedDateLockRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StripedDateLockRepositoryTest {
+
+    private static final Duration TIMEOUT = Duration.ofMillis(50);
+
+    StripedDateLockRepository repository;
+
+    @Before
+    public void setup() {
+        repository = new StripedDateLockRepository(64, TIMEOUT);
+    }
+
+    @Test
+    public void whenADateIsLockedByAnotherThreadTheConflictIsReportedAndNothingIsLocked() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        repository.lockDates(DEFAULT_SITE_ID, singletonList(tomorrow.plusDays(1)), "first-owner");
+
+        final DateLease lease = CompletableFuture.supplyAsync(() -> repository.lockDates(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1), tomorrow.plusDays(2)), "second-owner")).join();
+
+        assertThat(lease.isAcquired()).isFalse();
+        assertThat(lease.getConflictingDates()).containsExactly(tomorrow.plusDays(1));
+        assertThat(repository.lockDates(DEFAULT_SITE_ID, singletonList(tomorrow), "third-owner").isAcquired()).isTrue();
+    }
+
+    @Test
+    public void whenTheDatesAreFreedTheyCanBeLockedAgain() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final DateLease lease = repository.lockDates(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "owner");
+        assertThat(repository.isHeld(lease)).isTrue();
+
+        repository.freeDates(DEFAULT_SITE_ID, lease.getDates(), "owner");
+
+        assertThat(repository.isHeld(lease)).isFalse();
+        assertThat(CompletableFuture.supplyAsync(() -> repository.lockDates(DEFAULT_SITE_ID, lease.getDates(), "other-owner").isAcquired()).join()).isTrue();
+    }
+
+    @Test
+    public void whenLocksAreHeldEachStripeIsCountedUntilFreed() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final DateLease lease = repository.lockDates(DEFAULT_SITE_ID, asList(tomorrow, tomorrow.plusDays(1)), "owner");
+        assertThat(repository.countHeldLocks()).isEqualTo(2);
+
+        repository.freeDates(DEFAULT_SITE_ID, singletonList(tomorrow), "owner");
+        assertThat(repository.countHeldLocks()).isEqualTo(1);
+
+        repository.freeDates(DEFAULT_SITE_ID, lease.getDates(), "owner");
+        assertThat(repository.countHeldLocks()).isZero();
+    }
+
+    @Test
+    public void whenFreeingDatesOfSomeoneElseTheLeaseIsStillHeld() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final DateLease lease = repository.lockDates(DEFAULT_SITE_ID, singletonList(tomorrow), "owner");
+
+        repository.freeDates(DEFAULT_SITE_ID, lease.getDates(), "someone-else");
+
+        assertThat(repository.isHeld(lease)).isTrue();
+    }
+
+    @Test
+    public void whenLockingDatesTheFencingTokenIncreases() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        final DateLease first = repository.lockDates(DEFAULT_SITE_ID, singletonList(tomorrow), "first-owner");
+        repository.freeDates(DEFAULT_SITE_ID, first.getDates(), "first-owner");
+
+        final DateLease second = repository.lockDates(DEFAULT_SITE_ID, singletonList(tomorrow), "second-owner");
+
+        assertThat(second.getFencingToken()).isGreaterThan(first.getFencingToken());
+        assertThat(repository.isHeld(first)).isFalse();
+    }
+
+    @Test
+    public void whenADateIsLockedOnAnotherSiteItCanStillBeLocked() {
+        final LocalDate tomorrow = LocalDate.now().plusDays(1);
+        repository.lockDates("site-1", singletonList(tomorrow), "first-owner");
+
+        final DateLease lease = CompletableFuture.supplyAsync(() -> repository.lockDates("site-2", singletonList(tomorrow), "second-owner")).join();
+
+        assertThat(lease.isAcquired()).isTrue();
+        assertThat(lease.getSiteId()).isEqualTo("site-2");
+    }
+}
@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
 
+import static gingrasf.campsiteManager.CampsiteService.DEFAULT_SITE_ID;
 import static java.time.temporal.ChronoUnit.DAYS;
 import static java.util.Arrays.asList;
 
@@ -18,11 +19,11 @@ public final class TestUtil {
 
     public static List<CampsiteReservation> generateOneDayReservationsBetween(LocalDate start, LocalDate end) {
         final long nbOfDays = DAYS.between(start, end);
-        return LongStream.range(0, nbOfDays).mapToObj(offset -> CampsiteReservation.builder().id("test-id-" + offset).user(buildValidUser()).startDate(start.plusDays(offset)).endDate(start.plusDays(offset + 1)).build()).collect(Collectors.toList());
+        return LongStream.range(0, nbOfDays).mapToObj(offset -> CampsiteReservation.builder().id("test-id-" + offset).siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(start.plusDays(offset)).endDate(start.plusDays(offset + 1)).build()).collect(Collectors.toList());
     }
 
     public static List<CampsiteReservation> generateMultiDayReservation(LocalDate start, int nbOfDays) {
-        return asList(CampsiteReservation.builder().id("test-id-multi").user(buildValidUser()).startDate(start).endDate(start.plusDays(nbOfDays)).build());
+        return asList(CampsiteReservation.builder().id("test-id-multi").siteId(DEFAULT_SITE_ID).user(buildValidUser()).startDate(start).endDate(start.plusDays(nbOfDays)).build());
     }
 
     public static User buildValidUser() {